@@ -0,0 +1,61 @@
+/*
+ * Owl Platform Command Line Browser
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.wmbrowse.cli;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the standard JMH command line, adding the GC
+ * profiler when no other profiler is given so that every run reports
+ * allocation rates alongside throughput.
+ * 
+ * @author Robert Moore
+ */
+public class BenchmarkRunner {
+
+  /**
+   * Runs the benchmarks.
+   * 
+   * @param args
+   *          JMH command-line options, for example a benchmark name regular
+   *          expression or {@code -p size=64}.
+   * @throws Exception
+   *           if the options are invalid or a benchmark fails to run.
+   */
+  public static void main(String[] args) throws Exception {
+    CommandLineOptions cmdLine = new CommandLineOptions(args);
+    if (cmdLine.shouldHelp()) {
+      cmdLine.showHelp();
+      return;
+    }
+    if (cmdLine.shouldList()) {
+      new Runner(cmdLine).list();
+      return;
+    }
+    OptionsBuilder options = new OptionsBuilder();
+    options.parent(cmdLine);
+    if (cmdLine.getProfilers().isEmpty()) {
+      options.addProfiler(GCProfiler.class);
+    }
+    new Runner(options.build()).run();
+  }
+}
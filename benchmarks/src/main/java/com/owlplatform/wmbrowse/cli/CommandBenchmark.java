@@ -0,0 +1,173 @@
+/*
+ * Owl Platform Command Line Browser
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.wmbrowse.cli;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the path every command line takes before it reaches the world
+ * model: splitting it into the command name and arguments, and dispatching
+ * it to a handler.
+ * 
+ * @author Robert Moore
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandBenchmark {
+
+  /**
+   * A status command line with {@code size} Identifier arguments, every other
+   * one quoted.
+   */
+  @State(Scope.Thread)
+  public static class Line {
+
+    /**
+     * Number of arguments on the command line.
+     */
+    @Param({ "1", "8", "64" })
+    public int size;
+
+    /**
+     * The whole command line.
+     */
+    String line;
+
+    /**
+     * The arguments of {@link #line}.
+     */
+    String arguments;
+
+    /**
+     * Builds the command line.
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+      StringBuilder args = new StringBuilder();
+      for (int i = 0; i < this.size; ++i) {
+        if (i > 0) {
+          args.append(' ');
+        }
+        if (i % 2 == 0) {
+          args.append("^building1\\.room").append(i).append("\\..*");
+        } else {
+          args.append("\"^building 2\\.room").append(i).append("$\"");
+        }
+      }
+      this.arguments = args.toString();
+      this.line = Browser.CMD_STATUS + " " + this.arguments;
+    }
+  }
+
+  /**
+   * An unconnected browser and a command that it completes locally.
+   */
+  @State(Scope.Thread)
+  public static class Dispatch {
+
+    /**
+     * The command to dispatch. None of them needs a world model connection.
+     */
+    @Param({ "stats", "cache stats", "nosuchcommand" })
+    public String command;
+
+    /**
+     * The browser to dispatch to.
+     */
+    Browser browser;
+
+    /**
+     * Standard output, restored after the benchmark.
+     */
+    private PrintStream stdout;
+
+    /**
+     * Creates the browser and silences the output of the command.
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+      this.browser = new Browser("localhost", "benchmark", -1, -1);
+      this.stdout = System.out;
+      System.setOut(new PrintStream(new NullOutputStream()));
+    }
+
+    /**
+     * Restores standard output.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+      System.setOut(this.stdout);
+    }
+  }
+
+  /**
+   * Splits a command's arguments.
+   * 
+   * @param state
+   *          the command line.
+   * @return the arguments.
+   */
+  @Benchmark
+  public List<String> tokenize(final Line state) {
+    return ParsedCommand.tokenize(state.arguments);
+  }
+
+  /**
+   * Splits a whole line into the command name and its arguments, as every
+   * command does.
+   * 
+   * @param state
+   *          the command line.
+   * @return the parsed command.
+   */
+  @Benchmark
+  public ParsedCommand parseLine(final Line state) {
+    return ParsedCommand.parse(state.line);
+  }
+
+  /**
+   * Dispatches a command that completes locally.
+   * 
+   * @param state
+   *          the browser and command.
+   */
+  @Benchmark
+  public void dispatch(final Dispatch state) {
+    state.browser.handleCommand(state.command);
+  }
+}
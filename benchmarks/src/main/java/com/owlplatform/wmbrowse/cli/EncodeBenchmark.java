@@ -0,0 +1,128 @@
+/*
+ * Owl Platform Command Line Browser
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.wmbrowse.cli;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.owlplatform.worldmodel.types.DataConverter;
+
+/**
+ * Benchmarks {@link DataConverter#encode(String, String)}, which the
+ * {@code update} command and the bulk ingester call for every value, for each
+ * supported type. Type names are matched to
+ * {@link DataConverter#getSupportedTypes()} ignoring case; other types can be
+ * benchmarked with {@code -p type=NAME}. String values are {@code size}
+ * characters long; other types use a fixed sample value.
+ * 
+ * @author Robert Moore
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodeBenchmark {
+
+  /**
+   * The type to encode.
+   */
+  @Param({ "boolean", "integer", "long", "double", "string" })
+  public String type;
+
+  /**
+   * Length of string values.
+   */
+  @Param({ "16", "1024" })
+  public int size;
+
+  /**
+   * Attribute name mapped to {@link #type}.
+   */
+  private String attribute;
+
+  /**
+   * The value to encode.
+   */
+  private String value;
+
+  /**
+   * Maps an Attribute name to the type and picks a sample value for it.
+   */
+  @Setup(Level.Trial)
+  public void setup() {
+    String[] supported = DataConverter.getSupportedTypes();
+    String typeName = null;
+    for (String candidate : supported) {
+      if (candidate.equalsIgnoreCase(this.type)) {
+        typeName = candidate;
+        break;
+      }
+    }
+    if (typeName == null) {
+      throw new IllegalArgumentException("Unsupported type \"" + this.type
+          + "\". Supported types are " + Arrays.toString(supported) + ".");
+    }
+    this.attribute = "benchmark." + typeName;
+    DataConverter.putConverter(this.attribute, typeName);
+
+    String lower = this.type.toLowerCase();
+    if (lower.startsWith("bool")) {
+      this.value = "true";
+    } else if (lower.startsWith("double") || lower.startsWith("float")) {
+      this.value = "-74.4431234";
+    } else if (lower.startsWith("string")) {
+      StringBuilder sb = new StringBuilder(this.size);
+      for (int i = 0; i < this.size; ++i) {
+        sb.append((char) ('a' + i % 26));
+      }
+      this.value = sb.toString();
+    } else {
+      this.value = "1234567";
+    }
+    if (DataConverter.encode(this.attribute, this.value) == null) {
+      throw new IllegalArgumentException("Unable to encode \"" + this.value
+          + "\" as " + typeName + ".");
+    }
+  }
+
+  /**
+   * Encodes the value.
+   * 
+   * @return the encoded value.
+   */
+  @Benchmark
+  public byte[] encode() {
+    return DataConverter.encode(this.attribute, this.value);
+  }
+}
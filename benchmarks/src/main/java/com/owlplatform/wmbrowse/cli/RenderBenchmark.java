@@ -0,0 +1,150 @@
+/*
+ * Owl Platform Command Line Browser
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.wmbrowse.cli;
+
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.owlplatform.worldmodel.Attribute;
+import com.owlplatform.worldmodel.client.WorldState;
+
+/**
+ * Benchmarks rendering a {@link WorldState} of {@code size} Identifiers with
+ * {@value #ATTRIBUTES} Attribute values each, through
+ * {@link Browser#printState(WorldState)} and through {@link ResultFormatter}
+ * in each of its formats. Output is discarded.
+ * 
+ * @author Robert Moore
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark {
+
+  /**
+   * Number of Attribute values of each Identifier.
+   */
+  public static final int ATTRIBUTES = 8;
+
+  /**
+   * Number of Identifiers in the state.
+   */
+  @Param({ "10", "1000" })
+  public int size;
+
+  /**
+   * Output format for {@link #format()}.
+   */
+  @Param({ "TEXT", "JSONL", "CSV" })
+  public String format;
+
+  /**
+   * The state to render.
+   */
+  private WorldState state;
+
+  /**
+   * Formatter writing to a discarding stream.
+   */
+  private ResultFormatter formatter;
+
+  /**
+   * Standard output, restored after the benchmark.
+   */
+  private PrintStream stdout;
+
+  /**
+   * Builds the state and silences standard output.
+   */
+  @Setup(Level.Trial)
+  public void setup() {
+    this.state = new WorldState();
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < this.size; ++i) {
+      String id = "building1.room" + i + ".sensor";
+      Collection<Attribute> attribs = new ArrayList<Attribute>(ATTRIBUTES);
+      for (int j = 0; j < ATTRIBUTES; ++j) {
+        Attribute attr = new Attribute();
+        attr.setId(id);
+        attr.setAttributeName("attribute" + j);
+        attr.setOriginName("benchmark");
+        attr.setCreationDate(now - j * 1000l);
+        attr.setExpirationDate(0);
+        byte[] data = new byte[16];
+        for (int k = 0; k < data.length; ++k) {
+          data[k] = (byte) (i + j + k);
+        }
+        attr.setData(data);
+        attribs.add(attr);
+      }
+      this.state.addState(id, attribs);
+    }
+    this.formatter = new ResultFormatter(
+        ResultFormatter.Format.parse(this.format), new PrintWriter(
+            new OutputStreamWriter(new NullOutputStream()), false));
+    this.stdout = System.out;
+    System.setOut(new PrintStream(new NullOutputStream()));
+  }
+
+  /**
+   * Restores standard output.
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    System.setOut(this.stdout);
+  }
+
+  /**
+   * Renders the state the way the interactive commands always have.
+   */
+  @Benchmark
+  public void printState() {
+    Browser.printState(this.state);
+  }
+
+  /**
+   * Renders the state through a result formatter.
+   */
+  @Benchmark
+  public void format() {
+    this.formatter.state("^building1\\..*", this.state);
+    this.formatter.flush();
+  }
+}
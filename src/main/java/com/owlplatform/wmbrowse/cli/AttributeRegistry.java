@@ -0,0 +1,150 @@
+/*
+ * Owl Platform Command Line Browser
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.wmbrowse.cli;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.owlplatform.worldmodel.Attribute;
+import com.owlplatform.worldmodel.solver.SolverWorldConnection;
+import com.owlplatform.worldmodel.solver.protocol.messages.AttributeAnnounceMessage.AttributeSpecification;
+
+/**
+ * Keeps track of the Attribute names announced on a solver connection so that
+ * each name is only announced once per session. If the connection is
+ * re-established, every known name is announced again before the next new
+ * name, or immediately by calling {@link #reannounce()}.
+ * 
+ * @author Robert Moore
+ */
+public class AttributeRegistry {
+
+  /**
+   * The solver connection that Attributes are announced on.
+   */
+  private final SolverWorldConnection swc;
+
+  /**
+   * Attribute names announced so far, in the order they were announced.
+   */
+  private final Set<String> announced = new LinkedHashSet<String>();
+
+  /**
+   * Whether the connection was seen to be down since the last announcement.
+   */
+  private boolean connectionLost = false;
+
+  /**
+   * Creates a new, empty registry for a solver connection.
+   * 
+   * @param swc
+   *          the solver connection to announce Attributes on.
+   */
+  public AttributeRegistry(final SolverWorldConnection swc) {
+    this.swc = swc;
+  }
+
+  /**
+   * Announces an Attribute name if it has not already been announced.
+   * 
+   * @param attributeName
+   *          the Attribute name.
+   */
+  public synchronized void announce(final String attributeName) {
+    this.checkConnection();
+    if (this.announced.add(attributeName)) {
+      this.send(attributeName);
+    }
+  }
+
+  /**
+   * Announces every name in {@code attributeNames} that has not already been
+   * announced. Intended to be called once before a batch of values is sent.
+   * 
+   * @param attributeNames
+   *          the Attribute names.
+   */
+  public synchronized void announceAll(final Collection<String> attributeNames) {
+    for (String name : attributeNames) {
+      this.announce(name);
+    }
+  }
+
+  /**
+   * Announces the names of every Attribute in {@code attributes} that have not
+   * already been announced.
+   * 
+   * @param attributes
+   *          the Attribute values that are about to be sent.
+   */
+  public synchronized void announceFor(final Collection<Attribute> attributes) {
+    for (Attribute attr : attributes) {
+      this.announce(attr.getAttributeName());
+    }
+  }
+
+  /**
+   * Announces every previously-announced name again. Should be called after
+   * the solver connection has been re-established.
+   */
+  public synchronized void reannounce() {
+    this.connectionLost = false;
+    for (String name : this.announced) {
+      this.send(name);
+    }
+  }
+
+  /**
+   * Re-announces every known name if the connection has come back up since
+   * it was last seen to be down.
+   */
+  private void checkConnection() {
+    if (!this.swc.isConnectionLive()) {
+      this.connectionLost = true;
+    } else if (this.connectionLost) {
+      this.reannounce();
+    }
+  }
+
+  /**
+   * Returns the Attribute names announced so far.
+   * 
+   * @return an unmodifiable copy of the announced names.
+   */
+  public synchronized List<String> getAnnounced() {
+    return Collections.unmodifiableList(new ArrayList<String>(this.announced));
+  }
+
+  /**
+   * Sends an announcement for a single Attribute name.
+   * 
+   * @param attributeName
+   *          the Attribute name.
+   */
+  private void send(final String attributeName) {
+    AttributeSpecification spec = new AttributeSpecification();
+    spec.setAttributeName(attributeName);
+    spec.setIsOnDemand(false);
+    this.swc.addAttribute(spec);
+  }
+}
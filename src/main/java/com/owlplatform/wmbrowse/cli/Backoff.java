@@ -0,0 +1,86 @@
+/*
+ * Owl Platform Command Line Browser
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.wmbrowse.cli;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff with jitter. Each delay is drawn at random between
+ * half and all of a ceiling that starts at the initial delay and doubles
+ * after every attempt up to the maximum, so that many clients reconnecting
+ * to a restarted world model do not retry in lockstep.
+ *
+ * @author Robert Moore
+ */
+class Backoff {
+
+  /**
+   * First ceiling, in milliseconds.
+   */
+  private final long initial;
+
+  /**
+   * Largest ceiling, in milliseconds.
+   */
+  private final long max;
+
+  /**
+   * Source of the jitter.
+   */
+  private final Random random = new Random();
+
+  /**
+   * Current ceiling, in milliseconds.
+   */
+  private long ceiling;
+
+  /**
+   * Creates a new backoff.
+   *
+   * @param initial
+   *          the first ceiling, in milliseconds.
+   * @param max
+   *          the largest ceiling, in milliseconds.
+   */
+  Backoff(final long initial, final long max) {
+    this.initial = Math.max(1, initial);
+    this.max = Math.max(this.initial, max);
+    this.ceiling = this.initial;
+  }
+
+  /**
+   * Returns the next delay and doubles the ceiling.
+   *
+   * @return the delay, in milliseconds.
+   */
+  long next() {
+    long half = this.ceiling / 2;
+    long delay = half
+        + (long) (this.random.nextDouble() * (this.ceiling - half));
+    this.ceiling = Math.min(this.max, this.ceiling * 2);
+    return delay;
+  }
+
+  /**
+   * Starts again from the initial ceiling.
+   */
+  void reset() {
+    this.ceiling = this.initial;
+  }
+}
@@ -19,6 +19,7 @@
 package com.owlplatform.wmbrowse.cli;
 
 import java.io.BufferedReader;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
@@ -26,18 +27,14 @@ import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ExecutionException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.owlplatform.wmbrowse.cli.WritePipeline.WriteRequest;
 import com.owlplatform.worldmodel.Attribute;
-import com.owlplatform.worldmodel.client.ClientWorldConnection;
-import com.owlplatform.worldmodel.client.StepResponse;
 import com.owlplatform.worldmodel.client.WorldState;
-import com.owlplatform.worldmodel.solver.SolverWorldConnection;
-import com.owlplatform.worldmodel.solver.protocol.messages.AttributeAnnounceMessage.AttributeSpecification;
 import com.owlplatform.worldmodel.types.DataConverter;
 
 /**
@@ -134,6 +131,12 @@ public class BatchUpdater extends Thread {
    */
   public static final String CMD_COPY = "cp";
 
+  /**
+   * Flag for {@code cp} that copies the whole history instead of the current
+   * state.
+   */
+  public static final String FLAG_RECURSIVE = "-r";
+
   /**
    * Message to print that contains all commands and brief descriptions.
    */
@@ -150,6 +153,34 @@ public class BatchUpdater extends Thread {
       + "  a new Identifier value\n" + "quit - Exit the application\n"
       + "exit - Exit the application";
 
+  /**
+   * Command-line flag that names a delimited file to ingest instead of
+   * prompting for values.
+   */
+  public static final String FLAG_INGEST = "-i";
+
+  /**
+   * Command-line flag for the number of values sent per update when
+   * ingesting.
+   */
+  public static final String FLAG_BATCH_SIZE = "-b";
+
+  /**
+   * Command-line flag for the field delimiter when ingesting.
+   */
+  public static final String FLAG_DELIMITER = "-d";
+
+  /**
+   * Command-line flag that assigns a data type to an Attribute name, in the
+   * form ATTRIBUTE=TYPE.
+   */
+  public static final String FLAG_TYPE = "-t";
+
+  /**
+   * Ingest file name that means "read rows from standard input".
+   */
+  public static final String INGEST_STDIN = "-";
+
   /**
    * Expects a server hostname/IP and origin value. Optionally provides the
    * solver and client port numbers, respectively.
@@ -161,9 +192,61 @@ public class BatchUpdater extends Thread {
    *          <li>(<em>Optional</em>) solver port</li>
    *          <li>(<em>Optional</em>) client port</li>
    *          </ol>
+   *          followed by any of the ingest options {@code -i FILE},
+   *          {@code -b BATCH_SIZE}, {@code -d DELIMITER}, and
+   *          {@code -t ATTRIBUTE=TYPE}.
    */
   public static void main(String[] args) {
     System.out.println(ABOUT_TXT);
+
+    String ingestFile = null;
+    int batchSize = BulkIngester.DEFAULT_BATCH_SIZE;
+    Character delimiter = null;
+    List<String> positional = new ArrayList<String>();
+    for (int i = 0; i < args.length; ++i) {
+      String arg = args[i];
+      if (FLAG_INGEST.equals(arg) || FLAG_BATCH_SIZE.equals(arg)
+          || FLAG_DELIMITER.equals(arg) || FLAG_TYPE.equals(arg)) {
+        if (i + 1 >= args.length) {
+          System.out.println("Missing value after " + arg + ".");
+          return;
+        }
+        String value = args[++i];
+        if (FLAG_INGEST.equals(arg)) {
+          ingestFile = value;
+        } else if (FLAG_BATCH_SIZE.equals(arg)) {
+          try {
+            batchSize = Integer.parseInt(value);
+          } catch (NumberFormatException nfe) {
+            System.out.println("Unable to parse " + value
+                + " as a batch size.");
+            return;
+          }
+        } else if (FLAG_DELIMITER.equals(arg)) {
+          if ("tab".equalsIgnoreCase(value) || "\\t".equals(value)) {
+            delimiter = Character.valueOf('\t');
+          } else if (value.length() == 1) {
+            delimiter = Character.valueOf(value.charAt(0));
+          } else {
+            System.out.println("Invalid delimiter \"" + value + "\".");
+            return;
+          }
+        } else {
+          int split = value.indexOf('=');
+          if (split < 1 || split == value.length() - 1) {
+            System.out.println("Invalid type mapping \"" + value
+                + "\". Expected ATTRIBUTE=TYPE.");
+            return;
+          }
+          DataConverter.putConverter(value.substring(0, split),
+              value.substring(split + 1));
+        }
+      } else {
+        positional.add(arg);
+      }
+    }
+    args = positional.toArray(new String[positional.size()]);
+
     if (args.length < 1) {
       System.out.println("Missing world model hostname/IP address.");
       return;
@@ -201,18 +284,20 @@ public class BatchUpdater extends Thread {
     }
 
     BatchUpdater b = new BatchUpdater(wmHost, origin, solverPort, clientPort);
+    if (ingestFile != null) {
+      if (delimiter == null) {
+        delimiter = Character.valueOf(ingestFile.toLowerCase().endsWith(
+            ".tsv") ? '\t' : ',');
+      }
+      b.setIngest(ingestFile, batchSize, delimiter.charValue());
+    }
     b.start();
   }
 
   /**
-   * Client connection to the world model.
+   * Connections to the world model and the operations made over them.
    */
-  private final ClientWorldConnection cwc = new ClientWorldConnection();
-
-  /**
-   * Solver connection to the world model.
-   */
-  private final SolverWorldConnection swc = new SolverWorldConnection();
+  private final WorldModelSession session;
 
   /**
    * Flag to keep running the main application loop.
@@ -224,6 +309,11 @@ public class BatchUpdater extends Thread {
    */
   private BufferedReader userIn;
 
+  /**
+   * Handlers of the commands, by name.
+   */
+  private final CommandTable commands = new CommandTable();
+
   /**
    * The host name/IP address of the world model.
    */
@@ -239,6 +329,16 @@ public class BatchUpdater extends Thread {
    */
   private String currentPrompt = PROMPT;
 
+  /**
+   * File of rows to ingest, or {@code null} to prompt the user for values.
+   */
+  private String ingestFile = null;
+
+  /**
+   * Field delimiter of the ingest file.
+   */
+  private char ingestDelimiter = ',';
+
   /**
    * Constructs a new Browser object using the hostname, solver port, and client
    * port values. If either the solver port or client port values are &lt; 0,
@@ -256,70 +356,56 @@ public class BatchUpdater extends Thread {
    */
   public BatchUpdater(final String wmHost, final String origin,
       final int solverPort, final int clientPort) {
-    this.cwc.setHost(wmHost);
-    this.swc.setHost(wmHost);
-    this.swc.setOriginString(origin);
-    if (solverPort >= 0) {
-      this.swc.setPort(solverPort);
-    }
-    if (clientPort >= 0) {
-      this.cwc.setPort(clientPort);
-    }
+    this.session = new WorldModelSession(wmHost, origin, solverPort,
+        clientPort);
 
     this.hostString = wmHost;
     this.origin = origin;
     this.currentPrompt = "[" + origin + "@" + this.hostString + "]" + PROMPT;
 
     this.userIn = new BufferedReader(new InputStreamReader(System.in));
+    this.registerCommands();
+  }
+
+  /**
+   * Switches this updater to ingest rows from a delimited file instead of
+   * prompting the user. Must be called before the updater is started.
+   * 
+   * @param file
+   *          the file to read, or {@link #INGEST_STDIN} for standard input.
+   * @param batchSize
+   *          the number of values sent per update.
+   * @param delimiter
+   *          the field delimiter.
+   */
+  public void setIngest(final String file, final int batchSize,
+      final char delimiter) {
+    this.ingestFile = file;
+    this.ingestDelimiter = delimiter;
+    this.session.configureWrites(WritePipeline.DEFAULT_QUEUE_SIZE, batchSize,
+        WritePipeline.DEFAULT_LINGER_TIME);
   }
 
   @Override
   public void run() {
-
-    // Client connection
-    System.out.print("[Connecting to " + this.cwc + "...");
-    if (!this.cwc.connect(10000)) {
-      System.out.println("FAIL]");
-      return;
-    }
-    int waitingTimes = 0;
-    while (!this.cwc.isConnected() && waitingTimes++ < 20) {
-      try {
-        Thread.sleep(500);
-      } catch (InterruptedException ie) {
-        // Ignored
+    if (this.ingestFile != null) {
+      // Ingesting only writes, so no client connection is needed
+      if (this.connectSolver()) {
+        this.ingest();
+        this.session.close();
+        System.out.println("--Disconnected--");
       }
-      System.out.print('.');
-    }
-    if (waitingTimes >= 20) {
-      System.out.println("FAIL]");
-      this.cwc.disconnect();
       return;
     }
-    System.out.println("OK]");
-
-    // Solver connection
 
-    System.out.print("[Connecting to " + this.swc + "...");
-    if (!this.swc.connect(10000)) {
+    // Both connections at once
+    System.out.print("[Connecting to " + this.session.getClientConnection()
+        + " and " + this.session.getSolverConnection() + "...");
+    if (!this.session.connect(true)) {
       System.out.println("FAIL]");
+      this.session.close();
       return;
     }
-    waitingTimes = 0;
-    while (!this.swc.isConnectionLive() && waitingTimes++ < 20) {
-      try {
-        Thread.sleep(500);
-      } catch (InterruptedException ie) {
-        // Ignored
-      }
-      System.out.print('.');
-    }
-    if (waitingTimes >= 20) {
-      System.out.println("FAIL]");
-      this.swc.disconnect();
-      return;
-    }
-
     System.out.println("OK]");
     System.out.println();
     System.out.print(this.currentPrompt);
@@ -361,13 +447,62 @@ public class BatchUpdater extends Thread {
     this.shutdown();
   }
 
+  /**
+   * Connects the solver connection, printing the progress.
+   * 
+   * @return {@code true} if the connection succeeded, else {@code false}.
+   */
+  protected boolean connectSolver() {
+    System.out.print("[Connecting to " + this.session.getSolverConnection()
+        + "...");
+    if (!this.session.connectSolver()) {
+      System.out.println("FAIL]");
+      return false;
+    }
+
+    System.out.println("OK]");
+    return true;
+  }
+
+  /**
+   * Streams the rows of the ingest file into the world model.
+   */
+  protected void ingest() {
+    BufferedReader rows = null;
+    try {
+      if (INGEST_STDIN.equals(this.ingestFile)) {
+        rows = new BufferedReader(new InputStreamReader(System.in), 1 << 16);
+      } else {
+        rows = new BufferedReader(new InputStreamReader(new FileInputStream(
+            this.ingestFile)), 1 << 16);
+      }
+      BulkIngester ingester = new BulkIngester(this.session, this.origin,
+          this.ingestDelimiter, System.out);
+      ingester.ingest(rows);
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      System.out.println("Ingest interrupted.");
+    } catch (IOException ioe) {
+      System.out.println("Unable to read \"" + this.ingestFile
+          + "\". See the log for details.");
+      log.error("Unable to read ingest file.", ioe);
+    } finally {
+      if (rows != null) {
+        try {
+          rows.close();
+        } catch (IOException ioe) {
+          // Ignored
+        }
+      }
+    }
+  }
+
   /**
    * Shuts down the world model connections. Cleans-up any remaining threads,
    * objects, etc.
    */
   protected void shutdown() {
-    this.cwc.disconnect();
-    this.swc.disconnect();
+    this.session.close();
 
     System.out.println("--Disconnected--");
   }
@@ -411,33 +546,88 @@ public class BatchUpdater extends Thread {
     if (command == null) {
       return;
     }
-    if (CMD_EXIT.equalsIgnoreCase(command)
-        || CMD_QUIT.equalsIgnoreCase(command)) {
-      this.stopRunning();
-    } else if (CMD_HELP.equalsIgnoreCase(command)) {
-      this.getHelp();
-    } else if (command.startsWith(CMD_SEARCH)) {
-      this.performIdSearch(command);
-    } else if (command.startsWith(CMD_STATUS)) {
-      this.currentStatus(command);
-    } else if (command.startsWith(CMD_HISTORY)) {
-      this.history(command);
-    } else if (command.startsWith(CMD_CREATE_ID)) {
-      this.createId(command);
-    } else if (command.startsWith(CMD_UPDATE_ATTRIB)) {
-      this.updateAttribute(command);
-    } else if (command.startsWith(CMD_EXPIRE)) {
-      this.expire(command);
-    } else if (command.startsWith(CMD_DELETE)) {
-      this.delete(command);
-    } else if (command.startsWith(CMD_COPY)) {
-      this.copy(command);
-    } else {
-      System.out.println("Command not found \"" + command
-          + "\".\nType \"help\" for a list of commands.");
+    ParsedCommand parsed = ParsedCommand.parse(command);
+    if (parsed.getName().length() > 0) {
+      this.commands.dispatch(parsed);
     }
   }
 
+  /**
+   * Registers every command with its argument counts and handler.
+   */
+  private void registerCommands() {
+    CommandTable.Handler quit = new CommandTable.Handler() {
+      @Override
+      public void handle(final ParsedCommand command) {
+        BatchUpdater.this.stopRunning();
+      }
+    };
+    this.commands.add(CMD_HELP, 0, 0, CMD_HELP, new CommandTable.Handler() {
+      @Override
+      public void handle(final ParsedCommand command) {
+        BatchUpdater.this.getHelp();
+      }
+    });
+    this.commands.add(CMD_SEARCH, 1, CommandTable.UNLIMITED,
+        "search ID_REGEX [ID_REGEX...]", new CommandTable.Handler() {
+          @Override
+          public void handle(final ParsedCommand command) {
+            BatchUpdater.this.performIdSearch(command.getArgs());
+          }
+        });
+    this.commands.add(CMD_STATUS, 1, CommandTable.UNLIMITED,
+        "status ID_REGEX [ID_REGEX...]", new CommandTable.Handler() {
+          @Override
+          public void handle(final ParsedCommand command) {
+            BatchUpdater.this.currentStatus(command.getArgs());
+          }
+        });
+    this.commands.add(CMD_HISTORY, 1, CommandTable.UNLIMITED,
+        "history ID_REGEX [ID_REGEX...]", new CommandTable.Handler() {
+          @Override
+          public void handle(final ParsedCommand command) {
+            BatchUpdater.this.history(command.getArgs());
+          }
+        });
+    this.commands.add(CMD_CREATE_ID, 1, CommandTable.UNLIMITED,
+        "touch ID [ID...]", new CommandTable.Handler() {
+          @Override
+          public void handle(final ParsedCommand command) {
+            BatchUpdater.this.createId(command.getArgs());
+          }
+        });
+    this.commands.add(CMD_UPDATE_ATTRIB, 2, 2, "update ID ATTR",
+        new CommandTable.Handler() {
+          @Override
+          public void handle(final ParsedCommand command) {
+            BatchUpdater.this.updateAttribute(command.getArgs());
+          }
+        });
+    this.commands.add(CMD_EXPIRE, 1, 2, "expire ID [ATTR]",
+        new CommandTable.Handler() {
+          @Override
+          public void handle(final ParsedCommand command) {
+            BatchUpdater.this.expire(command.getArgs());
+          }
+        });
+    this.commands.add(CMD_DELETE, 1, 2, "rm ID [ATTR]",
+        new CommandTable.Handler() {
+          @Override
+          public void handle(final ParsedCommand command) {
+            BatchUpdater.this.delete(command.getArgs());
+          }
+        });
+    this.commands.add(CMD_COPY, 2, 3, "cp [-r] SRC_ID DST_ID",
+        new CommandTable.Handler() {
+          @Override
+          public void handle(final ParsedCommand command) {
+            BatchUpdater.this.copy(command.getArgs());
+          }
+        });
+    this.commands.add(CMD_QUIT, 0, 0, CMD_QUIT, quit);
+    this.commands.add(CMD_EXIT, 0, 0, CMD_EXIT, quit);
+  }
+
   /**
    * Terminates the application. Performs any necessary clean-up before the
    * connections are terminated.
@@ -456,25 +646,29 @@ public class BatchUpdater extends Thread {
   /**
    * Searches for matching Identifier values given a regular expression
    * 
-   * @param command
-   *          the full command provided by the user.
+   * @param args
+   *          the command arguments.
    */
-  protected void performIdSearch(final String command) {
-    String regex = removeCommand(CMD_SEARCH, command);
-    if (regex == null) {
-      System.out
-          .println("Empty regular expression. Unable to retrieve status.");
-      return;
-    }
-
-    List<String> idList = extractComponents(regex);
+  protected void performIdSearch(final List<String> args) {
+    List<String> idList = args;
     if (idList == null || idList.isEmpty()) {
       System.out.println("Missing Identifier. Unable to create.");
       return;
     }
     for (String entry : idList) {
       System.out.println("Searching Identifiers for \"" + entry + "\"...");
-      String[] matched = this.cwc.searchId(entry);
+      String[] matched;
+      try {
+        matched = this.session.search(entry).get();
+      } catch (InterruptedException ie) {
+        System.out.println("Interrupted while searching.");
+        return;
+      } catch (ExecutionException ee) {
+        System.out
+            .println("Unable to search Identifiers. See the log for more details.");
+        log.error("Unable to search for \"" + entry + "\".", ee.getCause());
+        return;
+      }
       if (matched == null || matched.length == 0) {
         System.out.println("[No results found.]");
         return;
@@ -487,57 +681,15 @@ public class BatchUpdater extends Thread {
 
   }
 
-  /**
-   * Removes the String {@code command} from the String {@code source},
-   * returning the remainder of {@code source} if there is anything left.
-   * 
-   * @param command
-   *          the command to remove.
-   * @param source
-   *          the string to remove {@code command} from.
-   * @return the remainder of {@code source} after {@code command} has been
-   *         removed, or {@code null} if an error occurred.
-   */
-  protected static String removeCommand(final String command,
-      final String source) {
-    try {
-      // Extract the regular expression from the command line
-      int startCmd = source.indexOf(command);
-      if (startCmd == -1 || source.length() <= (command.length() + 1)) {
-        return null;
-      }
-      // Grab the string from the end of the command +1 (space)
-      String remainder = source.substring(startCmd + command.length() + 1);
-      if (remainder.length() == 0) {
-        return null;
-      }
-      return remainder;
-    } catch (Exception e) {
-      System.out
-          .println("An exception occurred while parsing the command.  See the log for details.");
-      log.error("Exception while removing a command (" + command + "/" + source
-          + ").", e);
-      return null;
-    }
-
-  }
-
   /**
    * Sends a snapshot request to the world model for the current state of the
    * Identifiers in a regular expression provided
    * 
-   * @param command
-   *          the full command provided by the user.
+   * @param args
+   *          the command arguments.
    */
-  protected void currentStatus(final String command) {
-    String idRegex = removeCommand(CMD_STATUS, command);
-    if (idRegex == null) {
-      System.out
-          .println("Empty regular expression. Unable to retrieve status.");
-      return;
-    }
-
-    List<String> idList = extractComponents(idRegex);
+  protected void currentStatus(final List<String> args) {
+    List<String> idList = args;
     if (idList == null || idList.isEmpty()) {
       System.out.println("Missing Identifier. Unable to create.");
       return;
@@ -547,7 +699,7 @@ public class BatchUpdater extends Thread {
       System.out
           .println("Retrieving current status for \"" + element + "\"...");
       try {
-        WorldState state = this.cwc.getCurrentSnapshot(element, ".*").get();
+        WorldState state = this.session.status(element).get();
         if (state == null) {
           System.out.println("[No status available.]");
           return;
@@ -568,18 +720,11 @@ public class BatchUpdater extends Thread {
    * Requests the complete history of the Identifiers matched in the regular
    * expression provided in the command.
    * 
-   * @param command
-   *          the full command provided by the user.
+   * @param args
+   *          the command arguments.
    */
-  protected void history(final String command) {
-    String idRegex = removeCommand(CMD_HISTORY, command);
-    if (idRegex == null) {
-      System.out
-          .println("Empty regular expression. Unable to retrieve status.");
-      return;
-    }
-
-    List<String> idList = extractComponents(idRegex);
+  protected void history(final List<String> args) {
+    List<String> idList = args;
     if (idList == null || idList.isEmpty()) {
       System.out.println("Missing Identifier. Unable to create.");
       return;
@@ -589,30 +734,15 @@ public class BatchUpdater extends Thread {
       System.out.println("Retrieving historic information for \"" + element
           + "\".\nThis may take some time..");
       try {
-        StepResponse responses = this.cwc.getRangeRequest(element, 0,
-            System.currentTimeMillis(), ".*");
-
-        if (responses == null) {
+        WindowedRange range = this.session.history(element, 0,
+            System.currentTimeMillis(), WindowedRange.DEFAULT_WINDOW,
+            WindowedRange.DEFAULT_PREFETCH, WindowedRange.DEFAULT_MAX_STATES);
+        WorldState state = range.next();
+        if (state == null) {
           System.out.println("[No history available.]");
           return;
         }
-
-        // Keep going while there is data OR the data is incomplete
-        while (responses.hasNext() || !responses.isComplete()) {
-          if (responses.isError()) {
-            System.out
-                .println("An error occurred. Please see the log for details.");
-            log.error("Error while retrieving range response for " + element
-                + ".", responses.getError());
-            return;
-          }
-          /*
-           * Get the next available state. If complete, should return
-           * immediately, else may block until data arrives. Can throw an
-           * exception if something happens while waiting.
-           */
-
-          WorldState state = responses.next();
+        for (; state != null; state = range.next()) {
           System.out.println("==========");
           printState(state);
         }
@@ -628,27 +758,21 @@ public class BatchUpdater extends Thread {
   /**
    * Creates a new Identifier value in the world model.
    * 
-   * @param command
-   *          the full command provided by the user.
+   * @param args
+   *          the command arguments.
    */
-  protected void createId(final String command) {
-    String identifier = removeCommand(CMD_CREATE_ID, command);
-    if (identifier == null) {
-      System.out.println("Missing Identifier. Unable to create.");
-      return;
-    }
-
-    List<String> idList = extractComponents(identifier);
+  protected void createId(final List<String> args) {
+    List<String> idList = args;
     if (idList == null || idList.isEmpty()) {
       System.out.println("Missing Identifier. Unable to create.");
       return;
     }
 
     for (String element : idList) {
-      if (this.swc.createId(element)) {
+      if (this.sent(WritePipeline.Type.CREATE, element, null, 0)) {
         System.out.println("Create \"" + element + "\" command was sent.");
         try {
-          printState(this.cwc.getSnapshot(element, 0, 0, "creation").get());
+          printState(this.session.snapshot(element, 0, 0, "creation").get());
         } catch (Exception e) {
           log.error("Unable to retrieve state after creating \"" + element
               + "\".", e);
@@ -687,19 +811,11 @@ public class BatchUpdater extends Thread {
   /**
    * Updates an Identifier Attribute in the world model.
    * 
-   * @param command
-   *          the full command provided by the user.
+   * @param args
+   *          the command arguments.
    */
-  protected void updateAttribute(final String command) {
-    String idAndAttrib = removeCommand(CMD_UPDATE_ATTRIB, command);
-
-    if (idAndAttrib == null) {
-      System.out
-          .println("Missing Identifier. Unable to update attribute value.");
-      return;
-    }
-
-    List<String> components = extractComponents(idAndAttrib);
+  protected void updateAttribute(final List<String> args) {
+    List<String> components = args;
     if (components.size() != 2) {
       System.out
           .println("Invalid number of arguments.  Cannot update attribute value.");
@@ -765,7 +881,7 @@ public class BatchUpdater extends Thread {
     }
 
     try {
-      printState(this.cwc.getSnapshot(identifier, 0, 0, attribute).get());
+      printState(this.session.snapshot(identifier, 0, 0, attribute).get());
     } catch (Exception e) {
       log.error("Unable to retrieve state after updatng \"" + identifier + "/"
           + attribute + "\".", e);
@@ -787,79 +903,53 @@ public class BatchUpdater extends Thread {
    */
   private boolean insertAttributeValue(final String identifier,
       final String attribute, final byte[] data) {
-
-    AttributeSpecification spec = new AttributeSpecification();
-    spec.setAttributeName(attribute);
-    spec.setIsOnDemand(false);
-    this.swc.addAttribute(spec);
-
-    Attribute newAttr = new Attribute();
-    newAttr.setAttributeName(attribute);
-    newAttr.setCreationDate(System.currentTimeMillis());
-    newAttr.setData(data);
-    newAttr.setId(identifier);
-    newAttr.setOriginName(this.origin);
-
-    return this.swc.updateAttribute(newAttr);
+    try {
+      return this.session.update(identifier, attribute, data).get()
+          .booleanValue();
+    } catch (InterruptedException ie) {
+      return false;
+    }
   }
 
   /**
-   * <p>
-   * Extracts the components of a String. Separating based on spaces, quotes
-   * group words with spaces, but are removed.
-   * </p>
-   * <p>
-   * Originally from Stack Overflow:<br />
-   * http://stackoverflow.com/questions/366202/regex-for-splitting-a-string-
-   * using-space-when-not-surrounded-by-single-or-double
-   * </p>
-   * <p>
-   * Original author:<br />
-   * <a href="http://stackoverflow.com/users/33358/jan-goyvaerts">Jan
-   * Goyvaerts</a>
-   * </p>
+   * Creates, expires, or deletes an Identifier or Attribute and waits for it
+   * to be sent.
    * 
-   * @param whole
-   *          the entire string to separate.
-   * @return the components of the whole, separated into individual Strings.
+   * @param type
+   *          the kind of write, other than an update.
+   * @param identifier
+   *          the Identifier.
+   * @param attribute
+   *          the Attribute name, or {@code null} for the whole Identifier.
+   * @param time
+   *          the expiration time.
+   * @return {@code true} if the write was sent successfully.
    */
-  protected static List<String> extractComponents(final String whole) {
-    if (whole == null) {
-      return null;
-    }
-    List<String> matchList = new ArrayList<String>();
-    Pattern regex = Pattern.compile("[^\\s\"']+|\"([^\"]*)\"|'([^']*)'");
-    Matcher regexMatcher = regex.matcher(whole);
-    while (regexMatcher.find()) {
-      if (regexMatcher.group(1) != null) {
-        // Add double-quoted string without the quotes
-        matchList.add(regexMatcher.group(1));
-      } else if (regexMatcher.group(2) != null) {
-        // Add single-quoted string without the quotes
-        matchList.add(regexMatcher.group(2));
+  private boolean sent(final WritePipeline.Type type,
+      final String identifier, final String attribute, final long time) {
+    try {
+      WriteRequest request;
+      if (type == WritePipeline.Type.CREATE) {
+        request = this.session.createId(identifier);
+      } else if (type == WritePipeline.Type.EXPIRE) {
+        request = this.session.expire(identifier, attribute, time);
       } else {
-        // Add unquoted word
-        matchList.add(regexMatcher.group());
+        request = this.session.delete(identifier, attribute);
       }
+      return request.get().booleanValue();
+    } catch (InterruptedException ie) {
+      return false;
     }
-    return matchList;
   }
 
   /**
    * Expires all or just one of an Identifier's Attribute values.
    * 
-   * @param command
-   *          the full command provided by the user.
+   * @param args
+   *          the command arguments.
    */
-  protected void expire(final String command) {
-    String idAndAttrib = removeCommand(CMD_EXPIRE, command);
-
-    if (idAndAttrib == null) {
-      System.out.println("Missing Identifier. Unable to expire.");
-      return;
-    }
-
-    List<String> components = extractComponents(idAndAttrib);
+  protected void expire(final List<String> args) {
+    List<String> components = args;
     if (components.size() < 1) {
       System.out.println("Invalid number of arguments.  Cannot expire value.");
       return;
@@ -885,7 +975,8 @@ public class BatchUpdater extends Thread {
       return;
     }
 
-    if (!this.swc.expire(identifier, expireTime.getTime())) {
+    if (!this.sent(WritePipeline.Type.EXPIRE, identifier, null,
+        expireTime.getTime())) {
       System.out.println("Unable to expire \"" + identifier
           + "\" due to an unknown error.");
     }
@@ -907,7 +998,8 @@ public class BatchUpdater extends Thread {
       return;
     }
 
-    if (!this.swc.expire(identifier, expireTime.getTime(), attribute)) {
+    if (!this.sent(WritePipeline.Type.EXPIRE, identifier, attribute,
+        expireTime.getTime())) {
       System.out.println("Unable to expire \"" + identifier + "\"/\""
           + attribute + "\" due to an unknown error.");
     }
@@ -975,18 +1067,11 @@ public class BatchUpdater extends Thread {
   /**
    * Deletes all or only one of an Identifier's Attribute values.
    * 
-   * @param command
-   *          the full command provided by the user.
+   * @param args
+   *          the command arguments.
    */
-  protected void delete(final String command) {
-    String idAndAttrib = removeCommand(CMD_DELETE, command);
-
-    if (idAndAttrib == null) {
-      System.out.println("Missing Identifier. Unable to delete.");
-      return;
-    }
-
-    List<String> components = extractComponents(idAndAttrib);
+  protected void delete(final List<String> args) {
+    List<String> components = args;
     if (components.size() < 1) {
       System.out.println("Invalid number of arguments.  Cannot delete value.");
       return;
@@ -1009,7 +1094,7 @@ public class BatchUpdater extends Thread {
    *          the Identifier to delete.
    */
   protected void deleteIdentifier(final String identifier) {
-    if (!this.swc.delete(identifier)) {
+    if (!this.sent(WritePipeline.Type.DELETE, identifier, null, 0)) {
       System.out.println("Unable to delete \"" + identifier
           + "\" due to an unknown error.");
     }
@@ -1024,7 +1109,7 @@ public class BatchUpdater extends Thread {
    *          the Attribute name to delete
    */
   protected void deleteAttribute(final String identifier, final String attribute) {
-    if (!this.swc.delete(identifier, attribute)) {
+    if (!this.sent(WritePipeline.Type.DELETE, identifier, attribute, 0)) {
       System.out.println("Unable to delete \"" + identifier + "\"/\""
           + attribute + "\" due to an unknown error.");
     }
@@ -1034,30 +1119,18 @@ public class BatchUpdater extends Thread {
    * Copies the state from one Identifier to another. If the "-r" (recursive)
    * flag is provided, it copies the entire history of Attribute values.
    * 
-   * @param command
-   *          the full command provided by the user
+   * @param args
+   *          the command arguments
    */
-  protected void copy(final String command) {
-    String flagAndIds = removeCommand(CMD_COPY, command);
-
-    if (flagAndIds == null) {
-      System.out.println("Missing Identifier. Unable to copy state.");
-      return;
-    }
-    boolean withHistory = false;
-    if (flagAndIds.contains("-r")) {
-      flagAndIds = removeCommand("-r", flagAndIds);
-      withHistory = true;
-    }
-
-    if (flagAndIds == null) {
-      System.out.println("Missing Identifier. Unable to copy state.");
-      return;
+  protected void copy(final List<String> args) {
+    List<String> parts = args;
+    boolean withHistory = !parts.isEmpty()
+        && FLAG_RECURSIVE.equals(parts.get(0));
+    if (withHistory) {
+      parts.remove(0);
     }
 
-    List<String> parts = extractComponents(flagAndIds);
-
-    if (parts == null || parts.size() != 2) {
+    if (parts.size() != 2) {
       System.out
           .println("Source or destination Identifier is missing. Unable to copy.");
       return;
@@ -1080,35 +1153,20 @@ public class BatchUpdater extends Thread {
    *          the Identifier to copy to.
    */
   protected void recursiveCopy(final String source, final String destination) {
-    WorldState origState = null;
-    StepResponse resp = null;
-
-    resp = this.cwc.getRangeRequest(source, 0, Long.MAX_VALUE, ".*");
-    int totalCopies = 0;
-    try {
-      while (!resp.isComplete() && !resp.isError()) {
-
-        origState = resp.next();
-        if (origState == null) {
-          System.out.println("The source is empty.");
-          break;
-        }
-        int numCopies = this.copyAttributes(origState.getState(source),
-            destination);
-        if (numCopies < 0) {
-          System.out
-              .println("Error while copying one or more Attributes. Aborting.");
-          break;
-        }
-        totalCopies += numCopies;
-      }
-    } catch (Exception e) {
-      System.out
-          .println("Unable to read from source.  See the log for details.");
-      log.error("Unable to retrieve state for \"" + source + "\".", e);
+    CopyEngine engine = this.awaitCopy(source, destination, true);
+    if (engine == null) {
+      return;
+    }
+    if (engine.getNumStates() == 0) {
+      System.out.println("The source is empty.");
       return;
     }
-    System.out.println("Copied " + totalCopies + " Attributes.");
+    if (engine.getNumFailed() > 0) {
+      System.out
+          .println("Error while copying one or more Attributes. Aborting.");
+    }
+    System.out.println("Copied "
+        + (engine.getNumQueued() - engine.getNumFailed()) + " Attributes.");
   }
 
   /**
@@ -1121,23 +1179,16 @@ public class BatchUpdater extends Thread {
    *          the Identifier to copy to.
    */
   protected void shallowCopy(final String source, final String destination) {
-
-    WorldState origState = null;
-    try {
-      origState = this.cwc.getCurrentSnapshot(source, ".*").get();
-    } catch (Exception e) {
-      System.out
-          .println("Unable to read from source.  See the log for details.");
-      log.error("Unable to retrieve current state for \"" + source + "\".", e);
+    CopyEngine engine = this.awaitCopy(source, destination, false);
+    if (engine == null) {
       return;
     }
-    if (origState == null) {
+    if (engine.getNumStates() == 0) {
       System.out.println("The source is empty.");
       return;
     }
-    int numAttr = this.copyAttributes(origState.getState(source), destination);
-    if (numAttr >= 0) {
-      System.out.println("Copied " + numAttr + " attributes.");
+    if (engine.getNumFailed() == 0) {
+      System.out.println("Copied " + engine.getNumQueued() + " attributes.");
     } else {
       System.out
           .println("An error has occurred. One or more Attributes was not copied.");
@@ -1145,41 +1196,30 @@ public class BatchUpdater extends Thread {
   }
 
   /**
-   * Copies a collection of Attribute values to a destination Identifier.
+   * Copies one Identifier to another through the session and waits for the
+   * copy to finish. The values keep their original origins.
    * 
-   * @param attributes
-   *          the Attributes to copy.
+   * @param source
+   *          the Identifier to copy from.
    * @param destination
-   *          the destination Identifier.
-   * @return {@code true} if all Attributes were copied successfully, else
-   *         {@code false}.
+   *          the Identifier to copy to.
+   * @param withHistory
+   *          {@code true} to copy every state.
+   * @return the finished copy, or {@code null} if it failed or was
+   *         interrupted.
    */
-  protected int copyAttributes(final Collection<Attribute> attributes,
-      final String destination) {
-    String currOrigin = this.origin;
-    boolean success = true;
-    int numAttr = 0;
-    for (Attribute attr : attributes) {
-      attr.setId(destination);
-      AttributeSpecification spec = new AttributeSpecification();
-      spec.setAttributeName(attr.getAttributeName());
-      spec.setIsOnDemand(false);
-      this.swc.addAttribute(spec);
-      if (!attr.getOriginName().equals(currOrigin)) {
-        currOrigin = attr.getOriginName();
-        this.swc.setOriginString(currOrigin);
-      }
-      success = success && this.swc.updateAttribute(attr);
-      if (!success) {
-        System.out.println("Unable to copy " + attr + ".");
-        break;
-      }
-      ++numAttr;
-    }
-    this.swc.setOriginString(this.origin);
-    if (success) {
-      return numAttr;
+  private CopyEngine awaitCopy(final String source, final String destination,
+      final boolean withHistory) {
+    try {
+      return this.session.copy(source, destination, withHistory).get();
+    } catch (InterruptedException ie) {
+      System.out.println("Interrupted while copying. Aborting.");
+    } catch (ExecutionException ee) {
+      System.out
+          .println("Unable to read from source.  See the log for details.");
+      log.error("Unable to retrieve state for \"" + source + "\".",
+          ee.getCause());
     }
-    return -1;
+    return null;
   }
-}
\ No newline at end of file
+}
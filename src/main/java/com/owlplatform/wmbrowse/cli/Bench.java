@@ -0,0 +1,853 @@
+/*
+ * Owl Platform Command Line Browser
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.wmbrowse.cli;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.owlplatform.worldmodel.Attribute;
+import com.owlplatform.worldmodel.client.ClientWorldConnection;
+import com.owlplatform.worldmodel.client.StepResponse;
+import com.owlplatform.worldmodel.client.WorldState;
+import com.owlplatform.worldmodel.solver.SolverWorldConnection;
+
+/**
+ * <p>
+ * Load generator for sizing world model servers. Opens a number of client
+ * and solver connections and drives them through a weighted mix of
+ * Identifier searches, current snapshots, range requests, and Attribute
+ * updates at a fixed target rate, then prints the throughput and latency
+ * percentiles of each operation as a text table or as JSON.
+ * </p>
+ * <p>
+ * Operations are scheduled open-loop: the n<sup>th</sup> read or write is
+ * due at a fixed time after the start of the run, whether or not earlier
+ * operations have finished, and its latency is measured from that due time
+ * rather than from when a connection became free to send it. A server that
+ * falls behind the target rate therefore shows the queueing delay it causes
+ * instead of hiding it (coordinated omission).
+ * </p>
+ *
+ * @author Robert Moore
+ */
+public class Bench {
+
+  /**
+   * Logger for this class.
+   */
+  private static final Logger log = LoggerFactory.getLogger(Bench.class);
+
+  /**
+   * Command-line flag for the number of client connections.
+   */
+  public static final String FLAG_CLIENTS = "-c";
+
+  /**
+   * Command-line flag for the number of solver connections.
+   */
+  public static final String FLAG_SOLVERS = "-w";
+
+  /**
+   * Command-line flag for the target rate, in operations per second.
+   */
+  public static final String FLAG_RATE = "-r";
+
+  /**
+   * Command-line flag for the length of the run, in seconds.
+   */
+  public static final String FLAG_DURATION = "-t";
+
+  /**
+   * Command-line flag for the operation mix.
+   */
+  public static final String FLAG_MIX = "-m";
+
+  /**
+   * Command-line flag for the number of Identifiers read and written.
+   */
+  public static final String FLAG_IDS = "-n";
+
+  /**
+   * Command-line flag for the output format, text or json.
+   */
+  public static final String FLAG_OUTPUT = "-o";
+
+  /**
+   * Mix name of Identifier searches.
+   */
+  public static final String MIX_SEARCH = "search";
+
+  /**
+   * Mix name of current snapshots.
+   */
+  public static final String MIX_SNAPSHOT = "snapshot";
+
+  /**
+   * Mix name of range requests.
+   */
+  public static final String MIX_RANGE = "range";
+
+  /**
+   * Mix name of Attribute updates.
+   */
+  public static final String MIX_UPDATE = "update";
+
+  /**
+   * Operation name of range requests, which are drained completely.
+   */
+  public static final String OP_RANGE = "getRangeRequest";
+
+  /**
+   * Operation name of single-value Attribute updates.
+   */
+  public static final String OP_UPDATE = "updateAttribute";
+
+  /**
+   * Default operation mix.
+   */
+  public static final String DEFAULT_MIX =
+      "search=20,snapshot=50,range=10,update=20";
+
+  /**
+   * Prefix of the Identifiers read and written.
+   */
+  public static final String ID_PREFIX = "bench.";
+
+  /**
+   * Attribute written by updates.
+   */
+  public static final String ATTRIBUTE_NAME = "bench.value";
+
+  /**
+   * Length of the history read by each range request, in milliseconds.
+   */
+  public static final long RANGE_LENGTH = 60000l;
+
+  /**
+   * Counters and latencies of one operation.
+   */
+  static final class OpStats {
+    /**
+     * Latencies from due time to completion.
+     */
+    final LatencyHistogram latency = new LatencyHistogram();
+
+    /**
+     * Operations that failed.
+     */
+    final AtomicLong errors = new AtomicLong(0);
+  }
+
+  /**
+   * Reads and writes one connection on its own thread, taking operations
+   * from a shared schedule.
+   */
+  private final class Worker extends Thread {
+
+    /**
+     * The client connection, or {@code null} for a solver worker.
+     */
+    private final ClientWorldConnection cwc;
+
+    /**
+     * The solver connection, or {@code null} for a client worker.
+     */
+    private final SolverWorldConnection swc;
+
+    /**
+     * The schedule shared by workers of the same kind.
+     */
+    private final Schedule schedule;
+
+    /**
+     * Chooses operations and Identifiers.
+     */
+    private final Random random;
+
+    /**
+     * Creates a new worker.
+     *
+     * @param name
+     *          the thread name.
+     * @param cwc
+     *          the client connection, or {@code null}.
+     * @param swc
+     *          the solver connection, or {@code null}.
+     * @param schedule
+     *          the schedule to take operations from.
+     * @param seed
+     *          the random seed.
+     */
+    Worker(final String name, final ClientWorldConnection cwc,
+        final SolverWorldConnection swc, final Schedule schedule,
+        final long seed) {
+      super(name);
+      this.cwc = cwc;
+      this.swc = swc;
+      this.schedule = schedule;
+      this.random = new Random(seed);
+      this.setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      long due;
+      while ((due = this.schedule.next()) >= 0) {
+        long wait = due - System.nanoTime();
+        if (wait > 0) {
+          try {
+            TimeUnit.NANOSECONDS.sleep(wait);
+          } catch (InterruptedException ie) {
+            return;
+          }
+        }
+        String id = ID_PREFIX + this.random.nextInt(Bench.this.numIds);
+        String op;
+        if (this.swc != null) {
+          op = OP_UPDATE;
+        } else {
+          int pick = this.random.nextInt(Bench.this.readWeight);
+          if (pick < Bench.this.mix.get(MIX_SEARCH).intValue()) {
+            op = LatencyStats.OP_SEARCH;
+          } else if (pick < Bench.this.mix.get(MIX_SEARCH).intValue()
+              + Bench.this.mix.get(MIX_SNAPSHOT).intValue()) {
+            op = LatencyStats.OP_CURRENT_SNAPSHOT;
+          } else {
+            op = OP_RANGE;
+          }
+        }
+        boolean success;
+        try {
+          success = this.perform(op, id);
+        } catch (Exception e) {
+          log.debug("Unable to perform " + op + " on " + id + ".", e);
+          success = false;
+        }
+        OpStats opStats = Bench.this.results.get(op);
+        if (success) {
+          opStats.latency.record(TimeUnit.NANOSECONDS.toMicros(System
+              .nanoTime() - due));
+        } else {
+          opStats.errors.incrementAndGet();
+        }
+      }
+    }
+
+    /**
+     * Performs one operation, waiting for its complete response.
+     *
+     * @param op
+     *          the operation name.
+     * @param id
+     *          the Identifier to read or write.
+     * @return {@code true} if the operation succeeded.
+     * @throws Exception
+     *           if the operation failed.
+     */
+    private boolean perform(final String op, final String id)
+        throws Exception {
+      if (OP_UPDATE.equals(op)) {
+        Attribute attr = new Attribute();
+        attr.setId(id);
+        attr.setAttributeName(ATTRIBUTE_NAME);
+        attr.setCreationDate(System.currentTimeMillis());
+        attr.setData(ByteBuffer.allocate(8).putLong(this.random.nextLong())
+            .array());
+        attr.setOriginName(Bench.this.origin);
+        return this.swc.updateAttribute(attr);
+      }
+      String idRegex = id.replace(".", "\\.");
+      if (LatencyStats.OP_SEARCH.equals(op)) {
+        return this.cwc.searchId(idRegex + ".*") != null;
+      }
+      if (LatencyStats.OP_CURRENT_SNAPSHOT.equals(op)) {
+        this.cwc.getCurrentSnapshot(idRegex, ".*").get();
+        return true;
+      }
+      long now = System.currentTimeMillis();
+      StepResponse range = this.cwc.getRangeRequest(idRegex, now
+          - RANGE_LENGTH, now, ".*");
+      while (range.hasNext() || !range.isComplete()) {
+        if (range.isError()) {
+          return false;
+        }
+        WorldState state = range.next();
+        if (state == null) {
+          break;
+        }
+      }
+      return !range.isError();
+    }
+  }
+
+  /**
+   * Hands out due times at a fixed rate until the end of the run.
+   */
+  static final class Schedule {
+
+    /**
+     * Start of the run, from {@link System#nanoTime()}.
+     */
+    private final long start;
+
+    /**
+     * Time between operations, in nanoseconds.
+     */
+    private final double interval;
+
+    /**
+     * Number of operations in the run.
+     */
+    private final long total;
+
+    /**
+     * Number of operations handed out so far.
+     */
+    private final AtomicLong issued = new AtomicLong(0);
+
+    /**
+     * Creates a new schedule.
+     *
+     * @param start
+     *          the start of the run, from {@link System#nanoTime()}.
+     * @param rate
+     *          the operations per second.
+     * @param seconds
+     *          the length of the run.
+     */
+    Schedule(final long start, final double rate, final long seconds) {
+      this.start = start;
+      this.interval = rate > 0 ? 1e9 / rate : 0;
+      this.total = rate > 0 ? (long) (rate * seconds) : 0;
+    }
+
+    /**
+     * Claims the next operation.
+     *
+     * @return its due time, from {@link System#nanoTime()}, or -1 once every
+     *         operation has been handed out.
+     */
+    long next() {
+      long n = this.issued.getAndIncrement();
+      if (n >= this.total) {
+        return -1;
+      }
+      return this.start + (long) (n * this.interval);
+    }
+  }
+
+  /**
+   * World model host.
+   */
+  private final String host;
+
+  /**
+   * Origin of written values.
+   */
+  private final String origin;
+
+  /**
+   * Solver port, or -1 for the default.
+   */
+  private final int solverPort;
+
+  /**
+   * Client port, or -1 for the default.
+   */
+  private final int clientPort;
+
+  /**
+   * Number of client connections.
+   */
+  private int numClients = 4;
+
+  /**
+   * Number of solver connections.
+   */
+  private int numSolvers = 1;
+
+  /**
+   * Target operations per second, over every connection.
+   */
+  private double rate = 1000;
+
+  /**
+   * Length of the run, in seconds.
+   */
+  private long duration = 30;
+
+  /**
+   * Number of Identifiers read and written.
+   */
+  int numIds = 1000;
+
+  /**
+   * Weight of each operation in the mix, by mix name.
+   */
+  final Map<String, Integer> mix = new LinkedHashMap<String, Integer>();
+
+  /**
+   * Sum of the weights of the read operations.
+   */
+  int readWeight = 0;
+
+  /**
+   * Results by operation name, in report order.
+   */
+  final Map<String, OpStats> results = new LinkedHashMap<String, OpStats>();
+
+  /**
+   * Length of the last run, in seconds.
+   */
+  private double elapsed = 0;
+
+  /**
+   * Creates a new load generator.
+   *
+   * @param host
+   *          the world model host.
+   * @param origin
+   *          the origin of written values.
+   * @param solverPort
+   *          the solver port, or -1 for the default.
+   * @param clientPort
+   *          the client port, or -1 for the default.
+   */
+  public Bench(final String host, final String origin, final int solverPort,
+      final int clientPort) {
+    this.host = host;
+    this.origin = origin;
+    this.solverPort = solverPort;
+    this.clientPort = clientPort;
+    this.results.put(LatencyStats.OP_SEARCH, new OpStats());
+    this.results.put(LatencyStats.OP_CURRENT_SNAPSHOT, new OpStats());
+    this.results.put(OP_RANGE, new OpStats());
+    this.results.put(OP_UPDATE, new OpStats());
+    this.setMix(DEFAULT_MIX);
+  }
+
+  /**
+   * Sets the number of connections.
+   *
+   * @param clients
+   *          the number of client connections.
+   * @param solvers
+   *          the number of solver connections.
+   */
+  public void setConnections(final int clients, final int solvers) {
+    this.numClients = Math.max(0, clients);
+    this.numSolvers = Math.max(0, solvers);
+  }
+
+  /**
+   * Sets the target rate and length of the run.
+   *
+   * @param opsPerSecond
+   *          the target operations per second, over every connection.
+   * @param seconds
+   *          the length of the run.
+   */
+  public void setLoad(final double opsPerSecond, final long seconds) {
+    this.rate = opsPerSecond;
+    this.duration = seconds;
+  }
+
+  /**
+   * Sets the number of Identifiers read and written.
+   *
+   * @param numIds
+   *          the number of Identifiers.
+   */
+  public void setNumIds(final int numIds) {
+    this.numIds = Math.max(1, numIds);
+  }
+
+  /**
+   * Sets the operation mix from a string of the form
+   * {@code search=20,snapshot=50,range=10,update=20}. Operations left out
+   * have a weight of 0.
+   *
+   * @param spec
+   *          the mix.
+   * @throws IllegalArgumentException
+   *           if the mix cannot be parsed.
+   */
+  public void setMix(final String spec) {
+    Map<String, Integer> parsed = new LinkedHashMap<String, Integer>();
+    parsed.put(MIX_SEARCH, Integer.valueOf(0));
+    parsed.put(MIX_SNAPSHOT, Integer.valueOf(0));
+    parsed.put(MIX_RANGE, Integer.valueOf(0));
+    parsed.put(MIX_UPDATE, Integer.valueOf(0));
+    for (String part : spec.split(",")) {
+      String[] nameAndWeight = part.trim().split("=");
+      if (nameAndWeight.length != 2
+          || !parsed.containsKey(nameAndWeight[0])) {
+        throw new IllegalArgumentException("Unknown operation \"" + part
+            + "\" in mix. Expected " + parsed.keySet() + ".");
+      }
+      int weight;
+      try {
+        weight = Integer.parseInt(nameAndWeight[1]);
+      } catch (NumberFormatException nfe) {
+        throw new IllegalArgumentException("Unable to parse "
+            + nameAndWeight[1] + " as a weight.");
+      }
+      if (weight < 0) {
+        throw new IllegalArgumentException("Weights must not be negative.");
+      }
+      parsed.put(nameAndWeight[0], Integer.valueOf(weight));
+    }
+    int reads = parsed.get(MIX_SEARCH).intValue()
+        + parsed.get(MIX_SNAPSHOT).intValue()
+        + parsed.get(MIX_RANGE).intValue();
+    if (reads + parsed.get(MIX_UPDATE).intValue() == 0) {
+      throw new IllegalArgumentException("The mix has no operations.");
+    }
+    this.mix.clear();
+    this.mix.putAll(parsed);
+    this.readWeight = reads;
+  }
+
+  /**
+   * Connects, runs the load, and disconnects.
+   *
+   * @return {@code true} if every connection was made and the run finished.
+   * @throws InterruptedException
+   *           if interrupted while waiting for the run.
+   */
+  public boolean run() throws InterruptedException {
+    int writeWeight = this.mix.get(MIX_UPDATE).intValue();
+    double totalWeight = this.readWeight + writeWeight;
+    double readRate = this.numClients == 0 ? 0 : this.rate * this.readWeight
+        / totalWeight;
+    double writeRate = this.numSolvers == 0 ? 0 : this.rate * writeWeight
+        / totalWeight;
+
+    List<ClientWorldConnection> clients =
+        new ArrayList<ClientWorldConnection>();
+    List<SolverWorldConnection> solvers =
+        new ArrayList<SolverWorldConnection>();
+    try {
+      for (int i = 0; i < (readRate > 0 ? this.numClients : 0); ++i) {
+        ClientWorldConnection cwc = new ClientWorldConnection();
+        cwc.setHost(this.host);
+        if (this.clientPort >= 0) {
+          cwc.setPort(this.clientPort);
+        }
+        clients.add(cwc);
+        if (!connect(cwc)) {
+          System.err.println("Unable to connect to " + cwc + ".");
+          return false;
+        }
+      }
+      for (int i = 0; i < (writeRate > 0 ? this.numSolvers : 0); ++i) {
+        SolverWorldConnection swc = new SolverWorldConnection();
+        swc.setHost(this.host);
+        swc.setOriginString(this.origin);
+        if (this.solverPort >= 0) {
+          swc.setPort(this.solverPort);
+        }
+        solvers.add(swc);
+        if (!connect(swc)) {
+          System.err.println("Unable to connect to " + swc + ".");
+          return false;
+        }
+        new AttributeRegistry(swc).announce(ATTRIBUTE_NAME);
+      }
+      if (!solvers.isEmpty()) {
+        // Make sure reads find something
+        for (int i = 0; i < this.numIds; ++i) {
+          solvers.get(0).createId(ID_PREFIX + i);
+        }
+      }
+
+      long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+      Schedule reads = new Schedule(start, readRate, this.duration);
+      Schedule writes = new Schedule(start, writeRate, this.duration);
+      List<Worker> workers = new ArrayList<Worker>();
+      long seed = System.nanoTime();
+      for (int i = 0; i < clients.size(); ++i) {
+        workers.add(new Worker("Bench client " + i, clients.get(i), null,
+            reads, seed + i));
+      }
+      for (int i = 0; i < solvers.size(); ++i) {
+        workers.add(new Worker("Bench solver " + i, null, solvers.get(i),
+            writes, seed + clients.size() + i));
+      }
+      for (Worker w : workers) {
+        w.start();
+      }
+      for (Worker w : workers) {
+        w.join();
+      }
+      this.elapsed = (System.nanoTime() - start) / 1e9;
+      return true;
+    } finally {
+      for (ClientWorldConnection cwc : clients) {
+        cwc.disconnect();
+      }
+      for (SolverWorldConnection swc : solvers) {
+        swc.disconnect();
+      }
+    }
+  }
+
+  /**
+   * Returns the results as a text table with latencies in milliseconds.
+   *
+   * @return the report.
+   */
+  public String getTextReport() {
+    StringBuilder report = new StringBuilder();
+    report.append(String.format(Locale.US, "Target %.1f ops/s for %d s"
+        + " over %d client and %d solver connections.%n",
+        Double.valueOf(this.rate), Long.valueOf(this.duration),
+        Integer.valueOf(this.numClients), Integer.valueOf(this.numSolvers)));
+    report.append(String.format(Locale.US,
+        "%-20s %8s %6s %9s %9s %9s %9s %9s %9s %9s%n", "Operation", "Count",
+        "Errors", "ops/s", "mean ms", "p50 ms", "p90 ms", "p99 ms",
+        "p99.9 ms", "max ms"));
+    long total = 0;
+    for (Map.Entry<String, OpStats> entry : this.results.entrySet()) {
+      LatencyHistogram h = entry.getValue().latency;
+      long errors = entry.getValue().errors.get();
+      if (h.getCount() == 0 && errors == 0) {
+        continue;
+      }
+      total += h.getCount();
+      report.append(String.format(Locale.US,
+          "%-20s %8d %6d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+          entry.getKey(), Long.valueOf(h.getCount()), Long.valueOf(errors),
+          Double.valueOf(this.throughput(h.getCount())),
+          Double.valueOf(h.getMean() / 1000.0),
+          Double.valueOf(h.getPercentile(50) / 1000.0),
+          Double.valueOf(h.getPercentile(90) / 1000.0),
+          Double.valueOf(h.getPercentile(99) / 1000.0),
+          Double.valueOf(h.getPercentile(99.9) / 1000.0),
+          Double.valueOf(h.getMax() / 1000.0)));
+    }
+    report.append(String.format(Locale.US,
+        "Total %d ops in %.1f s, %.1f ops/s", Long.valueOf(total),
+        Double.valueOf(this.elapsed), Double.valueOf(this.throughput(total))));
+    return report.toString();
+  }
+
+  /**
+   * Returns the results as a JSON object with latencies in microseconds.
+   *
+   * @return the report.
+   */
+  public String getJsonReport() {
+    StringBuilder json = new StringBuilder("{\"host\":");
+    ResultFormatter.appendJson(json, this.host);
+    json.append(String.format(Locale.US,
+        ",\"targetRate\":%.1f,\"duration\":%d,\"elapsed\":%.3f,"
+            + "\"clients\":%d,\"solvers\":%d,\"ids\":%d,\"operations\":{",
+        Double.valueOf(this.rate), Long.valueOf(this.duration),
+        Double.valueOf(this.elapsed), Integer.valueOf(this.numClients),
+        Integer.valueOf(this.numSolvers), Integer.valueOf(this.numIds)));
+    boolean first = true;
+    for (Map.Entry<String, OpStats> entry : this.results.entrySet()) {
+      LatencyHistogram h = entry.getValue().latency;
+      if (!first) {
+        json.append(',');
+      }
+      first = false;
+      ResultFormatter.appendJson(json, entry.getKey());
+      json.append(String.format(Locale.US,
+          ":{\"count\":%d,\"errors\":%d,\"throughput\":%.1f,"
+              + "\"meanUs\":%.1f,\"p50Us\":%d,\"p90Us\":%d,\"p99Us\":%d,"
+              + "\"p999Us\":%d,\"maxUs\":%d}", Long.valueOf(h.getCount()),
+          Long.valueOf(entry.getValue().errors.get()),
+          Double.valueOf(this.throughput(h.getCount())),
+          Double.valueOf(h.getMean()), Long.valueOf(h.getPercentile(50)),
+          Long.valueOf(h.getPercentile(90)), Long.valueOf(h.getPercentile(99)),
+          Long.valueOf(h.getPercentile(99.9)), Long.valueOf(h.getMax())));
+    }
+    json.append("}}");
+    return json.toString();
+  }
+
+  /**
+   * Returns a count as a rate over the last run.
+   *
+   * @param count
+   *          the count.
+   * @return the count per second.
+   */
+  private double throughput(final long count) {
+    return this.elapsed > 0 ? count / this.elapsed : 0;
+  }
+
+  /**
+   * Connects a client connection and waits for it to come up.
+   *
+   * @param cwc
+   *          the connection.
+   * @return {@code true} if it is connected.
+   * @throws InterruptedException
+   *           if interrupted while waiting.
+   */
+  private static boolean connect(final ClientWorldConnection cwc)
+      throws InterruptedException {
+    if (!cwc.connect(10000)) {
+      return false;
+    }
+    for (int i = 0; !cwc.isConnected() && i < 20; ++i) {
+      Thread.sleep(500);
+    }
+    return cwc.isConnected();
+  }
+
+  /**
+   * Connects a solver connection and waits for it to come up.
+   *
+   * @param swc
+   *          the connection.
+   * @return {@code true} if it is connected.
+   * @throws InterruptedException
+   *           if interrupted while waiting.
+   */
+  private static boolean connect(final SolverWorldConnection swc)
+      throws InterruptedException {
+    if (!swc.connect(10000)) {
+      return false;
+    }
+    for (int i = 0; !swc.isConnectionLive() && i < 20; ++i) {
+      Thread.sleep(500);
+    }
+    return swc.isConnectionLive();
+  }
+
+  /**
+   * Runs a load test. Parameters are the world model host, the origin, and
+   * optionally the solver and client ports, followed by any of the flags
+   * {@value #FLAG_CLIENTS}, {@value #FLAG_SOLVERS}, {@value #FLAG_RATE},
+   * {@value #FLAG_DURATION}, {@value #FLAG_MIX}, {@value #FLAG_IDS}, and
+   * {@value #FLAG_OUTPUT}.
+   *
+   * @param args
+   *          the command-line arguments.
+   */
+  public static void main(final String[] args) {
+    int clients = 4;
+    int solvers = 1;
+    double rate = 1000;
+    long duration = 30;
+    int numIds = 1000;
+    String mix = DEFAULT_MIX;
+    boolean json = false;
+    List<String> positional = new ArrayList<String>();
+    for (int i = 0; i < args.length; ++i) {
+      String arg = args[i];
+      if (FLAG_CLIENTS.equals(arg) || FLAG_SOLVERS.equals(arg)
+          || FLAG_RATE.equals(arg) || FLAG_DURATION.equals(arg)
+          || FLAG_MIX.equals(arg) || FLAG_IDS.equals(arg)
+          || FLAG_OUTPUT.equals(arg)) {
+        if (i + 1 >= args.length) {
+          System.out.println("Missing value after " + arg + ".");
+          return;
+        }
+        String value = args[++i];
+        if (FLAG_MIX.equals(arg)) {
+          mix = value;
+          continue;
+        }
+        if (FLAG_OUTPUT.equals(arg)) {
+          if (!"text".equals(value) && !"json".equals(value)) {
+            System.out.println("Unknown output format \"" + value
+                + "\". Expected text or json.");
+            return;
+          }
+          json = "json".equals(value);
+          continue;
+        }
+        try {
+          if (FLAG_CLIENTS.equals(arg)) {
+            clients = Integer.parseInt(value);
+          } else if (FLAG_SOLVERS.equals(arg)) {
+            solvers = Integer.parseInt(value);
+          } else if (FLAG_RATE.equals(arg)) {
+            rate = Double.parseDouble(value);
+          } else if (FLAG_DURATION.equals(arg)) {
+            duration = Long.parseLong(value);
+          } else {
+            numIds = Integer.parseInt(value);
+          }
+        } catch (NumberFormatException nfe) {
+          System.out.println("Unable to parse " + value + " as a number.");
+          return;
+        }
+      } else {
+        positional.add(arg);
+      }
+    }
+
+    if (positional.size() < 2) {
+      System.out.println("Usage: Bench HOST ORIGIN [SOLVER_PORT CLIENT_PORT]"
+          + " [-c CLIENTS] [-w SOLVERS] [-r OPS_PER_SEC] [-t SECONDS]"
+          + " [-m MIX] [-n IDS] [-o text|json]");
+      return;
+    }
+    int solverPort = -1;
+    int clientPort = -1;
+    try {
+      if (positional.size() > 2) {
+        solverPort = Integer.parseInt(positional.get(2));
+      }
+      if (positional.size() > 3) {
+        clientPort = Integer.parseInt(positional.get(3));
+      }
+    } catch (NumberFormatException nfe) {
+      System.out.println("Unable to parse the port numbers.");
+      return;
+    }
+
+    Bench bench = new Bench(positional.get(0), positional.get(1), solverPort,
+        clientPort);
+    bench.setConnections(clients, solvers);
+    bench.setLoad(rate, duration);
+    bench.setNumIds(numIds);
+    try {
+      bench.setMix(mix);
+    } catch (IllegalArgumentException iae) {
+      System.out.println(iae.getMessage());
+      return;
+    }
+    try {
+      if (!bench.run()) {
+        System.exit(1);
+      }
+    } catch (InterruptedException ie) {
+      return;
+    }
+    System.out.println(json ? bench.getJsonReport() : bench.getTextReport());
+    System.exit(0);
+  }
+}
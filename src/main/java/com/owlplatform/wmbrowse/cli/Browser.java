@@ -19,25 +19,35 @@
 package com.owlplatform.wmbrowse.cli;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import jline.console.ConsoleReader;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.owlplatform.wmbrowse.cli.WritePipeline.WriteRequest;
 import com.owlplatform.worldmodel.Attribute;
-import com.owlplatform.worldmodel.client.ClientWorldConnection;
-import com.owlplatform.worldmodel.client.StepResponse;
 import com.owlplatform.worldmodel.client.WorldState;
-import com.owlplatform.worldmodel.solver.SolverWorldConnection;
-import com.owlplatform.worldmodel.solver.protocol.messages.AttributeAnnounceMessage.AttributeSpecification;
 import com.owlplatform.worldmodel.types.DataConverter;
 
 /**
@@ -135,21 +145,227 @@ public class Browser extends Thread {
    */
   public static final String CMD_COPY = "cp";
 
+  /**
+   * Command to control the snapshot cache.
+   */
+  public static final String CMD_CACHE = "cache";
+
+  /**
+   * Command to build, refresh, or drop the local Identifier index.
+   */
+  public static final String CMD_INDEX = "index";
+
+  /**
+   * Command to save Attribute values to a binary dump file.
+   */
+  public static final String CMD_EXPORT = "export";
+
+  /**
+   * Command to replay a binary dump file into the world model.
+   */
+  public static final String CMD_IMPORT = "import";
+
+  /**
+   * Option for the number of values sent per second.
+   */
+  public static final String OPT_RATE = "--rate";
+
+  /**
+   * Option for the speed at which values are replayed relative to their
+   * creation dates.
+   */
+  public static final String OPT_SPEED = "--speed";
+
+  /**
+   * Option for a point in time: when an expiration takes effect, or when the
+   * values shown by status were current.
+   */
+  public static final String OPT_AT = "--at";
+
+  /**
+   * Flag that counts the Identifiers an expire or rm would change, without
+   * changing them.
+   */
+  public static final String FLAG_DRY_RUN = "--dry-run";
+
+  /**
+   * Flag that makes expire and rm treat their Identifier as a regular
+   * expression, changing every Identifier that matches it.
+   */
+  public static final String FLAG_REGEX = "--regex";
+
+  /**
+   * Option for the largest number of expirations or deletions outstanding
+   * at once.
+   */
+  public static final String OPT_PARALLEL = "--parallel";
+
+  /**
+   * Command to follow changes to Attribute values as they happen.
+   */
+  public static final String CMD_WATCH = "watch";
+
+  /**
+   * Option for the time between renders of a watch.
+   */
+  public static final String OPT_INTERVAL = "--interval";
+
+  /**
+   * Option for how long a watch runs.
+   */
+  public static final String OPT_FOR = "--for";
+
+  /**
+   * Prints or resets the latencies of world model operations.
+   */
+  public static final String CMD_STATS = "stats";
+
   /**
    * Message to print that contains all commands and brief descriptions.
    */
   public static final String HELP_MSG = "Command - Usage\n"
       + "help - Print this information\n"
-      + "search ID_REGEX [ID_REGEX...] - Search for Identifiers using a regex\n"
-      + "status ID_REGEX [ID_REGEX...]- Current status for Identifiers using a regex\n"
-      + "history ID_REGEX [ID_REGEX...] - Entire history for Identifiers using a regex\n"
+      + "search [-u] ID_REGEX [ID_REGEX...] - Search for Identifiers using a regex\n"
+      + "status [-u] ID_REGEX [ID_REGEX...] [--attr ATTR_REGEX] [--at TIME] -\n"
+      + "  Current status for Identifiers using a regex, or the status at TIME;\n"
+      + "  only Attributes matching an --attr regex are sent\n"
+      + "  (-u prints results as they arrive instead of in order)\n"
+      + "history ID_REGEX [ID_REGEX...] [--from TIME] [--to TIME] [--attr ATTR_REGEX]\n"
+      + "  [--window DURATION] [--prefetch N] [--max-states N] - History for\n"
+      + "  Identifiers using a regex, read in windows of time\n"
+      + "  (search, status, and history accept --format text|jsonl|csv|tsv)\n"
       + "touch ID [ID...]- Create a new Identifier in the world model\n"
       + "update ID ATTR - Update an Identifier's Attribute in the world model\n"
-      + "expire ID [ATTR] - Expire an Identifier or a single Attribute in the world model\n"
-      + "rm ID [ATTR] - Delete an Identifier or a single Attribute in the world model\n"
+      + "expire [--regex] ID [ATTR] [--at TIME] [--dry-run] [--parallel N] -\n"
+      + "  Expire an Identifier or one of its Attributes\n"
+      + "rm [--regex] ID [ATTR] [--dry-run] [--parallel N] - Delete an\n"
+      + "  Identifier or one of its Attributes (with --regex, ID is a regex and\n"
+      + "  every matching Identifier changes; --dry-run only counts)\n"
       + "cp [-r] SRC_ID DST_ID - Copy an Identifier's current or historic state to\n"
-      + "  a new Identifier value\n" + "quit - Exit the application\n"
-      + "exit - Exit the application";
+      + "  a new Identifier value\n"
+      + "cache on [TTL [SIZE]]|off|clear|stats - Control the status cache\n"
+      + "export FILE ID_REGEX [ID_REGEX...] [--from TIME] [--to TIME]\n"
+      + "  [--attr ATTR_REGEX] - Save current values, or the history between\n"
+      + "  --from and --to, to a binary dump file\n"
+      + "watch ID_REGEX [--attr ATTR_REGEX] [--interval DURATION]\n"
+      + "  [--for DURATION] - Print Attribute values as they change, at most\n"
+      + "  once per interval (Ctrl-C ends the watch; --for is required by the\n"
+      + "  daemon)\n"
+      + "import FILE [--rate N] [--speed X] - Replay a dump file, as fast as\n"
+      + "  possible, at N values/sec, or at X times the original pace\n"
+      + "index load|refresh|off|stats - Control the local Identifier index used\n"
+      + "  for anchored searches (^ID, ^ID.*, ^ID$) and tab completion\n"
+      + "stats [reset] - Print or reset the count, latency percentiles, and\n"
+      + "  throughput of each kind of world model operation\n"
+      + "quit - Exit the application\n"
+      + "exit - Exit the application\n"
+      + "Multiple commands may be given on one line, separated by \";\".\n"
+      + "TIME is now, YYYYMMDD[hhmmss], epoch milliseconds, or relative (-7d).\n"
+      + "DURATION is a number with a unit of ms, s, m, h, d, or w (1d).";
+
+  /**
+   * Command-line flag that names a script file to read commands from.
+   */
+  public static final String FLAG_SCRIPT = "-f";
+
+  /**
+   * Script file name that means "read the script from standard input".
+   * Standard input is only read as a script when this is given explicitly,
+   * since whether it is a terminal cannot be told apart from standard output
+   * being redirected.
+   */
+  public static final String SCRIPT_STDIN = "-";
+
+  /**
+   * Flag for {@code search} and {@code status} that prints results as they
+   * arrive instead of in the order the expressions were given.
+   */
+  public static final String FLAG_UNORDERED = "-u";
+
+  /**
+   * Flag for {@code cp} that copies the whole history instead of the current
+   * state.
+   */
+  public static final String FLAG_RECURSIVE = "-r";
+
+  /**
+   * Option for the beginning of a time range.
+   */
+  public static final String OPT_FROM = "--from";
+
+  /**
+   * Option for the end of a time range.
+   */
+  public static final String OPT_TO = "--to";
+
+  /**
+   * Option for an Attribute name regular expression.
+   */
+  public static final String OPT_ATTRIBUTE = "--attr";
+
+  /**
+   * Option for the size of the first window of a history.
+   */
+  public static final String OPT_WINDOW = "--window";
+
+  /**
+   * Option for the number of history windows requested ahead.
+   */
+  public static final String OPT_PREFETCH = "--prefetch";
+
+  /**
+   * Option for the approximate number of history states buffered at once.
+   */
+  public static final String OPT_MAX_STATES = "--max-states";
+
+  /**
+   * Separator between multiple commands on a single line.
+   */
+  public static final char COMMAND_SEPARATOR = ';';
+
+  /**
+   * Command-line flag for the maximum number of writes waiting to be sent.
+   */
+  public static final String FLAG_WRITE_QUEUE = "-q";
+
+  /**
+   * Command-line flag for the maximum number of Attribute values sent in one
+   * update.
+   */
+  public static final String FLAG_WRITE_BATCH = "-b";
+
+  /**
+   * Command-line flag for the time to wait for a batch of writes to fill, in
+   * milliseconds.
+   */
+  public static final String FLAG_WRITE_LINGER = "-l";
+
+  /**
+   * Command-line flag for the default output format of read commands.
+   */
+  public static final String FLAG_OUTPUT_FORMAT = "-o";
+
+  /**
+   * Option for the output format of a single read command.
+   */
+  public static final String OPT_FORMAT = "--format";
+
+  /**
+   * Command-line flag that prints world model latency statistics at exit.
+   */
+  public static final String FLAG_STATS = "-s";
+
+  /**
+   * Size of the buffer for the output of read commands, in characters.
+   */
+  public static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+  /**
+   * Maximum number of read commands ({@code search}, {@code status},
+   * {@code history}) that are sent to the world model ahead of the command
+   * currently being printed when running a script.
+   */
+  public static final int PIPELINE_DEPTH = 16;
 
   /**
    * Expects a server hostname/IP and origin value. Optionally provides the
@@ -162,9 +378,64 @@ public class Browser extends Thread {
    *          <li>(<em>Optional</em>) solver port</li>
    *          <li>(<em>Optional</em>) client port</li>
    *          </ol>
+   *          followed by any of the options {@code -f SCRIPT},
+   *          {@code -q WRITE_QUEUE_SIZE}, {@code -b WRITE_BATCH_SIZE},
+   *          {@code -l WRITE_LINGER_MS}, {@code -o OUTPUT_FORMAT}, and
+   *          {@code -s}.
    */
   public static void main(String[] args) {
     System.out.println(ABOUT_TXT);
+
+    String scriptFile = null;
+    int writeQueueSize = WritePipeline.DEFAULT_QUEUE_SIZE;
+    int writeBatchSize = WritePipeline.DEFAULT_BATCH_SIZE;
+    long writeLinger = WritePipeline.DEFAULT_LINGER_TIME;
+    ResultFormatter.Format outputFormat = ResultFormatter.Format.TEXT;
+    boolean printStats = false;
+    List<String> positional = new ArrayList<String>();
+    for (int i = 0; i < args.length; ++i) {
+      String arg = args[i];
+      if (FLAG_STATS.equals(arg)) {
+        printStats = true;
+      } else if (FLAG_SCRIPT.equals(arg) || FLAG_WRITE_QUEUE.equals(arg)
+          || FLAG_WRITE_BATCH.equals(arg) || FLAG_WRITE_LINGER.equals(arg)
+          || FLAG_OUTPUT_FORMAT.equals(arg)) {
+        if (i + 1 >= args.length) {
+          System.out.println("Missing value after " + arg + ".");
+          return;
+        }
+        String value = args[++i];
+        if (FLAG_SCRIPT.equals(arg)) {
+          scriptFile = value;
+          continue;
+        }
+        if (FLAG_OUTPUT_FORMAT.equals(arg)) {
+          try {
+            outputFormat = ResultFormatter.Format.parse(value);
+          } catch (IllegalArgumentException iae) {
+            System.out.println(iae.getMessage());
+            return;
+          }
+          continue;
+        }
+        try {
+          if (FLAG_WRITE_QUEUE.equals(arg)) {
+            writeQueueSize = Integer.parseInt(value);
+          } else if (FLAG_WRITE_BATCH.equals(arg)) {
+            writeBatchSize = Integer.parseInt(value);
+          } else {
+            writeLinger = Long.parseLong(value);
+          }
+        } catch (NumberFormatException nfe) {
+          System.out.println("Unable to parse " + value + " as a number.");
+          return;
+        }
+      } else {
+        positional.add(args[i]);
+      }
+    }
+    args = positional.toArray(new String[positional.size()]);
+
     if (args.length < 1) {
       System.out.println("Missing world model hostname/IP address.");
       return;
@@ -201,19 +472,35 @@ public class Browser extends Thread {
       }
     }
 
-    Browser b = new Browser(wmHost, origin, solverPort, clientPort);
+    // Only an explicit script is run as one; see SCRIPT_STDIN
+    boolean scripted = scriptFile != null;
+    BufferedReader commandIn;
+    if (scriptFile == null || SCRIPT_STDIN.equals(scriptFile)) {
+      commandIn = new BufferedReader(new InputStreamReader(System.in));
+    } else {
+      try {
+        commandIn = new BufferedReader(new InputStreamReader(
+            new FileInputStream(scriptFile)));
+      } catch (IOException ioe) {
+        System.out.println("Unable to open script file \"" + scriptFile
+            + "\".");
+        log.error("Unable to open script file.", ioe);
+        return;
+      }
+    }
+
+    Browser b = new Browser(wmHost, origin, solverPort, clientPort, commandIn,
+        scripted);
+    b.configureWrites(writeQueueSize, writeBatchSize, writeLinger);
+    b.setOutputFormat(outputFormat);
+    b.setPrintStats(printStats);
     b.start();
   }
 
   /**
-   * Client connection to the world model.
-   */
-  private final ClientWorldConnection cwc = new ClientWorldConnection();
-
-  /**
-   * Solver connection to the world model.
+   * Connections to the world model and the operations made over them.
    */
-  private final SolverWorldConnection swc = new SolverWorldConnection();
+  private final WorldModelSession session;
 
   /**
    * Flag to keep running the main application loop.
@@ -231,14 +518,66 @@ public class Browser extends Thread {
   private final String hostString;
 
   /**
-   * Origin value to use when updating Attribute values.
+   * The current prompt shown to the user.
    */
-  private final String origin;
+  private String currentPrompt = PROMPT;
 
   /**
-   * The current prompt shown to the user.
+   * Whether commands are read from a script (file or pipe) instead of an
+   * interactive user. Scripts are not prompted and have their read commands
+   * pipelined.
    */
-  private String currentPrompt = PROMPT;
+  private final boolean scripted;
+
+  /**
+   * Commands split from the most recent input line that have not been
+   * executed yet.
+   */
+  private final ArrayDeque<String> queuedCommands = new ArrayDeque<String>();
+
+  /**
+   * Whether the session is shared with other browsers, in which case it is
+   * already connected and is not closed when this browser exits.
+   */
+  private final boolean sharedSession;
+
+  /**
+   * Where messages and prompts are printed.
+   */
+  private final PrintStream out;
+
+  /**
+   * Buffered output for the results of read commands. Flushed at the end of
+   * each command.
+   */
+  private final PrintWriter resultOut;
+
+  /**
+   * Default output format of read commands.
+   */
+  private ResultFormatter.Format outputFormat = ResultFormatter.Format.TEXT;
+
+  /**
+   * Line editor for interactive use, or {@code null} if commands are read
+   * directly from {@link #userIn}.
+   */
+  private ConsoleReader console = null;
+
+  /**
+   * Whether the session's latency statistics are printed when the browser
+   * exits.
+   */
+  private boolean printStats = false;
+
+  /**
+   * Handlers of the commands, by name.
+   */
+  private final CommandTable commands;
+
+  /**
+   * Completes commands, Identifiers, and Attribute names at the prompt.
+   */
+  private final CommandCompleter completer;
 
   /**
    * Constructs a new Browser object using the hostname, solver port, and client
@@ -257,127 +596,537 @@ public class Browser extends Thread {
    */
   public Browser(final String wmHost, final String origin,
       final int solverPort, final int clientPort) {
-    this.cwc.setHost(wmHost);
-    this.swc.setHost(wmHost);
-    this.swc.setOriginString(origin);
-    if (solverPort >= 0) {
-      this.swc.setPort(solverPort);
-    }
-    if (clientPort >= 0) {
-      this.cwc.setPort(clientPort);
-    }
+    this(wmHost, origin, solverPort, clientPort, new BufferedReader(
+        new InputStreamReader(System.in)), false);
+  }
+
+  /**
+   * Constructs a new Browser object that reads its commands from
+   * {@code commandIn}. If {@code scripted} is {@code true}, no prompt is
+   * printed and consecutive read commands are sent to the world model before
+   * their results are printed.
+   * 
+   * @param wmHost
+   *          the hostname or IP address of the world model
+   * @param origin
+   *          the origin string for Identifiers and Attributes sent to the world
+   *          model
+   * @param solverPort
+   *          the alternate solver port number
+   * @param clientPort
+   *          the alternate client port number
+   * @param commandIn
+   *          the source of commands
+   * @param scripted
+   *          {@code true} if {@code commandIn} is a script rather than an
+   *          interactive user.
+   */
+  public Browser(final String wmHost, final String origin,
+      final int solverPort, final int clientPort,
+      final BufferedReader commandIn, final boolean scripted) {
+    this(new WorldModelSession(wmHost, origin, solverPort, clientPort),
+        false, commandIn, System.out, scripted);
+  }
+
+  /**
+   * Constructs a new Browser object that runs a script from
+   * {@code commandIn} over a session shared with other browsers, printing
+   * to {@code out}. The session must already be connected, and is left open
+   * when the script ends.
+   * 
+   * @param session
+   *          the connected session.
+   * @param commandIn
+   *          the source of commands.
+   * @param out
+   *          where the output of the commands is printed.
+   */
+  public Browser(final WorldModelSession session,
+      final BufferedReader commandIn, final PrintStream out) {
+    this(session, true, commandIn, out, true);
+  }
+
+  /**
+   * Constructs a new Browser object.
+   * 
+   * @param session
+   *          the world model session.
+   * @param sharedSession
+   *          {@code true} if the session is already connected and shared.
+   * @param commandIn
+   *          the source of commands.
+   * @param out
+   *          where the output of the commands is printed.
+   * @param scripted
+   *          {@code true} if {@code commandIn} is a script rather than an
+   *          interactive user.
+   */
+  private Browser(final WorldModelSession session,
+      final boolean sharedSession, final BufferedReader commandIn,
+      final PrintStream out, final boolean scripted) {
+    this.session = session;
+    this.sharedSession = sharedSession;
+    this.out = out;
+    // Results to standard output skip the locking of System.out
+    this.resultOut = new PrintWriter(new BufferedWriter(
+        new OutputStreamWriter(out == System.out ? new FileOutputStream(
+            FileDescriptor.out) : out), OUTPUT_BUFFER_SIZE), false);
+    this.completer = new CommandCompleter(Arrays.asList(CMD_HELP, CMD_SEARCH,
+        CMD_STATUS, CMD_HISTORY, CMD_CREATE_ID, CMD_UPDATE_ATTRIB, CMD_EXPIRE,
+        CMD_DELETE, CMD_COPY, CMD_CACHE, CMD_INDEX, CMD_EXPORT, CMD_IMPORT,
+        CMD_WATCH, CMD_STATS, CMD_QUIT, CMD_EXIT), Arrays.asList(
+        CMD_UPDATE_ATTRIB, CMD_EXPIRE, CMD_DELETE), OPT_ATTRIBUTE,
+        this.session.getAttributes());
+
+    this.hostString = session.getHost();
+    this.currentPrompt = "[" + session.getOrigin() + "@" + this.hostString
+        + "]" + PROMPT;
+
+    this.userIn = commandIn;
+    this.scripted = scripted;
+    this.commands = new CommandTable(out);
+    this.registerCommands();
+  }
+
+  /**
+   * Configures the write pipeline. Must be called before the browser is
+   * started.
+   * 
+   * @param queueSize
+   *          the maximum number of writes waiting to be sent.
+   * @param batchSize
+   *          the maximum number of Attribute values sent in one update.
+   * @param lingerTime
+   *          the time to wait for a batch of writes to fill, in milliseconds.
+   */
+  public void configureWrites(final int queueSize, final int batchSize,
+      final long lingerTime) {
+    this.session.configureWrites(queueSize, batchSize, lingerTime);
+  }
+
+  /**
+   * Returns the session this browser sends its commands through.
+   * 
+   * @return the world model session.
+   */
+  public WorldModelSession getSession() {
+    return this.session;
+  }
 
-    this.hostString = wmHost;
-    this.origin = origin;
-    this.currentPrompt = "[" + origin + "@" + this.hostString + "]" + PROMPT;
+  /**
+   * Sets the default output format of read commands.
+   * 
+   * @param format
+   *          the output format.
+   */
+  public void setOutputFormat(final ResultFormatter.Format format) {
+    this.outputFormat = format;
+  }
 
-    this.userIn = new BufferedReader(new InputStreamReader(System.in));
+  /**
+   * Sets whether latency statistics are printed when the browser exits.
+   * 
+   * @param printStats
+   *          {@code true} to print the statistics at exit.
+   */
+  public void setPrintStats(final boolean printStats) {
+    this.printStats = printStats;
+  }
+
+  /**
+   * Creates a formatter for the results of a read command, removing the
+   * {@link #OPT_FORMAT} option from its arguments if present.
+   * 
+   * @param components
+   *          the command arguments.
+   * @return the formatter.
+   * @throws IllegalArgumentException
+   *           if the format is missing or unknown.
+   */
+  protected ResultFormatter newFormatter(final List<String> components) {
+    String name = removeOption(components, OPT_FORMAT);
+    return new ResultFormatter(name == null ? this.outputFormat
+        : ResultFormatter.Format.parse(name), this.resultOut);
   }
 
   @Override
   public void run() {
+    if (this.sharedSession) {
+      this.runScript();
+      this.shutdown();
+      return;
+    }
+
+    this.session.setConnectionListener(
+        new WorldModelSession.ConnectionListener() {
+          @Override
+          public void connectionLost(final boolean solver) {
+            Browser.this.out.println("[Lost the "
+                + (solver ? "solver" : "client")
+                + " connection. Reconnecting...]");
+          }
 
-    // Client connection
-    System.out.print("[Connecting to " + this.cwc + "...");
-    if (!this.cwc.connect(10000)) {
-      System.out.println("FAIL]");
+          @Override
+          public void connectionRestored(final boolean solver) {
+            Browser.this.out.println("[Reconnected the "
+                + (solver ? "solver" : "client") + " connection]");
+          }
+        });
+
+    // Client connection; the solver connects on the first write
+    long started = System.nanoTime();
+    this.out.print("[Connecting to " + this.session.getClientConnection()
+        + "...");
+    if (!this.session.connectClient()) {
+      this.out.println("FAIL]");
+      this.session.close();
       return;
     }
-    int waitingTimes = 0;
-    while (!this.cwc.isConnected() && waitingTimes++ < 20) {
-      try {
-        Thread.sleep(500);
-      } catch (InterruptedException ie) {
-        // Ignored
+    this.out.println("OK]");
+
+    if (this.scripted) {
+      this.out.println();
+      this.runScript();
+    } else {
+      this.openConsole();
+      this.out.println("[Ready in "
+          + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started)
+          + " ms]");
+      this.out.println();
+      while (this.keepRunning && this.mainLoop()) {
+        // Keep handling commands
       }
-      System.out.print('.');
     }
-    if (waitingTimes >= 20) {
-      System.out.println("FAIL]");
-      this.cwc.disconnect();
+
+    this.shutdown();
+  }
+
+  /**
+   * Wraps the handler of a command that writes so that the solver is
+   * connected before the first write.
+   * 
+   * @param handler
+   *          the command's handler.
+   * @return a handler that connects the solver, then calls {@code handler}.
+   */
+  private CommandTable.Handler writing(final CommandTable.Handler handler) {
+    return new CommandTable.Handler() {
+      @Override
+      public void handle(final ParsedCommand command) {
+        if (Browser.this.connectSolver()) {
+          handler.handle(command);
+        }
+      }
+    };
+  }
+
+  /**
+   * Connects the solver connection if it is not already connected, printing
+   * the progress.
+   * 
+   * @return {@code true} if the solver is connected, else {@code false}.
+   */
+  protected boolean connectSolver() {
+    if (this.session.isSolverConnected()) {
+      return true;
+    }
+    this.out.print("[Connecting to " + this.session.getSolverConnection()
+        + "...");
+    if (!this.session.connectSolver()) {
+      this.out.println("FAIL]");
+      return false;
+    }
+    this.out.println("OK]");
+    return true;
+  }
+
+  /**
+   * Shuts down the world model connections, unless the session is shared.
+   * Cleans-up any remaining threads, objects, etc.
+   */
+  protected void shutdown() {
+    if (this.sharedSession) {
+      this.resultOut.flush();
+      this.out.flush();
       return;
     }
-    System.out.println("OK]");
+    this.session.close();
+    WritePipeline writes = this.session.getWrites();
+    if (writes != null && writes.getNumSubmitted() > 0) {
+      this.out.println(writes.getSummary());
+    }
+    if (this.printStats) {
+      this.out.println(this.session.getStats().getReport());
+    }
+    if (this.console != null) {
+      this.console.shutdown();
+    }
 
-    // Solver connection
+    this.out.println("--Disconnected--");
+  }
 
-    System.out.print("[Connecting to " + this.swc + "...");
-    if (!this.swc.connect(10000)) {
-      System.out.println("FAIL]");
-      return;
+  /**
+   * Blocks until the next user command is available, interprets it, and takes
+   * action.
+   * 
+   * @return {@code true} if the loop should continue, or {@code false} if the
+   *         input has ended or an unrecoverable error occurred.
+   */
+  protected boolean mainLoop() {
+    String command;
+    try {
+      command = this.nextCommand();
+    } catch (Throwable e) {
+      this.out
+          .println("An error has occurred. See the log for more information.");
+      log.error("Unable to read the next command.", e);
+      this.keepRunning = false;
+      return false;
     }
-    waitingTimes = 0;
-    while (!this.swc.isConnectionLive() && waitingTimes++ < 20) {
+    if (command == null) {
+      this.keepRunning = false;
+      return false;
+    }
+    if (command.length() > 0) {
       try {
-        Thread.sleep(500);
-      } catch (InterruptedException ie) {
-        // Ignored
+        this.handleCommand(command);
+      } catch (Throwable e) {
+        // One failed command does not end the session
+        this.commandFailed(e);
       }
-      System.out.print('.');
-    }
-    if (waitingTimes >= 20) {
-      System.out.println("FAIL]");
-      this.swc.disconnect();
-      return;
     }
+    return true;
+  }
 
-    System.out.println("OK]");
-    System.out.println();
-    System.out.print(this.currentPrompt);
+  /**
+   * Reports a command that failed with an unexpected exception.
+   * 
+   * @param e
+   *          the exception.
+   */
+  private void commandFailed(final Throwable e) {
+    this.out
+        .println("An error has occurred. See the log for more information.");
+    log.error("An unhandled exception occurred.", e);
+  }
 
-    while (this.keepRunning) {
-      if (!this.mainLoop()) {
-        try {
-          Thread.sleep(10);
-        } catch (InterruptedException ie) {
-          // Ignored
-        }
-      } else if (this.keepRunning) {
-        System.out.print(this.currentPrompt);
+  /**
+   * Returns the next command to execute, reading another line of input if no
+   * commands are left over from the previous line. Blocks until input is
+   * available.
+   * 
+   * @return the next command, or {@code null} if the input has ended.
+   * @throws IOException
+   *           if an exception is thrown while reading the input.
+   */
+  protected String nextCommand() throws IOException {
+    while (this.queuedCommands.isEmpty()) {
+      String line = this.readInputLine(this.scripted ? null
+          : this.currentPrompt);
+      if (line == null) {
+        return null;
+      }
+      this.queuedCommands.addAll(splitCommands(line));
+      if (this.queuedCommands.isEmpty() && !this.scripted) {
+        // Empty line, prompt again
+        return "";
       }
-
     }
-
-    this.shutdown();
+    return this.queuedCommands.poll();
   }
 
   /**
-   * Shuts down the world model connections. Cleans-up any remaining threads,
-   * objects, etc.
+   * Returns the next command to execute, already parsed.
+   * 
+   * @return the next command, or {@code null} if the input has ended.
+   * @throws IOException
+   *           if an exception is thrown while reading the input.
    */
-  protected void shutdown() {
-    this.cwc.disconnect();
-    this.swc.disconnect();
+  private ParsedCommand nextParsedCommand() throws IOException {
+    String command = this.nextCommand();
+    return command == null ? null : ParsedCommand.parse(command);
+  }
 
-    System.out.println("--Disconnected--");
+  /**
+   * Switches to a line editor with tab completion if standard input is a
+   * terminal. Falls back to plain reads if the terminal cannot be used.
+   */
+  protected void openConsole() {
+    if (System.console() == null) {
+      return;
+    }
+    try {
+      this.console = new ConsoleReader();
+      this.console.addCompleter(this.completer);
+    } catch (IOException ioe) {
+      log.warn("Unable to open the console. Tab completion is disabled.",
+          ioe);
+      this.console = null;
+    }
   }
 
   /**
-   * Checks if user input is available, interprets it, takes action, and returns
-   * with {@code true}.
+   * Reads a line of user input, showing a prompt first.
    * 
-   * @return {@code true} if a command was handled, else {@code false}.
+   * @param prompt
+   *          the prompt, or {@code null} for none.
+   * @return the line, or {@code null} if the input has ended.
+   * @throws IOException
+   *           if an exception is thrown while reading the input.
    */
-  protected boolean mainLoop() {
+  protected String readInputLine(final String prompt) throws IOException {
+    if (this.console != null) {
+      return prompt == null ? this.console.readLine() : this.console
+          .readLine(prompt);
+    }
+    if (prompt != null) {
+      this.out.print(prompt);
+    }
+    return this.userIn.readLine();
+  }
 
+  /**
+   * Executes commands from a script until the script ends or an exit command
+   * is read. Consecutive read commands are sent to the world model up to
+   * {@link #PIPELINE_DEPTH} commands ahead so that their round-trips overlap,
+   * but results are always printed in script order. Any other command waits
+   * for all earlier reads to be printed before it executes.
+   */
+  protected void runScript() {
+    ArrayDeque<PendingRead> inFlight = new ArrayDeque<PendingRead>();
     try {
-      if (System.in.available() > 0) {
-
-        String line = this.userIn.readLine().trim();
-        if (line.length() == 0) {
-          return true;
+      ParsedCommand next = this.nextParsedCommand();
+      while (this.keepRunning && (next != null || !inFlight.isEmpty())) {
+        if (next != null && inFlight.size() < PIPELINE_DEPTH
+            && isPipelinedRead(next)) {
+          try {
+            PendingRead read = this.requestRead(next);
+            if (read != null) {
+              inFlight.add(read);
+            }
+          } catch (RuntimeException re) {
+            this.commandFailed(re);
+          }
+          next = this.nextParsedCommand();
+        } else if (!inFlight.isEmpty()) {
+          PendingRead read = inFlight.poll();
+          try {
+            read.finish();
+          } catch (RuntimeException re) {
+            this.commandFailed(re);
+          }
+        } else {
+          try {
+            this.handleCommand(next);
+          } catch (RuntimeException re) {
+            this.commandFailed(re);
+          }
+          next = this.nextParsedCommand();
         }
-
-        this.handleCommand(line);
-        return true;
       }
     } catch (Throwable e) {
-      System.out
+      this.out
           .println("An error has occurred. See the log for more information.");
       log.error("An unhandled exception occurred.", e);
-      this.keepRunning = false;
     }
-    return false;
+    this.keepRunning = false;
+  }
+
+  /**
+   * Splits a line of input into individual commands separated by
+   * {@link #COMMAND_SEPARATOR}. Separators inside single or double quotes are
+   * ignored. Empty commands are dropped.
+   * 
+   * @param line
+   *          the line of input.
+   * @return the trimmed commands from the line, possibly empty.
+   */
+  protected static List<String> splitCommands(final String line) {
+    List<String> commands = new ArrayList<String>();
+    char quote = 0;
+    int start = 0;
+    for (int i = 0; i < line.length(); ++i) {
+      char c = line.charAt(i);
+      if (quote != 0) {
+        if (c == quote) {
+          quote = 0;
+        }
+      } else if (c == '"' || c == '\'') {
+        quote = c;
+      } else if (c == COMMAND_SEPARATOR) {
+        addCommand(commands, line.substring(start, i));
+        start = i + 1;
+      }
+    }
+    addCommand(commands, line.substring(start));
+    return commands;
+  }
+
+  /**
+   * Adds a trimmed command to a list if it is not empty.
+   * 
+   * @param commands
+   *          the list to add to.
+   * @param command
+   *          the untrimmed command.
+   */
+  private static void addCommand(final List<String> commands,
+      final String command) {
+    String trimmed = command.trim();
+    if (trimmed.length() > 0) {
+      commands.add(trimmed);
+    }
+  }
+
+  /**
+   * Determines whether a command only reads from the world model and can be
+   * sent ahead of the commands before it.
+   * 
+   * @param command
+   *          the command.
+   * @return {@code true} if the command is a pipelined read.
+   */
+  protected static boolean isPipelinedRead(final ParsedCommand command) {
+    String name = command.getName();
+    return CMD_SEARCH.equals(name) || CMD_STATUS.equals(name)
+        || CMD_HISTORY.equals(name);
+  }
+
+  /**
+   * Sends the world model requests for a read command without waiting for
+   * the results.
+   * 
+   * @param command
+   *          a command for which {@link #isPipelinedRead(ParsedCommand)} is
+   *          {@code true}.
+   * @return the pending results, or {@code null} if the command was invalid.
+   */
+  protected PendingRead requestRead(final ParsedCommand command) {
+    if (command.getArgs().isEmpty()) {
+      // Let the command table print the usage
+      this.handleCommand(command);
+      return null;
+    }
+    String name = command.getName();
+    if (CMD_SEARCH.equals(name)) {
+      return this.requestIdSearch(command.getArgs());
+    } else if (CMD_STATUS.equals(name)) {
+      return this.requestStatus(command.getArgs());
+    }
+    return this.requestHistory(command.getArgs());
+  }
+
+  /**
+   * A read command whose requests were sent to the world model but whose
+   * results have not been printed yet.
+   * 
+   * @author Robert Moore
+   */
+  protected interface PendingRead {
+    /**
+     * Waits for the results of the read and prints them.
+     */
+    void finish();
   }
 
   /**
@@ -391,250 +1140,894 @@ public class Browser extends Thread {
     if (command == null) {
       return;
     }
-    if (CMD_EXIT.equalsIgnoreCase(command)
-        || CMD_QUIT.equalsIgnoreCase(command)) {
-      this.stopRunning();
-    } else if (CMD_HELP.equalsIgnoreCase(command)) {
-      this.getHelp();
-    } else if (command.startsWith(CMD_SEARCH)) {
-      this.performIdSearch(command);
-    } else if (command.startsWith(CMD_STATUS)) {
-      this.currentStatus(command);
-    } else if (command.startsWith(CMD_HISTORY)) {
-      this.history(command);
-    } else if (command.startsWith(CMD_CREATE_ID)) {
-      this.createId(command);
-    } else if (command.startsWith(CMD_UPDATE_ATTRIB)) {
-      this.updateAttribute(command);
-    } else if (command.startsWith(CMD_EXPIRE)) {
-      this.expire(command);
-    } else if (command.startsWith(CMD_DELETE)) {
-      this.delete(command);
-    } else if (command.startsWith(CMD_COPY)) {
-      this.copy(command);
-    } else {
-      System.out.println("Command not found \"" + command
-          + "\".\nType \"help\" for a list of commands.");
+    this.handleCommand(ParsedCommand.parse(command));
+  }
+
+  /**
+   * Dispatches a parsed command through the command table.
+   * 
+   * @param command
+   *          the parsed command.
+   */
+  protected void handleCommand(final ParsedCommand command) {
+    if (command.getName().length() == 0) {
+      return;
+    }
+    this.commands.dispatch(command);
+  }
+
+  /**
+   * Registers every command with its argument counts and handler.
+   */
+  private void registerCommands() {
+    CommandTable.Handler quit = new CommandTable.Handler() {
+      @Override
+      public void handle(final ParsedCommand command) {
+        Browser.this.stopRunning();
+      }
+    };
+    this.commands.add(CMD_HELP, 0, 0, CMD_HELP, new CommandTable.Handler() {
+      @Override
+      public void handle(final ParsedCommand command) {
+        Browser.this.getHelp();
+      }
+    });
+    this.commands.add(CMD_SEARCH, 1, CommandTable.UNLIMITED,
+        "search [-u] ID_REGEX [ID_REGEX...]", new CommandTable.Handler() {
+          @Override
+          public void handle(final ParsedCommand command) {
+            Browser.this.performIdSearch(command.getArgs());
+          }
+        });
+    this.commands.add(CMD_STATUS, 1, CommandTable.UNLIMITED,
+        "status [-u] ID_REGEX [ID_REGEX...] [--attr ATTR_REGEX] [--at TIME]",
+        new CommandTable.Handler() {
+          @Override
+          public void handle(final ParsedCommand command) {
+            Browser.this.currentStatus(command.getArgs());
+          }
+        });
+    this.commands.add(CMD_HISTORY, 1, CommandTable.UNLIMITED,
+        "history ID_REGEX [ID_REGEX...] [--from TIME] [--to TIME] ...",
+        new CommandTable.Handler() {
+          @Override
+          public void handle(final ParsedCommand command) {
+            Browser.this.history(command.getArgs());
+          }
+        });
+    this.commands.add(CMD_CREATE_ID, 1, CommandTable.UNLIMITED,
+        "touch ID [ID...]", this.writing(new CommandTable.Handler() {
+          @Override
+          public void handle(final ParsedCommand command) {
+            Browser.this.createId(command.getArgs());
+          }
+        }));
+    this.commands.add(CMD_UPDATE_ATTRIB, 2, 2, "update ID ATTR",
+        this.writing(new CommandTable.Handler() {
+          @Override
+          public void handle(final ParsedCommand command) {
+            Browser.this.updateAttribute(command.getArgs());
+          }
+        }));
+    this.commands.add(CMD_EXPIRE, 1, 8,
+        "expire [--regex] ID [ATTR] [--at TIME] [--dry-run] [--parallel N]",
+        this.writing(new CommandTable.Handler() {
+          @Override
+          public void handle(final ParsedCommand command) {
+            Browser.this.expire(command.getArgs());
+          }
+        }));
+    this.commands.add(CMD_DELETE, 1, 6,
+        "rm [--regex] ID [ATTR] [--dry-run] [--parallel N]",
+        this.writing(new CommandTable.Handler() {
+          @Override
+          public void handle(final ParsedCommand command) {
+            Browser.this.delete(command.getArgs());
+          }
+        }));
+    this.commands.add(CMD_COPY, 2, 3, "cp [-r] SRC_ID DST_ID",
+        this.writing(new CommandTable.Handler() {
+          @Override
+          public void handle(final ParsedCommand command) {
+            Browser.this.copy(command.getArgs());
+          }
+        }));
+    this.commands.add(CMD_CACHE, 0, 3, "cache on [TTL [SIZE]]|off|clear|stats",
+        new CommandTable.Handler() {
+          @Override
+          public void handle(final ParsedCommand command) {
+            Browser.this.cache(command.getArgs());
+          }
+        });
+    this.commands.add(CMD_INDEX, 0, 1, "index load|refresh|off|stats",
+        new CommandTable.Handler() {
+          @Override
+          public void handle(final ParsedCommand command) {
+            Browser.this.index(command.getArgs());
+          }
+        });
+    this.commands.add(CMD_EXPORT, 2, CommandTable.UNLIMITED,
+        "export FILE ID_REGEX [ID_REGEX...] [--from TIME] [--to TIME] ...",
+        new CommandTable.Handler() {
+          @Override
+          public void handle(final ParsedCommand command) {
+            Browser.this.export(command.getArgs());
+          }
+        });
+    this.commands.add(CMD_IMPORT, 1, 5, "import FILE [--rate N] [--speed X]",
+        this.writing(new CommandTable.Handler() {
+          @Override
+          public void handle(final ParsedCommand command) {
+            Browser.this.importDump(command.getArgs());
+          }
+        }));
+    this.commands.add(CMD_WATCH, 1, CommandTable.UNLIMITED,
+        "watch ID_REGEX [--attr ATTR_REGEX] [--interval DURATION] ...",
+        new CommandTable.Handler() {
+          @Override
+          public void handle(final ParsedCommand command) {
+            Browser.this.watch(command.getArgs());
+          }
+        });
+    this.commands.add(CMD_STATS, 0, 1, "stats [reset]",
+        new CommandTable.Handler() {
+          @Override
+          public void handle(final ParsedCommand command) {
+            Browser.this.stats(command.getArgs());
+          }
+        });
+    this.commands.add(CMD_QUIT, 0, 0, CMD_QUIT, quit);
+    this.commands.add(CMD_EXIT, 0, 0, CMD_EXIT, quit);
+  }
+
+  /**
+   * Terminates the application. Performs any necessary clean-up before the
+   * connections are terminated.
+   */
+  protected void stopRunning() {
+    this.keepRunning = false;
+  }
+
+  /**
+   * Provides the user with command-based help.
+   */
+  protected void getHelp() {
+    this.out.println(HELP_MSG);
+  }
+
+  /**
+   * Searches for matching Identifier values given a regular expression
+   * 
+   * @param args
+   *          the command arguments.
+   */
+  protected void performIdSearch(final List<String> args) {
+    PendingRead search = this.requestIdSearch(args);
+    if (search != null) {
+      search.finish();
+    }
+  }
+
+  /**
+   * Starts searching for matching Identifier values given one or more regular
+   * expressions. All of the searches are queued at once on the search thread.
+   * If the first argument is {@link #FLAG_UNORDERED}, results are printed as
+   * they arrive instead of in the order of the expressions. Expressions that
+   * the local Identifier index can answer are not sent to the world model.
+   * 
+   * @param args
+   *          the command arguments.
+   * @return the pending search results, or {@code null} if the command was
+   *         invalid.
+   */
+  protected PendingRead requestIdSearch(final List<String> args) {
+    final List<String> idList = args;
+    final boolean inOrder = !removeFlag(idList, FLAG_UNORDERED);
+    final ResultFormatter output;
+    try {
+      output = this.newFormatter(idList);
+    } catch (IllegalArgumentException iae) {
+      this.out.println(iae.getMessage() + " Unable to search.");
+      return null;
+    }
+    if (idList == null || idList.isEmpty()) {
+      this.out.println("Missing Identifier. Unable to create.");
+      return null;
+    }
+
+    final FanOut<String[]> searches = new FanOut<String[]>();
+    for (String entry : idList) {
+      this.session.search(entry, searches.add(entry));
+    }
+
+    return new PendingRead() {
+      @Override
+      public void finish() {
+        try {
+          searches.finish(inOrder, new FanOut.ResultHandler<String[]>() {
+            @Override
+            public void handle(final String entry, final String[] matched,
+                final Exception error) {
+              output.message("Searching Identifiers for \"" + entry
+                  + "\"...");
+              if (error != null) {
+                output.flush();
+                Browser.this.out
+                    .println("Unable to search Identifiers. See the log for more details.");
+                log.error("Unable to search for \"" + entry + "\".", error);
+                return;
+              }
+              if (matched == null || matched.length == 0) {
+                output.message("[No results found.]");
+                return;
+              }
+
+              for (String id : matched) {
+                output.identifier(entry, id);
+              }
+            }
+          });
+        } catch (InterruptedException ie) {
+          output.flush();
+          Browser.this.out.println("Interrupted while searching.");
+        }
+        output.flush();
+      }
+    };
+  }
+
+  /**
+   * Removes a flag from a list of command arguments if it is the first
+   * argument.
+   * 
+   * @param components
+   *          the command arguments, possibly {@code null}.
+   * @param flag
+   *          the flag to look for.
+   * @return {@code true} if the flag was present and removed.
+   */
+  protected static boolean removeFlag(final List<String> components,
+      final String flag) {
+    if (components != null && !components.isEmpty()
+        && flag.equals(components.get(0))) {
+      components.remove(0);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Sends a snapshot request to the world model for the current state of the
+   * Identifiers in a regular expression provided
+   * 
+   * @param args
+   *          the command arguments.
+   */
+  protected void currentStatus(final List<String> args) {
+    PendingRead status = this.requestStatus(args);
+    if (status != null) {
+      status.finish();
+    }
+  }
+
+  /**
+   * Sends snapshot requests to the world model for the current state of the
+   * Identifiers in the regular expressions provided, all at once and without
+   * waiting for the responses. If the first argument is
+   * {@link #FLAG_UNORDERED}, results are printed as they arrive instead of in
+   * the order of the expressions. Each {@link #OPT_ATTRIBUTE} limits the
+   * request to the matching Attributes, so others are not sent by the world
+   * model, and {@link #OPT_AT} requests the state at that time instead of
+   * the current state.
+   * 
+   * @param args
+   *          the command arguments.
+   * @return the pending snapshots, or {@code null} if the command was
+   *         invalid.
+   */
+  protected PendingRead requestStatus(final List<String> args) {
+    final List<String> idList = args;
+    final boolean inOrder = !removeFlag(idList, FLAG_UNORDERED);
+    final ResultFormatter output;
+    final List<String> attrList = new ArrayList<String>();
+    long at = -1;
+    try {
+      output = this.newFormatter(idList);
+      String value;
+      if ((value = removeOption(idList, OPT_AT)) != null) {
+        at = TimeParser.parseTime(value, System.currentTimeMillis());
+      }
+      while ((value = removeOption(idList, OPT_ATTRIBUTE)) != null) {
+        attrList.add(value);
+      }
+    } catch (IllegalArgumentException iae) {
+      this.out.println(iae.getMessage() + " Unable to retrieve status.");
+      return null;
+    }
+    if (idList == null || idList.isEmpty()) {
+      this.out.println("Missing Identifier. Unable to retrieve status.");
+      return null;
+    }
+
+    // Only matching Attributes are sent by the world model
+    String[] attrs = attrList.toArray(new String[attrList.size()]);
+    final String when = at < 0 ? "current status" : String.format(
+        "status at %tc", new Date(at));
+    final FanOut<WorldState> snapshots = new FanOut<WorldState>();
+    for (String element : idList) {
+      if (at < 0) {
+        this.session.status(element, attrs, snapshots.add(element));
+      } else {
+        this.session.snapshot(element, at, at, attrs, snapshots.add(element));
+      }
+    }
+
+    return new PendingRead() {
+      @Override
+      public void finish() {
+        try {
+          snapshots.finish(inOrder, new FanOut.ResultHandler<WorldState>() {
+            @Override
+            public void handle(final String element, final WorldState state,
+                final Exception error) {
+              output.message("Retrieving " + when + " for \"" + element
+                  + "\"...");
+              if (error != null) {
+                output.flush();
+                Browser.this.out.println("Unable to retrieve " + when
+                    + ". See the log for more details.");
+                log.error("Unable to retrieve " + when + " for \""
+                    + element + "\".", error);
+                return;
+              }
+              if (state == null) {
+                output.message("[No status available.]");
+                return;
+              }
+              Browser.this.learn(state);
+              output.state(element, state);
+            }
+          });
+        } catch (InterruptedException ie) {
+          output.flush();
+          Browser.this.out.println("Interrupted while retrieving status.");
+        }
+        output.flush();
+      }
+    };
+  }
+
+  /**
+   * Requests the history of the Identifiers matched in the regular expression
+   * provided in the command.
+   * 
+   * @param args
+   *          the command arguments.
+   */
+  protected void history(final List<String> args) {
+    PendingRead history = this.requestHistory(args);
+    if (history != null) {
+      history.finish();
+    }
+  }
+
+  /**
+   * Starts reading the history of the Identifiers matched in the regular
+   * expressions provided in the command. The range is limited by the
+   * {@code --from} and {@code --to} options, the Attributes by one or more
+   * {@code --attr} options, and the range is read in windows as described by
+   * {@link WindowedRange}.
+   * 
+   * @param args
+   *          the command arguments.
+   * @return the pending histories, or {@code null} if the command was invalid.
+   */
+  protected PendingRead requestHistory(final List<String> args) {
+    final List<String> idList = args;
+    long now = System.currentTimeMillis();
+    long from = 0;
+    long to = now;
+    long window = WindowedRange.DEFAULT_WINDOW;
+    int prefetch = WindowedRange.DEFAULT_PREFETCH;
+    int maxStates = WindowedRange.DEFAULT_MAX_STATES;
+    List<String> attributes = new ArrayList<String>();
+    final ResultFormatter output;
+    try {
+      output = this.newFormatter(idList);
+      String value;
+      if ((value = removeOption(idList, OPT_FROM)) != null) {
+        from = TimeParser.parseTime(value, now);
+      }
+      if ((value = removeOption(idList, OPT_TO)) != null) {
+        to = TimeParser.parseTime(value, now);
+      }
+      if ((value = removeOption(idList, OPT_WINDOW)) != null) {
+        window = TimeParser.parseDuration(value);
+      }
+      if ((value = removeOption(idList, OPT_PREFETCH)) != null) {
+        prefetch = Integer.parseInt(value);
+      }
+      if ((value = removeOption(idList, OPT_MAX_STATES)) != null) {
+        maxStates = Integer.parseInt(value);
+      }
+      while ((value = removeOption(idList, OPT_ATTRIBUTE)) != null) {
+        attributes.add(value);
+      }
+    } catch (IllegalArgumentException iae) {
+      this.out.println(iae.getMessage() + " Unable to retrieve history.");
+      return null;
+    }
+    if (idList == null || idList.isEmpty()) {
+      this.out.println("Missing Identifier. Unable to create.");
+      return null;
+    }
+    if (attributes.isEmpty()) {
+      attributes.add(".*");
+    }
+    String[] attributeArray = attributes.toArray(new String[attributes.size()]);
+
+    final List<WindowedRange> ranges = new ArrayList<WindowedRange>();
+    for (String element : idList) {
+      ranges.add(this.session.history(element, from, to, window, prefetch,
+          maxStates, attributeArray));
+    }
+
+    return new PendingRead() {
+      @Override
+      public void finish() {
+        for (int i = 0; i < idList.size(); ++i) {
+          String element = idList.get(i);
+          output.message("Retrieving historic information for \"" + element
+              + "\".\nThis may take some time..");
+          // Show the message before a possibly long wait
+          output.flush();
+          WindowedRange range = ranges.get(i);
+          // Release the request so its buffered states can be collected
+          ranges.set(i, null);
+          try {
+            WorldState state = range.next();
+            if (state == null) {
+              output.message("[No history available.]");
+              continue;
+            }
+            for (; state != null; state = range.next()) {
+              output.separator();
+              output.state(element, state);
+            }
+          } catch (Exception e) {
+            output.flush();
+            Browser.this.out
+                .println("Unable to some or all historic status information. See the log for more details.");
+            log.error("Unable to retrieve full history for \"" + element
+                + "\".", e);
+            return;
+          }
+        }
+        output.flush();
+      }
+    };
+  }
+
+  /**
+   * Saves Attribute values to a binary dump file (see {@link DumpWriter}).
+   * Without {@link #OPT_FROM} or {@link #OPT_TO}, the current values are
+   * saved; otherwise the history over that range is read in windows and
+   * saved as it arrives.
+   * 
+   * @param args
+   *          the command arguments.
+   */
+  protected void export(final List<String> args) {
+    long now = System.currentTimeMillis();
+    String fromValue;
+    String toValue;
+    List<String> attributes = new ArrayList<String>();
+    long from = 0;
+    long to = now;
+    try {
+      fromValue = removeOption(args, OPT_FROM);
+      toValue = removeOption(args, OPT_TO);
+      if (fromValue != null) {
+        from = TimeParser.parseTime(fromValue, now);
+      }
+      if (toValue != null) {
+        to = TimeParser.parseTime(toValue, now);
+      }
+      String value;
+      while ((value = removeOption(args, OPT_ATTRIBUTE)) != null) {
+        attributes.add(value);
+      }
+    } catch (IllegalArgumentException iae) {
+      this.out.println(iae.getMessage() + " Unable to export.");
+      return;
+    }
+    if (args == null || args.size() < 2) {
+      this.out
+          .println("Missing file name or Identifier. Unable to export.");
+      return;
+    }
+    if (attributes.isEmpty()) {
+      attributes.add(".*");
+    }
+    String[] attributeArray = attributes.toArray(new String[attributes.size()]);
+    boolean withHistory = fromValue != null || toValue != null;
+    File file = new File(args.get(0));
+
+    long start = System.currentTimeMillis();
+    DumpWriter dump;
+    try {
+      dump = new DumpWriter(file, DumpWriter.DEFAULT_BUFFER_SIZE);
+    } catch (IOException ioe) {
+      this.out.println("Unable to create \"" + file
+          + "\". See the log for details.");
+      log.error("Unable to create dump file \"" + file + "\".", ioe);
+      return;
+    }
+    String element = null;
+    try {
+      for (int i = 1; i < args.size(); ++i) {
+        element = args.get(i);
+        if (!withHistory) {
+          WorldState state = this.session.status(element, attributeArray)
+              .get();
+          if (state != null) {
+            dump.write(state);
+          }
+          continue;
+        }
+        WindowedRange range = this.session.history(element, from, to,
+            WindowedRange.DEFAULT_WINDOW, WindowedRange.DEFAULT_PREFETCH,
+            WindowedRange.DEFAULT_MAX_STATES, attributeArray);
+        for (WorldState state = range.next(); state != null; state = range
+            .next()) {
+          dump.write(state);
+        }
+      }
+    } catch (IOException ioe) {
+      this.out.println("Unable to write \"" + file
+          + "\". See the log for details.");
+      log.error("Unable to write dump file \"" + file + "\".", ioe);
+    } catch (Exception e) {
+      this.out.println("Unable to read \"" + element
+          + "\". The export is incomplete. See the log for details.");
+      log.error("Unable to export \"" + element + "\".", e);
+    }
+    try {
+      dump.close();
+    } catch (IOException ioe) {
+      this.out.println("Unable to finish writing \"" + file
+          + "\". See the log for details.");
+      log.error("Unable to close dump file \"" + file + "\".", ioe);
+      return;
     }
+    this.out.println("Exported " + dump.getNumAttributes()
+        + " Attribute values (" + dump.getNumBytes() + " bytes, "
+        + dump.getNumStrings() + " strings) to \"" + file + "\" in "
+        + (System.currentTimeMillis() - start) + " ms.");
   }
 
   /**
-   * Terminates the application. Performs any necessary clean-up before the
-   * connections are terminated.
+   * Replays a binary dump file (see {@link DumpImporter}) into the world
+   * model, keeping the original origins and timestamps.
+   * 
+   * @param args
+   *          the command arguments.
    */
-  protected void stopRunning() {
-    this.keepRunning = false;
-  }
+  protected void importDump(final List<String> args) {
+    double rate = 0;
+    double speed = 0;
+    try {
+      String value;
+      if ((value = removeOption(args, OPT_RATE)) != null) {
+        rate = Double.parseDouble(value);
+      }
+      if ((value = removeOption(args, OPT_SPEED)) != null) {
+        speed = Double.parseDouble(value);
+      }
+    } catch (IllegalArgumentException iae) {
+      this.out.println(iae.getMessage() + " Unable to import.");
+      return;
+    }
+    if (args == null || args.size() != 1) {
+      this.out.println("Missing file name. Unable to import.");
+      return;
+    }
+    File file = new File(args.get(0));
 
-  /**
-   * Provides the user with command-based help.
-   */
-  protected void getHelp() {
-    System.out.println(HELP_MSG);
+    DumpImporter importer = new DumpImporter(this.session.getWrites(),
+        this.session.getAttributes(), rate, speed, this.out);
+    try {
+      importer.replay(file);
+    } catch (IOException ioe) {
+      this.out.println("Unable to read \"" + file + "\": "
+          + ioe.getMessage());
+      log.error("Unable to import dump file \"" + file + "\".", ioe);
+    } catch (InterruptedException ie) {
+      this.out.println("Interrupted while importing.");
+    }
+    long numFailed = importer.getNumFailed();
+    if (numFailed > 0) {
+      this.out.println("Unable to import " + numFailed
+          + " values. See the log for details.");
+    }
+    this.out.println("Imported " + (importer.getNumSent() - numFailed)
+        + " values.");
   }
 
   /**
-   * Searches for matching Identifier values given a regular expression
+   * Prints changes to the Attributes of the Identifiers matching a regular
+   * expression as they arrive on a streaming request (see {@link Watcher}),
+   * until Ctrl-C is pressed, the {@link #OPT_FOR} time passes, or the output
+   * fails. As with status, each {@link #OPT_ATTRIBUTE} limits the watch to
+   * the matching Attributes. Over a shared session, Ctrl-C is left to the
+   * daemon and {@link #OPT_FOR} is required.
    * 
-   * @param command
-   *          the full command provided by the user.
+   * @param args
+   *          the command arguments.
    */
-  protected void performIdSearch(final String command) {
-    String regex = removeCommand(CMD_SEARCH, command);
-    if (regex == null) {
-      System.out
-          .println("Empty regular expression. Unable to retrieve status.");
+  protected void watch(final List<String> args) {
+    long interval = Watcher.DEFAULT_INTERVAL;
+    long duration = 0;
+    List<String> attrList = new ArrayList<String>();
+    ResultFormatter output;
+    try {
+      output = this.newFormatter(args);
+      String value;
+      if ((value = removeOption(args, OPT_INTERVAL)) != null) {
+        interval = TimeParser.parseDuration(value);
+      }
+      if ((value = removeOption(args, OPT_FOR)) != null) {
+        duration = TimeParser.parseDuration(value);
+      }
+      while ((value = removeOption(args, OPT_ATTRIBUTE)) != null) {
+        attrList.add(value);
+      }
+    } catch (IllegalArgumentException iae) {
+      this.out.println(iae.getMessage() + " Unable to watch.");
       return;
     }
-
-    List<String> idList = extractComponents(regex);
-    if (idList == null || idList.isEmpty()) {
-      System.out.println("Missing Identifier. Unable to create.");
+    if (args == null || args.isEmpty()) {
+      this.out.println("Missing Identifier. Unable to watch.");
       return;
     }
-    for (String entry : idList) {
-      System.out.println("Searching Identifiers for \"" + entry + "\"...");
-      String[] matched = this.cwc.searchId(entry);
-      if (matched == null || matched.length == 0) {
-        System.out.println("[No results found.]");
-        return;
-      }
+    if (args.size() > 1) {
+      this.out.println("Unexpected \"" + args.get(1)
+          + "\". Attributes are given with " + OPT_ATTRIBUTE
+          + ". Unable to watch.");
+      return;
+    }
+    if (this.sharedSession && duration == 0) {
+      // Ctrl-C belongs to the daemon, and an idle watch never notices that
+      // its client has gone
+      this.out.println("Missing " + OPT_FOR
+          + ", which is required by the daemon. Unable to watch.");
+      return;
+    }
+    String idRegex = args.remove(0);
+    String[] attributeArray = attrList.isEmpty() ? new String[] { ".*" }
+        : attrList.toArray(new String[attrList.size()]);
 
-      for (String id : matched) {
-        System.out.println("+ " + id);
+    final Watcher watcher = this.session.watcher(output, interval);
+    CtrlC ctrlC = this.sharedSession ? null : CtrlC.install(new Runnable() {
+      @Override
+      public void run() {
+        watcher.stop();
+      }
+    });
+    output.message("Watching \"" + idRegex + "\"."
+        + (ctrlC != null ? " Press Ctrl-C to stop." : ""));
+    output.flush();
+    try {
+      watcher.watch(idRegex, attributeArray, duration);
+    } catch (InterruptedException ie) {
+      this.out.println("Interrupted while watching.");
+    } catch (Exception e) {
+      this.out
+          .println("Unable to continue watching. See the log for details.");
+      log.error("Unable to watch \"" + idRegex + "\".", e);
+    } finally {
+      if (ctrlC != null) {
+        ctrlC.restore();
       }
     }
-
+    output.message("Stopped watching after " + watcher.getNumReceived()
+        + " updates (" + watcher.getNumPrinted() + " printed).");
+    output.flush();
   }
 
   /**
-   * Removes the String {@code command} from the String {@code source},
-   * returning the remainder of {@code source} if there is anything left.
+   * Turns the snapshot cache on or off, clears it, or prints its statistics.
    * 
-   * @param command
-   *          the command to remove.
-   * @param source
-   *          the string to remove {@code command} from.
-   * @return the remainder of {@code source} after {@code command} has been
-   *         removed, or {@code null} if an error occurred.
+   * @param args
+   *          the command arguments.
    */
-  protected static String removeCommand(final String command,
-      final String source) {
-    try {
-      // Extract the regular expression from the command line
-      int startCmd = source.indexOf(command);
-      if (startCmd == -1 || source.length() <= (command.length() + 1)) {
-        return null;
+  protected void cache(final List<String> args) {
+    String action = args == null || args.isEmpty() ? "stats" : args.get(0);
+    if ("on".equals(action)) {
+      long ttl = SnapshotCache.DEFAULT_TTL;
+      int size = SnapshotCache.DEFAULT_MAX_ENTRIES;
+      try {
+        if (args.size() > 1) {
+          ttl = TimeParser.parseDuration(args.get(1));
+        }
+        if (args.size() > 2) {
+          size = Integer.parseInt(args.get(2));
+        }
+      } catch (IllegalArgumentException iae) {
+        this.out.println(iae.getMessage() + " Cache is unchanged.");
+        return;
       }
-      // Grab the string from the end of the command +1 (space)
-      String remainder = source.substring(startCmd + command.length() + 1);
-      if (remainder.length() == 0) {
-        return null;
+      this.session.setCache(new SnapshotCache(ttl, size));
+      this.out.println("Status cache on (TTL " + ttl + " ms, " + size
+          + " entries).");
+    } else if ("off".equals(action)) {
+      this.session.setCache(null);
+      this.out.println("Status cache off.");
+    } else if ("clear".equals(action)) {
+      SnapshotCache snapshots = this.session.getCache();
+      if (snapshots != null) {
+        snapshots.clear();
       }
-      return remainder;
-    } catch (Exception e) {
-      System.out
-          .println("An exception occurred while parsing the command.  See the log for details.");
-      log.error("Exception while removing a command (" + command + "/" + source
-          + ").", e);
-      return null;
+      this.out.println("Status cache cleared.");
+    } else if ("stats".equals(action)) {
+      SnapshotCache snapshots = this.session.getCache();
+      this.out.println(snapshots == null ? "Status cache is off."
+          : snapshots.getStats());
+    } else {
+      this.out.println("Unknown cache command \"" + action
+          + "\". Use on, off, clear, or stats.");
     }
-
   }
 
   /**
-   * Sends a snapshot request to the world model for the current state of the
-   * Identifiers in a regular expression provided
+   * Prints the latency statistics of world model operations, or resets them.
    * 
-   * @param command
-   *          the full command provided by the user.
+   * @param args
+   *          the command arguments.
    */
-  protected void currentStatus(final String command) {
-    String idRegex = removeCommand(CMD_STATUS, command);
-    if (idRegex == null) {
-      System.out
-          .println("Empty regular expression. Unable to retrieve status.");
-      return;
-    }
-
-    List<String> idList = extractComponents(idRegex);
-    if (idList == null || idList.isEmpty()) {
-      System.out.println("Missing Identifier. Unable to create.");
-      return;
+  protected void stats(final List<String> args) {
+    String action = args == null || args.isEmpty() ? "show" : args.get(0);
+    if ("show".equals(action)) {
+      this.out.println(this.session.getStats().getReport());
+    } else if ("reset".equals(action)) {
+      this.session.getStats().reset();
+      this.out.println("Latency statistics reset.");
+    } else {
+      this.out.println("Unknown stats command \"" + action
+          + "\". Use reset, or no argument to print the statistics.");
     }
+  }
 
-    for (String element : idList) {
-      System.out
-          .println("Retrieving current status for \"" + element + "\"...");
+  /**
+   * Loads, refreshes, drops, or reports on the local Identifier index. The
+   * index is built from a single search for every Identifier and afterwards
+   * kept current from search results, status results, and this session's own
+   * writes.
+   * 
+   * @param args
+   *          the command arguments.
+   */
+  protected void index(final List<String> args) {
+    String action = args == null || args.isEmpty() ? "stats" : args.get(0);
+    if ("load".equals(action) || "refresh".equals(action)) {
+      if ("load".equals(action) && this.session.getIndex() != null) {
+        this.out
+            .println("Identifier index already loaded. Use \"index refresh\" to rebuild it.");
+        return;
+      }
+      this.out.println("Loading Identifiers...");
+      long start = System.currentTimeMillis();
+      IdentifierIndex loaded;
       try {
-        WorldState state = this.cwc.getCurrentSnapshot(element, ".*").get();
-        if (state == null) {
-          System.out.println("[No status available.]");
-          return;
-        }
-        printState(state);
-
-      } catch (Exception e) {
-        System.out
-            .println("Unable to retrieve current status. See the log for more details.");
-        log.error("Unable to retrieve current snapshot for \"" + element
-            + "\".", e);
+        loaded = this.session.loadIndex().get();
+      } catch (InterruptedException ie) {
+        this.out.println("Interrupted while loading Identifiers.");
+        return;
+      } catch (ExecutionException ee) {
+        this.out
+            .println("Unable to load Identifiers. See the log for details.");
+        log.error("Unable to load the Identifier index.", ee.getCause());
         return;
       }
+      this.completer.setIndex(loaded);
+      this.out.println("Indexed " + loaded.size() + " Identifiers in "
+          + (System.currentTimeMillis() - start) + " ms.");
+    } else if ("off".equals(action)) {
+      this.session.setIndex(null);
+      this.completer.setIndex(null);
+      this.out.println("Identifier index off.");
+    } else if ("stats".equals(action)) {
+      IdentifierIndex ids = this.session.getIndex();
+      this.out.println(ids == null ? "Identifier index is not loaded."
+          : "Identifiers: " + ids.size() + ", Nodes: " + ids.getNumNodes());
+    } else {
+      this.out.println("Unknown index command \"" + action
+          + "\". Use load, refresh, off, or stats.");
     }
   }
 
   /**
-   * Requests the complete history of the Identifiers matched in the regular
-   * expression provided in the command.
+   * Adds the Attribute names in a result to the completer. The session adds
+   * the Identifiers to its index.
    * 
-   * @param command
-   *          the full command provided by the user.
+   * @param state
+   *          the result.
    */
-  protected void history(final String command) {
-    String idRegex = removeCommand(CMD_HISTORY, command);
-    if (idRegex == null) {
-      System.out
-          .println("Empty regular expression. Unable to retrieve status.");
-      return;
-    }
-
-    List<String> idList = extractComponents(idRegex);
-    if (idList == null || idList.isEmpty()) {
-      System.out.println("Missing Identifier. Unable to create.");
-      return;
-    }
-
-    for (String element : idList) {
-      System.out.println("Retrieving historic information for \"" + element
-          + "\".\nThis may take some time..");
-      try {
-        StepResponse responses = this.cwc.getRangeRequest(element, 0,
-            System.currentTimeMillis(), ".*");
-
-        if (responses == null) {
-          System.out.println("[No history available.]");
-          return;
-        }
-
-        // Keep going while there is data OR the data is incomplete
-        while (responses.hasNext() || !responses.isComplete()) {
-          if (responses.isError()) {
-            System.out
-                .println("An error occurred. Please see the log for details.");
-            log.error("Error while retrieving range response for " + element
-                + ".", responses.getError());
-            return;
-          }
-          /*
-           * Get the next available state. If complete, should return
-           * immediately, else may block until data arrives. Can throw an
-           * exception if something happens while waiting.
-           */
-
-          WorldState state = responses.next();
-          System.out.println("==========");
-          printState(state);
+  protected void learn(final WorldState state) {
+    for (String id : state.getIdentifiers()) {
+      Collection<Attribute> attribs = state.getState(id);
+      if (attribs != null) {
+        for (Attribute attr : attribs) {
+          this.completer.addAttributeName(attr.getAttributeName());
         }
-      } catch (Exception e) {
-        System.out
-            .println("Unable to some or all historic status information. See the log for more details.");
-        log.error("Unable to retrieve full history for \"" + element + "\".", e);
-        return;
       }
     }
   }
 
   /**
-   * Creates a new Identifier value in the world model.
+   * Removes an option and its value from a list of command arguments.
    * 
-   * @param command
-   *          the full command provided by the user.
+   * @param components
+   *          the command arguments, possibly {@code null}.
+   * @param option
+   *          the option name.
+   * @return the value of the option, or {@code null} if the option was not
+   *         present.
+   * @throws IllegalArgumentException
+   *           if the option is the last argument and has no value.
    */
-  protected void createId(final String command) {
-    String identifier = removeCommand(CMD_CREATE_ID, command);
-    if (identifier == null) {
-      System.out.println("Missing Identifier. Unable to create.");
-      return;
+  protected static String removeOption(final List<String> components,
+      final String option) {
+    if (components == null) {
+      return null;
     }
+    int index = components.indexOf(option);
+    if (index < 0) {
+      return null;
+    }
+    if (index + 1 >= components.size()) {
+      throw new IllegalArgumentException("Missing value for " + option + ".");
+    }
+    components.remove(index);
+    return components.remove(index);
+  }
 
-    List<String> idList = extractComponents(identifier);
+  /**
+   * Creates a new Identifier value in the world model.
+   * 
+   * @param args
+   *          the command arguments.
+   */
+  protected void createId(final List<String> args) {
+    List<String> idList = args;
     if (idList == null || idList.isEmpty()) {
-      System.out.println("Missing Identifier. Unable to create.");
+      this.out.println("Missing Identifier. Unable to create.");
       return;
     }
 
+    List<WriteRequest> creates = new ArrayList<WriteRequest>(idList.size());
     for (String element : idList) {
-      if (this.swc.createId(element)) {
-        System.out.println("Create \"" + element + "\" command was sent.");
+      try {
+        creates.add(this.session.createId(element));
+      } catch (InterruptedException ie) {
+        this.out.println("Interrupted while creating \"" + element + "\".");
+        return;
+      }
+    }
+
+    for (int i = 0; i < idList.size(); ++i) {
+      String element = idList.get(i);
+      if (awaitWrite(creates.get(i))) {
+        this.out.println("Create \"" + element + "\" command was sent.");
         try {
-          printState(this.cwc.getSnapshot(element, 0, 0, "creation").get());
+          printState(this.out, this.session.snapshot(element, 0, 0,
+              "creation").get());
         } catch (Exception e) {
           log.error("Unable to retrieve state after creating \"" + element
               + "\".", e);
         }
       } else {
-        System.out.println("Unable to create \"" + element
+        this.out.println("Unable to create \"" + element
             + "\" in the world model.");
       }
     }
@@ -647,19 +2040,32 @@ public class Browser extends Thread {
    *          the state to print.
    */
   protected static void printState(final WorldState state) {
+    printState(System.out, state);
+  }
+
+  /**
+   * Prints a WorldState object.
+   * 
+   * @param out
+   *          where to print.
+   * @param state
+   *          the state to print.
+   */
+  protected static void printState(final PrintStream out,
+      final WorldState state) {
     if (state == null) {
-      System.out.println("+ [NO DATA]");
+      out.println("+ [NO DATA]");
       return;
     }
     for (String id : state.getIdentifiers()) {
-      System.out.println("+ " + id);
+      out.println("+ " + id);
       Collection<Attribute> attribs = state.getState(id);
       if (attribs == null || attribs.isEmpty()) {
-        System.out.println("  [NO DATA]");
+        out.println("  [NO DATA]");
         continue;
       }
       for (Attribute a : attribs) {
-        System.out.println(" - " + a);
+        out.println(" - " + a);
       }
     }
   }
@@ -667,21 +2073,13 @@ public class Browser extends Thread {
   /**
    * Updates an Identifier Attribute in the world model.
    * 
-   * @param command
-   *          the full command provided by the user.
+   * @param args
+   *          the command arguments.
    */
-  protected void updateAttribute(final String command) {
-    String idAndAttrib = removeCommand(CMD_UPDATE_ATTRIB, command);
-
-    if (idAndAttrib == null) {
-      System.out
-          .println("Missing Identifier. Unable to update attribute value.");
-      return;
-    }
-
-    List<String> components = extractComponents(idAndAttrib);
+  protected void updateAttribute(final List<String> args) {
+    List<String> components = args;
     if (components.size() != 2) {
-      System.out
+      this.out
           .println("Invalid number of arguments.  Cannot update attribute value.");
       return;
     }
@@ -694,13 +2092,13 @@ public class Browser extends Thread {
     String[] supportedTypes = DataConverter.getSupportedTypes();
     String typeName = null;
     while (!DataConverter.hasConverterForAttribute(attribute) && attempts < 3) {
-      System.out.println("Unknown attribute type \"" + attribute
+      this.out.println("Unknown attribute type \"" + attribute
           + "\".\nPlease select a data type:");
       for (int i = 0; i < supportedTypes.length; ++i) {
-        System.out.println(i + ") " + supportedTypes[i]);
+        this.out.println(i + ") " + supportedTypes[i]);
       }
       try {
-        line = this.userIn.readLine();
+        line = this.readInputLine(null);
         int index = Integer.parseInt(line);
         if (index < 0 || index >= supportedTypes.length) {
           throw new NumberFormatException("Selection is out of range.");
@@ -708,26 +2106,26 @@ public class Browser extends Thread {
         typeName = supportedTypes[index];
         DataConverter.putConverter(attribute, typeName);
       } catch (NumberFormatException nfe) {
-        System.out.println("Invalid selection: \"" + line
+        this.out.println("Invalid selection: \"" + line
             + "\". Please make another selection.");
       } catch (IOException ioe) {
-        System.out.println("Unable to read your selection. Aborting.");
+        this.out.println("Unable to read your selection. Aborting.");
         log.error("Unable to read data type selection.", ioe);
         return;
       }
     }
 
     if (!DataConverter.hasConverterForAttribute(attribute)) {
-      System.out.println("Your response was not recognized after 3 attempts.");
+      this.out.println("Your response was not recognized after 3 attempts.");
       return;
     }
 
-    System.out.println("Please enter a value for " + attribute
+    this.out.println("Please enter a value for " + attribute
         + " as a String:");
     try {
-      line = this.userIn.readLine();
+      line = this.readInputLine(null);
     } catch (IOException e) {
-      System.out.println("Unable to read your data. Cannot update.");
+      this.out.println("Unable to read your data. Cannot update.");
       log.error("Unable to read attribute data.", e);
       return;
     }
@@ -740,12 +2138,13 @@ public class Browser extends Thread {
 
     boolean success = this.insertAttributeValue(identifier, attribute, data);
     if (!success) {
-      System.out.println("Unable to update world model. Reason unknown.");
+      this.out.println("Unable to update world model. Reason unknown.");
       return;
     }
 
     try {
-      printState(this.cwc.getSnapshot(identifier, 0, 0, attribute).get());
+      printState(this.out, this.session.snapshot(identifier, 0, 0, attribute)
+          .get());
     } catch (Exception e) {
       log.error("Unable to retrieve state after updatng \"" + identifier + "/"
           + attribute + "\".", e);
@@ -767,135 +2166,177 @@ public class Browser extends Thread {
    */
   private boolean insertAttributeValue(final String identifier,
       final String attribute, final byte[] data) {
-
-    AttributeSpecification spec = new AttributeSpecification();
-    spec.setAttributeName(attribute);
-    spec.setIsOnDemand(false);
-    this.swc.addAttribute(spec);
-
-    Attribute newAttr = new Attribute();
-    newAttr.setAttributeName(attribute);
-    newAttr.setCreationDate(System.currentTimeMillis());
-    newAttr.setData(data);
-    newAttr.setId(identifier);
-    newAttr.setOriginName(this.origin);
-
-    return this.swc.updateAttribute(newAttr);
+    try {
+      return this.session.update(identifier, attribute, data).get()
+          .booleanValue();
+    } catch (InterruptedException ie) {
+      return false;
+    }
   }
 
   /**
-   * <p>
-   * Extracts the components of a String. Separating based on spaces, quotes
-   * group words with spaces, but are removed.
-   * </p>
-   * 
-   * <p>
-   * Originally from Stack Overflow:<br />
-   * http://stackoverflow.com/questions/366202/regex-for-splitting-a-string-
-   * using-space-when-not-surrounded-by-single-or-double
-   * </p>
-   * <p>
-   * Original author:<br />
-   * <a href="http://stackoverflow.com/users/33358/jan-goyvaerts">Jan
-   * Goyvaerts</a>
-   * </p>
+   * Waits for a write to be sent.
    * 
-   * @param whole
-   *          the entire string to separate.
-   * @return the components of the whole, separated into individual Strings.
+   * @param request
+   *          the write.
+   * @return {@code true} if the write was sent successfully, or
+   *         {@code false} if it failed or the wait was interrupted.
    */
-  protected static List<String> extractComponents(final String whole) {
-    if (whole == null) {
-      return null;
-    }
-    List<String> matchList = new ArrayList<String>();
-    Pattern regex = Pattern.compile("[^\\s\"']+|\"([^\"]*)\"|'([^']*)'");
-    Matcher regexMatcher = regex.matcher(whole);
-    while (regexMatcher.find()) {
-      if (regexMatcher.group(1) != null) {
-        // Add double-quoted string without the quotes
-        matchList.add(regexMatcher.group(1));
-      } else if (regexMatcher.group(2) != null) {
-        // Add single-quoted string without the quotes
-        matchList.add(regexMatcher.group(2));
-      } else {
-        // Add unquoted word
-        matchList.add(regexMatcher.group());
-      }
+  protected static boolean awaitWrite(final WriteRequest request) {
+    try {
+      return request.await();
+    } catch (InterruptedException ie) {
+      return false;
     }
-    return matchList;
   }
 
   /**
-   * Expires all or just one of an Identifier's Attribute values.
+   * Expires an Identifier, or the Identifiers matching a regular expression,
+   * or one Attribute of each.
    * 
-   * @param command
-   *          the full command provided by the user.
+   * @param args
+   *          the command arguments.
    */
-  protected void expire(final String command) {
-    String idAndAttrib = removeCommand(CMD_EXPIRE, command);
+  protected void expire(final List<String> args) {
+    this.remove(WritePipeline.Type.EXPIRE, args);
+  }
 
-    if (idAndAttrib == null) {
-      System.out.println("Missing Identifier. Unable to expire.");
+  /**
+   * Expires or deletes an Identifier, or one Attribute of it. With
+   * {@link #FLAG_REGEX}, the Identifier is a regular expression and every
+   * matching Identifier changes; without it, only the Identifier with
+   * exactly that name does, so a script written for single Identifiers can
+   * never change more. The expiration time is taken from {@link #OPT_AT}; at
+   * an interactive prompt it is asked for once if missing, while a script
+   * must give it. With {@link #FLAG_DRY_RUN}, only the
+   * number of matching Identifiers is printed. Options may appear anywhere,
+   * and an unknown one stops the command before anything changes. At an
+   * interactive prompt, changing more than one Identifier must be confirmed.
+   * 
+   * @param type
+   *          {@link WritePipeline.Type#EXPIRE} or
+   *          {@link WritePipeline.Type#DELETE}.
+   * @param args
+   *          the command arguments.
+   */
+  private void remove(final WritePipeline.Type type, final List<String> args) {
+    boolean expire = type == WritePipeline.Type.EXPIRE;
+    String verb = expire ? "expire" : "delete";
+    String at = null;
+    int parallelism = BulkRemoval.DEFAULT_PARALLELISM;
+    long time = 0;
+    boolean dryRun = args.remove(FLAG_DRY_RUN);
+    boolean regex = args.remove(FLAG_REGEX);
+    try {
+      String value;
+      if (expire && (at = removeOption(args, OPT_AT)) != null) {
+        time = TimeParser.parseTime(at, System.currentTimeMillis());
+      }
+      if ((value = removeOption(args, OPT_PARALLEL)) != null) {
+        parallelism = Integer.parseInt(value);
+      }
+    } catch (IllegalArgumentException iae) {
+      this.out.println(iae.getMessage() + " Unable to " + verb + ".");
       return;
     }
-
-    List<String> components = extractComponents(idAndAttrib);
-    if (components.size() < 1) {
-      System.out.println("Invalid number of arguments.  Cannot expire value.");
+    if (expire && at == null && this.scripted) {
+      // A prompt would read the next commands as its answer
+      this.out.println("Missing " + OPT_AT
+          + ", which is required in scripts.  Unable to expire.");
       return;
     }
-
-    if (components.size() == 1) {
-      this.expireIdentifier(components.get(0));
-    } else {
-      this.expireAttribute(components.get(0), components.get(1));
+    for (String arg : args) {
+      if (arg.startsWith("--")) {
+        this.out.println("Unknown option " + arg + ".  Unable to " + verb
+            + ".");
+        return;
+      }
     }
-  }
+    if (args.size() < 1 || args.size() > 2) {
+      this.out.println("Invalid number of arguments.  Unable to " + verb
+          + ".");
+      return;
+    }
+    String name = args.get(0);
+    String idRegex = regex ? name : BulkRemoval.exactly(name);
+    String attribute = args.size() > 1 ? args.get(1) : null;
 
-  /**
-   * Expires an Identifier after prompting for the expiration date.
-   * 
-   * @param identifier
-   *          the Identifier to expire.
-   */
-  protected void expireIdentifier(final String identifier) {
-    Date expireTime = getDate("expiration");
-    if (expireTime == null) {
-      System.out.println("Unable to determine expiration time.");
+    String[] ids;
+    try {
+      ids = BulkRemoval.resolve(this.session, idRegex);
+    } catch (InterruptedException ie) {
+      this.out.println("Interrupted while searching for \"" + name
+          + "\".");
+      return;
+    } catch (ExecutionException ee) {
+      ids = null;
+      log.error("Unable to search for \"" + idRegex + "\".", ee.getCause());
+    }
+    if (ids == null) {
+      this.out.println("Unable to search for \"" + name + "\".");
+      return;
+    }
+    String target = (attribute == null ? "" : "\"" + attribute + "\" of ")
+        + ids.length + (ids.length == 1 ? " Identifier" : " Identifiers");
+    if (ids.length == 0) {
+      this.out.println("No Identifiers match \"" + name + "\".");
+      return;
+    }
+    if (ids.length > 1 && !regex) {
+      this.out.println("\"" + name + "\" matches " + ids.length
+          + " Identifiers; add " + FLAG_REGEX + " to " + verb
+          + " them all.  Unable to " + verb + ".");
+      return;
+    }
+    if (dryRun) {
+      this.out.println("Would " + verb + " " + target + ".");
+      return;
+    }
+    if (expire && at == null) {
+      Date expireTime = this.getDate("expiration");
+      if (expireTime == null) {
+        this.out.println("Unable to determine expiration time.");
+        return;
+      }
+      time = expireTime.getTime();
+    }
+    if (ids.length > 1 && !this.scripted
+        && !this.confirm(Character.toUpperCase(verb.charAt(0))
+            + verb.substring(1) + " " + target + "?")) {
       return;
     }
 
-    if (!this.swc.expire(identifier, expireTime.getTime())) {
-      System.out.println("Unable to expire \"" + identifier
-          + "\" due to an unknown error.");
+    BulkRemoval removal = new BulkRemoval(this.session, type, attribute,
+        time, parallelism, this.out);
+    try {
+      removal.run(ids);
+    } catch (InterruptedException ie) {
+      this.out.println("Interrupted while waiting for writes to be sent.");
     }
   }
 
   /**
-   * Expires the current value of a specific Identifier and Attribute in the
-   * world model after prompting for the expiration time.
+   * Asks the user a yes-or-no question.
    * 
-   * @param identifier
-   *          the Identifier of the Attribute to expire.
-   * @param attribute
-   *          the Attribute name to expire.
+   * @param question
+   *          the question.
+   * @return {@code true} if the user answered yes.
    */
-  protected void expireAttribute(final String identifier, final String attribute) {
-    Date expireTime = getDate("expiration");
-    if (expireTime == null) {
-      System.out.println("Unable to determine expiration time.");
-      return;
-    }
-
-    if (!this.swc.expire(identifier, expireTime.getTime(), attribute)) {
-      System.out.println("Unable to expire \"" + identifier + "\"/\""
-          + attribute + "\" due to an unknown error.");
+  protected boolean confirm(final String question) {
+    String answer;
+    try {
+      answer = this.readInputLine(question + " [y/N] ");
+    } catch (IOException ioe) {
+      log.error("Unable to read user input (confirmation).", ioe);
+      return false;
     }
+    return answer != null
+        && answer.trim().toLowerCase(Locale.US).startsWith("y");
   }
 
   /**
-   * Prompts the user for a date and time (in 24-hour format), returned as a
+   * Prompts the user for a date and time, in any form accepted by
+   * {@link TimeParser#parseTime(String, long)}, returned as a
    * {@code java.util.Date} object.
    * 
    * @param typeName
@@ -904,141 +2345,51 @@ public class Browser extends Thread {
    *         the input was invalid or missing.
    */
   protected Date getDate(final String typeName) {
-    System.out.println("Please enter the " + typeName
-        + " date in the format YYYYMMDD: ");
-    String dateLine;
+    String line;
     try {
-      dateLine = this.userIn.readLine();
+      line = this.readInputLine("Please enter the " + typeName
+          + " time (YYYYMMDD[hhmmss], now, or -7d): ");
     } catch (IOException e) {
-      System.out
+      this.out
           .println("An error has occurred.  Please see the log for details.");
       log.error("Unable to read user input (date).", e);
       return null;
     }
-    if (dateLine.length() != 8) {
-      System.out.println("Invalid date format.");
+    if (line == null) {
       return null;
     }
-    int year = Integer.parseInt(dateLine.substring(0, 4));
-    int month = Integer.parseInt(dateLine.substring(4, 6));
-    int date = Integer.parseInt(dateLine.substring(6, 8));
-
-    System.out.println("Please enter the " + typeName
-        + " time in the 24-hour format hhmmss: ");
-    String timeLine = "";
     try {
-      timeLine = this.userIn.readLine();
-    } catch (IOException e) {
-      System.out
-          .println("An error has occurred.  Please see the log for details.");
-      log.error("Unable to read user input (time).", e);
-      return null;
-    }
-    if (timeLine.length() != 6) {
-      System.out.println("Invalid time format.");
+      return new Date(TimeParser.parseTime(line.trim(),
+          System.currentTimeMillis()));
+    } catch (IllegalArgumentException iae) {
+      this.out.println(iae.getMessage());
       return null;
     }
-
-    int hour = Integer.parseInt(timeLine.substring(0, 2));
-    int minute = Integer.parseInt(timeLine.substring(2, 4));
-    int second = Integer.parseInt(timeLine.substring(4, 6));
-
-    Calendar cal = Calendar.getInstance();
-    cal.set(Calendar.YEAR, year);
-    cal.set(Calendar.MONTH, month);
-    cal.set(Calendar.DAY_OF_MONTH, date);
-    cal.set(Calendar.HOUR_OF_DAY, hour);
-    cal.set(Calendar.MINUTE, minute);
-    cal.set(Calendar.SECOND, second);
-    return cal.getTime();
-  }
-
-  /**
-   * Deletes all or only one of an Identifier's Attribute values.
-   * 
-   * @param command
-   *          the full command provided by the user.
-   */
-  protected void delete(final String command) {
-    String idAndAttrib = removeCommand(CMD_DELETE, command);
-
-    if (idAndAttrib == null) {
-      System.out.println("Missing Identifier. Unable to delete.");
-      return;
-    }
-
-    List<String> components = extractComponents(idAndAttrib);
-    if (components.size() < 1) {
-      System.out.println("Invalid number of arguments.  Cannot delete value.");
-      return;
-    }
-
-    if (components.size() == 1) {
-      this.deleteIdentifier(components.get(0));
-      System.out.println("Deleted identifier \"" + components.get(0) + "\".");
-    } else {
-      this.deleteAttribute(components.get(0), components.get(1));
-      System.out.println("Deleted attribute \"" + components.get(1) + "\" for \"" + components.get(0) + "\".");
-    }
   }
 
   /**
-   * Deletes an Identifier from the world model.
+   * Deletes an Identifier, or the Identifiers matching a regular expression,
+   * or one Attribute of each.
    * 
-   * @param identifier
-   *          the Identifier to delete.
-   */
-  protected void deleteIdentifier(final String identifier) {
-    if (!this.swc.delete(identifier)) {
-      System.out.println("Unable to delete \"" + identifier
-          + "\" due to an unknown error.");
-    }
-  }
-
-  /**
-   * Deletes an Attribute from an Identifier in the world model.
-   * 
-   * @param identifier
-   *          the Identifier for the Attribute
-   * @param attribute
-   *          the Attribute name to delete
+   * @param args
+   *          the command arguments.
    */
-  protected void deleteAttribute(final String identifier, final String attribute) {
-    if (!this.swc.delete(identifier, attribute)) {
-      System.out.println("Unable to delete \"" + identifier + "\"/\""
-          + attribute + "\" due to an unknown error.");
-    }
+  protected void delete(final List<String> args) {
+    this.remove(WritePipeline.Type.DELETE, args);
   }
 
   /**
    * Copies the state from one Identifier to another. If the "-r" (recursive)
    * flag is provided, it copies the entire history of Attribute values.
    * 
-   * @param command
-   *          the full command provided by the user
+   * @param args
+   *          the command arguments
    */
-  protected void copy(final String command) {
-    String flagAndIds = removeCommand(CMD_COPY, command);
-
-    if (flagAndIds == null) {
-      System.out.println("Missing Identifier. Unable to copy state.");
-      return;
-    }
-    boolean withHistory = false;
-    if (flagAndIds.contains("-r")) {
-      flagAndIds = removeCommand("-r", flagAndIds);
-      withHistory = true;
-    }
-
-    if (flagAndIds == null) {
-      System.out.println("Missing Identifier. Unable to copy state.");
-      return;
-    }
-
-    List<String> parts = extractComponents(flagAndIds);
-
-    if (parts == null || parts.size() != 2) {
-      System.out
+  protected void copy(final List<String> args) {
+    List<String> parts = args;
+    boolean withHistory = removeFlag(parts, FLAG_RECURSIVE);
+    if (parts.size() != 2) {
+      this.out
           .println("Source or destination Identifier is missing. Unable to copy.");
       return;
     }
@@ -1060,33 +2411,21 @@ public class Browser extends Thread {
    *          the Identifier to copy to.
    */
   protected void recursiveCopy(final String source, final String destination) {
-    WorldState origState = null;
-    StepResponse resp = null;
-
-    resp = this.cwc.getRangeRequest(source, 0, Long.MAX_VALUE, ".*");
-    int totalCopies = 0;
-    try {
-      while (!resp.isComplete() && !resp.isError()) {
-
-        origState = resp.next();
-        if (origState == null) {
-          System.out.println("The source is empty.");
-          break;
-        }
-        int numCopies = this.copyAttributes(origState.getState(source), destination);
-        if(numCopies < 0){
-          System.out.println("Error while copying one or more Attributes. Aborting.");
-          break;
-        }
-        totalCopies += numCopies;
-      }
-    } catch (Exception e) {
-      System.out
-          .println("Unable to read from source.  See the log for details.");
-      log.error("Unable to retrieve state for \"" + source + "\".", e);
+    CopyEngine engine = this.awaitCopy(source, destination, true);
+    if (engine == null) {
+      return;
+    }
+    if (engine.getNumStates() == 0) {
+      this.out.println("The source is empty.");
       return;
     }
-    System.out.println("Copied " + totalCopies + " Attributes.");
+    long numFailed = engine.getNumFailed();
+    if (numFailed > 0) {
+      this.out.println("Unable to copy " + numFailed
+          + " Attributes. See the log for details.");
+    }
+    this.out.println("Copied " + (engine.getNumQueued() - numFailed)
+        + " Attributes.");
   }
 
   /**
@@ -1099,65 +2438,49 @@ public class Browser extends Thread {
    *          the Identifier to copy to.
    */
   protected void shallowCopy(final String source, final String destination) {
-
-    WorldState origState = null;
-    try {
-      origState = this.cwc.getCurrentSnapshot(source, ".*").get();
-    } catch (Exception e) {
-      System.out
-          .println("Unable to read from source.  See the log for details.");
-      log.error("Unable to retrieve current state for \"" + source + "\".", e);
+    CopyEngine engine = this.awaitCopy(source, destination, false);
+    if (engine == null) {
       return;
     }
-    if (origState == null) {
-      System.out.println("The source is empty.");
+    if (engine.getNumStates() == 0) {
+      this.out.println("The source is empty.");
       return;
     }
-    int numAttr = this.copyAttributes(origState.getState(source), destination);
-    if(numAttr >= 0){
-      System.out.println("Copied " + numAttr + " attributes.");
-    }
-    else{
-      System.out.println("An error has occurred. One or more Attributes was not copied.");
+    if (engine.getNumFailed() == 0) {
+      this.out.println("Copied " + engine.getNumQueued() + " attributes.");
+    } else {
+      this.out.println("An error has occurred. One or more Attributes was not copied.");
     }
   }
 
   /**
-   * Copies a collection of Attribute values to a destination Identifier.
+   * Copies one Identifier to another through the session and waits for the
+   * copy to finish.
    * 
-   * @param attributes
-   *          the Attributes to copy.
+   * @param source
+   *          the Identifier to copy from.
    * @param destination
-   *          the destination Identifier.
-   * @return {@code true} if all Attributes were copied successfully, else
-   *         {@code false}.
+   *          the Identifier to copy to.
+   * @param withHistory
+   *          {@code true} to copy every state.
+   * @return the finished copy, or {@code null} if it failed or was
+   *         interrupted.
    */
-  protected int copyAttributes(final Collection<Attribute> attributes,
-      final String destination) {
-    String currOrigin = this.origin;
-    boolean success = true;
-    int numAttr = 0;
-    for (Attribute attr : attributes) {
-      attr.setId(destination);
-      AttributeSpecification spec = new AttributeSpecification();
-      spec.setAttributeName(attr.getAttributeName());
-      spec.setIsOnDemand(false);
-      this.swc.addAttribute(spec);
-      if (!attr.getOriginName().equals(currOrigin)) {
-        currOrigin = attr.getOriginName();
-        this.swc.setOriginString(currOrigin);
-      }
-      success = success && this.swc.updateAttribute(attr);
-      if (!success) {
-        System.out.println("Unable to copy " + attr + ".");
-        break;
-      }
-      ++numAttr;
-    }
-    this.swc.setOriginString(this.origin);
-    if(success){
-      return numAttr;
+  private CopyEngine awaitCopy(final String source, final String destination,
+      final boolean withHistory) {
+    Future<CopyEngine> copy = this.session.copy(source, destination,
+        withHistory, this.out);
+    try {
+      return copy.get();
+    } catch (InterruptedException ie) {
+      copy.cancel(true);
+      this.out.println("Interrupted while copying. Aborting.");
+    } catch (ExecutionException ee) {
+      this.out
+          .println("Unable to read from source.  See the log for details.");
+      log.error("Unable to retrieve state for \"" + source + "\".",
+          ee.getCause());
     }
-    return -1;
+    return null;
   }
-}
\ No newline at end of file
+}
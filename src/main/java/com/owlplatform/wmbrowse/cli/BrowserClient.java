@@ -0,0 +1,158 @@
+/*
+ * Owl Platform Command Line Browser
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.wmbrowse.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sends commands to a {@link BrowserDaemon} and prints their output. Each
+ * command-line argument is sent as one command; with no arguments, commands
+ * are read from standard input. The daemon's token is read from its token
+ * file and sent first. The exit status is 1 if the daemon cannot be reached
+ * or its token cannot be read.
+ *
+ * @author Robert Moore
+ */
+public class BrowserClient {
+
+  /**
+   * Size of the buffer used to copy commands and output.
+   */
+  private static final int BUFFER_SIZE = 8192;
+
+  /**
+   * Sends commands to a daemon on this host and copies the output to
+   * standard output. Takes the flags {@value BrowserDaemon#FLAG_PORT} (the
+   * daemon's port) and {@value BrowserDaemon#FLAG_TOKEN_FILE} (the daemon's
+   * token file, if not the default for the port), followed by the commands
+   * to run.
+   *
+   * @param args
+   *          the command-line arguments.
+   */
+  public static void main(final String[] args) {
+    int port = BrowserDaemon.DEFAULT_PORT;
+    File tokenFile = null;
+    List<String> commands = new ArrayList<String>();
+    for (int i = 0; i < args.length; ++i) {
+      String arg = args[i];
+      if (commands.isEmpty()
+          && (BrowserDaemon.FLAG_PORT.equals(arg)
+              || BrowserDaemon.FLAG_TOKEN_FILE.equals(arg))) {
+        if (i + 1 >= args.length) {
+          System.err.println("Missing value after " + arg + ".");
+          System.exit(1);
+        }
+        if (BrowserDaemon.FLAG_TOKEN_FILE.equals(arg)) {
+          tokenFile = new File(args[++i]);
+          continue;
+        }
+        try {
+          port = Integer.parseInt(args[++i]);
+        } catch (NumberFormatException nfe) {
+          System.err.println("Unable to parse " + args[i]
+              + " as a port number.");
+          System.exit(1);
+        }
+      } else {
+        commands.add(arg);
+      }
+    }
+
+    if (tokenFile == null) {
+      tokenFile = BrowserDaemon.defaultTokenFile(port);
+    }
+    String token;
+    try {
+      token = BrowserDaemon.readToken(tokenFile);
+    } catch (IOException ioe) {
+      System.err.println("Unable to read the browser daemon's token: "
+          + ioe.getMessage());
+      System.exit(1);
+      return;
+    }
+
+    Socket socket;
+    try {
+      socket = new Socket(InetAddress.getByName(null), port);
+    } catch (IOException ioe) {
+      System.err.println("Unable to reach the browser daemon on port " + port
+          + ": " + ioe.getMessage());
+      System.exit(1);
+      return;
+    }
+    try {
+      OutputStream toDaemon = socket.getOutputStream();
+      Writer writer = new OutputStreamWriter(toDaemon, BrowserDaemon.CHARSET);
+      writer.write(token);
+      writer.write('\n');
+      for (String command : commands) {
+        writer.write(command);
+        writer.write('\n');
+      }
+      writer.flush();
+      if (commands.isEmpty()) {
+        copy(System.in, toDaemon);
+      }
+      // End of the script
+      socket.shutdownOutput();
+      copy(socket.getInputStream(), System.out);
+      System.out.flush();
+    } catch (IOException ioe) {
+      System.err.println("Lost the connection to the browser daemon: "
+          + ioe.getMessage());
+      System.exit(1);
+    } finally {
+      try {
+        socket.close();
+      } catch (IOException ioe) {
+        // Ignored
+      }
+    }
+  }
+
+  /**
+   * Copies a stream until its end.
+   *
+   * @param in
+   *          the stream to read.
+   * @param out
+   *          the stream to write.
+   * @throws IOException
+   *           if either stream fails.
+   */
+  private static void copy(final InputStream in, final OutputStream out)
+      throws IOException {
+    byte[] buffer = new byte[BUFFER_SIZE];
+    int read;
+    while ((read = in.read(buffer)) >= 0) {
+      out.write(buffer, 0, read);
+    }
+    out.flush();
+  }
+}
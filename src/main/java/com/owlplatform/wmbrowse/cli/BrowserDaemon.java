@@ -0,0 +1,641 @@
+/*
+ * Owl Platform Command Line Browser
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.wmbrowse.cli;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Keeps one {@link WorldModelSession} connected and runs the commands of
+ * short-lived clients over it, so each invocation skips connecting to the
+ * world model and shares the warm Identifier index, snapshot cache, and
+ * write pipeline of every invocation before it.
+ * </p>
+ * <p>
+ * Clients connect to a TCP port on the loopback address, send a script of
+ * commands, one per line, and close their side of the connection. The
+ * commands are run as a script by a {@link Browser} of their own, whose
+ * output is sent back over the connection, which is then closed.
+ * {@link BrowserClient} is such a client, but any tool that closes its
+ * write side at the end of its input will do.
+ * </p>
+ * <p>
+ * Any local user can reach a loopback port, so the first line a client
+ * sends must be a random token that the daemon writes, when it starts, to a
+ * file only its owner can read (see {@link #defaultTokenFile(int)}). A
+ * client that sends anything else is disconnected without running a
+ * command.
+ * </p>
+ *
+ * @author Robert Moore
+ */
+public class BrowserDaemon {
+
+  /**
+   * Logger for this class.
+   */
+  private static final Logger log = LoggerFactory
+      .getLogger(BrowserDaemon.class);
+
+  /**
+   * Default port to accept clients on.
+   */
+  public static final int DEFAULT_PORT = 7011;
+
+  /**
+   * Default largest number of clients served at once.
+   */
+  public static final int DEFAULT_MAX_CLIENTS = 64;
+
+  /**
+   * Command-line flag for the port to accept clients on.
+   */
+  public static final String FLAG_PORT = "-p";
+
+  /**
+   * Command-line flag for the largest number of clients served at once.
+   */
+  public static final String FLAG_MAX_CLIENTS = "-m";
+
+  /**
+   * Command-line flag that enables the snapshot cache with a time-to-live,
+   * in milliseconds.
+   */
+  public static final String FLAG_CACHE = "-c";
+
+  /**
+   * Command-line flag for the file holding the token clients must send.
+   */
+  public static final String FLAG_TOKEN_FILE = "-t";
+
+  /**
+   * Number of random bytes in a token.
+   */
+  static final int TOKEN_BYTES = 32;
+
+  /**
+   * Time a client has to send its token, in milliseconds.
+   */
+  static final int TOKEN_TIMEOUT = 10000;
+
+  /**
+   * Encoding of commands and their output.
+   */
+  static final String CHARSET = "UTF-8";
+
+  /**
+   * The session shared by every client.
+   */
+  private final WorldModelSession session;
+
+  /**
+   * Port to accept clients on, or 0 for any free port.
+   */
+  private final int requestedPort;
+
+  /**
+   * Largest number of clients served at once.
+   */
+  private final int maxClients;
+
+  /**
+   * The file the token is written to, or {@code null} for the default file
+   * of the port.
+   */
+  private File tokenFile = null;
+
+  /**
+   * The token clients must send, once started.
+   */
+  private byte[] token = null;
+
+  /**
+   * Number of clients being served.
+   */
+  private final AtomicInteger numActive = new AtomicInteger(0);
+
+  /**
+   * Number of clients accepted since the daemon started.
+   */
+  private final AtomicInteger numAccepted = new AtomicInteger(0);
+
+  /**
+   * Default output format of read commands.
+   */
+  private volatile ResultFormatter.Format outputFormat =
+      ResultFormatter.Format.TEXT;
+
+  /**
+   * The listening socket, once started.
+   */
+  private ServerSocket serverSocket;
+
+  /**
+   * Set once the daemon is stopped.
+   */
+  private volatile boolean stopped = false;
+
+  /**
+   * Creates a new daemon. Nothing is opened until {@link #start()} is
+   * called.
+   *
+   * @param session
+   *          the connected session shared by every client.
+   * @param port
+   *          the port to accept clients on, or 0 for any free port.
+   * @param maxClients
+   *          the largest number of clients served at once.
+   */
+  public BrowserDaemon(final WorldModelSession session, final int port,
+      final int maxClients) {
+    this.session = session;
+    this.requestedPort = port;
+    this.maxClients = maxClients;
+  }
+
+  /**
+   * Sets the default output format of read commands.
+   *
+   * @param format
+   *          the output format.
+   */
+  public void setOutputFormat(final ResultFormatter.Format format) {
+    this.outputFormat = format;
+  }
+
+  /**
+   * Sets the file the token is written to. Must be called before
+   * {@link #start()}.
+   *
+   * @param tokenFile
+   *          the file, or {@code null} for {@link #defaultTokenFile(int)}.
+   */
+  public void setTokenFile(final File tokenFile) {
+    this.tokenFile = tokenFile;
+  }
+
+  /**
+   * Returns the file the token is written to.
+   *
+   * @return the token file, or {@code null} if the daemon has not been
+   *         started and no file was set.
+   */
+  public File getTokenFile() {
+    return this.tokenFile;
+  }
+
+  /**
+   * Returns the file a daemon on a port writes its token to by default,
+   * {@code .wmbrowse-daemon-PORT} in the user's home directory.
+   *
+   * @param port
+   *          the daemon's port.
+   * @return the token file.
+   */
+  public static File defaultTokenFile(final int port) {
+    return new File(System.getProperty("user.home"), ".wmbrowse-daemon-"
+        + port);
+  }
+
+  /**
+   * Opens the port on the loopback address, writes a new token to the token
+   * file, and starts accepting clients.
+   *
+   * @throws IOException
+   *           if the port cannot be opened or the token file cannot be
+   *           written.
+   */
+  public synchronized void start() throws IOException {
+    this.serverSocket = new ServerSocket();
+    this.serverSocket.setReuseAddress(true);
+    this.serverSocket.bind(new InetSocketAddress(InetAddress.getByName(null),
+        this.requestedPort));
+    if (this.tokenFile == null) {
+      this.tokenFile = defaultTokenFile(this.getPort());
+    }
+    try {
+      this.token = writeToken(this.tokenFile);
+    } catch (IOException ioe) {
+      this.serverSocket.close();
+      throw ioe;
+    }
+    Thread acceptor = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        BrowserDaemon.this.acceptClients();
+      }
+    }, "Browser daemon acceptor");
+    acceptor.setDaemon(true);
+    acceptor.start();
+    log.info("Accepting browser clients on port {}.",
+        Integer.valueOf(this.getPort()));
+  }
+
+  /**
+   * Stops accepting clients and closes the shared session, sending any
+   * queued writes first.
+   */
+  public synchronized void stop() {
+    this.stopped = true;
+    try {
+      if (this.serverSocket != null) {
+        this.serverSocket.close();
+      }
+    } catch (IOException ioe) {
+      log.warn("Unable to close the server socket.", ioe);
+    }
+    if (this.token != null && !this.tokenFile.delete()) {
+      log.warn("Unable to delete the token file \"{}\".", this.tokenFile);
+    }
+    this.session.close();
+  }
+
+  /**
+   * Writes a new random token to a file that only its owner can read or
+   * write. Any earlier file is replaced, and the new file is created before
+   * anything is written, so the token is never held by a file that was
+   * readable by others.
+   *
+   * @param file
+   *          the token file.
+   * @return the token, as written.
+   * @throws IOException
+   *           if the file cannot be created, restricted, or written.
+   */
+  static byte[] writeToken(final File file) throws IOException {
+    if (file.exists() && !file.delete()) {
+      throw new IOException("Unable to replace \"" + file + "\".");
+    }
+    if (!file.createNewFile()) {
+      throw new IOException("\"" + file + "\" was created by another process.");
+    }
+    if (!(file.setReadable(false, false) && file.setReadable(true, true)
+        && file.setWritable(false, false) && file.setWritable(true, true)
+        && file.setExecutable(false, false))) {
+      file.delete();
+      throw new IOException("Unable to make \"" + file
+          + "\" readable only by its owner.");
+    }
+    byte[] random = new byte[TOKEN_BYTES];
+    new SecureRandom().nextBytes(random);
+    StringBuilder hex = new StringBuilder(TOKEN_BYTES * 2);
+    for (byte b : random) {
+      hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(
+          Character.forDigit(b & 0xf, 16));
+    }
+    byte[] token = hex.toString().getBytes(CHARSET);
+    OutputStream fileOut = new FileOutputStream(file);
+    try {
+      fileOut.write(token);
+      fileOut.write('\n');
+    } finally {
+      fileOut.close();
+    }
+    return token;
+  }
+
+  /**
+   * Reads the token from the first line of a token file.
+   *
+   * @param file
+   *          the token file.
+   * @return the token.
+   * @throws IOException
+   *           if the file cannot be read or is empty.
+   */
+  static String readToken(final File file) throws IOException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(
+        new FileInputStream(file), CHARSET));
+    try {
+      String line = reader.readLine();
+      if (line == null || line.trim().isEmpty()) {
+        throw new IOException("\"" + file + "\" holds no token.");
+      }
+      return line.trim();
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Returns the port clients connect to.
+   *
+   * @return the port, or -1 if the daemon has not been started.
+   */
+  public int getPort() {
+    return this.serverSocket == null ? -1 : this.serverSocket.getLocalPort();
+  }
+
+  /**
+   * Returns the number of clients being served.
+   *
+   * @return the number of clients.
+   */
+  public int getNumActive() {
+    return this.numActive.get();
+  }
+
+  /**
+   * Accepts clients until the daemon is stopped, serving each on a thread
+   * of its own.
+   */
+  void acceptClients() {
+    while (!this.stopped) {
+      final Socket accepted;
+      try {
+        accepted = this.serverSocket.accept();
+      } catch (IOException ioe) {
+        if (!this.stopped) {
+          log.error("Unable to accept a client.", ioe);
+        }
+        return;
+      }
+      if (this.numActive.incrementAndGet() > this.maxClients) {
+        this.numActive.decrementAndGet();
+        this.refuse(accepted);
+        continue;
+      }
+      Thread handler = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            BrowserDaemon.this.serve(accepted);
+          } finally {
+            BrowserDaemon.this.numActive.decrementAndGet();
+          }
+        }
+      }, "Browser client " + this.numAccepted.incrementAndGet());
+      handler.setDaemon(true);
+      handler.start();
+    }
+  }
+
+  /**
+   * Runs the commands of one client and closes its connection.
+   *
+   * @param socket
+   *          the client's connection.
+   */
+  void serve(final Socket socket) {
+    try {
+      BufferedReader commandIn = new BufferedReader(new InputStreamReader(
+          socket.getInputStream(), CHARSET));
+      PrintStream out = new PrintStream(socket.getOutputStream(), false,
+          CHARSET);
+      if (!this.authenticate(socket, commandIn)) {
+        log.warn("Refusing a client that sent a wrong token.");
+        out.println("Not authorized. Send the token from " + this.tokenFile
+            + " as the first line.");
+        out.flush();
+        return;
+      }
+      Browser browser = new Browser(this.session, commandIn, out);
+      browser.setOutputFormat(this.outputFormat);
+      browser.run();
+      out.flush();
+    } catch (IOException ioe) {
+      log.warn("Unable to serve a client.", ioe);
+    } finally {
+      try {
+        socket.close();
+      } catch (IOException ioe) {
+        // Ignored
+      }
+    }
+  }
+
+  /**
+   * Reads the first line a client sends and checks that it is the token.
+   *
+   * @param socket
+   *          the client's connection.
+   * @param commandIn
+   *          the client's input.
+   * @return {@code true} if the client sent the token in time.
+   * @throws IOException
+   *           if the connection fails.
+   */
+  private boolean authenticate(final Socket socket,
+      final BufferedReader commandIn) throws IOException {
+    String line;
+    socket.setSoTimeout(TOKEN_TIMEOUT);
+    try {
+      line = commandIn.readLine();
+    } catch (SocketTimeoutException ste) {
+      return false;
+    } finally {
+      socket.setSoTimeout(0);
+    }
+    // Compares every byte, so the time taken does not reveal a prefix
+    return line != null
+        && MessageDigest.isEqual(this.token, line.trim().getBytes(CHARSET));
+  }
+
+  /**
+   * Tells a client the daemon is busy and closes its connection.
+   *
+   * @param socket
+   *          the client's connection.
+   */
+  private void refuse(final Socket socket) {
+    log.warn("Refusing a client; already serving {}.",
+        Integer.valueOf(this.maxClients));
+    try {
+      PrintStream out = new PrintStream(socket.getOutputStream(), false,
+          CHARSET);
+      out.println("Too many clients (" + this.maxClients
+          + "). Try again later.");
+      out.flush();
+    } catch (IOException ioe) {
+      // Ignored
+    } finally {
+      try {
+        socket.close();
+      } catch (IOException ioe) {
+        // Ignored
+      }
+    }
+  }
+
+  /**
+   * Connects to a world model and serves browser clients until the process
+   * is stopped. Parameters are the same as those of {@link Browser}: the
+   * world model host, the origin, and optionally the solver and client
+   * ports, with the flags {@value Browser#FLAG_WRITE_QUEUE},
+   * {@value Browser#FLAG_WRITE_BATCH}, {@value Browser#FLAG_WRITE_LINGER},
+   * and {@value Browser#FLAG_OUTPUT_FORMAT}, and in addition
+   * {@value #FLAG_PORT} (the port to accept clients on),
+   * {@value #FLAG_MAX_CLIENTS} (the largest number of clients served at
+   * once), {@value #FLAG_CACHE} (enables the snapshot cache with a
+   * time-to-live in milliseconds), and {@value #FLAG_TOKEN_FILE} (the file
+   * the token is written to).
+   *
+   * @param args
+   *          the command-line arguments.
+   */
+  public static void main(final String[] args) {
+    int port = DEFAULT_PORT;
+    int maxClients = DEFAULT_MAX_CLIENTS;
+    long cacheTtl = -1;
+    int writeQueueSize = WritePipeline.DEFAULT_QUEUE_SIZE;
+    int writeBatchSize = WritePipeline.DEFAULT_BATCH_SIZE;
+    long writeLinger = WritePipeline.DEFAULT_LINGER_TIME;
+    ResultFormatter.Format outputFormat = ResultFormatter.Format.TEXT;
+    File tokenFile = null;
+    List<String> positional = new ArrayList<String>();
+    for (int i = 0; i < args.length; ++i) {
+      String arg = args[i];
+      if (FLAG_PORT.equals(arg) || FLAG_MAX_CLIENTS.equals(arg)
+          || FLAG_CACHE.equals(arg) || FLAG_TOKEN_FILE.equals(arg)
+          || Browser.FLAG_WRITE_QUEUE.equals(arg)
+          || Browser.FLAG_WRITE_BATCH.equals(arg)
+          || Browser.FLAG_WRITE_LINGER.equals(arg)
+          || Browser.FLAG_OUTPUT_FORMAT.equals(arg)) {
+        if (i + 1 >= args.length) {
+          System.out.println("Missing value after " + arg + ".");
+          return;
+        }
+        String value = args[++i];
+        if (Browser.FLAG_OUTPUT_FORMAT.equals(arg)) {
+          try {
+            outputFormat = ResultFormatter.Format.parse(value);
+          } catch (IllegalArgumentException iae) {
+            System.out.println(iae.getMessage());
+            return;
+          }
+          continue;
+        }
+        if (FLAG_TOKEN_FILE.equals(arg)) {
+          tokenFile = new File(value);
+          continue;
+        }
+        try {
+          if (FLAG_PORT.equals(arg)) {
+            port = Integer.parseInt(value);
+          } else if (FLAG_MAX_CLIENTS.equals(arg)) {
+            maxClients = Integer.parseInt(value);
+          } else if (FLAG_CACHE.equals(arg)) {
+            cacheTtl = Long.parseLong(value);
+          } else if (Browser.FLAG_WRITE_QUEUE.equals(arg)) {
+            writeQueueSize = Integer.parseInt(value);
+          } else if (Browser.FLAG_WRITE_BATCH.equals(arg)) {
+            writeBatchSize = Integer.parseInt(value);
+          } else {
+            writeLinger = Long.parseLong(value);
+          }
+        } catch (NumberFormatException nfe) {
+          System.out.println("Unable to parse " + value + " as a number.");
+          return;
+        }
+      } else {
+        positional.add(arg);
+      }
+    }
+
+    if (positional.size() < 2) {
+      System.out.println("Usage: BrowserDaemon [options] HOST ORIGIN "
+          + "[SOLVER_PORT [CLIENT_PORT]]");
+      return;
+    }
+    int solverPort = -1;
+    int clientPort = -1;
+    try {
+      if (positional.size() > 2) {
+        solverPort = Integer.parseInt(positional.get(2));
+      }
+      if (positional.size() > 3) {
+        clientPort = Integer.parseInt(positional.get(3));
+      }
+    } catch (NumberFormatException nfe) {
+      System.out.println("Unable to parse the port numbers "
+          + positional.subList(2, positional.size()) + ".");
+      return;
+    }
+
+    WorldModelSession session = new WorldModelSession(positional.get(0),
+        positional.get(1), solverPort, clientPort);
+    session.configureWrites(writeQueueSize, writeBatchSize, writeLinger);
+    if (cacheTtl > 0) {
+      session.setCache(new SnapshotCache(cacheTtl,
+          SnapshotCache.DEFAULT_MAX_ENTRIES));
+    }
+    // Both connections at once, since clients are expected to write
+    System.out.print("[Connecting to " + session.getClientConnection()
+        + " and " + session.getSolverConnection() + "...");
+    if (!session.connect(true)) {
+      System.out.println("FAIL]");
+      session.close();
+      return;
+    }
+    System.out.println("OK]");
+
+    final BrowserDaemon daemon = new BrowserDaemon(session, port, maxClients);
+    daemon.setOutputFormat(outputFormat);
+    daemon.setTokenFile(tokenFile);
+    try {
+      daemon.start();
+    } catch (IOException ioe) {
+      System.out.println("Unable to start on port " + port + ": "
+          + ioe.getMessage());
+      session.close();
+      return;
+    }
+    Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+      @Override
+      public void run() {
+        daemon.stop();
+      }
+    }, "Browser daemon shutdown"));
+    System.out.println("Accepting browser clients on port "
+        + daemon.getPort() + ", with the token in " + daemon.getTokenFile()
+        + ".");
+
+    // The acceptor thread is a daemon, so keep the main thread alive
+    Object forever = new Object();
+    synchronized (forever) {
+      while (true) {
+        try {
+          forever.wait();
+        } catch (InterruptedException ie) {
+          return;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,324 @@
+/*
+ * Owl Platform Command Line Browser
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.wmbrowse.cli;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.owlplatform.wmbrowse.cli.WritePipeline.WriteRequest;
+import com.owlplatform.worldmodel.Attribute;
+import com.owlplatform.worldmodel.types.DataConverter;
+
+/**
+ * Streams delimited rows of Attribute values into the world model. Each row
+ * has the form {@code id,attribute,value[,timestamp]}, where the timestamp is
+ * in milliseconds since the epoch and defaults to the time the row was read.
+ * Values are encoded with {@link DataConverter} and queued on the session's
+ * {@link WritePipeline}, which batches them and sends them again after a
+ * reconnection, without prompting or reading the values back. The ingester
+ * follows its own writes, so the number that failed is known.
+ * 
+ * @author Robert Moore
+ */
+public class BulkIngester {
+
+  /**
+   * Logger for this class.
+   */
+  private static final Logger log = LoggerFactory.getLogger(BulkIngester.class);
+
+  /**
+   * Default number of Attribute values sent in a single update.
+   */
+  public static final int DEFAULT_BATCH_SIZE = 500;
+
+  /**
+   * How often progress is reported, in milliseconds.
+   */
+  public static final long REPORT_INTERVAL = 5000l;
+
+  /**
+   * The session to write through.
+   */
+  private final WorldModelSession session;
+
+  /**
+   * Origin of the Attribute values.
+   */
+  private final String origin;
+
+  /**
+   * Field delimiter for each row.
+   */
+  private final char delimiter;
+
+  /**
+   * Where progress is printed.
+   */
+  private final PrintStream out;
+
+  /**
+   * Attribute names without a known data type, so that each is only reported
+   * once.
+   */
+  private final Set<String> unknownTypes = new HashSet<String>();
+
+  /**
+   * Queued writes that have not been seen to finish, oldest first.
+   */
+  private final ArrayDeque<WriteRequest> pending =
+      new ArrayDeque<WriteRequest>();
+
+  /**
+   * Number of rows sent to the world model.
+   */
+  private long numSent = 0;
+
+  /**
+   * Number of rows that could not be parsed, encoded, or sent.
+   */
+  private long numRejected = 0;
+
+  /**
+   * Creates a new ingester. The number of values sent in a single update is
+   * the batch size of the session's write pipeline.
+   * 
+   * @param session
+   *          the session to write through.
+   * @param origin
+   *          the origin string for the values.
+   * @param delimiter
+   *          the field delimiter, usually ',' or a tab.
+   * @param out
+   *          where progress is printed.
+   */
+  public BulkIngester(final WorldModelSession session, final String origin,
+      final char delimiter, final PrintStream out) {
+    this.session = session;
+    this.origin = origin;
+    this.delimiter = delimiter;
+    this.out = out;
+  }
+
+  /**
+   * Reads every row from {@code input} and queues it for the world model,
+   * printing the throughput periodically and once every row has been sent
+   * or has failed.
+   * 
+   * @param input
+   *          the source of rows.
+   * @throws IOException
+   *           if the input cannot be read.
+   * @throws InterruptedException
+   *           if interrupted while waiting for the writes.
+   */
+  public void ingest(final BufferedReader input) throws IOException,
+      InterruptedException {
+    long start = System.currentTimeMillis();
+    long nextReport = start + REPORT_INTERVAL;
+    long lineNumber = 0;
+    String line;
+    while ((line = input.readLine()) != null) {
+      ++lineNumber;
+      if (line.length() == 0 || line.charAt(0) == '#') {
+        continue;
+      }
+      Attribute attr = this.parseRow(line, lineNumber);
+      if (attr == null) {
+        ++this.numRejected;
+        continue;
+      }
+      this.pending.add(this.session.update(attr));
+      // Writes finish roughly in the order queued, so check the oldest first
+      while (!this.pending.isEmpty() && this.pending.peek().isDone()) {
+        this.finish(this.pending.poll());
+      }
+      long now = System.currentTimeMillis();
+      if (now >= nextReport) {
+        this.report(start, now);
+        nextReport = now + REPORT_INTERVAL;
+      }
+    }
+    WriteRequest request;
+    while ((request = this.pending.peek()) != null) {
+      request.await();
+      this.finish(this.pending.poll());
+    }
+    this.report(start, System.currentTimeMillis());
+    this.out.println("Ingest complete: " + this.numSent + " rows sent, "
+        + this.numRejected + " rows rejected.");
+  }
+
+  /**
+   * Parses a single row into an Attribute.
+   * 
+   * @param line
+   *          the row.
+   * @param lineNumber
+   *          the line number for error messages.
+   * @return the Attribute, or {@code null} if the row was invalid.
+   */
+  protected Attribute parseRow(final String line, final long lineNumber) {
+    List<String> fields = splitFields(line, this.delimiter);
+    if (fields.size() < 3 || fields.size() > 4) {
+      log.warn("Line " + lineNumber + ": expected 3 or 4 fields, found "
+          + fields.size() + ".");
+      return null;
+    }
+    String attribute = fields.get(1);
+    if (!DataConverter.hasConverterForAttribute(attribute)) {
+      if (this.unknownTypes.add(attribute)) {
+        this.out.println("Unknown data type for \"" + attribute
+            + "\". Rows for this Attribute will be skipped.");
+      }
+      return null;
+    }
+
+    long timestamp;
+    if (fields.size() == 4) {
+      try {
+        timestamp = Long.parseLong(fields.get(3).trim());
+      } catch (NumberFormatException nfe) {
+        log.warn("Line " + lineNumber + ": invalid timestamp \""
+            + fields.get(3) + "\".");
+        return null;
+      }
+    } else {
+      timestamp = System.currentTimeMillis();
+    }
+
+    byte[] data;
+    try {
+      data = DataConverter.encode(attribute, fields.get(2));
+    } catch (Exception e) {
+      log.warn("Line " + lineNumber + ": unable to encode \"" + fields.get(2)
+          + "\" for " + attribute + ".", e);
+      return null;
+    }
+    if (data == null) {
+      return null;
+    }
+
+    Attribute attr = new Attribute();
+    attr.setId(fields.get(0));
+    attr.setAttributeName(attribute);
+    attr.setData(data);
+    attr.setCreationDate(timestamp);
+    attr.setOriginName(this.origin);
+    return attr;
+  }
+
+  /**
+   * Counts a finished write as sent or rejected.
+   * 
+   * @param request
+   *          the finished write.
+   */
+  private void finish(final WriteRequest request) {
+    if (request.isSuccess()) {
+      ++this.numSent;
+    } else {
+      ++this.numRejected;
+    }
+  }
+
+  /**
+   * Prints the number of rows sent and the average rate since {@code start}.
+   * 
+   * @param start
+   *          when the ingest started.
+   * @param now
+   *          the current time.
+   */
+  private void report(final long start, final long now) {
+    long elapsed = Math.max(1, now - start);
+    this.out.printf("[%d rows in %.1f s, %.0f rows/sec]%n",
+        Long.valueOf(this.numSent), Double.valueOf(elapsed / 1000.0),
+        Double.valueOf(this.numSent * 1000.0 / elapsed));
+  }
+
+  /**
+   * Splits a delimited row into fields. Fields may be enclosed in double
+   * quotes to include the delimiter, and a doubled quote inside a quoted field
+   * stands for a single quote character.
+   * 
+   * @param line
+   *          the row to split.
+   * @param delimiter
+   *          the field delimiter.
+   * @return the fields of the row.
+   */
+  protected static List<String> splitFields(final String line,
+      final char delimiter) {
+    List<String> fields = new ArrayList<String>(4);
+    StringBuilder field = new StringBuilder();
+    boolean quoted = false;
+    for (int i = 0; i < line.length(); ++i) {
+      char c = line.charAt(i);
+      if (quoted) {
+        if (c == '"') {
+          if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+            field.append('"');
+            ++i;
+          } else {
+            quoted = false;
+          }
+        } else {
+          field.append(c);
+        }
+      } else if (c == '"') {
+        quoted = true;
+      } else if (c == delimiter) {
+        fields.add(field.toString());
+        field.setLength(0);
+      } else {
+        field.append(c);
+      }
+    }
+    fields.add(field.toString());
+    return fields;
+  }
+
+  /**
+   * Returns the number of rows sent to the world model.
+   * 
+   * @return the number of rows sent.
+   */
+  public long getNumSent() {
+    return this.numSent;
+  }
+
+  /**
+   * Returns the number of rows that were not sent.
+   * 
+   * @return the number of rows rejected.
+   */
+  public long getNumRejected() {
+    return this.numRejected;
+  }
+}
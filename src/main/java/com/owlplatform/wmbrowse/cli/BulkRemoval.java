@@ -0,0 +1,239 @@
+/*
+ * Owl Platform Command Line Browser
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.wmbrowse.cli;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+
+import com.owlplatform.wmbrowse.cli.WritePipeline.WriteRequest;
+
+/**
+ * Expires or deletes an Identifier, or one of its Attributes, for each of
+ * many Identifiers. Writes are queued without waiting for each to be sent,
+ * up to {@code parallelism} at a time, so the solver connection stays busy
+ * while earlier writes are still outstanding. Progress is printed
+ * periodically, and a summary when every write has finished. The
+ * Identifiers to change are found with {@link #resolve(WorldModelSession,
+ * String)}, which always asks the world model.
+ *
+ * @author Robert Moore
+ */
+class BulkRemoval {
+
+  /**
+   * Default largest number of writes outstanding at once.
+   */
+  static final int DEFAULT_PARALLELISM = 256;
+
+  /**
+   * How often progress is reported, in milliseconds.
+   */
+  static final long REPORT_INTERVAL = 5000l;
+
+  /**
+   * The session to write through.
+   */
+  private final WorldModelSession session;
+
+  /**
+   * {@link WritePipeline.Type#EXPIRE} or {@link WritePipeline.Type#DELETE}.
+   */
+  private final WritePipeline.Type type;
+
+  /**
+   * The Attribute name, or {@code null} for whole Identifiers.
+   */
+  private final String attribute;
+
+  /**
+   * The expiration time.
+   */
+  private final long time;
+
+  /**
+   * Largest number of writes outstanding at once.
+   */
+  private final int parallelism;
+
+  /**
+   * Where progress is printed.
+   */
+  private final PrintStream out;
+
+  /**
+   * Queued writes that have not been seen to finish, oldest first.
+   */
+  private final ArrayDeque<WriteRequest> pending =
+      new ArrayDeque<WriteRequest>();
+
+  /**
+   * Number of writes queued.
+   */
+  private long numQueued = 0;
+
+  /**
+   * Number of writes that could not be sent.
+   */
+  private long numFailed = 0;
+
+  /**
+   * Creates a new removal.
+   *
+   * @param session
+   *          the session to write through.
+   * @param type
+   *          {@link WritePipeline.Type#EXPIRE} or
+   *          {@link WritePipeline.Type#DELETE}.
+   * @param attribute
+   *          the Attribute name, or {@code null} for whole Identifiers.
+   * @param time
+   *          the expiration time, ignored for deletions.
+   * @param parallelism
+   *          the largest number of writes outstanding at once.
+   * @param out
+   *          where progress is printed.
+   */
+  BulkRemoval(final WorldModelSession session, final WritePipeline.Type type,
+      final String attribute, final long time, final int parallelism,
+      final PrintStream out) {
+    this.session = session;
+    this.type = type;
+    this.attribute = attribute;
+    this.time = time;
+    this.parallelism = Math.max(1, parallelism);
+    this.out = out;
+  }
+
+  /**
+   * Finds the Identifiers matching a regular expression by asking the world
+   * model, never the local Identifier index, which may be missing
+   * Identifiers created since it was loaded.
+   *
+   * @param session
+   *          the session to search through.
+   * @param idRegex
+   *          the Identifier regular expression.
+   * @return the matching Identifiers, or {@code null} if the search failed.
+   * @throws InterruptedException
+   *           if interrupted while waiting.
+   * @throws ExecutionException
+   *           if the search could not be sent.
+   */
+  static String[] resolve(final WorldModelSession session,
+      final String idRegex) throws InterruptedException, ExecutionException {
+    return session.searchWorldModel(idRegex, null).get();
+  }
+
+  /**
+   * Builds a regular expression that matches only one Identifier, with every
+   * character that has a meaning in a regular expression escaped.
+   *
+   * @param identifier
+   *          the Identifier.
+   * @return the anchored, escaped expression.
+   */
+  static String exactly(final String identifier) {
+    StringBuilder regex = new StringBuilder(identifier.length() + 8);
+    regex.append('^');
+    for (int i = 0; i < identifier.length(); ++i) {
+      char c = identifier.charAt(i);
+      if ("\\.[]{}()*+?^$|".indexOf(c) >= 0) {
+        regex.append('\\');
+      }
+      regex.append(c);
+    }
+    return regex.append('$').toString();
+  }
+
+  /**
+   * Expires or deletes each Identifier and waits for every write to finish.
+   *
+   * @param identifiers
+   *          the Identifiers.
+   * @return the number of writes that failed.
+   * @throws InterruptedException
+   *           if interrupted while waiting.
+   */
+  long run(final String[] identifiers) throws InterruptedException {
+    long start = System.currentTimeMillis();
+    long nextReport = start + REPORT_INTERVAL;
+    for (String id : identifiers) {
+      while (this.pending.size() >= this.parallelism) {
+        this.finishOldest();
+      }
+      this.pending.add(this.type == WritePipeline.Type.EXPIRE ? this.session
+          .expire(id, this.attribute, this.time) : this.session.delete(id,
+          this.attribute));
+      ++this.numQueued;
+      // Writes finish roughly in the order queued, so check the oldest first
+      while (!this.pending.isEmpty() && this.pending.peek().isDone()) {
+        this.finishOldest();
+      }
+      long now = System.currentTimeMillis();
+      if (now >= nextReport) {
+        this.report(identifiers.length, start, now);
+        nextReport = now + REPORT_INTERVAL;
+      }
+    }
+    while (!this.pending.isEmpty()) {
+      this.finishOldest();
+    }
+    long elapsed = Math.max(1, System.currentTimeMillis() - start);
+    this.out.printf("%s %d of %d Identifiers (%d failed) in %.1f s.%n",
+        this.type == WritePipeline.Type.EXPIRE ? "Expired" : "Deleted",
+        Long.valueOf(this.numQueued - this.numFailed),
+        Integer.valueOf(identifiers.length), Long.valueOf(this.numFailed),
+        Double.valueOf(elapsed / 1000.0));
+    return this.numFailed;
+  }
+
+  /**
+   * Waits for the oldest outstanding write and counts it if it failed.
+   *
+   * @throws InterruptedException
+   *           if interrupted while waiting.
+   */
+  private void finishOldest() throws InterruptedException {
+    if (!this.pending.peek().await()) {
+      ++this.numFailed;
+    }
+    this.pending.poll();
+  }
+
+  /**
+   * Prints the number of writes finished and the rate since {@code start}.
+   *
+   * @param total
+   *          the number of Identifiers.
+   * @param start
+   *          when the removal started.
+   * @param now
+   *          the current time.
+   */
+  private void report(final int total, final long start, final long now) {
+    long finished = this.numQueued - this.pending.size();
+    long elapsed = Math.max(1, now - start);
+    this.out.printf("[%d/%d in %.1f s, %.0f/sec, %d failed]%n",
+        Long.valueOf(finished), Integer.valueOf(total),
+        Double.valueOf(elapsed / 1000.0),
+        Double.valueOf(finished * 1000.0 / elapsed),
+        Long.valueOf(this.numFailed));
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * Owl Platform Command Line Browser
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.wmbrowse.cli;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import jline.console.completer.Completer;
+
+/**
+ * Tab completion for the interactive prompt. The first word of a command is
+ * completed from the command names, Attribute arguments from the Attribute
+ * names this session has announced or seen, and everything else from the
+ * Identifiers in the local {@link IdentifierIndex}.
+ * 
+ * @author Robert Moore
+ */
+class CommandCompleter implements Completer {
+
+  /**
+   * Maximum number of Identifiers offered for a single completion.
+   */
+  public static final int MAX_CANDIDATES = 1000;
+
+  /**
+   * The command names.
+   */
+  private final SortedSet<String> commands;
+
+  /**
+   * Attributes announced on the solver connection.
+   */
+  private final AttributeRegistry registry;
+
+  /**
+   * Attribute names seen in results.
+   */
+  private final ConcurrentSkipListSet<String> seenAttributes =
+      new ConcurrentSkipListSet<String>();
+
+  /**
+   * Option that takes an Attribute name as its value.
+   */
+  private final String attributeOption;
+
+  /**
+   * Commands whose second argument is an Attribute name.
+   */
+  private final Collection<String> attributeCommands;
+
+  /**
+   * The Identifier index, or {@code null} if there is none.
+   */
+  private volatile IdentifierIndex index = null;
+
+  /**
+   * Creates a new completer.
+   * 
+   * @param commands
+   *          the command names.
+   * @param attributeCommands
+   *          the commands whose second argument is an Attribute name.
+   * @param attributeOption
+   *          the option that takes an Attribute name as its value.
+   * @param registry
+   *          the Attributes announced during this session.
+   */
+  CommandCompleter(final Collection<String> commands,
+      final Collection<String> attributeCommands,
+      final String attributeOption, final AttributeRegistry registry) {
+    this.commands = new TreeSet<String>(commands);
+    this.attributeCommands = attributeCommands;
+    this.attributeOption = attributeOption;
+    this.registry = registry;
+  }
+
+  /**
+   * Sets the Identifier index used to complete Identifiers.
+   * 
+   * @param index
+   *          the index, or {@code null} to stop completing Identifiers.
+   */
+  void setIndex(final IdentifierIndex index) {
+    this.index = index;
+  }
+
+  /**
+   * Records an Attribute name so that it can be completed.
+   * 
+   * @param attributeName
+   *          the Attribute name.
+   */
+  void addAttributeName(final String attributeName) {
+    this.seenAttributes.add(attributeName);
+  }
+
+  @Override
+  public int complete(final String buffer, final int cursor,
+      final List<CharSequence> candidates) {
+    String line = buffer == null ? "" : buffer.substring(0, cursor);
+    // Only the command after the last separator is being completed
+    int commandStart = line.lastIndexOf(Browser.COMMAND_SEPARATOR) + 1;
+    int wordStart = commandStart;
+    for (int i = line.length() - 1; i >= commandStart; --i) {
+      if (Character.isWhitespace(line.charAt(i))) {
+        wordStart = i + 1;
+        break;
+      }
+    }
+    String word = line.substring(wordStart);
+    List<String> previous = ParsedCommand.tokenize(line.substring(
+        commandStart, wordStart));
+
+    if (previous.isEmpty()) {
+      addMatches(this.commands, word, candidates);
+    } else if (isAttributePosition(previous)) {
+      SortedSet<String> names = new TreeSet<String>(this.seenAttributes);
+      names.addAll(this.registry.getAnnounced());
+      addMatches(names, word, candidates);
+    } else if (!previous.get(previous.size() - 1).startsWith("--")) {
+      IdentifierIndex ids = this.index;
+      if (ids != null) {
+        // Search expressions are often anchored
+        String anchor = word.startsWith("^") ? "^" : "";
+        for (String id : ids.withPrefix(word.substring(anchor.length()),
+            MAX_CANDIDATES)) {
+          candidates.add(anchor + id);
+        }
+      }
+    }
+    return candidates.isEmpty() ? -1 : wordStart;
+  }
+
+  /**
+   * Checks whether the word after some arguments is an Attribute name.
+   * 
+   * @param previous
+   *          the command name and arguments before the word.
+   * @return {@code true} if the word is an Attribute name.
+   */
+  private boolean isAttributePosition(final List<String> previous) {
+    if (this.attributeOption.equals(previous.get(previous.size() - 1))) {
+      return true;
+    }
+    return previous.size() == 2
+        && this.attributeCommands.contains(previous.get(0));
+  }
+
+  /**
+   * Adds the values that start with a prefix to a list of candidates.
+   * 
+   * @param values
+   *          the sorted values.
+   * @param prefix
+   *          the prefix.
+   * @param candidates
+   *          the candidates.
+   */
+  private static void addMatches(final SortedSet<String> values,
+      final String prefix, final List<CharSequence> candidates) {
+    for (String value : values.tailSet(prefix)) {
+      if (!value.startsWith(prefix)) {
+        break;
+      }
+      candidates.add(value);
+    }
+  }
+}
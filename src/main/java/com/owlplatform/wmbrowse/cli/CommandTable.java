@@ -0,0 +1,213 @@
+/*
+ * Owl Platform Command Line Browser
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.wmbrowse.cli;
+
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Dispatches parsed commands to their handlers by exact name. Each command
+ * is registered with the smallest and largest number of arguments it
+ * accepts and a usage line, which is printed instead of calling the handler
+ * when the number of arguments is out of range. Names are matched exactly,
+ * falling back to lower case, so "statusfoo" is not mistaken for "status"
+ * but "EXIT" still exits.
+ *
+ * @author Robert Moore
+ */
+class CommandTable {
+
+  /**
+   * Accepts any number of arguments, as a maximum.
+   */
+  static final int UNLIMITED = Integer.MAX_VALUE;
+
+  /**
+   * Performs a command.
+   *
+   * @author Robert Moore
+   */
+  interface Handler {
+    /**
+     * Performs a command whose argument count has already been checked.
+     *
+     * @param command
+     *          the parsed command.
+     */
+    void handle(ParsedCommand command);
+  }
+
+  /**
+   * A registered command.
+   */
+  private static final class Entry {
+    /**
+     * Smallest number of arguments.
+     */
+    final int minArgs;
+
+    /**
+     * Largest number of arguments.
+     */
+    final int maxArgs;
+
+    /**
+     * Usage line printed for the wrong number of arguments.
+     */
+    final String usage;
+
+    /**
+     * Performs the command.
+     */
+    final Handler handler;
+
+    /**
+     * Creates a new entry.
+     *
+     * @param minArgs
+     *          smallest number of arguments.
+     * @param maxArgs
+     *          largest number of arguments.
+     * @param usage
+     *          the usage line.
+     * @param handler
+     *          the handler.
+     */
+    Entry(final int minArgs, final int maxArgs, final String usage,
+        final Handler handler) {
+      this.minArgs = minArgs;
+      this.maxArgs = maxArgs;
+      this.usage = usage;
+      this.handler = handler;
+    }
+  }
+
+  /**
+   * Registered commands by name, in the order they were added.
+   */
+  private final Map<String, Entry> entries =
+      new LinkedHashMap<String, Entry>();
+
+  /**
+   * Where unknown commands and usage lines are reported.
+   */
+  private final PrintStream out;
+
+  /**
+   * Creates a table that reports to standard output.
+   */
+  CommandTable() {
+    this(System.out);
+  }
+
+  /**
+   * Creates a table that reports to {@code out}.
+   *
+   * @param out
+   *          where unknown commands and usage lines are reported.
+   */
+  CommandTable(final PrintStream out) {
+    this.out = out;
+  }
+
+  /**
+   * Registers a command, replacing any command of the same name.
+   *
+   * @param name
+   *          the command name.
+   * @param minArgs
+   *          the smallest number of arguments accepted.
+   * @param maxArgs
+   *          the largest number of arguments accepted, or {@link #UNLIMITED}.
+   * @param usage
+   *          the usage line, starting with the command name.
+   * @param handler
+   *          performs the command.
+   */
+  void add(final String name, final int minArgs, final int maxArgs,
+      final String usage, final Handler handler) {
+    this.entries.put(name, new Entry(minArgs, maxArgs, usage, handler));
+  }
+
+  /**
+   * Returns the registered command names.
+   *
+   * @return the names, in the order they were added.
+   */
+  Set<String> getNames() {
+    return Collections.unmodifiableSet(this.entries.keySet());
+  }
+
+  /**
+   * Checks whether a command is registered.
+   *
+   * @param name
+   *          the command name.
+   * @return {@code true} if it is registered.
+   */
+  boolean contains(final String name) {
+    return this.find(name) != null;
+  }
+
+  /**
+   * Checks the arguments of a command and performs it, or prints why it
+   * cannot be performed.
+   *
+   * @param command
+   *          the parsed command.
+   * @return {@code true} if the handler was called.
+   */
+  boolean dispatch(final ParsedCommand command) {
+    Entry entry = this.find(command.getName());
+    if (entry == null) {
+      this.out.println("Command not found \"" + command.getText()
+          + "\".\nType \"help\" for a list of commands.");
+      return false;
+    }
+    int numArgs = command.getArgs().size();
+    if (numArgs < entry.minArgs || numArgs > entry.maxArgs) {
+      this.out.println("Usage: " + entry.usage);
+      return false;
+    }
+    entry.handler.handle(command);
+    return true;
+  }
+
+  /**
+   * Looks up a command by exact name, then by its lower-case name.
+   *
+   * @param name
+   *          the command name.
+   * @return the entry, or {@code null} if none matches.
+   */
+  private Entry find(final String name) {
+    Entry entry = this.entries.get(name);
+    if (entry == null) {
+      String lower = name.toLowerCase(Locale.US);
+      if (!lower.equals(name)) {
+        entry = this.entries.get(lower);
+      }
+    }
+    return entry;
+  }
+}
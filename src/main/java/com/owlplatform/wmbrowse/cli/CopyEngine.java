@@ -0,0 +1,406 @@
+/*
+ * Owl Platform Command Line Browser
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.wmbrowse.cli;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.owlplatform.wmbrowse.cli.WritePipeline.WriteRequest;
+import com.owlplatform.worldmodel.Attribute;
+import com.owlplatform.worldmodel.client.ClientWorldConnection;
+import com.owlplatform.worldmodel.client.WorldState;
+
+/**
+ * <p>
+ * Copies the complete history of one Identifier to another. A reader thread
+ * pulls states from a {@link WindowedRange} and hands them to the calling
+ * thread through a bounded buffer; the calling thread re-targets each
+ * Attribute value and queues it on the {@link WritePipeline}, whose sender
+ * thread writes it to the world model. Reading, queueing, and sending all
+ * proceed at the same time, and a full buffer or write queue slows the reader
+ * down rather than growing without limit.
+ * </p>
+ * <p>
+ * Every state in the range is copied, including states that are still
+ * buffered when the range request reports that it is complete. The engine
+ * follows its own writes, so the number that failed is known even when other
+ * writes share the pipeline.
+ * </p>
+ * 
+ * @author Robert Moore
+ */
+public class CopyEngine {
+
+  /**
+   * Logger for this class.
+   */
+  private static final Logger log = LoggerFactory.getLogger(CopyEngine.class);
+
+  /**
+   * Default number of states buffered between the reader and the writer.
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 256;
+
+  /**
+   * How often progress is reported, in milliseconds.
+   */
+  public static final long REPORT_INTERVAL = 5000l;
+
+  /**
+   * Placed in the buffer by the reader after the last state.
+   */
+  private static final Collection<Attribute> END = new ArrayList<Attribute>(0);
+
+  /**
+   * Connection to read the source history from.
+   */
+  private final ClientWorldConnection cwc;
+
+  /**
+   * Pipeline to write the copies through.
+   */
+  private final WritePipeline writes;
+
+  /**
+   * Maximum number of states buffered between the reader and the writer.
+   */
+  private final int bufferSize;
+
+  /**
+   * Where progress is printed.
+   */
+  private final PrintStream out;
+
+  /**
+   * Number of states read from the source.
+   */
+  private volatile long numStates = 0;
+
+  /**
+   * Number of Attribute values queued for writing.
+   */
+  private long numQueued = 0;
+
+  /**
+   * Number of queued Attribute values that could not be sent.
+   */
+  private volatile long numFailed = 0;
+
+  /**
+   * Queued writes that have not been seen to finish, oldest first.
+   */
+  private final ArrayDeque<WriteRequest> pending =
+      new ArrayDeque<WriteRequest>();
+
+  /**
+   * Creation date of the most recent Attribute value queued.
+   */
+  private long lastCreated = 0;
+
+  /**
+   * Where range request latencies are recorded, or {@code null} if they are
+   * not.
+   */
+  private LatencyStats stats = null;
+
+  /**
+   * Re-establishes the client connection before a failed read is sent
+   * again, or {@code null} if failed reads are not sent again.
+   */
+  private Reconnector reconnector = null;
+
+  /**
+   * Creates a new copy engine.
+   * 
+   * @param cwc
+   *          the connection to read from.
+   * @param writes
+   *          the pipeline to write through.
+   * @param bufferSize
+   *          the maximum number of states buffered between reading and
+   *          writing.
+   * @param out
+   *          where progress is printed.
+   */
+  public CopyEngine(final ClientWorldConnection cwc,
+      final WritePipeline writes, final int bufferSize, final PrintStream out) {
+    this.cwc = cwc;
+    this.writes = writes;
+    this.bufferSize = Math.max(1, bufferSize);
+    this.out = out;
+  }
+
+  /**
+   * Sets where the latencies of the range requests that read the source are
+   * recorded. Must be called before {@link #copy(String, String)}.
+   * 
+   * @param stats
+   *          the statistics, or {@code null} to stop recording.
+   */
+  public void setStats(final LatencyStats stats) {
+    this.stats = stats;
+  }
+
+  /**
+   * Sets what re-establishes the client connection when reading the source
+   * fails, so that a long copy survives a restart of the world model. Writes
+   * are retried by the write pipeline. Must be called before copying.
+   * 
+   * @param reconnector
+   *          re-establishes the connection, or {@code null} to fail instead.
+   */
+  public void setReconnector(final Reconnector reconnector) {
+    this.reconnector = reconnector;
+  }
+
+  /**
+   * Copies every state of {@code source} to {@code destination}, printing
+   * progress periodically. Returns once every copy has been sent or has
+   * failed.
+   * 
+   * @param source
+   *          the Identifier to copy from.
+   * @param destination
+   *          the Identifier to copy to.
+   * @return the number of Attribute values queued.
+   * @throws Exception
+   *           if the source could not be read, or if interrupted.
+   */
+  public long copy(final String source, final String destination)
+      throws Exception {
+    final BlockingQueue<Collection<Attribute>> buffer =
+        new ArrayBlockingQueue<Collection<Attribute>>(this.bufferSize);
+    final Exception[] readError = new Exception[1];
+    Thread reader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          CopyEngine.this.read(source, buffer);
+        } catch (InterruptedException ie) {
+          // Writer gave up
+          return;
+        } catch (Exception e) {
+          readError[0] = e;
+        }
+        try {
+          buffer.put(END);
+        } catch (InterruptedException ie) {
+          // Writer gave up
+        }
+      }
+    }, "Copy Reader");
+    reader.setDaemon(true);
+    reader.start();
+
+    long start = System.currentTimeMillis();
+    long nextReport = start + REPORT_INTERVAL;
+    try {
+      Collection<Attribute> attributes;
+      while ((attributes = buffer.take()) != END) {
+        this.queue(attributes, destination);
+        long now = System.currentTimeMillis();
+        if (now >= nextReport) {
+          this.report(start, now);
+          nextReport = now + REPORT_INTERVAL;
+        }
+      }
+      reader.join();
+    } finally {
+      reader.interrupt();
+    }
+    this.awaitPending();
+    if (readError[0] != null) {
+      throw readError[0];
+    }
+    this.report(start, System.currentTimeMillis());
+    return this.numQueued;
+  }
+
+  /**
+   * Copies the current state of {@code source} to {@code destination}.
+   * Returns once every copy has been sent or has failed.
+   * 
+   * @param source
+   *          the Identifier to copy from.
+   * @param destination
+   *          the Identifier to copy to.
+   * @return the number of Attribute values queued.
+   * @throws Exception
+   *           if the source could not be read, or if interrupted.
+   */
+  public long copyCurrent(final String source, final String destination)
+      throws Exception {
+    long start = LatencyStats.start();
+    WorldState state;
+    for (int attempt = 1;; ++attempt) {
+      try {
+        state = this.cwc.getCurrentSnapshot(source, ".*").get();
+        break;
+      } catch (Exception e) {
+        if (this.reconnector == null
+            || attempt >= WorldModelSession.MAX_READ_ATTEMPTS
+            || !this.reconnector.awaitClient()) {
+          throw e;
+        }
+      }
+    }
+    if (this.stats != null) {
+      this.stats.record(LatencyStats.OP_CURRENT_SNAPSHOT, start);
+    }
+    Collection<Attribute> attributes = state == null ? null : state
+        .getState(source);
+    if (attributes == null || attributes.isEmpty()) {
+      return 0;
+    }
+    this.numStates = 1;
+    this.queue(attributes, destination);
+    this.awaitPending();
+    return this.numQueued;
+  }
+
+  /**
+   * Re-targets Attribute values to the destination and queues them, then
+   * counts the earlier writes that have finished.
+   * 
+   * @param attributes
+   *          the values to copy.
+   * @param destination
+   *          the destination Identifier.
+   * @throws InterruptedException
+   *           if interrupted while waiting for space in the write queue.
+   */
+  private void queue(final Collection<Attribute> attributes,
+      final String destination) throws InterruptedException {
+    for (Attribute attr : attributes) {
+      attr.setId(destination);
+      this.pending.add(this.writes.submit(WriteRequest.update(attr)));
+      ++this.numQueued;
+      this.lastCreated = Math.max(this.lastCreated, attr.getCreationDate());
+    }
+    // Writes finish roughly in the order queued, so check the oldest first
+    while (!this.pending.isEmpty() && this.pending.peek().isDone()) {
+      if (!this.pending.poll().isSuccess()) {
+        ++this.numFailed;
+      }
+    }
+  }
+
+  /**
+   * Waits for every queued write to be sent or to fail.
+   * 
+   * @throws InterruptedException
+   *           if interrupted while waiting.
+   */
+  private void awaitPending() throws InterruptedException {
+    WriteRequest request;
+    while ((request = this.pending.peek()) != null) {
+      if (!request.await()) {
+        ++this.numFailed;
+      }
+      this.pending.poll();
+    }
+  }
+
+  /**
+   * Reads every state of an Identifier, up to the time reading starts, into
+   * a buffer. Ending the range at that time, rather than leaving it open,
+   * keeps the windows from growing through the empty future one request at
+   * a time.
+   * 
+   * @param source
+   *          the Identifier.
+   * @param buffer
+   *          the buffer to fill.
+   * @throws Exception
+   *           if the history could not be read, or if interrupted.
+   */
+  void read(final String source,
+      final BlockingQueue<Collection<Attribute>> buffer) throws Exception {
+    long end = System.currentTimeMillis() + 1;
+    WindowedRange range = new WindowedRange(this.cwc, source, 0, end,
+        WindowedRange.DEFAULT_WINDOW, WindowedRange.DEFAULT_PREFETCH,
+        WindowedRange.DEFAULT_MAX_STATES, ".*");
+    range.setStats(this.stats);
+    range.setReconnector(this.reconnector);
+    WorldState state;
+    while ((state = range.next()) != null) {
+      ++this.numStates;
+      Collection<Attribute> attributes = state.getState(source);
+      if (attributes != null && !attributes.isEmpty()) {
+        buffer.put(attributes);
+      }
+    }
+    log.debug("Read {} states of \"{}\".", Long.valueOf(this.numStates),
+        source);
+  }
+
+  /**
+   * Returns the number of states read from the source.
+   * 
+   * @return the number of states read.
+   */
+  public long getNumStates() {
+    return this.numStates;
+  }
+
+  /**
+   * Returns the number of Attribute values queued for writing.
+   * 
+   * @return the number of values queued.
+   */
+  public long getNumQueued() {
+    return this.numQueued;
+  }
+
+  /**
+   * Returns the number of Attribute values that could not be written.
+   * 
+   * @return the number of failed writes.
+   */
+  public long getNumFailed() {
+    return this.numFailed;
+  }
+
+  /**
+   * Prints the progress of the copy.
+   * 
+   * @param start
+   *          when the copy started.
+   * @param now
+   *          the current time.
+   */
+  private void report(final long start, final long now) {
+    long elapsed = Math.max(1, now - start);
+    this.out.printf("[%d states, %d Attributes in %.1f s, "
+        + "%.0f Attributes/sec"
+        + (this.lastCreated > 0 ? ", through %tc]%n" : "]%n"),
+        Long.valueOf(this.numStates), Long.valueOf(this.numQueued),
+        Double.valueOf(elapsed / 1000.0),
+        Double.valueOf(this.numQueued * 1000.0 / elapsed),
+        new Date(this.lastCreated));
+  }
+}
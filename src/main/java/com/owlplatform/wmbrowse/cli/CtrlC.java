@@ -0,0 +1,127 @@
+/*
+ * Owl Platform Command Line Browser
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.wmbrowse.cli;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs an action in place of the usual exit when Ctrl-C is pressed, until
+ * {@link #restore()} puts the previous handler back. The JRE's
+ * {@code sun.misc.Signal} API is looked up by reflection rather than linked
+ * against, so the browser builds without proprietary-API warnings and still
+ * runs on a JRE that lacks it, just without the handler.
+ *
+ * @author Robert Moore
+ */
+final class CtrlC {
+
+  /**
+   * Logger for this class.
+   */
+  private static final Logger log = LoggerFactory.getLogger(CtrlC.class);
+
+  /**
+   * The {@code Signal.handle(Signal, SignalHandler)} method.
+   */
+  private final Method handle;
+
+  /**
+   * The interrupt signal.
+   */
+  private final Object signal;
+
+  /**
+   * The handler replaced by this one.
+   */
+  private final Object previous;
+
+  /**
+   * Creates a new, installed, handler.
+   *
+   * @param handle
+   *          the {@code Signal.handle(Signal, SignalHandler)} method.
+   * @param signal
+   *          the interrupt signal.
+   * @param previous
+   *          the handler replaced.
+   */
+  private CtrlC(final Method handle, final Object signal,
+      final Object previous) {
+    this.handle = handle;
+    this.signal = signal;
+    this.previous = previous;
+  }
+
+  /**
+   * Runs {@code action} whenever Ctrl-C is pressed, instead of exiting.
+   *
+   * @param action
+   *          the action, run on the JRE's signal thread.
+   * @return the installed handler, or {@code null} if this JRE cannot
+   *         handle Ctrl-C.
+   */
+  static CtrlC install(final Runnable action) {
+    try {
+      Class<?> signalClass = Class.forName("sun.misc.Signal");
+      Class<?> handlerClass = Class.forName("sun.misc.SignalHandler");
+      Method handle = signalClass.getMethod("handle", signalClass,
+          handlerClass);
+      Object signal = signalClass.getConstructor(String.class).newInstance(
+          "INT");
+      Object handler = Proxy.newProxyInstance(CtrlC.class.getClassLoader(),
+          new Class<?>[] { handlerClass }, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method,
+                final Object[] args) {
+              if ("handle".equals(method.getName())) {
+                action.run();
+                return null;
+              }
+              if ("equals".equals(method.getName())) {
+                return Boolean.valueOf(proxy == args[0]);
+              }
+              if ("hashCode".equals(method.getName())) {
+                return Integer.valueOf(System.identityHashCode(proxy));
+              }
+              return "Ctrl-C handler";
+            }
+          });
+      return new CtrlC(handle, signal, handle.invoke(null, signal, handler));
+    } catch (Exception e) {
+      log.warn("Unable to handle Ctrl-C.", e);
+      return null;
+    }
+  }
+
+  /**
+   * Puts back the handler that was replaced.
+   */
+  void restore() {
+    try {
+      this.handle.invoke(null, this.signal, this.previous);
+    } catch (Exception e) {
+      log.warn("Unable to restore the Ctrl-C handler.", e);
+    }
+  }
+}
@@ -0,0 +1,225 @@
+/*
+ * Owl Platform Command Line Browser
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.wmbrowse.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+
+import com.owlplatform.wmbrowse.cli.WritePipeline.WriteRequest;
+import com.owlplatform.worldmodel.Attribute;
+
+/**
+ * <p>
+ * Replays a dump file written by {@link DumpWriter} into a world model
+ * through a {@link WritePipeline}. Values keep their original Identifiers,
+ * origins, and creation and expiration dates. Every Attribute name in the
+ * dump is announced before the first value is sent. The importer follows its
+ * own writes, so the number that failed is known even when other writes
+ * share the pipeline.
+ * </p>
+ * <p>
+ * Values are sent as fast as the pipeline accepts them, at a fixed number of
+ * values per second, or spaced by their creation dates scaled by a speed
+ * factor (2 replays an hour of data in 30 minutes).
+ * </p>
+ * 
+ * @author Robert Moore
+ */
+public class DumpImporter {
+
+  /**
+   * How often progress is reported, in milliseconds.
+   */
+  public static final long REPORT_INTERVAL = 5000l;
+
+  /**
+   * Pipeline to send the values through.
+   */
+  private final WritePipeline writes;
+
+  /**
+   * Attribute names announced on the solver connection.
+   */
+  private final AttributeRegistry attributes;
+
+  /**
+   * Values per second, or 0 for no limit.
+   */
+  private final double rate;
+
+  /**
+   * Speed factor for replaying at the pace of the creation dates, or 0 to
+   * ignore them.
+   */
+  private final double speed;
+
+  /**
+   * Where progress is printed.
+   */
+  private final PrintStream out;
+
+  /**
+   * Queued writes that have not been seen to finish, oldest first.
+   */
+  private final ArrayDeque<WriteRequest> pending =
+      new ArrayDeque<WriteRequest>();
+
+  /**
+   * Number of values sent.
+   */
+  private long numSent = 0;
+
+  /**
+   * Number of values that could not be sent.
+   */
+  private long numFailed = 0;
+
+  /**
+   * Creates a new importer.
+   * 
+   * @param writes
+   *          the pipeline to send values through.
+   * @param attributes
+   *          the Attribute names announced on the pipeline's connection.
+   * @param rate
+   *          the maximum number of values per second, or 0 for no limit.
+   * @param speed
+   *          the speed factor for replaying at the pace of the values'
+   *          creation dates, or 0 to ignore them.
+   * @param out
+   *          where progress is printed.
+   */
+  public DumpImporter(final WritePipeline writes,
+      final AttributeRegistry attributes, final double rate,
+      final double speed, final PrintStream out) {
+    this.writes = writes;
+    this.attributes = attributes;
+    this.rate = Math.max(0, rate);
+    this.speed = Math.max(0, speed);
+    this.out = out;
+  }
+
+  /**
+   * Replays a dump file, printing progress periodically. Returns once every
+   * value has been sent or has failed.
+   * 
+   * @param dumpFile
+   *          the dump file.
+   * @return the number of values queued.
+   * @throws IOException
+   *           if the dump cannot be read.
+   * @throws InterruptedException
+   *           if interrupted while queueing or waiting.
+   */
+  public long replay(final File dumpFile) throws IOException,
+      InterruptedException {
+    DumpReader names = new DumpReader(dumpFile);
+    try {
+      this.attributes.announceAll(names.readAttributeNames());
+    } finally {
+      names.close();
+    }
+
+    DumpReader dump = new DumpReader(dumpFile);
+    try {
+      long start = System.currentTimeMillis();
+      long nextReport = start + REPORT_INTERVAL;
+      long firstCreation = 0;
+      Attribute attr;
+      while ((attr = dump.next()) != null) {
+        if (this.numSent == 0) {
+          firstCreation = attr.getCreationDate();
+        }
+        long due = start;
+        if (this.rate > 0) {
+          due = Math.max(due, start
+              + (long) (this.numSent * 1000 / this.rate));
+        }
+        if (this.speed > 0) {
+          due = Math.max(due, start
+              + (long) ((attr.getCreationDate() - firstCreation) / this.speed));
+        }
+        long now = System.currentTimeMillis();
+        if (due > now) {
+          Thread.sleep(due - now);
+          now = due;
+        }
+
+        this.pending.add(this.writes.submit(WriteRequest.update(attr)));
+        ++this.numSent;
+        // Writes finish roughly in the order queued, so check the oldest first
+        while (!this.pending.isEmpty() && this.pending.peek().isDone()) {
+          if (!this.pending.poll().isSuccess()) {
+            ++this.numFailed;
+          }
+        }
+        if (now >= nextReport) {
+          this.report(start, now);
+          nextReport = now + REPORT_INTERVAL;
+        }
+      }
+      WriteRequest request;
+      while ((request = this.pending.peek()) != null) {
+        if (!request.await()) {
+          ++this.numFailed;
+        }
+        this.pending.poll();
+      }
+      this.report(start, System.currentTimeMillis());
+    } finally {
+      dump.close();
+    }
+    return this.numSent;
+  }
+
+  /**
+   * Returns the number of values queued so far.
+   * 
+   * @return the number of values queued.
+   */
+  public long getNumSent() {
+    return this.numSent;
+  }
+
+  /**
+   * Returns the number of queued values that could not be sent.
+   * 
+   * @return the number of failed writes.
+   */
+  public long getNumFailed() {
+    return this.numFailed;
+  }
+
+  /**
+   * Prints the progress of the replay.
+   * 
+   * @param start
+   *          when the replay started.
+   * @param now
+   *          the current time.
+   */
+  private void report(final long start, final long now) {
+    long elapsed = Math.max(1, now - start);
+    this.out.printf("[%d values in %.1f s, %.0f values/sec]%n",
+        Long.valueOf(this.numSent), Double.valueOf(elapsed / 1000.0),
+        Double.valueOf(this.numSent * 1000.0 / elapsed));
+  }
+}
@@ -0,0 +1,354 @@
+/*
+ * Owl Platform Command Line Browser
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.wmbrowse.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.owlplatform.worldmodel.Attribute;
+
+/**
+ * Reads the Attribute values in a dump file written by {@link DumpWriter}.
+ * The file is memory-mapped in regions of up to {@link #REGION_SIZE} bytes,
+ * so dumps larger than the address space of a single mapping can be read.
+ * 
+ * @author Robert Moore
+ */
+public class DumpReader {
+
+  /**
+   * Maximum number of bytes mapped at once.
+   */
+  public static final int REGION_SIZE = 1 << 30;
+
+  /**
+   * Longest possible record header: a type byte and a 10-byte length.
+   */
+  private static final int MAX_HEADER = 11;
+
+  /**
+   * The dump file.
+   */
+  private final RandomAccessFile file;
+
+  /**
+   * Channel of {@link #file}.
+   */
+  private final FileChannel channel;
+
+  /**
+   * Size of the file in bytes.
+   */
+  private final long size;
+
+  /**
+   * The region of the file currently mapped.
+   */
+  private MappedByteBuffer region;
+
+  /**
+   * Offset in the file of the start of {@link #region}.
+   */
+  private long regionStart;
+
+  /**
+   * The string table, in index order.
+   */
+  private final List<String> strings = new ArrayList<String>();
+
+  /**
+   * Creation date of the previous Attribute record.
+   */
+  private long lastCreation = 0;
+
+  /**
+   * Number of Attribute records read.
+   */
+  private long numAttributes = 0;
+
+  /**
+   * Set once the end record has been read.
+   */
+  private boolean ended = false;
+
+  /**
+   * Opens a dump file and checks its header.
+   * 
+   * @param dumpFile
+   *          the file to read.
+   * @throws IOException
+   *           if the file cannot be read or is not a dump.
+   */
+  public DumpReader(final File dumpFile) throws IOException {
+    this.file = new RandomAccessFile(dumpFile, "r");
+    this.channel = this.file.getChannel();
+    this.size = this.channel.size();
+    try {
+      this.map(0);
+      if (this.region.remaining() < 5
+          || this.region.getInt() != DumpWriter.MAGIC) {
+        throw new IOException("\"" + dumpFile + "\" is not a dump file.");
+      }
+      byte version = this.region.get();
+      if (version != DumpWriter.VERSION) {
+        throw new IOException("Unsupported dump version " + version + ".");
+      }
+    } catch (IOException ioe) {
+      this.close();
+      throw ioe;
+    }
+  }
+
+  /**
+   * Returns the next Attribute value in the dump.
+   * 
+   * @return the next value, or {@code null} at the end of the dump.
+   * @throws IOException
+   *           if the dump cannot be read or is damaged.
+   */
+  public Attribute next() throws IOException {
+    return this.read(true);
+  }
+
+  /**
+   * Reads the rest of the dump and returns the Attribute names it contains,
+   * without building Attribute values.
+   * 
+   * @return the Attribute names, in the order they first appear.
+   * @throws IOException
+   *           if the dump cannot be read or is damaged.
+   */
+  public Set<String> readAttributeNames() throws IOException {
+    Set<String> names = new LinkedHashSet<String>();
+    Attribute attr;
+    while ((attr = this.read(false)) != null) {
+      names.add(attr.getAttributeName());
+    }
+    return names;
+  }
+
+  /**
+   * Returns the number of Attribute values read so far.
+   * 
+   * @return the number of values read.
+   */
+  public long getNumAttributes() {
+    return this.numAttributes;
+  }
+
+  /**
+   * Returns the size of the dump file.
+   * 
+   * @return the size in bytes.
+   */
+  public long getSize() {
+    return this.size;
+  }
+
+  /**
+   * Closes the file.
+   * 
+   * @throws IOException
+   *           if the file cannot be closed.
+   */
+  public void close() throws IOException {
+    this.region = null;
+    this.file.close();
+  }
+
+  /**
+   * Reads records up to and including the next Attribute record.
+   * 
+   * @param withData
+   *          {@code false} to only decode the Attribute name.
+   * @return the Attribute value, or {@code null} at the end of the dump.
+   * @throws IOException
+   *           if the dump cannot be read or is damaged.
+   */
+  private Attribute read(final boolean withData) throws IOException {
+    if (this.ended) {
+      return null;
+    }
+    try {
+      while (true) {
+        this.ensure(MAX_HEADER);
+        byte type = this.region.get();
+        long length = getVarInt(this.region);
+        if (length < 0 || length > REGION_SIZE) {
+          throw new IOException("Invalid record length " + length + ".");
+        }
+        this.ensure((int) length);
+        int end = this.region.position() + (int) length;
+        if (end > this.region.limit()) {
+          throw new BufferUnderflowException();
+        }
+
+        if (type == DumpWriter.RECORD_STRING) {
+          byte[] bytes = new byte[(int) length];
+          this.region.get(bytes);
+          this.strings.add(new String(bytes, DumpWriter.UTF8));
+        } else if (type == DumpWriter.RECORD_ATTRIBUTE) {
+          Attribute attr = this.readAttribute(end, withData);
+          this.region.position(end);
+          ++this.numAttributes;
+          return attr;
+        } else if (type == DumpWriter.RECORD_END) {
+          long expected = getVarInt(this.region);
+          if (expected != this.numAttributes) {
+            throw new IOException("Dump is damaged: expected " + expected
+                + " values but read " + this.numAttributes + ".");
+          }
+          this.ended = true;
+          return null;
+        } else {
+          // Unknown record types are skipped
+          this.region.position(end);
+        }
+      }
+    } catch (BufferUnderflowException bue) {
+      throw new IOException("Dump is truncated after "
+          + this.numAttributes + " values.");
+    }
+  }
+
+  /**
+   * Decodes the payload of an Attribute record.
+   * 
+   * @param end
+   *          the position in the region where the payload ends.
+   * @param withData
+   *          {@code false} to only decode the Attribute name.
+   * @return the Attribute value.
+   * @throws IOException
+   *           if the record refers to an unknown string.
+   */
+  private Attribute readAttribute(final int end, final boolean withData)
+      throws IOException {
+    String id = this.string(getVarInt(this.region));
+    String name = this.string(getVarInt(this.region));
+    String origin = this.string(getVarInt(this.region));
+    long creation = this.lastCreation + unZigZag(getVarInt(this.region));
+    long expiration = getVarInt(this.region);
+    this.lastCreation = creation;
+
+    Attribute attr = new Attribute();
+    attr.setAttributeName(name);
+    if (!withData) {
+      return attr;
+    }
+    attr.setId(id);
+    attr.setOriginName(origin);
+    attr.setCreationDate(creation);
+    attr.setExpirationDate(expiration == 0 ? 0 : creation
+        + unZigZag(expiration - 1));
+    byte[] data = new byte[end - this.region.position()];
+    this.region.get(data);
+    attr.setData(data);
+    return attr;
+  }
+
+  /**
+   * Looks up a string table entry.
+   * 
+   * @param index
+   *          the index.
+   * @return the string.
+   * @throws IOException
+   *           if there is no such entry.
+   */
+  private String string(final long index) throws IOException {
+    if (index < 0 || index >= this.strings.size()) {
+      throw new IOException("Dump is damaged: unknown string " + index + ".");
+    }
+    return this.strings.get((int) index);
+  }
+
+  /**
+   * Makes sure that the next {@code length} bytes (or the rest of the file)
+   * are mapped, re-mapping at the current position if necessary.
+   * 
+   * @param length
+   *          the number of bytes needed.
+   * @throws IOException
+   *           if the file cannot be mapped.
+   */
+  private void ensure(final int length) throws IOException {
+    long position = this.regionStart + this.region.position();
+    if (this.region.remaining() < length
+        && this.regionStart + this.region.limit() < this.size) {
+      this.map(position);
+    }
+  }
+
+  /**
+   * Maps a region of the file.
+   * 
+   * @param start
+   *          the offset of the region.
+   * @throws IOException
+   *           if the file cannot be mapped.
+   */
+  private void map(final long start) throws IOException {
+    long length = Math.min(REGION_SIZE, this.size - start);
+    this.region = this.channel.map(FileChannel.MapMode.READ_ONLY, start,
+        length);
+    this.regionStart = start;
+  }
+
+  /**
+   * Decodes an unsigned variable-length integer.
+   * 
+   * @param buffer
+   *          the buffer to read from.
+   * @return the value.
+   * @throws IOException
+   *           if the value is longer than 10 bytes.
+   */
+  static long getVarInt(final ByteBuffer buffer) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 70; shift += 7) {
+      byte b = buffer.get();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Dump is damaged: invalid number.");
+  }
+
+  /**
+   * Reverses {@link DumpWriter#zigZag(long)}.
+   * 
+   * @param value
+   *          the zig-zag encoded value.
+   * @return the signed value.
+   */
+  static long unZigZag(final long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+}
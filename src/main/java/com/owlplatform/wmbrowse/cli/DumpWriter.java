@@ -0,0 +1,394 @@
+/*
+ * Owl Platform Command Line Browser
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.wmbrowse.cli;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.owlplatform.worldmodel.Attribute;
+import com.owlplatform.worldmodel.client.WorldState;
+
+/**
+ * <p>
+ * Writes Attribute values to a compact binary dump file. A dump starts with
+ * the 4-byte {@link #MAGIC} number and a 1-byte {@link #VERSION}, followed by
+ * records. Each record is a 1-byte type, the length of its payload as an
+ * unsigned variable-length integer, and the payload:
+ * </p>
+ * <ul>
+ * <li>{@link #RECORD_STRING}: a UTF-8 string, added to the string table with
+ * the next index (starting at 0). Identifiers, Attribute names, and origins
+ * share the table, and each string is written once.</li>
+ * <li>{@link #RECORD_ATTRIBUTE}: the string indices of the Identifier,
+ * Attribute name, and origin; the creation date as a signed difference from
+ * the previous Attribute record's creation date; the expiration date as
+ * 0 for none, or 1 plus the signed difference from the creation date; and
+ * the raw data bytes, which fill the rest of the payload. Indices are
+ * unsigned and differences are zig-zag encoded variable-length integers.</li>
+ * <li>{@link #RECORD_END}: the number of Attribute records in the dump.</li>
+ * </ul>
+ * <p>
+ * Records are collected in a large direct buffer and written through a file
+ * channel.
+ * </p>
+ *
+ * @author Robert Moore
+ */
+public class DumpWriter {
+
+  /**
+   * First four bytes of every dump ("WMDP").
+   */
+  public static final int MAGIC = 0x574D4450;
+
+  /**
+   * Format version written after the magic number.
+   */
+  public static final byte VERSION = 1;
+
+  /**
+   * Record type of the last record in a dump.
+   */
+  public static final byte RECORD_END = 0;
+
+  /**
+   * Record type of a string table entry.
+   */
+  public static final byte RECORD_STRING = 1;
+
+  /**
+   * Record type of an Attribute value.
+   */
+  public static final byte RECORD_ATTRIBUTE = 2;
+
+  /**
+   * Default size of the output buffer, in bytes.
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+  /**
+   * Character set of strings in a dump.
+   */
+  static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /**
+   * No data.
+   */
+  private static final byte[] NO_DATA = new byte[0];
+
+  /**
+   * The file being written.
+   */
+  private final FileOutputStream out;
+
+  /**
+   * Channel of {@link #out}.
+   */
+  private final FileChannel channel;
+
+  /**
+   * Records waiting to be written.
+   */
+  private final ByteBuffer buffer;
+
+  /**
+   * Index of each string written so far.
+   */
+  private final Map<String, Integer> strings = new HashMap<String, Integer>();
+
+  /**
+   * Creation date of the previous Attribute record.
+   */
+  private long lastCreation = 0;
+
+  /**
+   * Number of Attribute records written.
+   */
+  private long numAttributes = 0;
+
+  /**
+   * Number of bytes written to the file.
+   */
+  private long numBytes = 0;
+
+  /**
+   * Creates a new dump file, replacing any existing file.
+   *
+   * @param file
+   *          the file to write.
+   * @param bufferSize
+   *          the size of the output buffer, in bytes.
+   * @throws IOException
+   *           if the file cannot be created.
+   */
+  public DumpWriter(final File file, final int bufferSize) throws IOException {
+    this.out = new FileOutputStream(file);
+    this.channel = this.out.getChannel();
+    this.buffer = ByteBuffer.allocateDirect(Math.max(64, bufferSize));
+    this.buffer.putInt(MAGIC);
+    this.buffer.put(VERSION);
+  }
+
+  /**
+   * Writes every Attribute value in a state.
+   *
+   * @param state
+   *          the state.
+   * @throws IOException
+   *           if the dump cannot be written.
+   */
+  public void write(final WorldState state) throws IOException {
+    for (String id : state.getIdentifiers()) {
+      Collection<Attribute> attributes = state.getState(id);
+      if (attributes == null) {
+        continue;
+      }
+      for (Attribute attr : attributes) {
+        if (attr.getId() == null) {
+          attr.setId(id);
+        }
+        this.write(attr);
+      }
+    }
+  }
+
+  /**
+   * Writes an Attribute value.
+   *
+   * @param attr
+   *          the Attribute value.
+   * @throws IOException
+   *           if the dump cannot be written.
+   */
+  public void write(final Attribute attr) throws IOException {
+    int id = this.stringIndex(attr.getId());
+    int name = this.stringIndex(attr.getAttributeName());
+    int origin = this.stringIndex(attr.getOriginName());
+    long creation = zigZag(attr.getCreationDate() - this.lastCreation);
+    long expiration = attr.getExpirationDate() == 0 ? 0 : zigZag(attr
+        .getExpirationDate() - attr.getCreationDate()) + 1;
+    byte[] data = attr.getData() == null ? NO_DATA : attr.getData();
+
+    int fieldsLength = varIntSize(id) + varIntSize(name) + varIntSize(origin)
+        + varIntSize(creation) + varIntSize(expiration);
+    int payloadLength = fieldsLength + data.length;
+    int headerLength = 1 + varIntSize(payloadLength);
+
+    this.reserve(headerLength + fieldsLength);
+    this.buffer.put(RECORD_ATTRIBUTE);
+    putVarInt(this.buffer, payloadLength);
+    putVarInt(this.buffer, id);
+    putVarInt(this.buffer, name);
+    putVarInt(this.buffer, origin);
+    putVarInt(this.buffer, creation);
+    putVarInt(this.buffer, expiration);
+    this.putBytes(data);
+
+    this.lastCreation = attr.getCreationDate();
+    ++this.numAttributes;
+  }
+
+  /**
+   * Writes the end record and closes the file.
+   *
+   * @throws IOException
+   *           if the dump cannot be written.
+   */
+  public void close() throws IOException {
+    try {
+      this.reserve(2 + 10);
+      this.buffer.put(RECORD_END);
+      putVarInt(this.buffer, varIntSize(this.numAttributes));
+      putVarInt(this.buffer, this.numAttributes);
+      this.flush();
+    } finally {
+      this.out.close();
+    }
+  }
+
+  /**
+   * Returns the number of Attribute values written.
+   *
+   * @return the number of Attribute records.
+   */
+  public long getNumAttributes() {
+    return this.numAttributes;
+  }
+
+  /**
+   * Returns the number of strings in the string table.
+   *
+   * @return the number of strings.
+   */
+  public int getNumStrings() {
+    return this.strings.size();
+  }
+
+  /**
+   * Returns the number of bytes written to the file so far.
+   *
+   * @return the number of bytes written.
+   */
+  public long getNumBytes() {
+    return this.numBytes;
+  }
+
+  /**
+   * Returns the string table index of a string, writing a string record the
+   * first time the string is seen.
+   *
+   * @param value
+   *          the string, or {@code null} for the empty string.
+   * @return the index.
+   * @throws IOException
+   *           if the dump cannot be written.
+   */
+  private int stringIndex(final String value) throws IOException {
+    String key = value == null ? "" : value;
+    Integer index = this.strings.get(key);
+    if (index != null) {
+      return index.intValue();
+    }
+    byte[] bytes = key.getBytes(UTF8);
+    this.reserve(1 + varIntSize(bytes.length));
+    this.buffer.put(RECORD_STRING);
+    putVarInt(this.buffer, bytes.length);
+    this.putBytes(bytes);
+    int newIndex = this.strings.size();
+    this.strings.put(key, Integer.valueOf(newIndex));
+    return newIndex;
+  }
+
+  /**
+   * Adds bytes to the output, writing them directly if they are larger than
+   * the buffer.
+   *
+   * @param bytes
+   *          the bytes.
+   * @throws IOException
+   *           if the dump cannot be written.
+   */
+  private void putBytes(final byte[] bytes) throws IOException {
+    if (bytes.length <= this.buffer.remaining()) {
+      this.buffer.put(bytes);
+      return;
+    }
+    this.flush();
+    if (bytes.length <= this.buffer.capacity()) {
+      this.buffer.put(bytes);
+      return;
+    }
+    this.writeFully(ByteBuffer.wrap(bytes));
+  }
+
+  /**
+   * Makes room for a number of bytes in the buffer.
+   *
+   * @param length
+   *          the number of bytes, at most the buffer's capacity.
+   * @throws IOException
+   *           if the dump cannot be written.
+   */
+  private void reserve(final int length) throws IOException {
+    if (this.buffer.remaining() < length) {
+      this.flush();
+    }
+  }
+
+  /**
+   * Writes the buffer to the file and empties it.
+   *
+   * @throws IOException
+   *           if the dump cannot be written.
+   */
+  private void flush() throws IOException {
+    this.buffer.flip();
+    this.writeFully(this.buffer);
+    this.buffer.clear();
+  }
+
+  /**
+   * Writes all of a buffer to the file.
+   *
+   * @param bytes
+   *          the bytes to write.
+   * @throws IOException
+   *           if the dump cannot be written.
+   */
+  private void writeFully(final ByteBuffer bytes) throws IOException {
+    while (bytes.hasRemaining()) {
+      this.numBytes += this.channel.write(bytes);
+    }
+  }
+
+  /**
+   * Maps a signed value to an unsigned one so that small negative values stay
+   * small.
+   *
+   * @param value
+   *          the signed value.
+   * @return the zig-zag encoded value.
+   */
+  static long zigZag(final long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  /**
+   * Returns the number of bytes needed to encode a value as an unsigned
+   * variable-length integer.
+   *
+   * @param value
+   *          the value, treated as unsigned.
+   * @return the encoded length, from 1 to 10.
+   */
+  static int varIntSize(final long value) {
+    int size = 1;
+    long rest = value >>> 7;
+    while (rest != 0) {
+      ++size;
+      rest >>>= 7;
+    }
+    return size;
+  }
+
+  /**
+   * Encodes an unsigned variable-length integer, 7 bits per byte with the
+   * high bit set on all but the last byte.
+   *
+   * @param buffer
+   *          the buffer to write to.
+   * @param value
+   *          the value, treated as unsigned.
+   */
+  static void putVarInt(final ByteBuffer buffer, final long value) {
+    long rest = value;
+    while ((rest & ~0x7FL) != 0) {
+      buffer.put((byte) ((rest & 0x7F) | 0x80));
+      rest >>>= 7;
+    }
+    buffer.put((byte) rest);
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * Owl Platform Command Line Browser
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.wmbrowse.cli;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Collects the results of a group of labelled operations that run at the
+ * same time and hands them to a {@link ResultHandler}, either in the order
+ * the operations were added or in the order they complete. Each operation
+ * reports through the {@link WorldModelSession.Callback} returned when it is
+ * added. An operation that fails does not stop the others.
+ * 
+ * @author Robert Moore
+ * @param <T>
+ *          the result type of the operations.
+ */
+class FanOut<T> {
+
+  /**
+   * Receives the result of each operation.
+   * 
+   * @author Robert Moore
+   * @param <T>
+   *          the result type of the operations.
+   */
+  interface ResultHandler<T> {
+    /**
+     * Called once for each operation, always on the thread that called
+     * {@link FanOut#finish(boolean, ResultHandler)}.
+     * 
+     * @param label
+     *          the label the operation was added with.
+     * @param result
+     *          the result of the operation, or {@code null} if it failed.
+     * @param error
+     *          the exception thrown by the operation, or {@code null} if it
+     *          succeeded.
+     */
+    void handle(String label, T result, Exception error);
+  }
+
+  /**
+   * The outcome of one operation.
+   * 
+   * @param <T>
+   *          the result type.
+   */
+  private static final class Outcome<T> {
+    /**
+     * The result, or {@code null} if the operation failed.
+     */
+    final T result;
+
+    /**
+     * The failure, or {@code null} if the operation succeeded.
+     */
+    final Exception error;
+
+    /**
+     * Creates a new outcome.
+     * 
+     * @param result
+     *          the result.
+     * @param error
+     *          the failure.
+     */
+    Outcome(final T result, final Exception error) {
+      this.result = result;
+      this.error = error;
+    }
+  }
+
+  /**
+   * Labels of the operations, in the order they were added.
+   */
+  private final List<String> labels = new ArrayList<String>();
+
+  /**
+   * Outcomes of the operations, in the order they were added, {@code null}
+   * until each completes. Guarded by itself.
+   */
+  private final List<Outcome<T>> outcomes = new ArrayList<Outcome<T>>();
+
+  /**
+   * Positions of the operations in the order they complete.
+   */
+  private final BlockingQueue<Integer> completed =
+      new LinkedBlockingQueue<Integer>();
+
+  /**
+   * Adds an operation. Call this before starting the operation, since the
+   * operation may complete before it returns.
+   * 
+   * @param label
+   *          a label for the operation, passed to the handler with its
+   *          result.
+   * @return the callback the operation must report to.
+   */
+  WorldModelSession.Callback<T> add(final String label) {
+    final int position;
+    synchronized (this.outcomes) {
+      position = this.labels.size();
+      this.labels.add(label);
+      this.outcomes.add(null);
+    }
+    return new WorldModelSession.Callback<T>() {
+      @Override
+      public void completed(final T result) {
+        FanOut.this.complete(position, new Outcome<T>(result, null));
+      }
+
+      @Override
+      public void failed(final Exception error) {
+        FanOut.this.complete(position, new Outcome<T>(null, error));
+      }
+    };
+  }
+
+  /**
+   * Records the outcome of an operation.
+   * 
+   * @param position
+   *          the position of the operation.
+   * @param outcome
+   *          its outcome.
+   */
+  private void complete(final int position, final Outcome<T> outcome) {
+    synchronized (this.outcomes) {
+      this.outcomes.set(position, outcome);
+      this.outcomes.notifyAll();
+    }
+    this.completed.add(Integer.valueOf(position));
+  }
+
+  /**
+   * Returns the number of operations added.
+   * 
+   * @return the number of operations.
+   */
+  int size() {
+    synchronized (this.outcomes) {
+      return this.labels.size();
+    }
+  }
+
+  /**
+   * Waits for every operation and passes each result to {@code handler}.
+   * 
+   * @param inOrder
+   *          {@code true} to handle results in the order the operations were
+   *          added, {@code false} to handle them as they complete.
+   * @param handler
+   *          receives the results.
+   * @throws InterruptedException
+   *           if interrupted while waiting for an operation.
+   */
+  void finish(final boolean inOrder, final ResultHandler<T> handler)
+      throws InterruptedException {
+    int size = this.size();
+    for (int i = 0; i < size; ++i) {
+      int position = inOrder ? i : this.completed.take().intValue();
+      String label;
+      Outcome<T> outcome;
+      synchronized (this.outcomes) {
+        while ((outcome = this.outcomes.get(position)) == null) {
+          this.outcomes.wait();
+        }
+        label = this.labels.get(position);
+      }
+      handler.handle(label, outcome.result, outcome.error);
+    }
+  }
+}
@@ -0,0 +1,456 @@
+/*
+ * Owl Platform Command Line Browser
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.wmbrowse.cli;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * A local index of Identifier values stored as a compressed prefix tree (radix
+ * tree). Each node holds the characters of its edge and a sorted array of
+ * children, so common prefixes are stored once and no per-node maps are
+ * needed.
+ * </p>
+ * <p>
+ * The index answers prefix lookups and anchored literal regular expressions
+ * ({@code ^abc}, {@code ^abc.*}, {@code ^abc$}) without contacting the world
+ * model. It is kept current by adding and removing Identifiers as this
+ * session learns about them.
+ * </p>
+ * 
+ * @author Robert Moore
+ */
+public class IdentifierIndex {
+
+  /**
+   * A node of the tree.
+   */
+  private static final class Node {
+    /**
+     * No children.
+     */
+    static final Node[] NO_CHILDREN = new Node[0];
+
+    /**
+     * The characters of the edge leading to this node.
+     */
+    char[] label;
+
+    /**
+     * Children, sorted by the first character of their labels.
+     */
+    Node[] children = NO_CHILDREN;
+
+    /**
+     * Whether an Identifier ends at this node.
+     */
+    boolean terminal = false;
+
+    /**
+     * Creates a new node.
+     * 
+     * @param label
+     *          the edge characters.
+     */
+    Node(final char[] label) {
+      this.label = label;
+    }
+  }
+
+  /**
+   * Characters with special meaning in a regular expression.
+   */
+  private static final String REGEX_META = "\\.[]{}()*+?^$|";
+
+  /**
+   * The root of the tree, with an empty label.
+   */
+  private final Node root = new Node(new char[0]);
+
+  /**
+   * Number of Identifiers in the index.
+   */
+  private int size = 0;
+
+  /**
+   * Number of nodes in the tree, including the root.
+   */
+  private int numNodes = 1;
+
+  /**
+   * Adds an Identifier.
+   * 
+   * @param identifier
+   *          the Identifier.
+   * @return {@code true} if it was not already present.
+   */
+  public synchronized boolean add(final String identifier) {
+    Node node = this.root;
+    int pos = 0;
+    while (true) {
+      if (pos == identifier.length()) {
+        if (node.terminal) {
+          return false;
+        }
+        node.terminal = true;
+        ++this.size;
+        return true;
+      }
+      int index = findChild(node, identifier.charAt(pos));
+      if (index < 0) {
+        Node leaf = new Node(identifier.substring(pos).toCharArray());
+        leaf.terminal = true;
+        insertChild(node, -(index + 1), leaf);
+        ++this.numNodes;
+        ++this.size;
+        return true;
+      }
+      Node child = node.children[index];
+      int common = commonLength(child.label, identifier, pos);
+      if (common < child.label.length) {
+        // Split the edge where the Identifier diverges from it
+        Node middle = new Node(copy(child.label, 0, common));
+        child.label = copy(child.label, common, child.label.length);
+        middle.children = new Node[] { child };
+        node.children[index] = middle;
+        ++this.numNodes;
+        child = middle;
+      }
+      node = child;
+      pos += common;
+    }
+  }
+
+  /**
+   * Removes an Identifier.
+   * 
+   * @param identifier
+   *          the Identifier.
+   * @return {@code true} if it was present.
+   */
+  public synchronized boolean remove(final String identifier) {
+    if (this.remove(this.root, identifier, 0)) {
+      --this.size;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Removes an Identifier below a node and prunes or merges emptied nodes.
+   * 
+   * @param node
+   *          the node reached after {@code pos} characters.
+   * @param identifier
+   *          the Identifier.
+   * @param pos
+   *          the number of characters matched so far.
+   * @return {@code true} if the Identifier was present.
+   */
+  private boolean remove(final Node node, final String identifier,
+      final int pos) {
+    if (pos == identifier.length()) {
+      boolean present = node.terminal;
+      node.terminal = false;
+      return present;
+    }
+    int index = findChild(node, identifier.charAt(pos));
+    if (index < 0) {
+      return false;
+    }
+    Node child = node.children[index];
+    int common = commonLength(child.label, identifier, pos);
+    if (common < child.label.length
+        || !this.remove(child, identifier, pos + common)) {
+      return false;
+    }
+    if (!child.terminal) {
+      if (child.children.length == 0) {
+        removeChild(node, index);
+        --this.numNodes;
+      } else if (child.children.length == 1) {
+        Node grandchild = child.children[0];
+        char[] merged = new char[child.label.length + grandchild.label.length];
+        System.arraycopy(child.label, 0, merged, 0, child.label.length);
+        System.arraycopy(grandchild.label, 0, merged, child.label.length,
+            grandchild.label.length);
+        grandchild.label = merged;
+        node.children[index] = grandchild;
+        --this.numNodes;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Checks whether an Identifier is in the index.
+   * 
+   * @param identifier
+   *          the Identifier.
+   * @return {@code true} if it is present.
+   */
+  public synchronized boolean contains(final String identifier) {
+    Node node = this.root;
+    int pos = 0;
+    while (pos < identifier.length()) {
+      int index = findChild(node, identifier.charAt(pos));
+      if (index < 0) {
+        return false;
+      }
+      node = node.children[index];
+      int common = commonLength(node.label, identifier, pos);
+      if (common < node.label.length) {
+        return false;
+      }
+      pos += common;
+    }
+    return node.terminal;
+  }
+
+  /**
+   * Returns the Identifiers that start with a prefix, in sorted order.
+   * 
+   * @param prefix
+   *          the prefix.
+   * @param limit
+   *          the maximum number of Identifiers to return.
+   * @return the matching Identifiers.
+   */
+  public synchronized List<String> withPrefix(final String prefix,
+      final int limit) {
+    List<String> matches = new ArrayList<String>();
+    Node node = this.root;
+    StringBuilder path = new StringBuilder(prefix.length() + 32);
+    int pos = 0;
+    while (pos < prefix.length()) {
+      int index = findChild(node, prefix.charAt(pos));
+      if (index < 0) {
+        return matches;
+      }
+      node = node.children[index];
+      int common = commonLength(node.label, prefix, pos);
+      if (common < node.label.length && pos + common < prefix.length()) {
+        return matches;
+      }
+      path.append(node.label);
+      pos += common;
+    }
+    collect(node, path, matches, limit);
+    return matches;
+  }
+
+  /**
+   * Answers a search regular expression from the index if it is an anchored
+   * literal: {@code ^abc} or {@code ^abc.*} for a prefix, or {@code ^abc$} for
+   * an exact match. Backslash-escaped characters are treated as literals.
+   * 
+   * @param regex
+   *          the search expression.
+   * @return the matching Identifiers, or {@code null} if the expression cannot
+   *         be answered locally.
+   */
+  public String[] search(final String regex) {
+    if (regex.length() == 0 || regex.charAt(0) != '^') {
+      return null;
+    }
+    StringBuilder literal = new StringBuilder(regex.length());
+    boolean exact = false;
+    int i = 1;
+    for (; i < regex.length(); ++i) {
+      char c = regex.charAt(i);
+      if (c == '\\' && i + 1 < regex.length()
+          && !Character.isLetterOrDigit(regex.charAt(i + 1))) {
+        literal.append(regex.charAt(++i));
+      } else if (REGEX_META.indexOf(c) < 0) {
+        literal.append(c);
+      } else {
+        break;
+      }
+    }
+    String rest = regex.substring(i);
+    if ("$".equals(rest)) {
+      exact = true;
+    } else if (rest.length() > 0 && !".*".equals(rest)) {
+      return null;
+    }
+
+    if (exact) {
+      String id = literal.toString();
+      return this.contains(id) ? new String[] { id } : new String[0];
+    }
+    List<String> matches = this.withPrefix(literal.toString(),
+        Integer.MAX_VALUE);
+    return matches.toArray(new String[matches.size()]);
+  }
+
+  /**
+   * Returns the number of Identifiers in the index.
+   * 
+   * @return the number of Identifiers.
+   */
+  public synchronized int size() {
+    return this.size;
+  }
+
+  /**
+   * Returns the number of nodes in the tree.
+   * 
+   * @return the number of nodes.
+   */
+  public synchronized int getNumNodes() {
+    return this.numNodes;
+  }
+
+  /**
+   * Adds every Identifier below a node to a list, in sorted order.
+   * 
+   * @param node
+   *          the node.
+   * @param path
+   *          the characters from the root to {@code node}; restored before
+   *          returning.
+   * @param matches
+   *          the list to add to.
+   * @param limit
+   *          the maximum size of {@code matches}.
+   */
+  private static void collect(final Node node, final StringBuilder path,
+      final List<String> matches, final int limit) {
+    if (matches.size() >= limit) {
+      return;
+    }
+    if (node.terminal) {
+      matches.add(path.toString());
+    }
+    for (Node child : node.children) {
+      int length = path.length();
+      path.append(child.label);
+      collect(child, path, matches, limit);
+      path.setLength(length);
+      if (matches.size() >= limit) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Finds the child whose label starts with a character.
+   * 
+   * @param node
+   *          the parent.
+   * @param c
+   *          the first character.
+   * @return the index of the child, or {@code -(insertion point) - 1}.
+   */
+  private static int findChild(final Node node, final char c) {
+    int low = 0;
+    int high = node.children.length - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      char midChar = node.children[mid].label[0];
+      if (midChar < c) {
+        low = mid + 1;
+      } else if (midChar > c) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  /**
+   * Inserts a child at a position.
+   * 
+   * @param node
+   *          the parent.
+   * @param index
+   *          the position.
+   * @param child
+   *          the new child.
+   */
+  private static void insertChild(final Node node, final int index,
+      final Node child) {
+    Node[] children = new Node[node.children.length + 1];
+    System.arraycopy(node.children, 0, children, 0, index);
+    children[index] = child;
+    System.arraycopy(node.children, index, children, index + 1,
+        node.children.length - index);
+    node.children = children;
+  }
+
+  /**
+   * Removes the child at a position.
+   * 
+   * @param node
+   *          the parent.
+   * @param index
+   *          the position.
+   */
+  private static void removeChild(final Node node, final int index) {
+    if (node.children.length == 1) {
+      node.children = Node.NO_CHILDREN;
+      return;
+    }
+    Node[] children = new Node[node.children.length - 1];
+    System.arraycopy(node.children, 0, children, 0, index);
+    System.arraycopy(node.children, index + 1, children, index,
+        children.length - index);
+    node.children = children;
+  }
+
+  /**
+   * Counts the characters a label shares with a String from an offset.
+   * 
+   * @param label
+   *          the label.
+   * @param value
+   *          the String.
+   * @param offset
+   *          the offset into {@code value}.
+   * @return the length of the common prefix.
+   */
+  private static int commonLength(final char[] label, final String value,
+      final int offset) {
+    int max = Math.min(label.length, value.length() - offset);
+    int i = 0;
+    while (i < max && label[i] == value.charAt(offset + i)) {
+      ++i;
+    }
+    return i;
+  }
+
+  /**
+   * Copies part of a label.
+   * 
+   * @param label
+   *          the label.
+   * @param from
+   *          the first index (inclusive).
+   * @param to
+   *          the last index (exclusive).
+   * @return the copy.
+   */
+  private static char[] copy(final char[] label, final int from, final int to) {
+    char[] part = new char[to - from];
+    System.arraycopy(label, from, part, 0, part.length);
+    return part;
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ * Owl Platform Command Line Browser
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.wmbrowse.cli;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * A fixed-size, lock-free histogram of latencies in microseconds. Buckets
+ * are log-linear: values below {@value #SUB_BUCKETS} have a bucket each, and
+ * every power of two above that is split into {@value #SUB_BUCKETS} equal
+ * buckets, so any recorded value is reported within about 6% of its true
+ * value. Recording is a few arithmetic operations and an atomic increment.
+ * </p>
+ * 
+ * @author Robert Moore
+ */
+public class LatencyHistogram {
+
+  /**
+   * Number of linear buckets in each power of two.
+   */
+  public static final int SUB_BUCKETS = 16;
+
+  /**
+   * log2 of {@link #SUB_BUCKETS}.
+   */
+  private static final int SUB_BUCKET_BITS = 4;
+
+  /**
+   * Number of buckets needed to cover every non-negative long.
+   */
+  private static final int NUM_BUCKETS = SUB_BUCKETS
+      + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  /**
+   * Count of values in each bucket.
+   */
+  private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+
+  /**
+   * Number of values recorded.
+   */
+  private final AtomicLong count = new AtomicLong(0);
+
+  /**
+   * Sum of the values recorded.
+   */
+  private final AtomicLong sum = new AtomicLong(0);
+
+  /**
+   * Largest value recorded.
+   */
+  private final AtomicLong max = new AtomicLong(0);
+
+  /**
+   * Records a latency.
+   * 
+   * @param micros
+   *          the latency in microseconds. Negative values are recorded as 0.
+   */
+  public void record(final long micros) {
+    long value = Math.max(0, micros);
+    this.counts.incrementAndGet(bucketOf(value));
+    this.count.incrementAndGet();
+    this.sum.addAndGet(value);
+    long currentMax = this.max.get();
+    while (value > currentMax && !this.max.compareAndSet(currentMax, value)) {
+      currentMax = this.max.get();
+    }
+  }
+
+  /**
+   * Returns the number of values recorded.
+   * 
+   * @return the count.
+   */
+  public long getCount() {
+    return this.count.get();
+  }
+
+  /**
+   * Returns the largest value recorded.
+   * 
+   * @return the maximum in microseconds.
+   */
+  public long getMax() {
+    return this.max.get();
+  }
+
+  /**
+   * Returns the mean of the values recorded.
+   * 
+   * @return the mean in microseconds, or 0 if nothing was recorded.
+   */
+  public double getMean() {
+    long n = this.count.get();
+    return n == 0 ? 0 : (double) this.sum.get() / n;
+  }
+
+  /**
+   * Returns an upper bound for the value at a percentile.
+   * 
+   * @param percentile
+   *          the percentile, from 0 to 100.
+   * @return the largest value of the bucket containing the percentile, in
+   *         microseconds, never more than the maximum recorded.
+   */
+  public long getPercentile(final double percentile) {
+    long total = this.count.get();
+    if (total == 0) {
+      return 0;
+    }
+    long target = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+    long seen = 0;
+    for (int i = 0; i < NUM_BUCKETS; ++i) {
+      seen += this.counts.get(i);
+      if (seen >= target) {
+        return Math.min(upperBound(i), this.max.get());
+      }
+    }
+    return this.max.get();
+  }
+
+  /**
+   * Returns the bucket for a value.
+   * 
+   * @param value
+   *          a non-negative value.
+   * @return the bucket index.
+   */
+  static int bucketOf(final long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int shift = exponent - SUB_BUCKET_BITS;
+    int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+    return SUB_BUCKETS + shift * SUB_BUCKETS + sub;
+  }
+
+  /**
+   * Returns the largest value that falls in a bucket.
+   * 
+   * @param bucket
+   *          the bucket index.
+   * @return the upper bound of the bucket.
+   */
+  static long upperBound(final int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+    int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+    long lower = (long) (SUB_BUCKETS + sub) << shift;
+    return lower + (1l << shift) - 1;
+  }
+}
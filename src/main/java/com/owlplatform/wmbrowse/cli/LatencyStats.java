@@ -0,0 +1,175 @@
+/*
+ * Owl Platform Command Line Browser
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.wmbrowse.cli;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client-side latencies of world model operations, one
+ * {@link LatencyHistogram} per operation. Callers take a start time with
+ * {@link #start()} and pass it to {@link #record(String, long)} when the
+ * operation completes.
+ * 
+ * @author Robert Moore
+ */
+public class LatencyStats {
+
+  /**
+   * Identifier searches.
+   */
+  public static final String OP_SEARCH = "searchId";
+
+  /**
+   * Current snapshots, from request to response.
+   */
+  public static final String OP_CURRENT_SNAPSHOT = "getCurrentSnapshot";
+
+  /**
+   * Historic snapshots, from request to response.
+   */
+  public static final String OP_SNAPSHOT = "getSnapshot";
+
+  /**
+   * Range requests, from request to the first state.
+   */
+  public static final String OP_RANGE_FIRST = "getRangeRequest (first)";
+
+  /**
+   * Range requests, from request to the last state.
+   */
+  public static final String OP_RANGE_DRAIN = "getRangeRequest (drain)";
+
+  /**
+   * Streaming requests, from request to the first state.
+   */
+  public static final String OP_STREAM_FIRST = "getStreamRequest (first)";
+
+  /**
+   * Attribute update messages, each carrying one or more values.
+   */
+  public static final String OP_UPDATE = "updateAttributes";
+
+  /**
+   * Identifier creation.
+   */
+  public static final String OP_CREATE = "createId";
+
+  /**
+   * Identifier and Attribute expiration.
+   */
+  public static final String OP_EXPIRE = "expire";
+
+  /**
+   * Identifier and Attribute deletion.
+   */
+  public static final String OP_DELETE = "delete";
+
+  /**
+   * Client connections, from connecting to ready.
+   */
+  public static final String OP_CONNECT_CLIENT = "connect (client)";
+
+  /**
+   * Solver connections, from connecting to ready.
+   */
+  public static final String OP_CONNECT_SOLVER = "connect (solver)";
+
+  /**
+   * Histograms by operation name.
+   */
+  private final ConcurrentMap<String, LatencyHistogram> histograms =
+      new ConcurrentHashMap<String, LatencyHistogram>();
+
+  /**
+   * When the statistics were created or last reset, for throughput.
+   */
+  private volatile long since = System.currentTimeMillis();
+
+  /**
+   * Returns a start time for {@link #record(String, long)}.
+   * 
+   * @return the current value of {@link System#nanoTime()}.
+   */
+  public static long start() {
+    return System.nanoTime();
+  }
+
+  /**
+   * Records the latency of an operation that has just completed.
+   * 
+   * @param operation
+   *          the operation name.
+   * @param startNanos
+   *          the value of {@link #start()} when the operation began.
+   */
+  public void record(final String operation, final long startNanos) {
+    LatencyHistogram histogram = this.histograms.get(operation);
+    if (histogram == null) {
+      LatencyHistogram created = new LatencyHistogram();
+      histogram = this.histograms.putIfAbsent(operation, created);
+      if (histogram == null) {
+        histogram = created;
+      }
+    }
+    histogram.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime()
+        - startNanos));
+  }
+
+  /**
+   * Discards everything recorded so far.
+   */
+  public void reset() {
+    this.histograms.clear();
+    this.since = System.currentTimeMillis();
+  }
+
+  /**
+   * Returns a table of the count, percentiles, maximum, and throughput of
+   * each operation. Latencies are in milliseconds.
+   * 
+   * @return the report.
+   */
+  public String getReport() {
+    if (this.histograms.isEmpty()) {
+      return "No world model operations recorded.";
+    }
+    double seconds = Math.max(1, System.currentTimeMillis() - this.since)
+        / 1000.0;
+    StringBuilder report = new StringBuilder();
+    report.append(String.format("%-26s %8s %9s %9s %9s %9s %9s%n",
+        "Operation", "Count", "p50 ms", "p90 ms", "p99 ms", "max ms", "ops/s"));
+    Map<String, LatencyHistogram> sorted =
+        new TreeMap<String, LatencyHistogram>(this.histograms);
+    for (Map.Entry<String, LatencyHistogram> entry : sorted.entrySet()) {
+      LatencyHistogram h = entry.getValue();
+      report.append(String.format("%-26s %8d %9.2f %9.2f %9.2f %9.2f %9.1f%n",
+          entry.getKey(), Long.valueOf(h.getCount()),
+          Double.valueOf(h.getPercentile(50) / 1000.0),
+          Double.valueOf(h.getPercentile(90) / 1000.0),
+          Double.valueOf(h.getPercentile(99) / 1000.0),
+          Double.valueOf(h.getMax() / 1000.0),
+          Double.valueOf(h.getCount() / seconds)));
+    }
+    return report.toString().trim();
+  }
+}
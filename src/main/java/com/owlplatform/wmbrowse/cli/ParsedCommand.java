@@ -0,0 +1,174 @@
+/*
+ * Owl Platform Command Line Browser
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.wmbrowse.cli;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * A command split into its name and arguments in a single pass. Words are
+ * separated by whitespace; a word in double or single quotes may contain
+ * whitespace and the other kind of quote, and is returned without its
+ * quotes. A quote also ends an unquoted word, and a quote with no closing
+ * quote is skipped.
+ * </p>
+ * <p>
+ * The argument list belongs to the command and may be changed by the
+ * handler it is passed to, for example to remove options as they are read.
+ * </p>
+ *
+ * @author Robert Moore
+ */
+public class ParsedCommand {
+
+  /**
+   * The command as it was entered.
+   */
+  private final String text;
+
+  /**
+   * The first word, or the empty string if there are no words.
+   */
+  private final String name;
+
+  /**
+   * The words after the first.
+   */
+  private final List<String> args;
+
+  /**
+   * Creates a new parsed command.
+   *
+   * @param text
+   *          the command as it was entered.
+   * @param name
+   *          the command name.
+   * @param args
+   *          the arguments.
+   */
+  private ParsedCommand(final String text, final String name,
+      final List<String> args) {
+    this.text = text;
+    this.name = name;
+    this.args = args;
+  }
+
+  /**
+   * Parses a command.
+   *
+   * @param text
+   *          the command.
+   * @return the parsed command.
+   */
+  public static ParsedCommand parse(final String text) {
+    List<String> words = tokenize(text);
+    if (words.isEmpty()) {
+      return new ParsedCommand(text, "", words);
+    }
+    return new ParsedCommand(text, words.remove(0), words);
+  }
+
+  /**
+   * Splits a string into words, as described above.
+   *
+   * @param text
+   *          the string, or {@code null}.
+   * @return the words, or an empty list if {@code text} is {@code null}.
+   */
+  public static List<String> tokenize(final String text) {
+    List<String> words = new ArrayList<String>();
+    if (text == null) {
+      return words;
+    }
+    int length = text.length();
+    int i = 0;
+    while (i < length) {
+      char c = text.charAt(i);
+      if (isSpace(c)) {
+        ++i;
+      } else if (c == '"' || c == '\'') {
+        int close = text.indexOf(c, i + 1);
+        if (close < 0) {
+          // Unmatched quote
+          ++i;
+        } else {
+          words.add(text.substring(i + 1, close));
+          i = close + 1;
+        }
+      } else {
+        int start = i;
+        while (i < length) {
+          c = text.charAt(i);
+          if (isSpace(c) || c == '"' || c == '\'') {
+            break;
+          }
+          ++i;
+        }
+        words.add(text.substring(start, i));
+      }
+    }
+    return words;
+  }
+
+  /**
+   * Checks for a whitespace character, using the same set as {@code \s} in
+   * a regular expression.
+   *
+   * @param c
+   *          the character.
+   * @return {@code true} if it is whitespace.
+   */
+  private static boolean isSpace(final char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f'
+        || c == '\u000B';
+  }
+
+  /**
+   * Returns the command as it was entered.
+   *
+   * @return the command text.
+   */
+  public String getText() {
+    return this.text;
+  }
+
+  /**
+   * Returns the command name.
+   *
+   * @return the first word, or the empty string if there were no words.
+   */
+  public String getName() {
+    return this.name;
+  }
+
+  /**
+   * Returns the arguments. The list may be modified.
+   *
+   * @return the words after the command name.
+   */
+  public List<String> getArgs() {
+    return this.args;
+  }
+
+  @Override
+  public String toString() {
+    return this.text;
+  }
+}
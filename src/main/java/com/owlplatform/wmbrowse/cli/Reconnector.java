@@ -0,0 +1,60 @@
+/*
+ * Owl Platform Command Line Browser
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.wmbrowse.cli;
+
+/**
+ * Re-establishes lost world model connections, so that readers and writers
+ * can wait out a restart of the world model and try again instead of
+ * failing. Implemented by {@link WorldModelSession}.
+ *
+ * @author Robert Moore
+ */
+public interface Reconnector {
+
+  /**
+   * Blocks until the client connection is up, reconnecting it if it was
+   * lost.
+   *
+   * @return {@code true} if the connection is up, or {@code false} if it
+   *         could not be re-established in time.
+   * @throws InterruptedException
+   *           if interrupted while waiting.
+   */
+  boolean awaitClient() throws InterruptedException;
+
+  /**
+   * Blocks until the solver connection is up, reconnecting it and
+   * announcing every Attribute name again if it was lost.
+   *
+   * @return {@code true} if the connection is up, or {@code false} if it
+   *         could not be re-established in time.
+   * @throws InterruptedException
+   *           if interrupted while waiting.
+   */
+  boolean awaitSolver() throws InterruptedException;
+
+  /**
+   * Returns the number of times the solver connection has been
+   * re-established, so that a writer can tell that its last writes may
+   * have been lost with the old connection.
+   *
+   * @return the number of reconnections.
+   */
+  int getSolverReconnects();
+}
@@ -0,0 +1,448 @@
+/*
+ * Owl Platform Command Line Browser
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.wmbrowse.cli;
+
+import java.io.PrintWriter;
+import java.util.Collection;
+
+import com.owlplatform.worldmodel.Attribute;
+import com.owlplatform.worldmodel.client.WorldState;
+import com.owlplatform.worldmodel.types.DataConverter;
+
+/**
+ * <p>
+ * Writes the results of read commands in one of several {@link Format}s. The
+ * text format is the browser's traditional human-readable output; the other
+ * formats write one record per Identifier (for searches) or per Attribute
+ * value (for snapshots and histories), with values decoded through
+ * {@link DataConverter} when a converter is known and written as hexadecimal
+ * otherwise.
+ * </p>
+ * <p>
+ * Output goes to a buffered writer that is only flushed by {@link #flush()}
+ * or when its buffer fills, so large results are not slowed down by a write
+ * per line. Progress and "no results" messages are only written in the text
+ * format, so that the other formats can be parsed directly.
+ * </p>
+ * 
+ * @author Robert Moore
+ */
+public class ResultFormatter {
+
+  /**
+   * Output formats.
+   */
+  public static enum Format {
+    /**
+     * Human-readable text.
+     */
+    TEXT,
+    /**
+     * One JSON object per line.
+     */
+    JSONL,
+    /**
+     * Comma-separated values with a header row.
+     */
+    CSV,
+    /**
+     * Tab-separated values with a header row.
+     */
+    TSV;
+
+    /**
+     * Parses a format name, ignoring case.
+     * 
+     * @param name
+     *          the name.
+     * @return the format.
+     * @throws IllegalArgumentException
+     *           if there is no such format.
+     */
+    public static Format parse(final String name) {
+      for (Format f : values()) {
+        if (f.name().equalsIgnoreCase(name)) {
+          return f;
+        }
+      }
+      throw new IllegalArgumentException("Unknown output format \"" + name
+          + "\". Use text, jsonl, csv, or tsv.");
+    }
+  }
+
+  /**
+   * Hexadecimal digits.
+   */
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  /**
+   * The format to write.
+   */
+  private final Format format;
+
+  /**
+   * Where to write.
+   */
+  private final PrintWriter out;
+
+  /**
+   * Reused to build each record.
+   */
+  private final StringBuilder line = new StringBuilder(256);
+
+  /**
+   * Whether the header row has been written.
+   */
+  private boolean headerWritten = false;
+
+  /**
+   * Creates a new formatter.
+   * 
+   * @param format
+   *          the format to write.
+   * @param out
+   *          the buffered writer to write to. Not flushed automatically.
+   */
+  public ResultFormatter(final Format format, final PrintWriter out) {
+    this.format = format;
+    this.out = out;
+  }
+
+  /**
+   * Returns the format being written.
+   * 
+   * @return the format.
+   */
+  public Format getFormat() {
+    return this.format;
+  }
+
+  /**
+   * Writes a progress or status message. Only the text format includes
+   * messages.
+   * 
+   * @param message
+   *          the message.
+   */
+  public void message(final String message) {
+    if (this.format == Format.TEXT) {
+      this.out.println(message);
+    }
+  }
+
+  /**
+   * Writes an Identifier found by a search.
+   * 
+   * @param query
+   *          the search expression.
+   * @param identifier
+   *          the Identifier.
+   */
+  public void identifier(final String query, final String identifier) {
+    if (this.format == Format.TEXT) {
+      this.out.print("+ ");
+      this.out.println(identifier);
+      return;
+    }
+    this.header("query", "identifier");
+    this.line.setLength(0);
+    if (this.format == Format.JSONL) {
+      this.line.append("{\"query\":");
+      appendJson(this.line, query);
+      this.line.append(",\"identifier\":");
+      appendJson(this.line, identifier);
+      this.line.append('}');
+    } else {
+      this.field(query, true);
+      this.field(identifier, false);
+    }
+    this.out.println(this.line);
+  }
+
+  /**
+   * Writes every Attribute value in a state.
+   * 
+   * @param query
+   *          the Identifier expression that produced the state.
+   * @param state
+   *          the state, or {@code null} if there was no data.
+   */
+  public void state(final String query, final WorldState state) {
+    if (this.format == Format.TEXT) {
+      this.text(state);
+      return;
+    }
+    this.header("query", "identifier", "attribute", "origin", "created",
+        "expires", "value");
+    if (state == null) {
+      return;
+    }
+    for (String id : state.getIdentifiers()) {
+      Collection<Attribute> attribs = state.getState(id);
+      if (attribs == null) {
+        continue;
+      }
+      for (Attribute attr : attribs) {
+        this.attribute(query, id, attr);
+      }
+    }
+  }
+
+  /**
+   * Writes a separator between the states of a history. Only the text format
+   * includes separators.
+   */
+  public void separator() {
+    this.message("==========");
+  }
+
+  /**
+   * Writes any buffered output.
+   */
+  public void flush() {
+    this.out.flush();
+  }
+
+  /**
+   * Writes any buffered output and checks whether writing has failed, as it
+   * does once the reader of the output has gone away.
+   * 
+   * @return {@code true} if writing has failed.
+   */
+  public boolean checkError() {
+    return this.out.checkError();
+  }
+
+  /**
+   * Writes a state in the text format.
+   * 
+   * @param state
+   *          the state, or {@code null} if there was no data.
+   */
+  private void text(final WorldState state) {
+    if (state == null) {
+      this.out.println("+ [NO DATA]");
+      return;
+    }
+    for (String id : state.getIdentifiers()) {
+      this.out.print("+ ");
+      this.out.println(id);
+      Collection<Attribute> attribs = state.getState(id);
+      if (attribs == null || attribs.isEmpty()) {
+        this.out.println("  [NO DATA]");
+        continue;
+      }
+      for (Attribute a : attribs) {
+        this.out.print(" - ");
+        this.out.println(a);
+      }
+    }
+  }
+
+  /**
+   * Writes a single Attribute value as a record.
+   * 
+   * @param query
+   *          the Identifier expression.
+   * @param id
+   *          the Identifier.
+   * @param attr
+   *          the Attribute value.
+   */
+  private void attribute(final String query, final String id,
+      final Attribute attr) {
+    String value = decode(attr);
+    this.line.setLength(0);
+    if (this.format == Format.JSONL) {
+      this.line.append("{\"query\":");
+      appendJson(this.line, query);
+      this.line.append(",\"identifier\":");
+      appendJson(this.line, id);
+      this.line.append(",\"attribute\":");
+      appendJson(this.line, attr.getAttributeName());
+      this.line.append(",\"origin\":");
+      appendJson(this.line, attr.getOriginName());
+      this.line.append(",\"created\":").append(attr.getCreationDate());
+      this.line.append(",\"expires\":").append(attr.getExpirationDate());
+      this.line.append(",\"value\":");
+      appendJson(this.line, value);
+      this.line.append('}');
+    } else {
+      this.field(query, true);
+      this.field(id, false);
+      this.field(attr.getAttributeName(), false);
+      this.field(attr.getOriginName(), false);
+      this.line.append(this.separatorChar()).append(attr.getCreationDate());
+      this.line.append(this.separatorChar()).append(attr.getExpirationDate());
+      this.field(value, false);
+    }
+    this.out.println(this.line);
+  }
+
+  /**
+   * Writes the header row of a CSV or TSV result, once.
+   * 
+   * @param names
+   *          the column names.
+   */
+  private void header(final String... names) {
+    if (this.headerWritten
+        || (this.format != Format.CSV && this.format != Format.TSV)) {
+      return;
+    }
+    this.headerWritten = true;
+    this.line.setLength(0);
+    for (int i = 0; i < names.length; ++i) {
+      this.field(names[i], i == 0);
+    }
+    this.out.println(this.line);
+  }
+
+  /**
+   * Returns the field separator of the CSV or TSV format.
+   * 
+   * @return the separator.
+   */
+  private char separatorChar() {
+    return this.format == Format.TSV ? '\t' : ',';
+  }
+
+  /**
+   * Appends a CSV or TSV field to the current record, quoting or escaping it
+   * as needed.
+   * 
+   * @param value
+   *          the field, or {@code null} for an empty field.
+   * @param first
+   *          {@code true} if this is the first field of the record.
+   */
+  private void field(final String value, final boolean first) {
+    if (!first) {
+      this.line.append(this.separatorChar());
+    }
+    if (value == null) {
+      return;
+    }
+    if (this.format == Format.TSV) {
+      for (int i = 0; i < value.length(); ++i) {
+        char c = value.charAt(i);
+        if (c == '\t') {
+          this.line.append("\\t");
+        } else if (c == '\n') {
+          this.line.append("\\n");
+        } else if (c == '\r') {
+          this.line.append("\\r");
+        } else if (c == '\\') {
+          this.line.append("\\\\");
+        } else {
+          this.line.append(c);
+        }
+      }
+      return;
+    }
+    boolean quote = false;
+    for (int i = 0; i < value.length() && !quote; ++i) {
+      char c = value.charAt(i);
+      quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+    }
+    if (!quote) {
+      this.line.append(value);
+      return;
+    }
+    this.line.append('"');
+    for (int i = 0; i < value.length(); ++i) {
+      char c = value.charAt(i);
+      if (c == '"') {
+        this.line.append('"');
+      }
+      this.line.append(c);
+    }
+    this.line.append('"');
+  }
+
+  /**
+   * Appends a JSON string literal.
+   * 
+   * @param builder
+   *          the builder to append to.
+   * @param value
+   *          the string, or {@code null} for JSON {@code null}.
+   */
+  static void appendJson(final StringBuilder builder, final String value) {
+    if (value == null) {
+      builder.append("null");
+      return;
+    }
+    builder.append('"');
+    for (int i = 0; i < value.length(); ++i) {
+      char c = value.charAt(i);
+      switch (c) {
+      case '"':
+        builder.append("\\\"");
+        break;
+      case '\\':
+        builder.append("\\\\");
+        break;
+      case '\n':
+        builder.append("\\n");
+        break;
+      case '\r':
+        builder.append("\\r");
+        break;
+      case '\t':
+        builder.append("\\t");
+        break;
+      default:
+        if (c < 0x20) {
+          builder.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+        } else {
+          builder.append(c);
+        }
+      }
+    }
+    builder.append('"');
+  }
+
+  /**
+   * Decodes an Attribute's data for output.
+   * 
+   * @param attr
+   *          the Attribute value.
+   * @return the decoded value if a converter is known, otherwise the data in
+   *         hexadecimal prefixed with {@code 0x}.
+   */
+  static String decode(final Attribute attr) {
+    byte[] data = attr.getData();
+    if (data == null) {
+      return null;
+    }
+    if (DataConverter.hasConverterForAttribute(attr.getAttributeName())) {
+      Object value = DataConverter.decode(attr.getAttributeName(), data);
+      if (value != null) {
+        return value.toString();
+      }
+    }
+    StringBuilder hex = new StringBuilder(2 + data.length * 2);
+    hex.append("0x");
+    for (byte b : data) {
+      hex.append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+    }
+    return hex.toString();
+  }
+}
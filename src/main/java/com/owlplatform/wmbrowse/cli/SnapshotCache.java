@@ -0,0 +1,332 @@
+/*
+ * Owl Platform Command Line Browser
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.wmbrowse.cli;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import com.owlplatform.worldmodel.client.WorldState;
+
+/**
+ * <p>
+ * A size-bounded, least-recently-used cache of current snapshots, keyed by
+ * Identifier regular expression and Attribute regular expression. Entries
+ * expire after a fixed time to live, and are invalidated when this session
+ * writes to an Identifier (and Attribute) that the entry's expressions match.
+ * </p>
+ * <p>
+ * Matching for invalidation uses Java regular expressions, which may differ
+ * slightly from the world model's. An expression that Java cannot compile
+ * is treated as matching everything, so it is never left stale.
+ * </p>
+ * 
+ * @author Robert Moore
+ */
+public class SnapshotCache {
+
+  /**
+   * Default time to live of an entry, in milliseconds.
+   */
+  public static final long DEFAULT_TTL = 5000l;
+
+  /**
+   * Default maximum number of entries.
+   */
+  public static final int DEFAULT_MAX_ENTRIES = 256;
+
+  /**
+   * A cached snapshot.
+   */
+  private static final class CachedSnapshot {
+    /**
+     * The snapshot.
+     */
+    final WorldState state;
+
+    /**
+     * When the entry expires.
+     */
+    final long expires;
+
+    /**
+     * Compiled Identifier expression, or {@code null} if it matches
+     * everything.
+     */
+    final Pattern idPattern;
+
+    /**
+     * Compiled Attribute expression, or {@code null} if it matches
+     * everything.
+     */
+    final Pattern attributePattern;
+
+    /**
+     * Creates a new entry.
+     * 
+     * @param state
+     *          the snapshot.
+     * @param expires
+     *          when the entry expires.
+     * @param idRegex
+     *          the Identifier expression.
+     * @param attributeRegex
+     *          the Attribute expression.
+     */
+    CachedSnapshot(final WorldState state, final long expires,
+        final String idRegex, final String attributeRegex) {
+      this.state = state;
+      this.expires = expires;
+      this.idPattern = compile(idRegex);
+      this.attributePattern = compile(attributeRegex);
+    }
+  }
+
+  /**
+   * Time to live of an entry, in milliseconds.
+   */
+  private final long ttl;
+
+  /**
+   * Maximum number of entries.
+   */
+  private final int maxEntries;
+
+  /**
+   * The entries in least-recently-used order.
+   */
+  private final LinkedHashMap<String, CachedSnapshot> entries;
+
+  /**
+   * Incremented on every invalidation, so that snapshots requested before a
+   * write are not cached after it.
+   */
+  private long generation = 0;
+
+  /**
+   * Number of lookups that found a live entry.
+   */
+  private long numHits = 0;
+
+  /**
+   * Number of lookups that did not find a live entry.
+   */
+  private long numMisses = 0;
+
+  /**
+   * Number of entries dropped because the cache was full.
+   */
+  private long numEvictions = 0;
+
+  /**
+   * Number of entries dropped because of a write.
+   */
+  private long numInvalidations = 0;
+
+  /**
+   * Number of entries dropped because they were too old.
+   */
+  private long numExpirations = 0;
+
+  /**
+   * Creates a new cache.
+   * 
+   * @param ttl
+   *          the time to live of an entry, in milliseconds.
+   * @param maxEntries
+   *          the maximum number of entries.
+   */
+  public SnapshotCache(final long ttl, final int maxEntries) {
+    this.ttl = ttl;
+    this.maxEntries = Math.max(1, maxEntries);
+    this.entries = new LinkedHashMap<String, CachedSnapshot>(16, 0.75f,
+        true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(
+          final Map.Entry<String, CachedSnapshot> eldest) {
+        if (size() > SnapshotCache.this.maxEntries) {
+          ++SnapshotCache.this.numEvictions;
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Returns the cached snapshot for a pair of expressions.
+   * 
+   * @param idRegex
+   *          the Identifier expression.
+   * @param attributeRegex
+   *          the Attribute expression.
+   * @return the snapshot, or {@code null} if none is cached or it expired.
+   */
+  public synchronized WorldState get(final String idRegex,
+      final String attributeRegex) {
+    String key = key(idRegex, attributeRegex);
+    CachedSnapshot entry = this.entries.get(key);
+    if (entry != null && entry.expires <= System.currentTimeMillis()) {
+      this.entries.remove(key);
+      ++this.numExpirations;
+      entry = null;
+    }
+    if (entry == null) {
+      ++this.numMisses;
+      return null;
+    }
+    ++this.numHits;
+    return entry.state;
+  }
+
+  /**
+   * Returns the current generation, to be passed to
+   * {@link #put(String, String, WorldState, long)} when the snapshot
+   * arrives.
+   * 
+   * @return the current generation.
+   */
+  public synchronized long getGeneration() {
+    return this.generation;
+  }
+
+  /**
+   * Caches a snapshot, unless something was invalidated since it was
+   * requested.
+   * 
+   * @param idRegex
+   *          the Identifier expression.
+   * @param attributeRegex
+   *          the Attribute expression.
+   * @param state
+   *          the snapshot.
+   * @param requestGeneration
+   *          the value of {@link #getGeneration()} when the snapshot was
+   *          requested.
+   */
+  public synchronized void put(final String idRegex,
+      final String attributeRegex, final WorldState state,
+      final long requestGeneration) {
+    if (state == null || requestGeneration != this.generation) {
+      return;
+    }
+    this.entries.put(key(idRegex, attributeRegex), new CachedSnapshot(
+        state, System.currentTimeMillis() + this.ttl, idRegex, attributeRegex));
+  }
+
+  /**
+   * Drops every entry whose expressions match a written Identifier and
+   * Attribute.
+   * 
+   * @param identifier
+   *          the Identifier written.
+   * @param attributeName
+   *          the Attribute written, or {@code null} if the whole Identifier
+   *          changed.
+   */
+  public synchronized void invalidate(final String identifier,
+      final String attributeName) {
+    ++this.generation;
+    Iterator<CachedSnapshot> iter = this.entries.values().iterator();
+    while (iter.hasNext()) {
+      CachedSnapshot entry = iter.next();
+      if (matches(entry.idPattern, identifier)
+          && (attributeName == null || matches(entry.attributePattern,
+              attributeName))) {
+        iter.remove();
+        ++this.numInvalidations;
+      }
+    }
+  }
+
+  /**
+   * Drops every entry.
+   */
+  public synchronized void clear() {
+    ++this.generation;
+    this.entries.clear();
+  }
+
+  /**
+   * Returns a multi-line summary of the cache's counters.
+   * 
+   * @return the summary.
+   */
+  public synchronized String getStats() {
+    long lookups = this.numHits + this.numMisses;
+    return String.format("Entries: %d/%d, TTL: %d ms%n"
+        + "Hits: %d, Misses: %d, Hit rate: %.1f%%%n"
+        + "Evictions: %d, Expirations: %d, Invalidations: %d",
+        Integer.valueOf(this.entries.size()), Integer.valueOf(this.maxEntries),
+        Long.valueOf(this.ttl), Long.valueOf(this.numHits),
+        Long.valueOf(this.numMisses),
+        Double.valueOf(lookups == 0 ? 0 : this.numHits * 100.0 / lookups),
+        Long.valueOf(this.numEvictions), Long.valueOf(this.numExpirations),
+        Long.valueOf(this.numInvalidations));
+  }
+
+  /**
+   * Builds the map key for a pair of expressions.
+   * 
+   * @param idRegex
+   *          the Identifier expression.
+   * @param attributeRegex
+   *          the Attribute expression.
+   * @return the key.
+   */
+  private static String key(final String idRegex, final String attributeRegex) {
+    return idRegex + '\u0000' + attributeRegex;
+  }
+
+  /**
+   * Compiles an expression for invalidation matching.
+   * 
+   * @param regex
+   *          the expression.
+   * @return the pattern, or {@code null} if it matches everything or cannot
+   *         be compiled.
+   */
+  private static Pattern compile(final String regex) {
+    if (regex == null || ".*".equals(regex)) {
+      return null;
+    }
+    try {
+      return Pattern.compile(regex);
+    } catch (PatternSyntaxException pse) {
+      return null;
+    }
+  }
+
+  /**
+   * Checks whether a value may be matched by a pattern.
+   * 
+   * @param pattern
+   *          the pattern, or {@code null} to match everything.
+   * @param value
+   *          the value.
+   * @return {@code true} if the value matches.
+   */
+  private static boolean matches(final Pattern pattern, final String value) {
+    return pattern == null || pattern.matcher(value).find();
+  }
+}
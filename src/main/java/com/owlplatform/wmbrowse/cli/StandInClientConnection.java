@@ -0,0 +1,368 @@
+/*
+ * Owl Platform Command Line Browser
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.wmbrowse.cli;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * A client connection to a {@link StandInServer}. Answers Identifier
+ * searches, snapshot requests, and range requests from the server's store,
+ * and follows stream requests by listening to the store for new values.
+ * </p>
+ * <p>
+ * Attribute names and origins are sent as aliases, each announced to the
+ * client the first time it is used. A stream request first sends the current
+ * values that match it, then each new matching value as it is written, until
+ * it is cancelled or the connection closes.
+ * </p>
+ *
+ * @author Robert Moore
+ */
+class StandInClientConnection extends StandInConnection {
+
+  /**
+   * Logger for this class.
+   */
+  private static final Logger log = LoggerFactory
+      .getLogger(StandInClientConnection.class);
+
+  /**
+   * Requests the values at a point or over a period of time.
+   */
+  static final byte SNAPSHOT_REQUEST = 1;
+
+  /**
+   * Requests every value created in a period of time.
+   */
+  static final byte RANGE_REQUEST = 2;
+
+  /**
+   * Requests new values as they are created.
+   */
+  static final byte STREAM_REQUEST = 3;
+
+  /**
+   * Announces Attribute name aliases.
+   */
+  static final byte ATTRIBUTE_ALIAS = 4;
+
+  /**
+   * Announces origin aliases.
+   */
+  static final byte ORIGIN_ALIAS = 5;
+
+  /**
+   * Marks the end of a request's responses.
+   */
+  static final byte REQUEST_COMPLETE = 6;
+
+  /**
+   * Cancels a request.
+   */
+  static final byte CANCEL_REQUEST = 7;
+
+  /**
+   * The values of one Identifier.
+   */
+  static final byte DATA_RESPONSE = 8;
+
+  /**
+   * Searches for Identifiers.
+   */
+  static final byte ID_SEARCH = 9;
+
+  /**
+   * Identifiers found by a search.
+   */
+  static final byte ID_SEARCH_RESPONSE = 10;
+
+  /**
+   * Sets origin preferences. Accepted and ignored.
+   */
+  static final byte ORIGIN_PREFERENCE = 11;
+
+  /**
+   * Aliases of Attribute names sent to the client. Guarded by {@code this}.
+   */
+  private final Map<String, Integer> attributeAliases =
+      new HashMap<String, Integer>();
+
+  /**
+   * Aliases of origins sent to the client. Guarded by {@code this}.
+   */
+  private final Map<String, Integer> originAliases =
+      new HashMap<String, Integer>();
+
+  /**
+   * Open stream requests, keyed by ticket. Guarded by itself.
+   */
+  private final Map<Integer, StandInStore.Listener> streams =
+      new HashMap<Integer, StandInStore.Listener>();
+
+  /**
+   * Creates a new client connection.
+   *
+   * @param server
+   *          the server.
+   * @param socket
+   *          the accepted socket.
+   */
+  StandInClientConnection(final StandInServer server, final Socket socket) {
+    super(server, socket);
+  }
+
+  @Override
+  protected void handle(final byte type, final ByteBuffer payload)
+      throws IOException, InterruptedException {
+    StandInStore store = this.server.getStore();
+    switch (type) {
+    case SNAPSHOT_REQUEST:
+    case RANGE_REQUEST:
+    case STREAM_REQUEST: {
+      int ticket = payload.getInt();
+      String idRegex = getSizedString(payload);
+      String[] attributes = new String[payload.getInt()];
+      for (int i = 0; i < attributes.length; ++i) {
+        attributes[i] = getSizedString(payload);
+      }
+      long begin = payload.getLong();
+      // End time, or update interval for a stream
+      long end = payload.getLong();
+      if (type == SNAPSHOT_REQUEST) {
+        Map<String, List<StandInStore.Value>> snapshot = store.snapshot(
+            idRegex, attributes, begin, end);
+        for (Map.Entry<String, List<StandInStore.Value>> entry : snapshot
+            .entrySet()) {
+          this.sendData(entry.getKey(), ticket, entry.getValue());
+        }
+        this.sendComplete(ticket);
+      } else if (type == RANGE_REQUEST) {
+        for (StandInStore.Value value : store.range(idRegex, attributes,
+            begin, end)) {
+          this.sendData(value.id, ticket, Collections.singletonList(value));
+        }
+        this.sendComplete(ticket);
+      } else {
+        this.startStream(ticket, idRegex, attributes);
+      }
+      break;
+    }
+    case CANCEL_REQUEST: {
+      int ticket = payload.getInt();
+      StandInStore.Listener listener;
+      synchronized (this.streams) {
+        listener = this.streams.remove(Integer.valueOf(ticket));
+      }
+      if (listener != null) {
+        store.removeListener(listener);
+      }
+      this.sendComplete(ticket);
+      break;
+    }
+    case ID_SEARCH: {
+      List<String> ids = store.search(getRemainingString(payload));
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      for (String id : ids) {
+        putSizedString(out, id);
+      }
+      this.send(ID_SEARCH_RESPONSE, bytes.toByteArray());
+      break;
+    }
+    case ORIGIN_PREFERENCE:
+      break;
+    default:
+      log.warn("Ignoring client message of type {}.", Byte.valueOf(type));
+    }
+  }
+
+  /**
+   * Sends the current values matching a stream request, then registers a
+   * listener that sends each new matching value.
+   *
+   * @param ticket
+   *          the request's ticket.
+   * @param idRegex
+   *          the Identifier regular expression.
+   * @param attributes
+   *          the Attribute regular expressions.
+   * @throws IOException
+   *           if the values cannot be sent.
+   * @throws InterruptedException
+   *           if interrupted while waiting to send.
+   */
+  private void startStream(final int ticket, final String idRegex,
+      final String[] attributes) throws IOException, InterruptedException {
+    final StandInStore store = this.server.getStore();
+    final Pattern idPattern = Pattern.compile(idRegex);
+    final Pattern[] attrPatterns = StandInStore.compile(attributes);
+    StandInStore.Listener listener = new StandInStore.Listener() {
+      @Override
+      public void written(final StandInStore.Value value) {
+        if (!idPattern.matcher(value.id).matches()
+            || !StandInStore.matchesAny(attrPatterns, value.name)) {
+          return;
+        }
+        try {
+          StandInClientConnection.this.sendData(value.id, ticket,
+              Collections.singletonList(value));
+        } catch (IOException ioe) {
+          log.debug("Unable to stream a value; ending the stream.", ioe);
+          store.removeListener(this);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    synchronized (this.streams) {
+      this.streams.put(Integer.valueOf(ticket), listener);
+    }
+    // Listen first so no value is missed between the snapshot and the stream
+    store.addListener(listener);
+    Map<String, List<StandInStore.Value>> current = store.snapshot(idRegex,
+        attributes, 0, 0);
+    for (Map.Entry<String, List<StandInStore.Value>> entry : current
+        .entrySet()) {
+      if (!entry.getValue().isEmpty()) {
+        this.sendData(entry.getKey(), ticket, entry.getValue());
+      }
+    }
+  }
+
+  @Override
+  protected void closed() {
+    List<StandInStore.Listener> open;
+    synchronized (this.streams) {
+      open = new ArrayList<StandInStore.Listener>(this.streams.values());
+      this.streams.clear();
+    }
+    for (StandInStore.Listener listener : open) {
+      this.server.getStore().removeListener(listener);
+    }
+  }
+
+  /**
+   * Sends the values of one Identifier, first announcing any Attribute name
+   * or origin aliases the client has not seen.
+   *
+   * @param id
+   *          the Identifier.
+   * @param ticket
+   *          the request's ticket.
+   * @param values
+   *          the values.
+   * @throws IOException
+   *           if the values cannot be sent.
+   * @throws InterruptedException
+   *           if interrupted while waiting to send.
+   */
+  synchronized void sendData(final String id, final int ticket,
+      final List<StandInStore.Value> values) throws IOException,
+      InterruptedException {
+    List<String> newNames = new ArrayList<String>();
+    List<String> newOrigins = new ArrayList<String>();
+    for (StandInStore.Value value : values) {
+      if (!this.attributeAliases.containsKey(value.name)) {
+        this.attributeAliases.put(value.name,
+            Integer.valueOf(this.attributeAliases.size()));
+        newNames.add(value.name);
+      }
+      if (!this.originAliases.containsKey(value.origin)) {
+        this.originAliases.put(value.origin,
+            Integer.valueOf(this.originAliases.size()));
+        newOrigins.add(value.origin);
+      }
+    }
+    if (!newNames.isEmpty()) {
+      this.send(ATTRIBUTE_ALIAS, encodeAliases(newNames,
+          this.attributeAliases));
+    }
+    if (!newOrigins.isEmpty()) {
+      this.send(ORIGIN_ALIAS, encodeAliases(newOrigins, this.originAliases));
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    putSizedString(out, id);
+    out.writeInt(ticket);
+    out.writeInt(values.size());
+    for (StandInStore.Value value : values) {
+      out.writeInt(this.attributeAliases.get(value.name).intValue());
+      out.writeLong(value.created);
+      out.writeLong(value.expires);
+      out.writeInt(this.originAliases.get(value.origin).intValue());
+      out.writeInt(value.data.length);
+      out.write(value.data);
+    }
+    this.send(DATA_RESPONSE, bytes.toByteArray());
+  }
+
+  /**
+   * Sends the end of a request's responses.
+   *
+   * @param ticket
+   *          the request's ticket.
+   * @throws IOException
+   *           if the message cannot be sent.
+   * @throws InterruptedException
+   *           if interrupted while waiting to send.
+   */
+  private void sendComplete(final int ticket) throws IOException,
+      InterruptedException {
+    this.send(REQUEST_COMPLETE, ByteBuffer.allocate(4).putInt(ticket)
+        .array());
+  }
+
+  /**
+   * Encodes an alias message.
+   *
+   * @param names
+   *          the names to announce.
+   * @param aliases
+   *          the aliases of every name.
+   * @return the message payload.
+   * @throws IOException
+   *           never, for an in-memory payload.
+   */
+  private static byte[] encodeAliases(final List<String> names,
+      final Map<String, Integer> aliases) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(names.size());
+    for (String name : names) {
+      out.writeInt(aliases.get(name).intValue());
+      putSizedString(out, name);
+    }
+    return bytes.toByteArray();
+  }
+}
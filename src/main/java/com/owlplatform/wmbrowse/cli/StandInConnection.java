@@ -0,0 +1,260 @@
+/*
+ * Owl Platform Command Line Browser
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.wmbrowse.cli;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * One connection to a {@link StandInServer}. Handles the parts of the GRAIL
+ * client and solver protocols that they share: the handshake, which is
+ * echoed back to the connecting side, and message framing, where each
+ * message is a 4-byte length, a 1-byte message type, and a payload. Strings
+ * are UTF-16BE, either prefixed with their length in bytes or, at the end of
+ * a message, running to the end of the payload.
+ * </p>
+ * <p>
+ * Each message received waits for the server's injected latency before it
+ * is handled, and each message sent waits for the server's throughput limit.
+ * </p>
+ *
+ * @author Robert Moore
+ */
+abstract class StandInConnection implements Runnable {
+
+  /**
+   * Logger for this class.
+   */
+  private static final Logger log = LoggerFactory
+      .getLogger(StandInConnection.class);
+
+  /**
+   * Message type of keep-alive messages in both protocols.
+   */
+  static final byte KEEP_ALIVE = 0;
+
+  /**
+   * Encoding of protocol strings.
+   */
+  static final Charset UTF16 = Charset.forName("UTF-16BE");
+
+  /**
+   * Largest message accepted, in bytes.
+   */
+  static final int MAX_MESSAGE_LENGTH = 64 * 1024 * 1024;
+
+  /**
+   * The server this connection belongs to.
+   */
+  protected final StandInServer server;
+
+  /**
+   * The connected socket.
+   */
+  private final Socket socket;
+
+  /**
+   * Messages from the connected side.
+   */
+  private DataInputStream in;
+
+  /**
+   * Messages to the connected side. Guarded by itself.
+   */
+  private DataOutputStream out;
+
+  /**
+   * Creates a new connection.
+   *
+   * @param server
+   *          the server.
+   * @param socket
+   *          the accepted socket.
+   */
+  StandInConnection(final StandInServer server, final Socket socket) {
+    this.server = server;
+    this.socket = socket;
+  }
+
+  @Override
+  public void run() {
+    try {
+      this.socket.setTcpNoDelay(true);
+      this.in = new DataInputStream(new BufferedInputStream(
+          this.socket.getInputStream()));
+      this.out = new DataOutputStream(new BufferedOutputStream(
+          this.socket.getOutputStream()));
+
+      // Protocol string length, protocol string, version, and extension
+      int stringLength = this.in.readInt();
+      if (stringLength < 0 || stringLength > 1024) {
+        throw new IOException("Invalid handshake length " + stringLength
+            + ".");
+      }
+      byte[] handshake = new byte[stringLength + 2];
+      this.in.readFully(handshake);
+      synchronized (this.out) {
+        this.out.writeInt(stringLength);
+        this.out.write(handshake);
+        this.out.flush();
+      }
+
+      while (true) {
+        int length = this.in.readInt();
+        if (length < 1 || length > MAX_MESSAGE_LENGTH) {
+          throw new IOException("Invalid message length " + length + ".");
+        }
+        byte type = this.in.readByte();
+        byte[] payload = new byte[length - 1];
+        this.in.readFully(payload);
+        this.server.delay();
+        if (type == KEEP_ALIVE) {
+          this.send(KEEP_ALIVE, new byte[0]);
+          continue;
+        }
+        this.handle(type, ByteBuffer.wrap(payload));
+      }
+    } catch (EOFException eofe) {
+      log.debug("{} closed the connection.", this.socket);
+    } catch (IOException ioe) {
+      if (!this.socket.isClosed()) {
+        log.warn("Connection to {} failed.", this.socket, ioe);
+      }
+    } catch (InterruptedException ie) {
+      // Server stopped
+    } catch (RuntimeException re) {
+      log.error("Unable to handle a message from " + this.socket + ".", re);
+    } finally {
+      this.close();
+    }
+  }
+
+  /**
+   * Closes the connection.
+   */
+  void close() {
+    try {
+      this.socket.close();
+    } catch (IOException ioe) {
+      // Already closed
+    }
+    this.closed();
+    this.server.closed(this);
+  }
+
+  /**
+   * Handles a message other than a keep-alive.
+   *
+   * @param type
+   *          the message type.
+   * @param payload
+   *          the message payload.
+   * @throws IOException
+   *           if a response cannot be sent.
+   * @throws InterruptedException
+   *           if interrupted while waiting to send.
+   */
+  protected abstract void handle(byte type, ByteBuffer payload)
+      throws IOException, InterruptedException;
+
+  /**
+   * Called once the connection has closed.
+   */
+  protected void closed() {
+    // Nothing to release by default
+  }
+
+  /**
+   * Sends a message, waiting for the server's throughput limit.
+   *
+   * @param type
+   *          the message type.
+   * @param payload
+   *          the message payload.
+   * @throws IOException
+   *           if the message cannot be sent.
+   * @throws InterruptedException
+   *           if interrupted while waiting to send.
+   */
+  protected void send(final byte type, final byte[] payload)
+      throws IOException, InterruptedException {
+    this.server.pace();
+    synchronized (this.out) {
+      this.out.writeInt(payload.length + 1);
+      this.out.writeByte(type);
+      this.out.write(payload);
+      this.out.flush();
+    }
+  }
+
+  /**
+   * Reads a string prefixed with its length in bytes.
+   *
+   * @param buffer
+   *          the payload.
+   * @return the string.
+   */
+  static String getSizedString(final ByteBuffer buffer) {
+    int length = buffer.getInt();
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, UTF16);
+  }
+
+  /**
+   * Reads a string that runs to the end of the payload.
+   *
+   * @param buffer
+   *          the payload.
+   * @return the string.
+   */
+  static String getRemainingString(final ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    return new String(bytes, UTF16);
+  }
+
+  /**
+   * Writes a string prefixed with its length in bytes.
+   *
+   * @param out
+   *          the payload being built.
+   * @param value
+   *          the string.
+   * @throws IOException
+   *           never, for an in-memory payload.
+   */
+  static void putSizedString(final DataOutputStream out, final String value)
+      throws IOException {
+    byte[] bytes = value.getBytes(UTF16);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+}
@@ -0,0 +1,469 @@
+/*
+ * Owl Platform Command Line Browser
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.wmbrowse.cli;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * A stand-in for a world model server, for load testing and trying out the
+ * browser without a live world model. It accepts client and solver
+ * connections on two ports, like a world model, and keeps every Attribute
+ * value in a {@link StandInStore} in memory. Searches, snapshots, range and
+ * stream requests, and Attribute updates, expirations, and deletions are
+ * supported; on-demand Attributes and origin preferences are not.
+ * </p>
+ * <p>
+ * Each message received can be delayed by a fixed latency, and the messages
+ * sent by the server can be limited to a number per second, so that
+ * production-like conditions can be reproduced on one machine. The server can
+ * be started from another program with {@link #start()}, or run on its own
+ * with {@link #main(String[])}.
+ * </p>
+ *
+ * @author Robert Moore
+ */
+public class StandInServer {
+
+  /**
+   * Logger for this class.
+   */
+  private static final Logger log = LoggerFactory
+      .getLogger(StandInServer.class);
+
+  /**
+   * Default port for solver connections.
+   */
+  public static final int DEFAULT_SOLVER_PORT = 7009;
+
+  /**
+   * Default port for client connections.
+   */
+  public static final int DEFAULT_CLIENT_PORT = 7010;
+
+  /**
+   * Command-line flag for the latency added to each message received, in
+   * milliseconds.
+   */
+  public static final String FLAG_LATENCY = "-d";
+
+  /**
+   * Command-line flag for the maximum number of messages sent per second.
+   */
+  public static final String FLAG_RATE = "-r";
+
+  /**
+   * Command-line flag that accepts connections from other hosts instead of
+   * only the local host.
+   */
+  public static final String FLAG_PUBLIC = "-p";
+
+  /**
+   * The stored Attribute values.
+   */
+  private final StandInStore store = new StandInStore();
+
+  /**
+   * Port requested for solver connections, or 0 for any free port.
+   */
+  private final int requestedSolverPort;
+
+  /**
+   * Port requested for client connections, or 0 for any free port.
+   */
+  private final int requestedClientPort;
+
+  /**
+   * Whether to accept connections from other hosts.
+   */
+  private boolean publicAddress = false;
+
+  /**
+   * Latency added to each message received, in milliseconds.
+   */
+  private volatile long latency = 0;
+
+  /**
+   * Minimum time between messages sent, in nanoseconds, or 0 for no limit.
+   */
+  private volatile long sendInterval = 0;
+
+  /**
+   * Earliest time the next message may be sent, in nanoseconds. Guarded by
+   * {@link #paceLock}.
+   */
+  private long nextSend = 0;
+
+  /**
+   * Lock for {@link #nextSend}.
+   */
+  private final Object paceLock = new Object();
+
+  /**
+   * Accepts solver connections.
+   */
+  private ServerSocket solverSocket;
+
+  /**
+   * Accepts client connections.
+   */
+  private ServerSocket clientSocket;
+
+  /**
+   * Threads accepting and serving connections.
+   */
+  private final List<Thread> threads = new ArrayList<Thread>();
+
+  /**
+   * Open connections. Guarded by itself.
+   */
+  private final Set<StandInConnection> connections =
+      new HashSet<StandInConnection>();
+
+  /**
+   * Set once the server has been stopped.
+   */
+  private volatile boolean stopped = false;
+
+  /**
+   * Creates a new server that listens on the given ports once started.
+   *
+   * @param solverPort
+   *          the port for solver connections, or 0 for any free port.
+   * @param clientPort
+   *          the port for client connections, or 0 for any free port.
+   */
+  public StandInServer(final int solverPort, final int clientPort) {
+    this.requestedSolverPort = solverPort;
+    this.requestedClientPort = clientPort;
+  }
+
+  /**
+   * Sets the latency added to each message received.
+   *
+   * @param latency
+   *          the latency in milliseconds, or 0 for none.
+   */
+  public void setLatency(final long latency) {
+    this.latency = Math.max(0, latency);
+  }
+
+  /**
+   * Limits the number of messages sent per second, across all connections.
+   *
+   * @param messagesPerSecond
+   *          the maximum rate, or 0 for no limit.
+   */
+  public void setRateLimit(final int messagesPerSecond) {
+    this.sendInterval = messagesPerSecond <= 0 ? 0
+        : 1000000000l / messagesPerSecond;
+  }
+
+  /**
+   * Sets whether connections are accepted from other hosts. Must be called
+   * before {@link #start()}.
+   *
+   * @param publicAddress
+   *          {@code true} to listen on every address, {@code false} to listen
+   *          only on the loopback address.
+   */
+  public void setPublic(final boolean publicAddress) {
+    this.publicAddress = publicAddress;
+  }
+
+  /**
+   * Returns the store holding the server's Attribute values, so values can be
+   * loaded or inspected directly.
+   *
+   * @return the store.
+   */
+  public StandInStore getStore() {
+    return this.store;
+  }
+
+  /**
+   * Opens both ports and starts accepting connections.
+   *
+   * @throws IOException
+   *           if either port cannot be opened.
+   */
+  public synchronized void start() throws IOException {
+    InetAddress address = this.publicAddress ? null : InetAddress
+        .getByName(null);
+    this.solverSocket = new ServerSocket();
+    this.solverSocket.setReuseAddress(true);
+    this.solverSocket.bind(new InetSocketAddress(address,
+        this.requestedSolverPort));
+    this.clientSocket = new ServerSocket();
+    this.clientSocket.setReuseAddress(true);
+    this.clientSocket.bind(new InetSocketAddress(address,
+        this.requestedClientPort));
+    this.startAcceptor(this.solverSocket, true);
+    this.startAcceptor(this.clientSocket, false);
+    log.info("Listening for solvers on port {} and clients on port {}.",
+        Integer.valueOf(this.getSolverPort()),
+        Integer.valueOf(this.getClientPort()));
+  }
+
+  /**
+   * Closes both ports and every open connection.
+   */
+  public synchronized void stop() {
+    this.stopped = true;
+    try {
+      if (this.solverSocket != null) {
+        this.solverSocket.close();
+      }
+      if (this.clientSocket != null) {
+        this.clientSocket.close();
+      }
+    } catch (IOException ioe) {
+      log.warn("Unable to close the server sockets.", ioe);
+    }
+    List<StandInConnection> open;
+    synchronized (this.connections) {
+      open = new ArrayList<StandInConnection>(this.connections);
+    }
+    for (StandInConnection conn : open) {
+      conn.close();
+    }
+    for (Thread t : this.threads) {
+      t.interrupt();
+    }
+    this.threads.clear();
+  }
+
+  /**
+   * Returns the port solvers connect to.
+   *
+   * @return the solver port, or -1 if the server has not been started.
+   */
+  public int getSolverPort() {
+    return this.solverSocket == null ? -1 : this.solverSocket.getLocalPort();
+  }
+
+  /**
+   * Returns the port clients connect to.
+   *
+   * @return the client port, or -1 if the server has not been started.
+   */
+  public int getClientPort() {
+    return this.clientSocket == null ? -1 : this.clientSocket.getLocalPort();
+  }
+
+  /**
+   * Returns the number of open connections.
+   *
+   * @return the number of connections.
+   */
+  public int getNumConnections() {
+    synchronized (this.connections) {
+      return this.connections.size();
+    }
+  }
+
+  /**
+   * Starts a thread that accepts connections on a port.
+   *
+   * @param socket
+   *          the listening socket.
+   * @param solver
+   *          {@code true} for solver connections, {@code false} for client
+   *          connections.
+   */
+  private void startAcceptor(final ServerSocket socket, final boolean solver) {
+    Thread acceptor = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        while (!StandInServer.this.stopped) {
+          Socket accepted;
+          try {
+            accepted = socket.accept();
+          } catch (IOException ioe) {
+            if (!StandInServer.this.stopped) {
+              log.error("Unable to accept a connection.", ioe);
+            }
+            return;
+          }
+          StandInConnection conn = solver ? new StandInSolverConnection(
+              StandInServer.this, accepted) : new StandInClientConnection(
+              StandInServer.this, accepted);
+          synchronized (StandInServer.this.connections) {
+            StandInServer.this.connections.add(conn);
+          }
+          Thread handler = new Thread(conn, (solver ? "Stand-in solver "
+              : "Stand-in client ") + accepted.getRemoteSocketAddress());
+          handler.setDaemon(true);
+          handler.start();
+        }
+      }
+    }, solver ? "Stand-in solver acceptor" : "Stand-in client acceptor");
+    acceptor.setDaemon(true);
+    acceptor.start();
+    this.threads.add(acceptor);
+  }
+
+  /**
+   * Called by a connection once it has closed.
+   *
+   * @param conn
+   *          the closed connection.
+   */
+  void closed(final StandInConnection conn) {
+    synchronized (this.connections) {
+      this.connections.remove(conn);
+    }
+  }
+
+  /**
+   * Waits for the injected latency, if any.
+   *
+   * @throws InterruptedException
+   *           if interrupted while waiting.
+   */
+  void delay() throws InterruptedException {
+    long delay = this.latency;
+    if (delay > 0) {
+      Thread.sleep(delay);
+    }
+  }
+
+  /**
+   * Waits until another message may be sent under the rate limit, if any.
+   *
+   * @throws InterruptedException
+   *           if interrupted while waiting.
+   */
+  void pace() throws InterruptedException {
+    long interval = this.sendInterval;
+    if (interval == 0) {
+      return;
+    }
+    long sendAt;
+    synchronized (this.paceLock) {
+      long now = System.nanoTime();
+      sendAt = Math.max(now, this.nextSend);
+      this.nextSend = sendAt + interval;
+    }
+    long wait = sendAt - System.nanoTime();
+    if (wait > 0) {
+      Thread.sleep(wait / 1000000l, (int) (wait % 1000000l));
+    }
+  }
+
+  /**
+   * Runs a stand-in server until the process is stopped. Parameters are the
+   * solver port and client port (both optional), and the flags
+   * {@value #FLAG_LATENCY} (latency in milliseconds), {@value #FLAG_RATE}
+   * (messages per second), and {@value #FLAG_PUBLIC} (accept connections from
+   * other hosts).
+   *
+   * @param args
+   *          the command-line arguments.
+   */
+  public static void main(final String[] args) {
+    long latency = 0;
+    int rate = 0;
+    boolean publicAddress = false;
+    List<String> positional = new ArrayList<String>();
+    for (int i = 0; i < args.length; ++i) {
+      String arg = args[i];
+      if (FLAG_PUBLIC.equals(arg)) {
+        publicAddress = true;
+      } else if (FLAG_LATENCY.equals(arg) || FLAG_RATE.equals(arg)) {
+        if (i + 1 >= args.length) {
+          System.out.println("Missing value after " + arg + ".");
+          return;
+        }
+        String value = args[++i];
+        try {
+          if (FLAG_LATENCY.equals(arg)) {
+            latency = Long.parseLong(value);
+          } else {
+            rate = Integer.parseInt(value);
+          }
+        } catch (NumberFormatException nfe) {
+          System.out.println("Unable to parse " + value + " as a number.");
+          return;
+        }
+      } else {
+        positional.add(arg);
+      }
+    }
+
+    int solverPort = DEFAULT_SOLVER_PORT;
+    int clientPort = DEFAULT_CLIENT_PORT;
+    try {
+      if (positional.size() > 0) {
+        solverPort = Integer.parseInt(positional.get(0));
+      }
+      if (positional.size() > 1) {
+        clientPort = Integer.parseInt(positional.get(1));
+      }
+    } catch (NumberFormatException nfe) {
+      System.out.println("Unable to parse the port numbers " + positional
+          + ".");
+      return;
+    }
+
+    final StandInServer server = new StandInServer(solverPort, clientPort);
+    server.setLatency(latency);
+    server.setRateLimit(rate);
+    server.setPublic(publicAddress);
+    try {
+      server.start();
+    } catch (IOException ioe) {
+      System.out.println("Unable to open ports " + solverPort + " and "
+          + clientPort + ": " + ioe.getMessage());
+      return;
+    }
+    Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+      @Override
+      public void run() {
+        server.stop();
+      }
+    }, "Stand-in shutdown"));
+    System.out.println("Stand-in world model listening for solvers on port "
+        + server.getSolverPort() + " and clients on port "
+        + server.getClientPort() + ".");
+
+    // Acceptor threads are daemons, so keep the main thread alive
+    Object forever = new Object();
+    synchronized (forever) {
+      while (true) {
+        try {
+          forever.wait();
+        } catch (InterruptedException ie) {
+          return;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ * Owl Platform Command Line Browser
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.wmbrowse.cli;
+
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A solver connection to a {@link StandInServer}. Records announced
+ * Attribute names and the solver's origin, and applies updates, creations,
+ * expirations, and deletions to the server's store. The solver protocol has
+ * no responses, so nothing is sent except keep-alives.
+ *
+ * @author Robert Moore
+ */
+class StandInSolverConnection extends StandInConnection {
+
+  /**
+   * Logger for this class.
+   */
+  private static final Logger log = LoggerFactory
+      .getLogger(StandInSolverConnection.class);
+
+  /**
+   * Announces Attribute names and aliases, and the solver's origin.
+   */
+  static final byte TYPE_ANNOUNCE = 1;
+
+  /**
+   * Starts on-demand Attributes. Sent only by a world model.
+   */
+  static final byte START_ON_DEMAND = 2;
+
+  /**
+   * Stops on-demand Attributes. Sent only by a world model.
+   */
+  static final byte STOP_ON_DEMAND = 3;
+
+  /**
+   * Attribute values.
+   */
+  static final byte SOLVER_DATA = 4;
+
+  /**
+   * Creates an Identifier.
+   */
+  static final byte CREATE_IDENTIFIER = 5;
+
+  /**
+   * Expires an Identifier.
+   */
+  static final byte EXPIRE_IDENTIFIER = 6;
+
+  /**
+   * Deletes an Identifier.
+   */
+  static final byte DELETE_IDENTIFIER = 7;
+
+  /**
+   * Expires an Attribute.
+   */
+  static final byte EXPIRE_ATTRIBUTE = 8;
+
+  /**
+   * Deletes an Attribute.
+   */
+  static final byte DELETE_ATTRIBUTE = 9;
+
+  /**
+   * Announced Attribute names, keyed by alias.
+   */
+  private final Map<Integer, String> attributeNames =
+      new HashMap<Integer, String>();
+
+  /**
+   * The origin given in the last type announcement.
+   */
+  private String origin = null;
+
+  /**
+   * Creates a new solver connection.
+   *
+   * @param server
+   *          the server.
+   * @param socket
+   *          the accepted socket.
+   */
+  StandInSolverConnection(final StandInServer server, final Socket socket) {
+    super(server, socket);
+  }
+
+  @Override
+  protected void handle(final byte type, final ByteBuffer payload) {
+    StandInStore store = this.server.getStore();
+    switch (type) {
+    case TYPE_ANNOUNCE: {
+      int numTypes = payload.getInt();
+      for (int i = 0; i < numTypes; ++i) {
+        int alias = payload.getInt();
+        String name = getSizedString(payload);
+        // On-demand flag
+        payload.get();
+        this.attributeNames.put(Integer.valueOf(alias), name);
+      }
+      this.origin = getRemainingString(payload);
+      break;
+    }
+    case SOLVER_DATA: {
+      boolean createIds = payload.get() != 0;
+      int numSolutions = payload.getInt();
+      for (int i = 0; i < numSolutions; ++i) {
+        int alias = payload.getInt();
+        long time = payload.getLong();
+        String id = getSizedString(payload);
+        byte[] data = new byte[payload.getInt()];
+        payload.get(data);
+        String name = this.attributeNames.get(Integer.valueOf(alias));
+        if (name == null) {
+          log.warn("Ignoring a value of unannounced Attribute alias {}.",
+              Integer.valueOf(alias));
+          continue;
+        }
+        store.update(id, name, this.origin, time, data, createIds);
+      }
+      break;
+    }
+    case CREATE_IDENTIFIER: {
+      String id = getSizedString(payload);
+      long created = payload.getLong();
+      store.createId(id, getRemainingString(payload), created);
+      break;
+    }
+    case EXPIRE_IDENTIFIER: {
+      String id = getSizedString(payload);
+      store.expire(id, null, payload.getLong());
+      break;
+    }
+    case DELETE_IDENTIFIER:
+      store.delete(getSizedString(payload), null);
+      break;
+    case EXPIRE_ATTRIBUTE: {
+      String id = getSizedString(payload);
+      String name = getSizedString(payload);
+      store.expire(id, name, payload.getLong());
+      break;
+    }
+    case DELETE_ATTRIBUTE: {
+      String id = getSizedString(payload);
+      store.delete(id, getSizedString(payload));
+      break;
+    }
+    default:
+      log.warn("Ignoring solver message of type {}.", Byte.valueOf(type));
+    }
+  }
+}
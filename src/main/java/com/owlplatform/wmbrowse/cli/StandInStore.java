@@ -0,0 +1,472 @@
+/*
+ * Owl Platform Command Line Browser
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.wmbrowse.cli;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Pattern;
+
+/**
+ * <p>
+ * The in-memory history of a {@link StandInServer}: every value of every
+ * Attribute of every Identifier, in the order they were written. Writing a
+ * new value of an Attribute expires the previous value from the same origin,
+ * as a world model does. Regular expressions must match whole Identifiers
+ * and Attribute names.
+ * </p>
+ * <p>
+ * All methods are thread-safe. Listeners are notified of each new value
+ * after the store's lock is released.
+ * </p>
+ *
+ * @author Robert Moore
+ */
+public class StandInStore {
+
+  /**
+   * Name of the Attribute written when an Identifier is created.
+   */
+  public static final String CREATION_ATTRIBUTE = "creation";
+
+  /**
+   * A single Attribute value.
+   */
+  public static final class Value {
+    /**
+     * The Identifier.
+     */
+    final String id;
+
+    /**
+     * The Attribute name.
+     */
+    final String name;
+
+    /**
+     * The origin that wrote the value.
+     */
+    final String origin;
+
+    /**
+     * When the value was created.
+     */
+    final long created;
+
+    /**
+     * When the value expired, or 0 if it is current.
+     */
+    long expires;
+
+    /**
+     * The value's data.
+     */
+    final byte[] data;
+
+    /**
+     * Creates a new value.
+     *
+     * @param id
+     *          the Identifier.
+     * @param name
+     *          the Attribute name.
+     * @param origin
+     *          the origin.
+     * @param created
+     *          the creation date.
+     * @param data
+     *          the data.
+     */
+    Value(final String id, final String name, final String origin,
+        final long created, final byte[] data) {
+      this.id = id;
+      this.name = name;
+      this.origin = origin;
+      this.created = created;
+      this.data = data == null ? new byte[0] : data;
+    }
+
+    /**
+     * Returns a copy of this value, so that later expiration does not change
+     * values already handed out.
+     *
+     * @return the copy.
+     */
+    Value copy() {
+      Value copy = new Value(this.id, this.name, this.origin, this.created,
+          this.data);
+      copy.expires = this.expires;
+      return copy;
+    }
+  }
+
+  /**
+   * Notified of values written to the store.
+   */
+  public static interface Listener {
+    /**
+     * Called after a value is written.
+     *
+     * @param value
+     *          the new value.
+     */
+    void written(Value value);
+  }
+
+  /**
+   * Orders values by creation date.
+   */
+  private static final Comparator<Value> BY_CREATION = new Comparator<Value>() {
+    @Override
+    public int compare(final Value v1, final Value v2) {
+      return v1.created < v2.created ? -1 : v1.created == v2.created ? 0 : 1;
+    }
+  };
+
+  /**
+   * Every value of each Identifier, oldest first. Guarded by itself.
+   */
+  private final Map<String, List<Value>> histories =
+      new TreeMap<String, List<Value>>();
+
+  /**
+   * Listeners for new values.
+   */
+  private final List<Listener> listeners =
+      new CopyOnWriteArrayList<Listener>();
+
+  /**
+   * Adds a listener for new values.
+   *
+   * @param listener
+   *          the listener.
+   */
+  public void addListener(final Listener listener) {
+    this.listeners.add(listener);
+  }
+
+  /**
+   * Removes a listener.
+   *
+   * @param listener
+   *          the listener.
+   */
+  public void removeListener(final Listener listener) {
+    this.listeners.remove(listener);
+  }
+
+  /**
+   * Creates an Identifier if it does not exist.
+   *
+   * @param id
+   *          the Identifier.
+   * @param origin
+   *          the origin creating it.
+   * @param created
+   *          the creation date.
+   * @return {@code true} if the Identifier was created.
+   */
+  public boolean createId(final String id, final String origin,
+      final long created) {
+    Value creation;
+    synchronized (this.histories) {
+      if (this.histories.containsKey(id)) {
+        return false;
+      }
+      List<Value> history = new ArrayList<Value>();
+      creation = new Value(id, CREATION_ATTRIBUTE, origin, created, null);
+      history.add(creation);
+      this.histories.put(id, history);
+    }
+    this.notifyListeners(creation);
+    return true;
+  }
+
+  /**
+   * Writes a new value of an Attribute, expiring the current value from the
+   * same origin.
+   *
+   * @param id
+   *          the Identifier.
+   * @param name
+   *          the Attribute name.
+   * @param origin
+   *          the origin.
+   * @param created
+   *          the creation date.
+   * @param data
+   *          the data.
+   * @param createId
+   *          whether to create the Identifier if it does not exist.
+   * @return {@code true} if the value was written, or {@code false} if the
+   *         Identifier does not exist and was not created.
+   */
+  public boolean update(final String id, final String name,
+      final String origin, final long created, final byte[] data,
+      final boolean createId) {
+    if (createId) {
+      this.createId(id, origin, created);
+    }
+    Value value = new Value(id, name, origin, created, data);
+    synchronized (this.histories) {
+      List<Value> history = this.histories.get(id);
+      if (history == null) {
+        return false;
+      }
+      for (Value previous : history) {
+        if (previous.expires == 0 && previous.name.equals(name)
+            && previous.origin.equals(origin)) {
+          previous.expires = created;
+        }
+      }
+      history.add(value);
+    }
+    this.notifyListeners(value);
+    return true;
+  }
+
+  /**
+   * Expires the current values of an Identifier, or of one of its
+   * Attributes.
+   *
+   * @param id
+   *          the Identifier.
+   * @param name
+   *          the Attribute name, or {@code null} for every Attribute.
+   * @param expires
+   *          the expiration date.
+   * @return {@code true} if the Identifier exists.
+   */
+  public boolean expire(final String id, final String name,
+      final long expires) {
+    synchronized (this.histories) {
+      List<Value> history = this.histories.get(id);
+      if (history == null) {
+        return false;
+      }
+      for (Value value : history) {
+        if (value.expires == 0 && (name == null || value.name.equals(name))) {
+          value.expires = expires;
+        }
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Deletes an Identifier, or every value of one of its Attributes.
+   *
+   * @param id
+   *          the Identifier.
+   * @param name
+   *          the Attribute name, or {@code null} to delete the Identifier.
+   * @return {@code true} if the Identifier exists.
+   */
+  public boolean delete(final String id, final String name) {
+    synchronized (this.histories) {
+      if (name == null) {
+        return this.histories.remove(id) != null;
+      }
+      List<Value> history = this.histories.get(id);
+      if (history == null) {
+        return false;
+      }
+      List<Value> kept = new ArrayList<Value>(history.size());
+      for (Value value : history) {
+        if (!value.name.equals(name)) {
+          kept.add(value);
+        }
+      }
+      this.histories.put(id, kept);
+      return true;
+    }
+  }
+
+  /**
+   * Returns the Identifiers that match a regular expression, in order.
+   *
+   * @param idRegex
+   *          the regular expression.
+   * @return the matching Identifiers.
+   */
+  public List<String> search(final String idRegex) {
+    Pattern pattern = Pattern.compile(idRegex);
+    List<String> matched = new ArrayList<String>();
+    synchronized (this.histories) {
+      for (String id : this.histories.keySet()) {
+        if (pattern.matcher(id).matches()) {
+          matched.add(id);
+        }
+      }
+    }
+    return matched;
+  }
+
+  /**
+   * Returns the values of the matching Attributes of the matching
+   * Identifiers at a point or over a period of time: the latest value of each
+   * Attribute and origin created by {@code end} that had not expired by
+   * {@code begin}. If both times are 0, the current values are returned.
+   *
+   * @param idRegex
+   *          the Identifier regular expression.
+   * @param attributes
+   *          the Attribute regular expressions.
+   * @param begin
+   *          the beginning of the period.
+   * @param end
+   *          the end of the period.
+   * @return the values, grouped by Identifier in order.
+   */
+  public Map<String, List<Value>> snapshot(final String idRegex,
+      final String[] attributes, final long begin, final long end) {
+    boolean current = begin == 0 && end == 0;
+    Pattern idPattern = Pattern.compile(idRegex);
+    Pattern[] attrPatterns = compile(attributes);
+    Map<String, List<Value>> result = new TreeMap<String, List<Value>>();
+    synchronized (this.histories) {
+      for (Map.Entry<String, List<Value>> entry : this.histories.entrySet()) {
+        if (!idPattern.matcher(entry.getKey()).matches()) {
+          continue;
+        }
+        Map<String, Value> latest = new HashMap<String, Value>();
+        for (Value value : entry.getValue()) {
+          if (!matchesAny(attrPatterns, value.name)) {
+            continue;
+          }
+          boolean visible = current ? value.expires == 0
+              : value.created <= end
+                  && (value.expires == 0 || value.expires > begin);
+          if (!visible) {
+            continue;
+          }
+          String key = value.name + '\u0000' + value.origin;
+          Value previous = latest.get(key);
+          if (previous == null || previous.created <= value.created) {
+            latest.put(key, value);
+          }
+        }
+        List<Value> values = new ArrayList<Value>(latest.size());
+        for (Value value : latest.values()) {
+          values.add(value.copy());
+        }
+        Collections.sort(values, BY_CREATION);
+        result.put(entry.getKey(), values);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns every value of the matching Attributes of the matching
+   * Identifiers created in a period of time, oldest first.
+   *
+   * @param idRegex
+   *          the Identifier regular expression.
+   * @param attributes
+   *          the Attribute regular expressions.
+   * @param begin
+   *          the beginning of the period (inclusive).
+   * @param end
+   *          the end of the period (exclusive).
+   * @return the values.
+   */
+  public List<Value> range(final String idRegex, final String[] attributes,
+      final long begin, final long end) {
+    Pattern idPattern = Pattern.compile(idRegex);
+    Pattern[] attrPatterns = compile(attributes);
+    List<Value> result = new ArrayList<Value>();
+    synchronized (this.histories) {
+      for (Map.Entry<String, List<Value>> entry : this.histories.entrySet()) {
+        if (!idPattern.matcher(entry.getKey()).matches()) {
+          continue;
+        }
+        for (Value value : entry.getValue()) {
+          if (value.created >= begin && value.created < end
+              && matchesAny(attrPatterns, value.name)) {
+            result.add(value.copy());
+          }
+        }
+      }
+    }
+    Collections.sort(result, BY_CREATION);
+    return result;
+  }
+
+  /**
+   * Returns the number of Identifiers stored.
+   *
+   * @return the number of Identifiers.
+   */
+  public int size() {
+    synchronized (this.histories) {
+      return this.histories.size();
+    }
+  }
+
+  /**
+   * Notifies the listeners of a new value.
+   *
+   * @param value
+   *          the value.
+   */
+  private void notifyListeners(final Value value) {
+    for (Listener listener : this.listeners) {
+      listener.written(value.copy());
+    }
+  }
+
+  /**
+   * Compiles regular expressions.
+   *
+   * @param regexes
+   *          the regular expressions.
+   * @return the patterns.
+   */
+  static Pattern[] compile(final String[] regexes) {
+    Pattern[] patterns = new Pattern[regexes.length];
+    for (int i = 0; i < regexes.length; ++i) {
+      patterns[i] = Pattern.compile(regexes[i]);
+    }
+    return patterns;
+  }
+
+  /**
+   * Checks a name against regular expressions.
+   *
+   * @param patterns
+   *          the patterns.
+   * @param name
+   *          the name.
+   * @return {@code true} if any pattern matches the whole name.
+   */
+  static boolean matchesAny(final Pattern[] patterns, final String name) {
+    for (Pattern pattern : patterns) {
+      if (pattern.matcher(name).matches()) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Owl Platform Command Line Browser
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.wmbrowse.cli;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+
+/**
+ * Parses timestamps and durations given as command arguments. A timestamp may
+ * be one of:
+ * <ul>
+ * <li>{@code now}</li>
+ * <li>a date as {@code YYYYMMDD} or a date and 24-hour time as
+ * {@code YYYYMMDDhhmmss}, in local time</li>
+ * <li>milliseconds since the epoch</li>
+ * <li>a duration before the current time, such as {@code -7d} or {@code -90m}
+ * </li>
+ * </ul>
+ * A duration is a number followed by an optional unit: {@code ms}, {@code s},
+ * {@code m}, {@code h}, {@code d} or {@code w}. Durations without a unit are
+ * in milliseconds.
+ * 
+ * @author Robert Moore
+ */
+public final class TimeParser {
+
+  /**
+   * Timestamp that means the current time.
+   */
+  public static final String NOW = "now";
+
+  /**
+   * Format of date-only timestamps.
+   */
+  private static final String DATE_FORMAT = "yyyyMMdd";
+
+  /**
+   * Format of date and time timestamps.
+   */
+  private static final String DATE_TIME_FORMAT = "yyyyMMddHHmmss";
+
+  /**
+   * No instances.
+   */
+  private TimeParser() {
+    // Static utility class
+  }
+
+  /**
+   * Parses a timestamp.
+   * 
+   * @param value
+   *          the timestamp argument.
+   * @param now
+   *          the current time, used for {@code now} and relative timestamps.
+   * @return the timestamp in milliseconds since the epoch.
+   * @throws IllegalArgumentException
+   *           if {@code value} is not a valid timestamp.
+   */
+  public static long parseTime(final String value, final long now) {
+    if (value == null || value.length() == 0) {
+      throw new IllegalArgumentException("Missing timestamp.");
+    }
+    if (NOW.equalsIgnoreCase(value)) {
+      return now;
+    }
+    if (value.charAt(0) == '-') {
+      return now - parseDuration(value.substring(1));
+    }
+    if (!isDigits(value, 0, value.length())) {
+      throw new IllegalArgumentException("Invalid timestamp \"" + value
+          + "\".");
+    }
+    if (value.length() == DATE_FORMAT.length()) {
+      return parseDate(value, DATE_FORMAT);
+    }
+    if (value.length() == DATE_TIME_FORMAT.length()) {
+      return parseDate(value, DATE_TIME_FORMAT);
+    }
+    return Long.parseLong(value);
+  }
+
+  /**
+   * Parses a duration.
+   * 
+   * @param value
+   *          the duration argument.
+   * @return the duration in milliseconds.
+   * @throws IllegalArgumentException
+   *           if {@code value} is not a valid duration.
+   */
+  public static long parseDuration(final String value) {
+    if (value == null) {
+      throw new IllegalArgumentException("Missing duration.");
+    }
+    int digits = 0;
+    while (digits < value.length() && Character.isDigit(value.charAt(digits))) {
+      ++digits;
+    }
+    if (digits == 0) {
+      throw new IllegalArgumentException("Invalid duration \"" + value + "\".");
+    }
+    long amount = Long.parseLong(value.substring(0, digits));
+    String unit = value.substring(digits);
+    long multiplier;
+    if (unit.length() == 0 || "ms".equals(unit)) {
+      multiplier = 1l;
+    } else if ("s".equals(unit)) {
+      multiplier = 1000l;
+    } else if ("m".equals(unit)) {
+      multiplier = 60l * 1000;
+    } else if ("h".equals(unit)) {
+      multiplier = 60l * 60 * 1000;
+    } else if ("d".equals(unit)) {
+      multiplier = 24l * 60 * 60 * 1000;
+    } else if ("w".equals(unit)) {
+      multiplier = 7l * 24 * 60 * 60 * 1000;
+    } else {
+      throw new IllegalArgumentException("Invalid duration unit \"" + unit
+          + "\".");
+    }
+    return amount * multiplier;
+  }
+
+  /**
+   * Parses a local date with a strict format.
+   * 
+   * @param value
+   *          the date string.
+   * @param format
+   *          the format of {@code value}.
+   * @return the date in milliseconds since the epoch.
+   */
+  private static long parseDate(final String value, final String format) {
+    SimpleDateFormat parser = new SimpleDateFormat(format);
+    parser.setLenient(false);
+    try {
+      return parser.parse(value).getTime();
+    } catch (ParseException pe) {
+      throw new IllegalArgumentException("Invalid date \"" + value + "\".");
+    }
+  }
+
+  /**
+   * Checks whether a range of a String contains only decimal digits.
+   * 
+   * @param value
+   *          the String.
+   * @param start
+   *          the first index to check.
+   * @param end
+   *          one past the last index to check.
+   * @return {@code true} if every character in the range is a digit.
+   */
+  private static boolean isDigits(final String value, final int start,
+      final int end) {
+    for (int i = start; i < end; ++i) {
+      if (!Character.isDigit(value.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,444 @@
+/*
+ * Owl Platform Command Line Browser
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.wmbrowse.cli;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.owlplatform.worldmodel.Attribute;
+import com.owlplatform.worldmodel.client.ClientWorldConnection;
+import com.owlplatform.worldmodel.client.StepResponse;
+import com.owlplatform.worldmodel.client.WorldState;
+
+/**
+ * <p>
+ * Follows Attribute values as they change, using a single streaming request
+ * instead of repeated snapshots. A reader thread collects updates from the
+ * stream, keeping only the latest value of each Identifier, Attribute, and
+ * origin. Once per render interval the calling thread prints the values that
+ * changed since they were last printed, so an Attribute that updates many
+ * times in an interval is printed once.
+ * </p>
+ * <p>
+ * A watch runs until {@link #stop()} is called (from any thread), its time
+ * limit passes, the stream ends, or its output can no longer be written. If
+ * the stream fails and a {@link Reconnector} is set, it is requested again
+ * once the connection is back, starting from the newest value already
+ * received.
+ * </p>
+ * 
+ * @author Robert Moore
+ */
+public class Watcher {
+
+  /**
+   * Logger for this class.
+   */
+  private static final Logger log = LoggerFactory.getLogger(Watcher.class);
+
+  /**
+   * Default time between renders, in milliseconds.
+   */
+  public static final long DEFAULT_INTERVAL = 1000l;
+
+  /**
+   * Connection to stream from.
+   */
+  private final ClientWorldConnection cwc;
+
+  /**
+   * Where changed values are printed.
+   */
+  private final ResultFormatter output;
+
+  /**
+   * Time between renders, in milliseconds.
+   */
+  private final long interval;
+
+  /**
+   * Latest values received since the last render, keyed by Identifier,
+   * Attribute, and origin. Guarded by itself.
+   */
+  private final Map<String, Attribute> pending =
+      new LinkedHashMap<String, Attribute>();
+
+  /**
+   * The values last printed, keyed like {@link #pending}.
+   */
+  private final Map<String, Attribute> printed =
+      new HashMap<String, Attribute>();
+
+  /**
+   * Set when the watch should end.
+   */
+  private volatile boolean stopped = false;
+
+  /**
+   * Set by the reader thread when the stream ends or fails.
+   */
+  private volatile boolean streamEnded = false;
+
+  /**
+   * The error that ended the stream, if any.
+   */
+  private volatile Exception streamError = null;
+
+  /**
+   * Number of updates received.
+   */
+  private volatile long numReceived = 0;
+
+  /**
+   * Number of values printed.
+   */
+  private long numPrinted = 0;
+
+  /**
+   * The streaming request being read, or {@code null} before the first.
+   */
+  private volatile StepResponse stream = null;
+
+  /**
+   * Where the latency of each stream is recorded, or {@code null} if it is
+   * not.
+   */
+  private LatencyStats stats = null;
+
+  /**
+   * Re-establishes the connection before a failed stream is requested
+   * again, or {@code null} if failed streams are not requested again.
+   */
+  private Reconnector reconnector = null;
+
+  /**
+   * Creates a new watcher.
+   * 
+   * @param cwc
+   *          the connection to stream from.
+   * @param output
+   *          where to print changed values.
+   * @param interval
+   *          the time between renders, in milliseconds.
+   */
+  public Watcher(final ClientWorldConnection cwc,
+      final ResultFormatter output, final long interval) {
+    this.cwc = cwc;
+    this.output = output;
+    this.interval = Math.max(1, interval);
+  }
+
+  /**
+   * Records the time each stream takes to return its first state. Must be
+   * called before watching.
+   * 
+   * @param stats
+   *          where to record the latencies, or {@code null} to stop recording.
+   */
+  public void setStats(final LatencyStats stats) {
+    this.stats = stats;
+  }
+
+  /**
+   * Requests the stream again, once the connection is up, if it fails. Must
+   * be called before watching.
+   * 
+   * @param reconnector
+   *          re-establishes the connection, or {@code null} to fail instead.
+   */
+  public void setReconnector(final Reconnector reconnector) {
+    this.reconnector = reconnector;
+  }
+
+  /**
+   * Streams and prints changes to the Attributes of the matching Identifiers
+   * until stopped.
+   * 
+   * @param idRegex
+   *          the Identifier regular expression.
+   * @param attributes
+   *          the Attribute regular expressions.
+   * @param duration
+   *          the maximum time to watch, in milliseconds, or 0 for no limit.
+   * @throws Exception
+   *           if the stream fails.
+   */
+  public void watch(final String idRegex, final String[] attributes,
+      final long duration) throws Exception {
+    final long start = System.currentTimeMillis();
+    Thread reader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        Watcher.this.read(idRegex, attributes, start);
+      }
+    }, "Watch Reader");
+    reader.setDaemon(true);
+    reader.start();
+
+    long end = duration > 0 ? System.currentTimeMillis() + duration
+        : Long.MAX_VALUE;
+    try {
+      while (!this.stopped && !this.streamEnded) {
+        long now = System.currentTimeMillis();
+        if (now >= end) {
+          break;
+        }
+        synchronized (this.pending) {
+          if (!this.stopped) {
+            this.pending.wait(Math.min(this.interval, end - now));
+          }
+        }
+        this.render(idRegex);
+        if (this.output.checkError()) {
+          log.info("Output of the watch of \"{}\" failed. Stopping.", idRegex);
+          break;
+        }
+      }
+    } finally {
+      this.stopped = true;
+      StepResponse current = this.stream;
+      if (current != null) {
+        current.cancel();
+      }
+      reader.interrupt();
+      this.render(idRegex);
+    }
+    if (this.streamError != null) {
+      throw this.streamError;
+    }
+  }
+
+  /**
+   * Ends the watch. May be called from any thread, including a signal
+   * handler.
+   */
+  public void stop() {
+    this.stopped = true;
+    synchronized (this.pending) {
+      this.pending.notifyAll();
+    }
+  }
+
+  /**
+   * Returns the number of updates received from the stream.
+   * 
+   * @return the number of Attribute values received.
+   */
+  public long getNumReceived() {
+    return this.numReceived;
+  }
+
+  /**
+   * Returns the number of values printed.
+   * 
+   * @return the number of values printed.
+   */
+  public long getNumPrinted() {
+    return this.numPrinted;
+  }
+
+  /**
+   * Reads states from streaming requests into {@link #pending} until a
+   * stream ends or the watch is stopped. A failed stream is requested again
+   * as allowed by {@link #resume(int, Exception)}.
+   * 
+   * @param idRegex
+   *          the Identifier regular expression.
+   * @param attributes
+   *          the Attribute regular expressions.
+   * @param start
+   *          the time to stream from.
+   */
+  void read(final String idRegex, final String[] attributes, final long start) {
+    long from = start;
+    int failures = 0;
+    while (!this.stopped) {
+      long requested = LatencyStats.start();
+      StepResponse current = this.cwc.getStreamRequest(idRegex, from, 0,
+          attributes);
+      this.stream = current;
+      if (this.stopped) {
+        current.cancel();
+        break;
+      }
+      Exception error = null;
+      boolean received = false;
+      try {
+        while (!this.stopped && !current.isError()
+            && (current.hasNext() || !current.isComplete())) {
+          WorldState state = current.next();
+          if (state == null) {
+            continue;
+          }
+          if (!received) {
+            received = true;
+            failures = 0;
+            if (this.stats != null) {
+              this.stats.record(LatencyStats.OP_STREAM_FIRST, requested);
+            }
+          }
+          from = Math.max(from, this.collect(state));
+        }
+        if (current.isError()) {
+          Throwable cause = current.getError();
+          error = cause instanceof Exception ? (Exception) cause
+              : new Exception("Stream failed.", cause);
+        }
+      } catch (InterruptedException ie) {
+        // Stopped
+        break;
+      } catch (Exception e) {
+        error = e;
+      }
+      if (this.stopped || error == null) {
+        break;
+      }
+      if (!this.resume(++failures, error)) {
+        if (!this.stopped) {
+          log.error("Unable to read the stream.", error);
+          this.streamError = error;
+        }
+        break;
+      }
+    }
+    this.streamEnded = true;
+    synchronized (this.pending) {
+      this.pending.notifyAll();
+    }
+  }
+
+  /**
+   * Adds the values of a state to {@link #pending}.
+   * 
+   * @param state
+   *          the state.
+   * @return the newest creation time among the values, or
+   *         {@link Long#MIN_VALUE} if there are none.
+   */
+  private long collect(final WorldState state) {
+    long newest = Long.MIN_VALUE;
+    synchronized (this.pending) {
+      for (String id : state.getIdentifiers()) {
+        Collection<Attribute> attribs = state.getState(id);
+        if (attribs == null) {
+          continue;
+        }
+        for (Attribute attr : attribs) {
+          if (attr.getId() == null) {
+            attr.setId(id);
+          }
+          this.pending.put(key(attr), attr);
+          ++this.numReceived;
+          newest = Math.max(newest, attr.getCreationDate());
+        }
+      }
+    }
+    return newest;
+  }
+
+  /**
+   * Waits for the connection to be re-established after a stream fails.
+   * Values already printed are not printed again when the new stream
+   * repeats them.
+   * 
+   * @param failures
+   *          the number of failures since a stream last returned a state.
+   * @param error
+   *          the failure.
+   * @return {@code true} to request the stream again.
+   */
+  private boolean resume(final int failures, final Exception error) {
+    if (this.reconnector == null
+        || failures >= WorldModelSession.MAX_READ_ATTEMPTS) {
+      return false;
+    }
+    log.warn("The stream failed. Resuming once connected.", error);
+    try {
+      return this.reconnector.awaitClient() && !this.stopped;
+    } catch (InterruptedException ie) {
+      return false;
+    }
+  }
+
+  /**
+   * Prints the pending values that differ from the values last printed.
+   * 
+   * @param idRegex
+   *          the Identifier regular expression, for the output.
+   */
+  private void render(final String idRegex) {
+    List<Attribute> latest;
+    synchronized (this.pending) {
+      if (this.pending.isEmpty()) {
+        return;
+      }
+      latest = new ArrayList<Attribute>(this.pending.values());
+      this.pending.clear();
+    }
+
+    Map<String, Collection<Attribute>> changed =
+        new LinkedHashMap<String, Collection<Attribute>>();
+    for (Attribute attr : latest) {
+      String key = key(attr);
+      Attribute previous = this.printed.get(key);
+      if (previous != null
+          && previous.getExpirationDate() == attr.getExpirationDate()
+          && Arrays.equals(previous.getData(), attr.getData())) {
+        continue;
+      }
+      this.printed.put(key, attr);
+      Collection<Attribute> forId = changed.get(attr.getId());
+      if (forId == null) {
+        forId = new ArrayList<Attribute>();
+        changed.put(attr.getId(), forId);
+      }
+      forId.add(attr);
+      ++this.numPrinted;
+    }
+    if (changed.isEmpty()) {
+      return;
+    }
+    WorldState state = new WorldState();
+    for (Map.Entry<String, Collection<Attribute>> entry : changed.entrySet()) {
+      state.addState(entry.getKey(), entry.getValue());
+    }
+    this.output.state(idRegex, state);
+    this.output.flush();
+  }
+
+  /**
+   * Builds the key that identifies an Attribute value's series.
+   * 
+   * @param attr
+   *          the Attribute value.
+   * @return the key.
+   */
+  private static String key(final Attribute attr) {
+    return attr.getId() + '\u0000' + attr.getAttributeName() + '\u0000'
+        + attr.getOriginName();
+  }
+}
@@ -0,0 +1,482 @@
+/*
+ * Owl Platform Command Line Browser
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.wmbrowse.cli;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.owlplatform.worldmodel.Attribute;
+import com.owlplatform.worldmodel.client.ClientWorldConnection;
+import com.owlplatform.worldmodel.client.StepResponse;
+import com.owlplatform.worldmodel.client.WorldState;
+
+/**
+ * <p>
+ * Reads the history of an Identifier regular expression over a time range as a
+ * sequence of smaller range requests ("windows"), so that only a bounded
+ * number of states is buffered at any time. Windows are read in order, with
+ * up to {@code prefetch} further windows requested ahead of the one being
+ * read.
+ * </p>
+ * <p>
+ * Window sizes adapt to the data: a window that returns more than its share
+ * of {@code maxStates} halves the size of later windows and stops prefetching
+ * until windows are small again, while a sparse window doubles the size of
+ * later windows. Long, quiet histories are therefore covered in a few
+ * requests, and dense histories in many small ones.
+ * </p>
+ * <p>
+ * A window never returns more than its share of {@code maxStates}: once it
+ * has, the window and every window requested after it are cancelled, and
+ * the rest of the range is requested again from the time of the last state
+ * returned, skipping the states at that time already returned, in smaller
+ * windows. Prefetching only starts once a window has
+ * completed within its share, so a single dense window is cut off before
+ * later windows are requested. States the world model already sent for a
+ * cancelled window are still held until the connection discards them, so
+ * the limit can be exceeded by the states in transit when a window is cut
+ * off, but not by the rest of the window.
+ * </p>
+ * 
+ * @author Robert Moore
+ */
+public class WindowedRange {
+
+  /**
+   * Logger for this class.
+   */
+  private static final Logger log = LoggerFactory
+      .getLogger(WindowedRange.class);
+
+  /**
+   * Default size of the first window, in milliseconds.
+   */
+  public static final long DEFAULT_WINDOW = 24l * 60 * 60 * 1000;
+
+  /**
+   * Default number of windows requested ahead of the current window.
+   */
+  public static final int DEFAULT_PREFETCH = 1;
+
+  /**
+   * Default number of states that may be buffered across all windows.
+   */
+  public static final int DEFAULT_MAX_STATES = 10000;
+
+  /**
+   * Smallest window size, in milliseconds.
+   */
+  public static final long MIN_WINDOW = 1000l;
+
+  /**
+   * A single range request and the number of states read from it.
+   */
+  private static final class Window {
+    /**
+     * The range request for this window.
+     */
+    final StepResponse response;
+
+    /**
+     * Start of the window (inclusive).
+     */
+    final long start;
+
+    /**
+     * End of the window (exclusive).
+     */
+    final long end;
+
+    /**
+     * Number of times the window has been requested.
+     */
+    final int attempt;
+
+    /**
+     * When the window was requested, from {@link LatencyStats#start()}.
+     */
+    final long requested = LatencyStats.start();
+
+    /**
+     * Number of states read so far.
+     */
+    int numStates = 0;
+
+    /**
+     * Number of states to discard because an earlier request for this
+     * window already returned them.
+     */
+    int skip = 0;
+
+    /**
+     * Time of the last state read, or {@link Long#MIN_VALUE} if none has a
+     * time.
+     */
+    long lastTime = Long.MIN_VALUE;
+
+    /**
+     * Number of states read, or skipped, with the time {@link #lastTime}.
+     */
+    int numAtLast = 0;
+
+    /**
+     * Creates a new window.
+     * 
+     * @param response
+     *          the range request for this window.
+     * @param start
+     *          the start of the window.
+     * @param end
+     *          the end of the window.
+     * @param attempt
+     *          the number of times the window has been requested.
+     */
+    Window(final StepResponse response, final long start, final long end,
+        final int attempt) {
+      this.response = response;
+      this.start = start;
+      this.end = end;
+      this.attempt = attempt;
+    }
+  }
+
+  /**
+   * The connection to request windows on.
+   */
+  private final ClientWorldConnection cwc;
+
+  /**
+   * The Identifier regular expression.
+   */
+  private final String idRegex;
+
+  /**
+   * The Attribute regular expressions.
+   */
+  private final String[] attributes;
+
+  /**
+   * The end of the range (exclusive).
+   */
+  private final long end;
+
+  /**
+   * The maximum number of windows requested ahead of the current one.
+   */
+  private final int prefetch;
+
+  /**
+   * The number of states that any one window may return, so that all
+   * buffered windows together stay within the overall limit.
+   */
+  private final int statesPerWindow;
+
+  /**
+   * Windows requested but not completely read, oldest first.
+   */
+  private final ArrayDeque<Window> windows = new ArrayDeque<Window>();
+
+  /**
+   * Start of the next window to request.
+   */
+  private long nextStart;
+
+  /**
+   * Size of the next window to request.
+   */
+  private long windowSize;
+
+  /**
+   * Whether prefetching is suspended, until a window completes within its
+   * share of the limit.
+   */
+  private boolean throttled = true;
+
+  /**
+   * Where window latencies are recorded, or {@code null} if they are not.
+   */
+  private LatencyStats stats = null;
+
+  /**
+   * Re-establishes the connection before a failed window is requested
+   * again, or {@code null} if failed windows are not requested again.
+   */
+  private Reconnector reconnector = null;
+
+  /**
+   * Creates a new windowed range and requests the first windows.
+   * 
+   * @param cwc
+   *          the connection to the world model.
+   * @param idRegex
+   *          the Identifier regular expression.
+   * @param start
+   *          the beginning of the range (inclusive).
+   * @param end
+   *          the end of the range (exclusive).
+   * @param windowSize
+   *          the size of the first window, in milliseconds.
+   * @param prefetch
+   *          the number of windows to request ahead of the current one.
+   * @param maxStates
+   *          the maximum number of states buffered at once, apart from
+   *          states in transit when a window is cut off.
+   * @param attributes
+   *          the Attribute regular expressions.
+   */
+  public WindowedRange(final ClientWorldConnection cwc, final String idRegex,
+      final long start, final long end, final long windowSize,
+      final int prefetch, final int maxStates, final String... attributes) {
+    this.cwc = cwc;
+    this.idRegex = idRegex;
+    this.attributes = attributes;
+    this.end = end;
+    this.prefetch = Math.max(0, prefetch);
+    this.statesPerWindow = Math.max(1, maxStates / (this.prefetch + 1));
+    this.nextStart = start;
+    this.windowSize = Math.max(MIN_WINDOW, windowSize);
+    this.requestWindows();
+  }
+
+  /**
+   * Records the time each window takes to return its first state and its
+   * last state.
+   * 
+   * @param stats
+   *          where to record the latencies, or {@code null} to stop recording.
+   */
+  public void setStats(final LatencyStats stats) {
+    this.stats = stats;
+  }
+
+  /**
+   * Requests a window again, once the connection is up, if it fails. States
+   * the window already returned are not returned again, so a long read
+   * survives a restart of the world model.
+   * 
+   * @param reconnector
+   *          re-establishes the connection, or {@code null} to fail instead.
+   */
+  public void setReconnector(final Reconnector reconnector) {
+    this.reconnector = reconnector;
+  }
+
+  /**
+   * Returns the next state in the range, blocking until it arrives.
+   * 
+   * @return the next state, or {@code null} once the whole range has been
+   *         read.
+   * @throws Exception
+   *           if a window could not be read.
+   */
+  public WorldState next() throws Exception {
+    while (true) {
+      Window current = this.windows.peek();
+      if (current == null) {
+        return null;
+      }
+      StepResponse response = current.response;
+      if (response.isError()) {
+        if (this.resend(current)) {
+          continue;
+        }
+        Throwable error = response.getError();
+        if (error instanceof Exception) {
+          throw (Exception) error;
+        }
+        throw new Exception("Unable to read range for \"" + this.idRegex
+            + "\".", error);
+      }
+      if (response.hasNext() || !response.isComplete()) {
+        if (current.numStates >= this.statesPerWindow && this.split(current)) {
+          continue;
+        }
+        WorldState state = response.next();
+        if (state != null) {
+          if (current.skip > 0) {
+            --current.skip;
+            continue;
+          }
+          if (current.numStates++ == 0 && this.stats != null) {
+            this.stats.record(LatencyStats.OP_RANGE_FIRST, current.requested);
+          }
+          long time = stateTime(state);
+          if (time > current.lastTime) {
+            current.lastTime = time;
+            current.numAtLast = 1;
+          } else if (time == current.lastTime) {
+            ++current.numAtLast;
+          }
+          return state;
+        }
+        continue;
+      }
+      if (this.stats != null) {
+        this.stats.record(LatencyStats.OP_RANGE_DRAIN, current.requested);
+      }
+      this.windows.poll();
+      this.adapt(current.numStates);
+      this.requestWindows();
+    }
+  }
+
+  /**
+   * Replaces a failed window with a new request for the same period, once
+   * the connection is up, if it has not been requested too many times.
+   * 
+   * @param failed
+   *          the failed window, at the head of the queue.
+   * @return {@code true} if the window was requested again.
+   * @throws InterruptedException
+   *           if interrupted while waiting for the connection.
+   */
+  private boolean resend(final Window failed) throws InterruptedException {
+    if (this.reconnector == null
+        || failed.attempt >= WorldModelSession.MAX_READ_ATTEMPTS
+        || !this.reconnector.awaitClient()) {
+      return false;
+    }
+    log.info("Requesting [{}, {}) of \"{}\" again.", new Object[] {
+        Long.valueOf(failed.start), Long.valueOf(failed.end), this.idRegex });
+    Window retry = new Window(this.cwc.getRangeRequest(this.idRegex,
+        failed.start, failed.end, this.attributes), failed.start, failed.end,
+        failed.attempt + 1);
+    retry.numStates = failed.numStates;
+    retry.skip = failed.numStates + failed.skip;
+    retry.lastTime = failed.lastTime;
+    retry.numAtLast = failed.numAtLast;
+    this.windows.poll();
+    this.windows.addFirst(retry);
+    return true;
+  }
+
+  /**
+   * Cuts off a window that has returned its share of the limit but is still
+   * being sent. The window and every window after it are cancelled, and the
+   * rest of the range is requested again from the time of the last state
+   * read, in windows half as long as the part already read. Other states
+   * may share that time, so the new window starts there and skips only the
+   * states at that time that were already read.
+   * 
+   * @param full
+   *          the window at the head of the queue.
+   * @return {@code true} if the window was cut off, or {@code false} if it
+   *         has been sent completely or its states have no times to split
+   *         at.
+   */
+  private boolean split(final Window full) {
+    if (full.response.isComplete() || full.lastTime == Long.MIN_VALUE) {
+      return false;
+    }
+    log.debug("Cutting off [{}, {}) of \"{}\" after {} states.", new Object[] {
+        Long.valueOf(full.start), Long.valueOf(full.end), this.idRegex,
+        Integer.valueOf(full.numStates) });
+    for (Window window : this.windows) {
+      window.response.cancel();
+    }
+    this.windows.clear();
+    this.nextStart = full.lastTime;
+    this.windowSize = Math.max(MIN_WINDOW, (full.lastTime - full.start) / 2);
+    this.throttled = true;
+    this.requestWindows();
+    // The new window starts with the states at the last time already read
+    Window next = this.windows.peek();
+    if (next != null) {
+      next.skip = full.numAtLast;
+      next.lastTime = full.lastTime;
+      next.numAtLast = full.numAtLast;
+    }
+    return true;
+  }
+
+  /**
+   * Returns the time of a state, the latest creation time of its Attribute
+   * values.
+   * 
+   * @param state
+   *          the state.
+   * @return the time of the state, or {@link Long#MIN_VALUE} if it has no
+   *         Attribute values.
+   */
+  private static long stateTime(final WorldState state) {
+    long time = Long.MIN_VALUE;
+    Collection<String> ids = state.getIdentifiers();
+    if (ids == null) {
+      return time;
+    }
+    for (String id : ids) {
+      Collection<Attribute> attrs = state.getState(id);
+      if (attrs == null) {
+        continue;
+      }
+      for (Attribute attr : attrs) {
+        time = Math.max(time, attr.getCreationDate());
+      }
+    }
+    return time;
+  }
+
+  /**
+   * Returns the start time of the first window not yet requested.
+   * 
+   * @return the start of the next window.
+   */
+  public long getNextStart() {
+    return this.nextStart;
+  }
+
+  /**
+   * Adjusts the window size and prefetching after a window completes.
+   * 
+   * @param numStates
+   *          the number of states the window returned.
+   */
+  private void adapt(final int numStates) {
+    if (numStates > this.statesPerWindow) {
+      this.windowSize = Math.max(MIN_WINDOW, this.windowSize / 2);
+      this.throttled = true;
+    } else if (numStates < this.statesPerWindow / 4) {
+      if (this.windowSize < Long.MAX_VALUE / 2) {
+        this.windowSize *= 2;
+      }
+      this.throttled = false;
+    } else {
+      this.throttled = false;
+    }
+  }
+
+  /**
+   * Requests windows until the prefetch limit is reached or the range is
+   * covered.
+   */
+  private void requestWindows() {
+    int limit = this.throttled ? 1 : this.prefetch + 1;
+    while (this.windows.size() < limit && this.nextStart < this.end) {
+      long windowEnd = this.end - this.nextStart <= this.windowSize ? this.end
+          : this.nextStart + this.windowSize;
+      this.windows.add(new Window(this.cwc.getRangeRequest(this.idRegex,
+          this.nextStart, windowEnd, this.attributes), this.nextStart,
+          windowEnd, 1));
+      this.nextStart = windowEnd;
+    }
+  }
+}
@@ -0,0 +1,1505 @@
+/*
+ * Owl Platform Command Line Browser
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.wmbrowse.cli;
+
+import java.io.PrintStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.owlplatform.wmbrowse.cli.WritePipeline.WriteRequest;
+import com.owlplatform.worldmodel.Attribute;
+import com.owlplatform.worldmodel.client.ClientWorldConnection;
+import com.owlplatform.worldmodel.client.Response;
+import com.owlplatform.worldmodel.client.WorldState;
+import com.owlplatform.worldmodel.solver.SolverWorldConnection;
+
+/**
+ * <p>
+ * A client and solver connection to one world model, shared by any number
+ * of threads. Reads return a {@link Future} and may also report to a
+ * {@link Callback}; writes return their {@link WriteRequest}, which is a
+ * {@code Future} of whether the write was sent. History is read through a
+ * {@link WindowedRange}, or handed state by state to a {@link StateHandler}.
+ * </p>
+ * <p>
+ * Identifier searches run one at a time, because search responses are not
+ * tagged with a request number. Snapshot requests are sent at once and
+ * waited for on a pool of helper threads. Writes go through a
+ * {@link WritePipeline}. An optional {@link SnapshotCache} answers repeated
+ * status requests and an optional {@link IdentifierIndex} answers searches;
+ * both are kept current from this session's own writes.
+ * </p>
+ * <p>
+ * Lost connections are found by a monitor thread and re-established with
+ * jittered exponential backoff, announcing every Attribute name again on
+ * the solver connection. Reads that fail are sent again once the client
+ * connection is back, and the write pipeline resends failed and recently
+ * sent writes, so long copies survive a restart of the world model.
+ * </p>
+ * <p>
+ * This is the API used by {@link Browser} and {@link BatchUpdater}; other
+ * Java programs can use it directly instead of running either one.
+ * </p>
+ *
+ * @author Robert Moore
+ */
+public class WorldModelSession implements Reconnector {
+
+  /**
+   * Logger for this class.
+   */
+  private static final Logger log = LoggerFactory
+      .getLogger(WorldModelSession.class);
+
+  /**
+   * How long to wait for each connection to be established, in milliseconds.
+   */
+  public static final long CONNECT_TIMEOUT = 10000l;
+
+  /**
+   * Longest pause between checks of whether a connection is ready, in
+   * milliseconds.
+   */
+  private static final long MAX_READY_PAUSE = 50l;
+
+  /**
+   * How often the connections are checked and, if lost, re-established, in
+   * milliseconds.
+   */
+  public static final long HEALTH_INTERVAL = 2000l;
+
+  /**
+   * Default time a reader or writer waits for a lost connection to be
+   * re-established before failing, in milliseconds.
+   */
+  public static final long DEFAULT_RECONNECT_LIMIT = 300000l;
+
+  /**
+   * First delay between reconnection attempts, in milliseconds.
+   */
+  private static final long RECONNECT_INITIAL = 250l;
+
+  /**
+   * Largest delay between reconnection attempts, in milliseconds.
+   */
+  private static final long RECONNECT_MAX = 30000l;
+
+  /**
+   * Number of times a read is sent before its failure is reported.
+   */
+  static final int MAX_READ_ATTEMPTS = 3;
+
+  /**
+   * Attribute expression that matches every Attribute.
+   */
+  private static final String[] ALL_ATTRIBUTES = { ".*" };
+
+  /**
+   * Receives the outcome of an operation, on the thread that finished it.
+   *
+   * @author Robert Moore
+   * @param <T>
+   *          the result type of the operation.
+   */
+  public static interface Callback<T> {
+    /**
+     * Called when the operation succeeds.
+     *
+     * @param result
+     *          the result.
+     */
+    void completed(T result);
+
+    /**
+     * Called when the operation fails or is cancelled.
+     *
+     * @param error
+     *          the reason.
+     */
+    void failed(Exception error);
+  }
+
+  /**
+   * Receives the states of a history, in order.
+   *
+   * @author Robert Moore
+   */
+  public static interface StateHandler {
+    /**
+     * Called for each state.
+     *
+     * @param state
+     *          the state.
+     * @throws Exception
+     *           to stop reading the history.
+     */
+    void state(WorldState state) throws Exception;
+  }
+
+  /**
+   * Notified when a connection is lost and when it is re-established.
+   *
+   * @author Robert Moore
+   */
+  public static interface ConnectionListener {
+    /**
+     * Called when a lost connection is found, before reconnecting.
+     *
+     * @param solver
+     *          {@code true} for the solver connection, {@code false} for the
+     *          client connection.
+     */
+    void connectionLost(boolean solver);
+
+    /**
+     * Called once a lost connection has been re-established.
+     *
+     * @param solver
+     *          {@code true} for the solver connection, {@code false} for the
+     *          client connection.
+     */
+    void connectionRestored(boolean solver);
+  }
+
+  /**
+   * Client connection to the world model.
+   */
+  private final ClientWorldConnection cwc = new ClientWorldConnection();
+
+  /**
+   * Solver connection to the world model.
+   */
+  private final SolverWorldConnection swc = new SolverWorldConnection();
+
+  /**
+   * Attribute names announced on the solver connection during this session.
+   */
+  private final AttributeRegistry attributes = new AttributeRegistry(this.swc);
+
+  /**
+   * The host name/IP address of the world model.
+   */
+  private final String host;
+
+  /**
+   * Origin value to use when updating Attribute values.
+   */
+  private final String origin;
+
+  /**
+   * Latencies of the world model operations made during this session.
+   */
+  private final LatencyStats stats = new LatencyStats();
+
+  /**
+   * Runs Identifier searches one at a time.
+   */
+  private final ExecutorService searchExecutor = Executors
+      .newSingleThreadExecutor(new DaemonThreadFactory("Identifier Search"));
+
+  /**
+   * Waits for snapshot responses and runs copies and histories.
+   */
+  private final ExecutorService responseExecutor = Executors
+      .newCachedThreadPool(new DaemonThreadFactory("Response Waiter"));
+
+  /**
+   * Checks the connections every {@link #HEALTH_INTERVAL}.
+   */
+  private final ScheduledExecutorService monitor = Executors
+      .newSingleThreadScheduledExecutor(new DaemonThreadFactory(
+          "Connection Monitor"));
+
+  /**
+   * Held while re-establishing the client connection.
+   */
+  private final Object clientLock = new Object();
+
+  /**
+   * Held while re-establishing the solver connection.
+   */
+  private final Object solverLock = new Object();
+
+  /**
+   * Delays between attempts to re-establish the client connection. Only used
+   * while holding {@link #clientLock}.
+   */
+  private final Backoff clientBackoff = new Backoff(RECONNECT_INITIAL,
+      RECONNECT_MAX);
+
+  /**
+   * Delays between attempts to re-establish the solver connection. Only used
+   * while holding {@link #solverLock}.
+   */
+  private final Backoff solverBackoff = new Backoff(RECONNECT_INITIAL,
+      RECONNECT_MAX);
+
+  /**
+   * Number of times the solver connection has been re-established.
+   */
+  private final AtomicInteger solverReconnects = new AtomicInteger(0);
+
+  /**
+   * Set once the client connection has been made, so that the monitor
+   * starts watching it.
+   */
+  private volatile boolean clientWanted = false;
+
+  /**
+   * Set once the connection monitor has been started.
+   */
+  private boolean monitoring = false;
+
+  /**
+   * Set once the session is closed, to stop reconnecting.
+   */
+  private volatile boolean closed = false;
+
+  /**
+   * Time to wait for a lost connection to be re-established, in
+   * milliseconds.
+   */
+  private volatile long reconnectLimit = DEFAULT_RECONNECT_LIMIT;
+
+  /**
+   * Notified of lost and re-established connections, or {@code null}.
+   */
+  private volatile ConnectionListener listener = null;
+
+  /**
+   * Sends writes to the solver connection. Created once the solver is
+   * connected.
+   */
+  private volatile WritePipeline writes = null;
+
+  /**
+   * Maximum number of writes waiting to be sent.
+   */
+  private int writeQueueSize = WritePipeline.DEFAULT_QUEUE_SIZE;
+
+  /**
+   * Maximum number of Attribute values sent in one update.
+   */
+  private int writeBatchSize = WritePipeline.DEFAULT_BATCH_SIZE;
+
+  /**
+   * Time to wait for a batch of writes to fill, in milliseconds.
+   */
+  private long writeLinger = WritePipeline.DEFAULT_LINGER_TIME;
+
+  /**
+   * Cache of current snapshots, or {@code null} if caching is off.
+   */
+  private volatile SnapshotCache cache = null;
+
+  /**
+   * Local index of Identifiers, or {@code null} if it has not been loaded.
+   */
+  private volatile IdentifierIndex index = null;
+
+  /**
+   * Creates a new session. If either port is &lt; 0, the default of the
+   * world model library is used. Nothing is connected until
+   * {@link #connect(boolean)} or {@link #connectClient()} is called; the
+   * solver connection is made by {@link #connectSolver()} or the first
+   * write.
+   *
+   * @param wmHost
+   *          the hostname or IP address of the world model.
+   * @param origin
+   *          the origin string for Identifiers and Attributes sent to the
+   *          world model.
+   * @param solverPort
+   *          the solver port number.
+   * @param clientPort
+   *          the client port number.
+   */
+  public WorldModelSession(final String wmHost, final String origin,
+      final int solverPort, final int clientPort) {
+    this.cwc.setHost(wmHost);
+    this.swc.setHost(wmHost);
+    this.swc.setOriginString(origin);
+    if (solverPort >= 0) {
+      this.swc.setPort(solverPort);
+    }
+    if (clientPort >= 0) {
+      this.cwc.setPort(clientPort);
+    }
+    this.host = wmHost;
+    this.origin = origin;
+  }
+
+  /**
+   * Configures the write pipeline. Must be called before the solver is
+   * connected.
+   *
+   * @param queueSize
+   *          the maximum number of writes waiting to be sent.
+   * @param batchSize
+   *          the maximum number of Attribute values sent in one update.
+   * @param lingerTime
+   *          the time to wait for a batch of writes to fill, in milliseconds.
+   */
+  public void configureWrites(final int queueSize, final int batchSize,
+      final long lingerTime) {
+    this.writeQueueSize = queueSize;
+    this.writeBatchSize = batchSize;
+    this.writeLinger = lingerTime;
+  }
+
+  /**
+   * Connects the client connection and, if {@code withSolver} is
+   * {@code true}, the solver connection at the same time, blocking until
+   * both are ready. Without the solver, it is connected by the first write.
+   *
+   * @param withSolver
+   *          {@code true} to connect the solver connection as well.
+   * @return {@code true} if every connection succeeded, else {@code false}.
+   */
+  public boolean connect(final boolean withSolver) {
+    Future<Boolean> solver = withSolver ? this.connectSolver(null) : null;
+    boolean connected = this.connectClient();
+    if (solver != null) {
+      try {
+        connected &= solver.get().booleanValue();
+      } catch (ExecutionException ee) {
+        log.error("Unable to connect the solver.", ee.getCause());
+        connected = false;
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        connected = false;
+      }
+    }
+    return connected;
+  }
+
+  /**
+   * Connects the client connection, blocking until it is ready.
+   *
+   * @return {@code true} if the connection succeeded, else {@code false}.
+   */
+  public boolean connectClient() {
+    long start = LatencyStats.start();
+    if (!this.cwc.connect(CONNECT_TIMEOUT) || !this.awaitReady(false)) {
+      this.cwc.disconnect();
+      return false;
+    }
+    this.stats.record(LatencyStats.OP_CONNECT_CLIENT, start);
+    this.clientWanted = true;
+    this.startMonitor();
+    return true;
+  }
+
+  /**
+   * Connects the client connection on a helper thread.
+   *
+   * @param callback
+   *          notified of the outcome, or {@code null}.
+   * @return whether the connection succeeded, once it has finished.
+   */
+  public Future<Boolean> connectClient(final Callback<Boolean> callback) {
+    return this.execute(this.responseExecutor, new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        return Boolean.valueOf(WorldModelSession.this.connectClient());
+      }
+    }, callback);
+  }
+
+  /**
+   * Connects the solver connection, blocking until it is ready, and starts
+   * the write pipeline. Does nothing if the solver is already connected.
+   *
+   * @return {@code true} if the connection succeeded, else {@code false}.
+   */
+  public synchronized boolean connectSolver() {
+    if (this.writes != null) {
+      return true;
+    }
+    long start = LatencyStats.start();
+    if (!this.swc.connect(CONNECT_TIMEOUT) || !this.awaitReady(true)) {
+      this.swc.disconnect();
+      return false;
+    }
+    this.stats.record(LatencyStats.OP_CONNECT_SOLVER, start);
+    this.startMonitor();
+
+    WritePipeline pipeline = new WritePipeline(this.swc, this.attributes,
+        this.origin, this.writeQueueSize, this.writeBatchSize,
+        this.writeLinger);
+    pipeline.setStats(this.stats);
+    pipeline.setReconnector(this);
+    pipeline.setListener(new WritePipeline.WriteListener() {
+      @Override
+      public void writeSent(final WriteRequest request) {
+        WorldModelSession.this.written(request);
+      }
+    });
+    this.writes = pipeline;
+    return true;
+  }
+
+  /**
+   * Connects the solver connection on a helper thread.
+   *
+   * @param callback
+   *          notified of the outcome, or {@code null}.
+   * @return whether the connection succeeded, once it has finished.
+   */
+  public Future<Boolean> connectSolver(final Callback<Boolean> callback) {
+    return this.execute(this.responseExecutor, new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        return Boolean.valueOf(WorldModelSession.this.connectSolver());
+      }
+    }, callback);
+  }
+
+  /**
+   * Checks whether the solver connection has been made.
+   *
+   * @return {@code true} if writes can be sent without connecting first.
+   */
+  public boolean isSolverConnected() {
+    return this.writes != null;
+  }
+
+  /**
+   * Sets how long readers and writers wait for a lost connection to be
+   * re-established before failing. The connection monitor keeps trying
+   * after this time.
+   *
+   * @param limit
+   *          the time to wait, in milliseconds.
+   */
+  public void setReconnectLimit(final long limit) {
+    this.reconnectLimit = limit;
+  }
+
+  /**
+   * Sets the listener notified of lost and re-established connections.
+   *
+   * @param listener
+   *          the listener, or {@code null} for none.
+   */
+  public void setConnectionListener(final ConnectionListener listener) {
+    this.listener = listener;
+  }
+
+  @Override
+  public boolean awaitClient() throws InterruptedException {
+    if (this.cwc.isConnected()) {
+      return true;
+    }
+    synchronized (this.clientLock) {
+      return this.reconnect(false);
+    }
+  }
+
+  @Override
+  public boolean awaitSolver() throws InterruptedException {
+    if (this.swc.isConnectionLive()) {
+      return true;
+    }
+    synchronized (this.solverLock) {
+      return this.reconnect(true);
+    }
+  }
+
+  @Override
+  public int getSolverReconnects() {
+    return this.solverReconnects.get();
+  }
+
+  /**
+   * Re-establishes a lost connection, waiting a jittered, exponentially
+   * growing delay between attempts. The delay starts again from the initial
+   * value once the connection is back, but keeps growing across attempts
+   * that give up, so a world model that stays down is tried less and less
+   * often. The solver connection announces every Attribute name again once
+   * it is back.
+   *
+   * @param solver
+   *          {@code true} for the solver connection, {@code false} for the
+   *          client connection.
+   * @return {@code true} if the connection is up, or {@code false} if the
+   *         session was closed or the reconnect limit passed.
+   * @throws InterruptedException
+   *           if interrupted while waiting.
+   */
+  private boolean reconnect(final boolean solver) throws InterruptedException {
+    // Another thread may have reconnected while this one waited for the lock
+    if (solver ? this.swc.isConnectionLive() : this.cwc.isConnected()) {
+      return true;
+    }
+    String name = solver ? "solver" : "client";
+    log.warn("The {} connection was lost. Reconnecting.", name);
+    ConnectionListener notify = this.listener;
+    if (notify != null) {
+      notify.connectionLost(solver);
+    }
+    Backoff backoff = solver ? this.solverBackoff : this.clientBackoff;
+    long deadline = System.currentTimeMillis() + this.reconnectLimit;
+    while (!this.closed) {
+      boolean connected;
+      if (solver) {
+        this.swc.disconnect();
+        connected = this.swc.connect(CONNECT_TIMEOUT)
+            && this.awaitReady(true);
+      } else {
+        this.cwc.disconnect();
+        connected = this.cwc.connect(CONNECT_TIMEOUT)
+            && this.awaitReady(false);
+      }
+      if (connected) {
+        backoff.reset();
+        if (solver) {
+          this.attributes.reannounce();
+          this.solverReconnects.incrementAndGet();
+        }
+        log.info("Re-established the {} connection.", name);
+        notify = this.listener;
+        if (notify != null) {
+          notify.connectionRestored(solver);
+        }
+        return true;
+      }
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      long delay = backoff.next();
+      if (System.currentTimeMillis() + delay > deadline) {
+        break;
+      }
+      Thread.sleep(delay);
+    }
+    log.error("Unable to re-establish the {} connection.", name);
+    return false;
+  }
+
+  /**
+   * Starts checking the connections every {@link #HEALTH_INTERVAL}, if not
+   * already started.
+   */
+  private synchronized void startMonitor() {
+    if (this.monitoring || this.closed) {
+      return;
+    }
+    this.monitoring = true;
+    this.monitor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        WorldModelSession.this.checkHealth();
+      }
+    }, HEALTH_INTERVAL, HEALTH_INTERVAL, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Re-establishes any connection in use that has been lost, so that it is
+   * back before the next request needs it.
+   */
+  void checkHealth() {
+    try {
+      if (this.clientWanted && !this.cwc.isConnected()) {
+        this.awaitClient();
+      }
+      if (this.writes != null && !this.swc.isConnectionLive()) {
+        this.awaitSolver();
+      }
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    } catch (RuntimeException re) {
+      log.error("Unable to check the world model connections.", re);
+    }
+  }
+
+  /**
+   * Checks whether a failed read should be sent again, once the client
+   * connection is up.
+   *
+   * @param attempt
+   *          the number of times the read has been sent.
+   * @return {@code true} to send the read again.
+   */
+  boolean retryRead(final int attempt) {
+    if (attempt >= MAX_READ_ATTEMPTS || this.closed) {
+      return false;
+    }
+    try {
+      if (!this.awaitClient()) {
+        return false;
+      }
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+    log.info("Sending a failed read again (attempt {}).",
+        Integer.valueOf(attempt + 1));
+    return true;
+  }
+
+  /**
+   * Waits for a snapshot response, sending the request again after a
+   * failure as allowed by {@link #retryRead(int)}.
+   *
+   * @param first
+   *          the response to the request already sent.
+   * @param resend
+   *          sends the request again.
+   * @return the state.
+   * @throws Exception
+   *           if the last attempt failed.
+   */
+  private WorldState awaitState(final Response first,
+      final Callable<Response> resend) throws Exception {
+    Response response = first;
+    for (int attempt = 1;; ++attempt) {
+      try {
+        return response.get();
+      } catch (Exception e) {
+        if (!this.retryRead(attempt)) {
+          throw e;
+        }
+      }
+      response = resend.call();
+    }
+  }
+
+  /**
+   * Waits for a connection to finish its handshake. The world model library
+   * reports readiness only when asked, so it is checked after pauses that
+   * start at a millisecond and double up to {@link #MAX_READY_PAUSE}, which
+   * answers a fast handshake within a round trip or two.
+   *
+   * @param solver
+   *          {@code true} for the solver connection, {@code false} for the
+   *          client connection.
+   * @return {@code true} if the connection is ready, or {@code false} if
+   *         {@link #CONNECT_TIMEOUT} passed or the thread was interrupted.
+   */
+  private boolean awaitReady(final boolean solver) {
+    long deadline = System.nanoTime()
+        + TimeUnit.MILLISECONDS.toNanos(CONNECT_TIMEOUT);
+    long pause = 1;
+    while (!(solver ? this.swc.isConnectionLive() : this.cwc.isConnected())) {
+      if (System.nanoTime() - deadline >= 0) {
+        return false;
+      }
+      try {
+        Thread.sleep(pause);
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+      pause = Math.min(pause * 2, MAX_READY_PAUSE);
+    }
+    return true;
+  }
+
+  /**
+   * Keeps the cache and index current after a write was sent.
+   *
+   * @param request
+   *          the write.
+   */
+  void written(final WriteRequest request) {
+    SnapshotCache snapshots = this.cache;
+    if (snapshots != null) {
+      snapshots.invalidate(request.getIdentifier(),
+          request.getAttributeName());
+    }
+    IdentifierIndex ids = this.index;
+    if (ids != null) {
+      if (request.getType() == WritePipeline.Type.DELETE) {
+        if (request.getAttributeName() == null) {
+          ids.remove(request.getIdentifier());
+        }
+      } else if (request.getType() != WritePipeline.Type.EXPIRE) {
+        ids.add(request.getIdentifier());
+      }
+    }
+  }
+
+  /**
+   * Sends every queued write, stops the helper threads, and disconnects.
+   */
+  public void close() {
+    this.closed = true;
+    this.monitor.shutdownNow();
+    this.searchExecutor.shutdownNow();
+    this.responseExecutor.shutdownNow();
+    WritePipeline pipeline = this.writes;
+    if (pipeline != null) {
+      pipeline.shutdown();
+    }
+    this.cwc.disconnect();
+    this.swc.disconnect();
+  }
+
+  /**
+   * Searches for the Identifiers matching a regular expression.
+   *
+   * @param idRegex
+   *          the Identifier regular expression.
+   * @return the matching Identifiers.
+   */
+  public Future<String[]> search(final String idRegex) {
+    return this.search(idRegex, null);
+  }
+
+  /**
+   * Searches for the Identifiers matching a regular expression. If the
+   * Identifier index is loaded and can answer the expression, the world
+   * model is not asked.
+   *
+   * @param idRegex
+   *          the Identifier regular expression.
+   * @param callback
+   *          notified of the result, or {@code null}.
+   * @return the matching Identifiers.
+   */
+  public Future<String[]> search(final String idRegex,
+      final Callback<String[]> callback) {
+    final IdentifierIndex ids = this.index;
+    final String[] local = ids == null ? null : ids.search(idRegex);
+    if (local != null) {
+      return this.completed(local, callback);
+    }
+    return this.searchWorldModel(idRegex, callback);
+  }
+
+  /**
+   * Searches the world model for the Identifiers matching a regular
+   * expression, even if the Identifier index could answer it. The index may
+   * be missing Identifiers created by other clients since it was loaded, so
+   * anything that changes every match should search this way. The matches
+   * are added to the index, if one is loaded.
+   *
+   * @param idRegex
+   *          the Identifier regular expression.
+   * @param callback
+   *          notified of the result, or {@code null}.
+   * @return the matching Identifiers.
+   */
+  public Future<String[]> searchWorldModel(final String idRegex,
+      final Callback<String[]> callback) {
+    final IdentifierIndex ids = this.index;
+    return this.execute(this.searchExecutor, new Callable<String[]>() {
+      @Override
+      public String[] call() {
+        String[] matched = WorldModelSession.this.searchServer(idRegex);
+        if (ids != null && matched != null) {
+          for (String id : matched) {
+            ids.add(id);
+          }
+        }
+        return matched;
+      }
+    }, callback);
+  }
+
+  /**
+   * Loads the Identifier index with every Identifier in the world model,
+   * replacing any index already loaded.
+   *
+   * @return the new index.
+   */
+  public Future<IdentifierIndex> loadIndex() {
+    return this.execute(this.searchExecutor, new Callable<IdentifierIndex>() {
+      @Override
+      public IdentifierIndex call() {
+        String[] all = WorldModelSession.this.searchServer(".*");
+        IdentifierIndex loaded = new IdentifierIndex();
+        if (all != null) {
+          for (String id : all) {
+            loaded.add(id);
+          }
+        }
+        WorldModelSession.this.index = loaded;
+        return loaded;
+      }
+    }, null);
+  }
+
+  /**
+   * Searches the world model for Identifiers on the calling thread, which
+   * must be the search thread.
+   *
+   * @param idRegex
+   *          the Identifier regular expression.
+   * @return the matching Identifiers.
+   */
+  String[] searchServer(final String idRegex) {
+    for (int attempt = 1;; ++attempt) {
+      long start = LatencyStats.start();
+      String[] matched = this.cwc.searchId(idRegex);
+      this.stats.record(LatencyStats.OP_SEARCH, start);
+      if (matched != null || !this.retryRead(attempt)) {
+        return matched;
+      }
+    }
+  }
+
+  /**
+   * Requests the current values of the Attributes of the Identifiers
+   * matching a regular expression.
+   *
+   * @param idRegex
+   *          the Identifier regular expression.
+   * @param attributeRegexes
+   *          the Attribute regular expressions, or none for every Attribute.
+   * @return the current state.
+   */
+  public Future<WorldState> status(final String idRegex,
+      final String... attributeRegexes) {
+    return this.status(idRegex, attributeRegexes, null);
+  }
+
+  /**
+   * Requests the current values of the Attributes of the Identifiers
+   * matching a regular expression. Requests for a single Attribute
+   * expression are answered from the snapshot cache when it is on.
+   *
+   * @param idRegex
+   *          the Identifier regular expression.
+   * @param attributeRegexes
+   *          the Attribute regular expressions, or none for every Attribute.
+   * @param callback
+   *          notified of the result, or {@code null}.
+   * @return the current state.
+   */
+  public Future<WorldState> status(final String idRegex,
+      final String[] attributeRegexes, final Callback<WorldState> callback) {
+    final String[] attrs = attributeRegexes == null
+        || attributeRegexes.length == 0 ? ALL_ATTRIBUTES : attributeRegexes;
+    final SnapshotCache snapshots = attrs.length == 1 ? this.cache : null;
+    if (snapshots != null) {
+      WorldState cached = snapshots.get(idRegex, attrs[0]);
+      if (cached != null) {
+        return this.completed(cached, callback);
+      }
+    }
+    final long generation = snapshots == null ? 0 : snapshots
+        .getGeneration();
+    final long start = LatencyStats.start();
+    final Response response = this.cwc.getCurrentSnapshot(idRegex, attrs);
+    return this.execute(this.responseExecutor, new Callable<WorldState>() {
+      @Override
+      public WorldState call() throws Exception {
+        WorldState state = WorldModelSession.this.awaitState(response,
+            new Callable<Response>() {
+              @Override
+              public Response call() {
+                return WorldModelSession.this.cwc.getCurrentSnapshot(idRegex,
+                    attrs);
+              }
+            });
+        WorldModelSession.this.stats.record(
+            LatencyStats.OP_CURRENT_SNAPSHOT, start);
+        if (snapshots != null) {
+          snapshots.put(idRegex, attrs[0], state, generation);
+        }
+        WorldModelSession.this.learn(state);
+        return state;
+      }
+    }, callback);
+  }
+
+  /**
+   * Requests the values of the Attributes of the Identifiers matching a
+   * regular expression over a period of time. A start and end time of 0
+   * requests the most recent values, including expired ones.
+   *
+   * @param idRegex
+   *          the Identifier regular expression.
+   * @param start
+   *          the beginning of the period.
+   * @param end
+   *          the end of the period.
+   * @param attributeRegexes
+   *          the Attribute regular expressions, or none for every Attribute.
+   * @return the state over the period.
+   */
+  public Future<WorldState> snapshot(final String idRegex, final long start,
+      final long end, final String... attributeRegexes) {
+    return this.snapshot(idRegex, start, end, attributeRegexes, null);
+  }
+
+  /**
+   * Requests the values of the Attributes of the Identifiers matching a
+   * regular expression over a period of time. A start and end time that are
+   * equal request the values at that moment. Only the Attributes matching
+   * {@code attributeRegexes} are sent by the world model.
+   *
+   * @param idRegex
+   *          the Identifier regular expression.
+   * @param start
+   *          the beginning of the period.
+   * @param end
+   *          the end of the period.
+   * @param attributeRegexes
+   *          the Attribute regular expressions, or none for every Attribute.
+   * @param callback
+   *          notified of the result, or {@code null}.
+   * @return the state over the period.
+   */
+  public Future<WorldState> snapshot(final String idRegex, final long start,
+      final long end, final String[] attributeRegexes,
+      final Callback<WorldState> callback) {
+    final String[] attrs = attributeRegexes == null
+        || attributeRegexes.length == 0 ? ALL_ATTRIBUTES : attributeRegexes;
+    final long requested = LatencyStats.start();
+    final Response response = this.cwc.getSnapshot(idRegex, start, end,
+        attrs);
+    return this.execute(this.responseExecutor, new Callable<WorldState>() {
+      @Override
+      public WorldState call() throws Exception {
+        WorldState state = WorldModelSession.this.awaitState(response,
+            new Callable<Response>() {
+              @Override
+              public Response call() {
+                return WorldModelSession.this.cwc.getSnapshot(idRegex, start,
+                    end, attrs);
+              }
+            });
+        WorldModelSession.this.stats.record(LatencyStats.OP_SNAPSHOT,
+            requested);
+        return state;
+      }
+    }, callback);
+  }
+
+  /**
+   * Starts reading the history of the Identifiers matching a regular
+   * expression, in windows as described by {@link WindowedRange}. The first
+   * windows are requested before this returns.
+   *
+   * @param idRegex
+   *          the Identifier regular expression.
+   * @param from
+   *          the beginning of the history.
+   * @param to
+   *          the end of the history.
+   * @param window
+   *          the size of the first window, in milliseconds.
+   * @param prefetch
+   *          the number of windows to request ahead of the current one.
+   * @param maxStates
+   *          the maximum number of states buffered at once, apart from
+   *          states in transit when a window is cut off.
+   * @param attributeRegexes
+   *          the Attribute regular expressions, or none for every Attribute.
+   * @return the history, to be read by a single thread.
+   */
+  public WindowedRange history(final String idRegex, final long from,
+      final long to, final long window, final int prefetch,
+      final int maxStates, final String... attributeRegexes) {
+    WindowedRange range = new WindowedRange(this.cwc, idRegex, from, to,
+        window, prefetch, maxStates,
+        attributeRegexes.length == 0 ? ALL_ATTRIBUTES : attributeRegexes);
+    range.setStats(this.stats);
+    range.setReconnector(this);
+    return range;
+  }
+
+  /**
+   * Creates a watcher that streams over the client connection, recording
+   * the latency of each stream and resuming it after the connection is
+   * re-established.
+   *
+   * @param output
+   *          where the watcher prints changed values.
+   * @param interval
+   *          the time between renders, in milliseconds.
+   * @return the watcher, ready for {@link Watcher#watch(String, String[],
+   *         long)}.
+   */
+  public Watcher watcher(final ResultFormatter output, final long interval) {
+    Watcher watcher = new Watcher(this.cwc, output, interval);
+    watcher.setStats(this.stats);
+    watcher.setReconnector(this);
+    return watcher;
+  }
+
+  /**
+   * Reads the history of the Identifiers matching a regular expression on a
+   * helper thread, handing each state to {@code handler}.
+   *
+   * @param idRegex
+   *          the Identifier regular expression.
+   * @param from
+   *          the beginning of the history.
+   * @param to
+   *          the end of the history.
+   * @param handler
+   *          receives the states.
+   * @param attributeRegexes
+   *          the Attribute regular expressions, or none for every Attribute.
+   * @return the number of states read.
+   */
+  public Future<Long> history(final String idRegex, final long from,
+      final long to, final StateHandler handler,
+      final String... attributeRegexes) {
+    final WindowedRange range = this.history(idRegex, from, to,
+        WindowedRange.DEFAULT_WINDOW, WindowedRange.DEFAULT_PREFETCH,
+        WindowedRange.DEFAULT_MAX_STATES, attributeRegexes);
+    return this.execute(this.responseExecutor, new Callable<Long>() {
+      @Override
+      public Long call() throws Exception {
+        long numStates = 0;
+        for (WorldState state = range.next(); state != null; state = range
+            .next()) {
+          handler.state(state);
+          ++numStates;
+        }
+        return Long.valueOf(numStates);
+      }
+    }, null);
+  }
+
+  /**
+   * Creates an Identifier.
+   *
+   * @param identifier
+   *          the Identifier.
+   * @return the queued write.
+   * @throws InterruptedException
+   *           if interrupted while waiting for space in the write queue.
+   */
+  public WriteRequest createId(final String identifier)
+      throws InterruptedException {
+    return this.getWritesOrFail().submit(WriteRequest.create(identifier));
+  }
+
+  /**
+   * Sets an Attribute value with this session's origin and the current time.
+   *
+   * @param identifier
+   *          the Identifier.
+   * @param attribute
+   *          the Attribute name.
+   * @param data
+   *          the encoded value.
+   * @return the queued write.
+   * @throws InterruptedException
+   *           if interrupted while waiting for space in the write queue.
+   */
+  public WriteRequest update(final String identifier, final String attribute,
+      final byte[] data) throws InterruptedException {
+    Attribute value = new Attribute();
+    value.setAttributeName(attribute);
+    value.setCreationDate(System.currentTimeMillis());
+    value.setData(data);
+    value.setId(identifier);
+    value.setOriginName(this.origin);
+    return this.update(value);
+  }
+
+  /**
+   * Sets an Attribute value, keeping its origin and creation date.
+   *
+   * @param value
+   *          the value.
+   * @return the queued write.
+   * @throws InterruptedException
+   *           if interrupted while waiting for space in the write queue.
+   */
+  public WriteRequest update(final Attribute value)
+      throws InterruptedException {
+    return this.getWritesOrFail().submit(WriteRequest.update(value));
+  }
+
+  /**
+   * Expires an Identifier or one of its Attributes.
+   *
+   * @param identifier
+   *          the Identifier.
+   * @param attribute
+   *          the Attribute name, or {@code null} for the whole Identifier.
+   * @param time
+   *          the expiration time.
+   * @return the queued write.
+   * @throws InterruptedException
+   *           if interrupted while waiting for space in the write queue.
+   */
+  public WriteRequest expire(final String identifier, final String attribute,
+      final long time) throws InterruptedException {
+    return this.getWritesOrFail().submit(
+        WriteRequest.expire(identifier, attribute, time));
+  }
+
+  /**
+   * Deletes an Identifier or one of its Attributes.
+   *
+   * @param identifier
+   *          the Identifier.
+   * @param attribute
+   *          the Attribute name, or {@code null} for the whole Identifier.
+   * @return the queued write.
+   * @throws InterruptedException
+   *           if interrupted while waiting for space in the write queue.
+   */
+  public WriteRequest delete(final String identifier, final String attribute)
+      throws InterruptedException {
+    return this.getWritesOrFail().submit(
+        WriteRequest.delete(identifier, attribute));
+  }
+
+  /**
+   * Copies the current state, or the whole history, of one Identifier to
+   * another on a helper thread (see {@link CopyEngine}). The values keep
+   * their original origins.
+   *
+   * @param source
+   *          the Identifier to copy from.
+   * @param destination
+   *          the Identifier to copy to.
+   * @param withHistory
+   *          {@code true} to copy every state, {@code false} for only the
+   *          current one.
+   * @return the finished copy, whose counts tell how many states were read
+   *         and how many values were written and failed.
+   */
+  public Future<CopyEngine> copy(final String source,
+      final String destination, final boolean withHistory) {
+    return this.copy(source, destination, withHistory, System.out);
+  }
+
+  /**
+   * Copies the current state, or the whole history, of one Identifier to
+   * another on a helper thread, printing the progress of a history copy to
+   * {@code out}.
+   *
+   * @param source
+   *          the Identifier to copy from.
+   * @param destination
+   *          the Identifier to copy to.
+   * @param withHistory
+   *          {@code true} to copy every state, {@code false} for only the
+   *          current one.
+   * @param out
+   *          where progress is printed.
+   * @return the finished copy.
+   */
+  public Future<CopyEngine> copy(final String source,
+      final String destination, final boolean withHistory,
+      final PrintStream out) {
+    final CopyEngine engine = new CopyEngine(this.cwc,
+        this.getWritesOrFail(), CopyEngine.DEFAULT_BUFFER_SIZE, out);
+    engine.setStats(this.stats);
+    engine.setReconnector(this);
+    return this.execute(this.responseExecutor, new Callable<CopyEngine>() {
+      @Override
+      public CopyEngine call() throws Exception {
+        if (withHistory) {
+          engine.copy(source, destination);
+        } else {
+          engine.copyCurrent(source, destination);
+        }
+        return engine;
+      }
+    }, null);
+  }
+
+  /**
+   * Blocks until every write queued so far has been sent or has failed.
+   *
+   * @throws InterruptedException
+   *           if interrupted while waiting.
+   */
+  public void flush() throws InterruptedException {
+    WritePipeline pipeline = this.writes;
+    if (pipeline != null) {
+      pipeline.flush();
+    }
+  }
+
+  /**
+   * Adds the Identifiers in a result to the index, if it is loaded.
+   *
+   * @param state
+   *          the result, or {@code null}.
+   */
+  private void learn(final WorldState state) {
+    IdentifierIndex ids = this.index;
+    if (ids == null || state == null) {
+      return;
+    }
+    for (String id : state.getIdentifiers()) {
+      ids.add(id);
+    }
+  }
+
+  /**
+   * Returns the write pipeline, connecting the solver first if this is the
+   * first write.
+   *
+   * @return the write pipeline.
+   * @throws IllegalStateException
+   *           if the solver cannot be connected.
+   */
+  private WritePipeline getWritesOrFail() {
+    WritePipeline pipeline = this.writes;
+    if (pipeline == null) {
+      if (!this.connectSolver()) {
+        throw new IllegalStateException("Unable to connect the solver.");
+      }
+      pipeline = this.writes;
+    }
+    return pipeline;
+  }
+
+  /**
+   * Runs a task on an executor, notifying a callback when it finishes.
+   *
+   * @param executor
+   *          the executor.
+   * @param task
+   *          the task.
+   * @param callback
+   *          notified of the outcome, or {@code null}.
+   * @return the task's future.
+   */
+  private <T> Future<T> execute(final ExecutorService executor,
+      final Callable<T> task, final Callback<T> callback) {
+    NotifyingTask<T> future = new NotifyingTask<T>(task, callback);
+    executor.execute(future);
+    return future;
+  }
+
+  /**
+   * Returns an already-completed future, notifying a callback on the calling
+   * thread.
+   *
+   * @param result
+   *          the result.
+   * @param callback
+   *          notified of the result, or {@code null}.
+   * @return the completed future.
+   */
+  private <T> Future<T> completed(final T result, final Callback<T> callback) {
+    NotifyingTask<T> future = new NotifyingTask<T>(new Callable<T>() {
+      @Override
+      public T call() {
+        return result;
+      }
+    }, callback);
+    future.run();
+    return future;
+  }
+
+  /**
+   * A task that notifies a {@link Callback} when it finishes.
+   *
+   * @param <T>
+   *          the result type.
+   */
+  private static final class NotifyingTask<T> extends FutureTask<T> {
+    /**
+     * Notified when the task finishes, or {@code null}.
+     */
+    private final Callback<T> callback;
+
+    /**
+     * Creates a new task.
+     *
+     * @param task
+     *          the work.
+     * @param callback
+     *          notified when it finishes, or {@code null}.
+     */
+    NotifyingTask(final Callable<T> task, final Callback<T> callback) {
+      super(task);
+      this.callback = callback;
+    }
+
+    @Override
+    protected void done() {
+      if (this.callback == null) {
+        return;
+      }
+      T result;
+      try {
+        result = this.get();
+      } catch (CancellationException ce) {
+        this.callback.failed(ce);
+        return;
+      } catch (InterruptedException ie) {
+        // Cannot happen once done
+        this.callback.failed(ie);
+        return;
+      } catch (ExecutionException ee) {
+        this.callback.failed(ee.getCause() instanceof Exception ? (Exception) ee
+            .getCause() : ee);
+        return;
+      }
+      try {
+        this.callback.completed(result);
+      } catch (RuntimeException re) {
+        log.error("Callback failed.", re);
+      }
+    }
+  }
+
+  /**
+   * Creates named daemon threads so that helper threads never keep the
+   * application running.
+   *
+   * @author Robert Moore
+   */
+  private static final class DaemonThreadFactory implements ThreadFactory {
+    /**
+     * Name given to every thread.
+     */
+    private final String name;
+
+    /**
+     * Creates a new factory.
+     *
+     * @param name
+     *          the name of the threads.
+     */
+    DaemonThreadFactory(final String name) {
+      this.name = name;
+    }
+
+    @Override
+    public Thread newThread(final Runnable r) {
+      Thread t = new Thread(r, this.name);
+      t.setDaemon(true);
+      return t;
+    }
+  }
+
+  /**
+   * Returns the client connection, for operations this class does not
+   * provide.
+   *
+   * @return the client connection.
+   */
+  public ClientWorldConnection getClientConnection() {
+    return this.cwc;
+  }
+
+  /**
+   * Returns the solver connection, for operations this class does not
+   * provide.
+   *
+   * @return the solver connection.
+   */
+  public SolverWorldConnection getSolverConnection() {
+    return this.swc;
+  }
+
+  /**
+   * Returns the Attribute names announced on the solver connection.
+   *
+   * @return the Attribute registry.
+   */
+  public AttributeRegistry getAttributes() {
+    return this.attributes;
+  }
+
+  /**
+   * Returns the write pipeline.
+   *
+   * @return the write pipeline, or {@code null} if the solver has not been
+   *         connected.
+   */
+  public WritePipeline getWrites() {
+    return this.writes;
+  }
+
+  /**
+   * Returns the host name or IP address of the world model.
+   * 
+   * @return the world model host.
+   */
+  public String getHost() {
+    return this.host;
+  }
+
+  /**
+   * Returns the origin of this session's writes.
+   *
+   * @return the origin.
+   */
+  public String getOrigin() {
+    return this.origin;
+  }
+
+  /**
+   * Returns the latencies of the operations made during this session.
+   *
+   * @return the latency statistics.
+   */
+  public LatencyStats getStats() {
+    return this.stats;
+  }
+
+  /**
+   * Returns the snapshot cache.
+   *
+   * @return the cache, or {@code null} if caching is off.
+   */
+  public SnapshotCache getCache() {
+    return this.cache;
+  }
+
+  /**
+   * Sets the snapshot cache used by {@link #status(String, String...)}.
+   *
+   * @param cache
+   *          the cache, or {@code null} to turn caching off.
+   */
+  public void setCache(final SnapshotCache cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * Returns the Identifier index.
+   *
+   * @return the index, or {@code null} if it has not been loaded.
+   */
+  public IdentifierIndex getIndex() {
+    return this.index;
+  }
+
+  /**
+   * Sets the Identifier index used by {@link #search(String)}.
+   *
+   * @param index
+   *          the index, or {@code null} to stop using it.
+   */
+  public void setIndex(final IdentifierIndex index) {
+    this.index = index;
+  }
+}
@@ -0,0 +1,1030 @@
+/*
+ * Owl Platform Command Line Browser
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.wmbrowse.cli;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.owlplatform.worldmodel.Attribute;
+import com.owlplatform.worldmodel.solver.SolverWorldConnection;
+
+/**
+ * A bounded queue of writes in front of a solver connection. Writes are
+ * submitted from any thread and sent, in order, by a single sender thread,
+ * which groups consecutive Attribute updates with the same origin into
+ * messages of up to {@code batchSize} values, waiting up to
+ * {@code lingerTime} milliseconds for a batch to fill.
+ * When the queue is full, {@link #submit(WriteRequest)} blocks until the
+ * sender catches up.
+ * <p>
+ * With a {@link Reconnector}, a write that fails because the solver
+ * connection was lost is sent again once the connection is back. The
+ * protocol does not acknowledge writes, so writes sent in the last
+ * {@link #REPLAY_WINDOW} milliseconds before a reconnection may have been
+ * lost with the old connection; they are sent again, in order, before
+ * anything else. Every write is idempotent, so a repeat is harmless.
+ * </p>
+ * 
+ * @author Robert Moore
+ */
+public class WritePipeline {
+
+  /**
+   * Logger for this class.
+   */
+  private static final Logger log = LoggerFactory
+      .getLogger(WritePipeline.class);
+
+  /**
+   * Default maximum number of writes waiting to be sent.
+   */
+  public static final int DEFAULT_QUEUE_SIZE = 4096;
+
+  /**
+   * Default maximum number of Attribute values sent in one update.
+   */
+  public static final int DEFAULT_BATCH_SIZE = 256;
+
+  /**
+   * Default time to wait for a batch to fill, in milliseconds.
+   */
+  public static final long DEFAULT_LINGER_TIME = 5l;
+
+  /**
+   * How long a sent write may still be lost with its connection, in
+   * milliseconds.
+   */
+  public static final long REPLAY_WINDOW = 5000l;
+
+  /**
+   * Largest number of sent writes kept for sending again after a
+   * reconnection.
+   */
+  private static final int MAX_REPLAY = 65536;
+
+  /**
+   * Number of times a write is sent before it fails.
+   */
+  private static final int MAX_WRITE_ATTEMPTS = 5;
+
+  /**
+   * The kinds of writes that can be sent to the world model.
+   * 
+   * @author Robert Moore
+   */
+  public static enum Type {
+    /**
+     * Create or update an Attribute value.
+     */
+    UPDATE,
+    /**
+     * Create an Identifier.
+     */
+    CREATE,
+    /**
+     * Expire an Identifier or one of its Attributes.
+     */
+    EXPIRE,
+    /**
+     * Delete an Identifier or one of its Attributes.
+     */
+    DELETE
+  }
+
+  /**
+   * A single write and its outcome. As a {@link Future}, its result is
+   * whether the write was sent successfully; a queued write cannot be
+   * cancelled.
+   * 
+   * @author Robert Moore
+   */
+  public static class WriteRequest implements Future<Boolean> {
+    /**
+     * The kind of write.
+     */
+    final Type type;
+
+    /**
+     * The Identifier written.
+     */
+    final String identifier;
+
+    /**
+     * The Attribute name, or {@code null} if the whole Identifier is
+     * expired/deleted.
+     */
+    final String attributeName;
+
+    /**
+     * The Attribute value for updates.
+     */
+    final Attribute value;
+
+    /**
+     * The expiration time for expires.
+     */
+    final long time;
+
+    /**
+     * Released once the write has been sent or has failed.
+     */
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    /**
+     * Whether the write was sent successfully.
+     */
+    private volatile boolean success = false;
+
+    /**
+     * When the write was sent. Only used by the sender thread.
+     */
+    long sentAt = 0;
+
+    /**
+     * Creates a new request.
+     * 
+     * @param type
+     *          the kind of write.
+     * @param identifier
+     *          the Identifier written.
+     * @param attributeName
+     *          the Attribute name, if any.
+     * @param value
+     *          the Attribute value, if any.
+     * @param time
+     *          the expiration time, if any.
+     */
+    private WriteRequest(final Type type, final String identifier,
+        final String attributeName, final Attribute value, final long time) {
+      this.type = type;
+      this.identifier = identifier;
+      this.attributeName = attributeName;
+      this.value = value;
+      this.time = time;
+    }
+
+    /**
+     * Creates a request to update an Attribute value. The value's origin is
+     * used for the update.
+     * 
+     * @param value
+     *          the Attribute value.
+     * @return the new request.
+     */
+    public static WriteRequest update(final Attribute value) {
+      return new WriteRequest(Type.UPDATE, value.getId(),
+          value.getAttributeName(), value, 0l);
+    }
+
+    /**
+     * Creates a request to create an Identifier.
+     * 
+     * @param identifier
+     *          the Identifier.
+     * @return the new request.
+     */
+    public static WriteRequest create(final String identifier) {
+      return new WriteRequest(Type.CREATE, identifier, null, null, 0l);
+    }
+
+    /**
+     * Creates a request to expire an Identifier or one of its Attributes.
+     * 
+     * @param identifier
+     *          the Identifier.
+     * @param attributeName
+     *          the Attribute name, or {@code null} for the whole Identifier.
+     * @param time
+     *          the expiration time.
+     * @return the new request.
+     */
+    public static WriteRequest expire(final String identifier,
+        final String attributeName, final long time) {
+      return new WriteRequest(Type.EXPIRE, identifier, attributeName, null,
+          time);
+    }
+
+    /**
+     * Creates a request to delete an Identifier or one of its Attributes.
+     * 
+     * @param identifier
+     *          the Identifier.
+     * @param attributeName
+     *          the Attribute name, or {@code null} for the whole Identifier.
+     * @return the new request.
+     */
+    public static WriteRequest delete(final String identifier,
+        final String attributeName) {
+      return new WriteRequest(Type.DELETE, identifier, attributeName, null, 0l);
+    }
+
+    /**
+     * Returns the kind of write.
+     * 
+     * @return the kind of write.
+     */
+    public Type getType() {
+      return this.type;
+    }
+
+    /**
+     * Returns the Identifier written.
+     * 
+     * @return the Identifier.
+     */
+    public String getIdentifier() {
+      return this.identifier;
+    }
+
+    /**
+     * Returns the Attribute name written.
+     * 
+     * @return the Attribute name, or {@code null} if the write applies to the
+     *         whole Identifier.
+     */
+    public String getAttributeName() {
+      return this.attributeName;
+    }
+
+    /**
+     * Marks the request as finished.
+     * 
+     * @param success
+     *          whether it was sent successfully.
+     */
+    void complete(final boolean success) {
+      this.success = success;
+      this.done.countDown();
+    }
+
+    /**
+     * Blocks until the request has been sent or has failed.
+     * 
+     * @return {@code true} if the write was sent successfully.
+     * @throws InterruptedException
+     *           if interrupted while waiting.
+     */
+    public boolean await() throws InterruptedException {
+      this.done.await();
+      return this.success;
+    }
+
+    @Override
+    public Boolean get() throws InterruptedException {
+      return Boolean.valueOf(this.await());
+    }
+
+    @Override
+    public Boolean get(final long timeout, final TimeUnit unit)
+        throws InterruptedException, TimeoutException {
+      if (!this.done.await(timeout, unit)) {
+        throw new TimeoutException("Timed out waiting for \"" + this
+            + "\" to be sent.");
+      }
+      return Boolean.valueOf(this.success);
+    }
+
+    @Override
+    public boolean cancel(final boolean mayInterruptIfRunning) {
+      return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return false;
+    }
+
+    /**
+     * Returns whether the request has finished.
+     * 
+     * @return {@code true} if the request was sent or has failed.
+     */
+    @Override
+    public boolean isDone() {
+      return this.done.getCount() == 0;
+    }
+
+    /**
+     * Returns whether the request was sent successfully. Only meaningful once
+     * {@link #isDone()} is {@code true}.
+     * 
+     * @return {@code true} if the write was sent successfully.
+     */
+    public boolean isSuccess() {
+      return this.success;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      sb.append(this.type).append(' ').append(this.identifier);
+      if (this.attributeName != null) {
+        sb.append('/').append(this.attributeName);
+      }
+      return sb.toString();
+    }
+  }
+
+  /**
+   * Notified on the sender thread after each write is sent successfully.
+   * 
+   * @author Robert Moore
+   */
+  public static interface WriteListener {
+    /**
+     * Called after a write was sent.
+     * 
+     * @param request
+     *          the write.
+     */
+    void writeSent(WriteRequest request);
+  }
+
+  /**
+   * Marks the end of the queue when shutting down.
+   */
+  private static final WriteRequest POISON = WriteRequest.create("");
+
+  /**
+   * The solver connection written to. Only used by the sender thread.
+   */
+  private final SolverWorldConnection swc;
+
+  /**
+   * Announces Attribute names before their values are sent.
+   */
+  private final AttributeRegistry attributes;
+
+  /**
+   * The default origin of the solver connection, restored after sending
+   * values with other origins.
+   */
+  private final String defaultOrigin;
+
+  /**
+   * Writes waiting to be sent.
+   */
+  private final BlockingQueue<WriteRequest> queue;
+
+  /**
+   * Maximum number of Attribute values in one update.
+   */
+  private final int batchSize;
+
+  /**
+   * Time to wait for a batch to fill, in milliseconds.
+   */
+  private final long lingerTime;
+
+  /**
+   * The thread that sends writes to the world model.
+   */
+  private final Thread sender;
+
+  /**
+   * Number of writes submitted.
+   */
+  private final AtomicLong numSubmitted = new AtomicLong(0);
+
+  /**
+   * Number of writes sent successfully.
+   */
+  private final AtomicLong numSucceeded = new AtomicLong(0);
+
+  /**
+   * Number of writes that failed.
+   */
+  private final AtomicLong numFailed = new AtomicLong(0);
+
+  /**
+   * Number of update messages sent, each carrying one or more values.
+   */
+  private final AtomicLong numBatches = new AtomicLong(0);
+
+  /**
+   * Number of times the origin of the solver connection was changed.
+   */
+  private final AtomicLong numOriginChanges = new AtomicLong(0);
+
+  /**
+   * The origin currently set on the solver connection. Only used by the
+   * sender thread.
+   */
+  private String connectionOrigin;
+
+  /**
+   * Guards {@link #outstanding}.
+   */
+  private final Object outstandingLock = new Object();
+
+  /**
+   * Number of writes submitted but not yet finished.
+   */
+  private long outstanding = 0;
+
+  /**
+   * Notified of successful writes, or {@code null}.
+   */
+  private volatile WriteListener listener = null;
+
+  /**
+   * Where the latency of each message to the solver connection is recorded,
+   * or {@code null} if it is not.
+   */
+  private volatile LatencyStats stats = null;
+
+  /**
+   * Set once {@link #shutdown()} is called. Guarded by {@link #gate}.
+   */
+  private volatile boolean closed = false;
+
+  /**
+   * Submitting threads hold the read lock while they check {@link #closed}
+   * and queue a write, and {@link #shutdown()} holds the write lock while it
+   * sets it, so no write can be queued behind the shutdown marker.
+   */
+  private final ReadWriteLock gate = new ReentrantReadWriteLock();
+
+  /**
+   * Re-establishes the solver connection before failed writes are sent
+   * again, or {@code null} if they are not.
+   */
+  private volatile Reconnector reconnector = null;
+
+  /**
+   * The reconnection count of {@link #reconnector} when its writes were
+   * last replayed. Only used by the sender thread.
+   */
+  private int reconnects = 0;
+
+  /**
+   * Writes sent in the last {@link #REPLAY_WINDOW} milliseconds, oldest
+   * first. Only used by the sender thread.
+   */
+  private final ArrayDeque<WriteRequest> recent =
+      new ArrayDeque<WriteRequest>();
+
+  /**
+   * Creates and starts a new write pipeline.
+   * 
+   * @param swc
+   *          the solver connection to write to.
+   * @param attributes
+   *          the Attribute names announced on {@code swc}.
+   * @param defaultOrigin
+   *          the origin string configured on {@code swc}.
+   * @param queueSize
+   *          the maximum number of writes waiting to be sent.
+   * @param batchSize
+   *          the maximum number of Attribute values sent in one update.
+   * @param lingerTime
+   *          how long to wait for a batch to fill, in milliseconds.
+   */
+  public WritePipeline(final SolverWorldConnection swc,
+      final AttributeRegistry attributes, final String defaultOrigin,
+      final int queueSize, final int batchSize, final long lingerTime) {
+    this.swc = swc;
+    this.attributes = attributes;
+    this.defaultOrigin = defaultOrigin;
+    this.connectionOrigin = defaultOrigin;
+    this.queue = new LinkedBlockingQueue<WriteRequest>(Math.max(1, queueSize));
+    this.batchSize = Math.max(1, batchSize);
+    this.lingerTime = Math.max(0, lingerTime);
+    this.sender = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        WritePipeline.this.sendLoop();
+      }
+    }, "Write Pipeline");
+    this.sender.setDaemon(true);
+    this.sender.start();
+  }
+
+  /**
+   * Sets the listener that is notified after each successful write.
+   * 
+   * @param listener
+   *          the listener, or {@code null} for none.
+   */
+  public void setListener(final WriteListener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Sets where the latency of each message to the world model is recorded.
+   * 
+   * @param stats
+   *          the statistics, or {@code null} to stop recording.
+   */
+  public void setStats(final LatencyStats stats) {
+    this.stats = stats;
+  }
+
+  /**
+   * Sets what re-establishes the solver connection when writes fail.
+   * 
+   * @param reconnector
+   *          re-establishes the connection, or {@code null} to fail writes
+   *          instead.
+   */
+  public void setReconnector(final Reconnector reconnector) {
+    if (reconnector != null) {
+      this.reconnects = reconnector.getSolverReconnects();
+    }
+    this.reconnector = reconnector;
+  }
+
+  /**
+   * Queues a write, blocking while the queue is full.
+   * 
+   * @param request
+   *          the write.
+   * @return {@code request}, for convenience.
+   * @throws InterruptedException
+   *           if interrupted while waiting for space in the queue.
+   * @throws IllegalStateException
+   *           if the pipeline has been shut down.
+   */
+  public WriteRequest submit(final WriteRequest request)
+      throws InterruptedException {
+    this.gate.readLock().lock();
+    try {
+      if (this.closed) {
+        throw new IllegalStateException("Write pipeline has been shut down.");
+      }
+      synchronized (this.outstandingLock) {
+        ++this.outstanding;
+      }
+      this.numSubmitted.incrementAndGet();
+      try {
+        this.queue.put(request);
+      } catch (InterruptedException ie) {
+        synchronized (this.outstandingLock) {
+          --this.outstanding;
+          this.outstandingLock.notifyAll();
+        }
+        this.numSubmitted.decrementAndGet();
+        throw ie;
+      }
+    } finally {
+      this.gate.readLock().unlock();
+    }
+    return request;
+  }
+
+  /**
+   * Blocks until every write submitted so far has been sent or has failed.
+   * 
+   * @throws InterruptedException
+   *           if interrupted while waiting.
+   */
+  public void flush() throws InterruptedException {
+    synchronized (this.outstandingLock) {
+      while (this.outstanding > 0) {
+        this.outstandingLock.wait();
+      }
+    }
+  }
+
+  /**
+   * Stops accepting writes, sends every queued write, and stops the sender
+   * thread.
+   */
+  public void shutdown() {
+    this.gate.writeLock().lock();
+    try {
+      if (this.closed) {
+        return;
+      }
+      this.closed = true;
+    } finally {
+      this.gate.writeLock().unlock();
+    }
+    try {
+      this.queue.put(POISON);
+      this.sender.join();
+    } catch (InterruptedException ie) {
+      log.warn("Interrupted while draining the write pipeline.");
+      this.sender.interrupt();
+    }
+  }
+
+  /**
+   * Takes writes from the queue and sends them until shut down.
+   */
+  void sendLoop() {
+    List<WriteRequest> batch = new ArrayList<WriteRequest>(this.batchSize);
+    boolean running = true;
+    while (running) {
+      try {
+        WriteRequest first = this.queue.take();
+        if (first == POISON) {
+          break;
+        }
+        batch.add(first);
+        // Linger so that a burst of updates goes out as one message
+        long deadline = System.currentTimeMillis() + this.lingerTime;
+        while (batch.size() < this.batchSize) {
+          long remaining = deadline - System.currentTimeMillis();
+          WriteRequest next = remaining > 0 ? this.queue.poll(remaining,
+              TimeUnit.MILLISECONDS) : this.queue.poll();
+          if (next == null) {
+            break;
+          }
+          if (next == POISON) {
+            running = false;
+            break;
+          }
+          batch.add(next);
+        }
+        this.send(batch);
+        batch.clear();
+      } catch (InterruptedException ie) {
+        running = false;
+      } catch (RuntimeException re) {
+        log.error("Unexpected exception while sending writes.", re);
+        this.finish(batch, false);
+        batch.clear();
+      }
+    }
+    // Anything left was abandoned
+    this.finish(batch, false);
+    for (WriteRequest req = this.queue.poll(); req != null; req = this.queue
+        .poll()) {
+      if (req != POISON) {
+        this.finish(req, false);
+      }
+    }
+  }
+
+  /**
+   * Sends a batch of writes in the order they were submitted. Each run of
+   * consecutive updates with the same origin is sent as a single message, so
+   * the connection's origin only changes where the origin of the submitted
+   * updates does. The connection's own origin is restored before any other
+   * write and whenever the queue runs empty.
+   * 
+   * @param batch
+   *          the writes to send.
+   */
+  private void send(final List<WriteRequest> batch) {
+    this.replayIfReconnected();
+    List<WriteRequest> run = new ArrayList<WriteRequest>();
+    String runOrigin = null;
+    for (WriteRequest req : batch) {
+      if (req.type == Type.UPDATE) {
+        String origin = req.value.getOriginName();
+        if (origin == null) {
+          origin = this.defaultOrigin;
+        }
+        if (!run.isEmpty() && !equal(origin, runOrigin)) {
+          this.sendUpdates(run, runOrigin);
+          run = new ArrayList<WriteRequest>();
+        }
+        runOrigin = origin;
+        run.add(req);
+        continue;
+      }
+      if (!run.isEmpty()) {
+        this.sendUpdates(run, runOrigin);
+        run = new ArrayList<WriteRequest>();
+      }
+      this.useOrigin(this.defaultOrigin);
+      boolean success = this.sendOne(req);
+      for (int attempt = 1; !success && this.retry(attempt); ++attempt) {
+        this.useOrigin(this.defaultOrigin);
+        success = this.sendOne(req);
+      }
+      this.finish(req, success);
+    }
+    if (!run.isEmpty()) {
+      this.sendUpdates(run, runOrigin);
+    }
+    if (this.queue.isEmpty()) {
+      // Idle, so leave the connection with its own origin
+      this.useOrigin(this.defaultOrigin);
+    }
+  }
+
+  /**
+   * Sends a creation, expiration, or deletion.
+   * 
+   * @param req
+   *          the write.
+   * @return {@code true} if it was sent.
+   */
+  private boolean sendOne(final WriteRequest req) {
+    boolean success;
+    String operation;
+    long start = LatencyStats.start();
+    switch (req.type) {
+    case CREATE:
+      success = this.swc.createId(req.identifier);
+      operation = LatencyStats.OP_CREATE;
+      break;
+    case EXPIRE:
+      success = req.attributeName == null ? this.swc.expire(req.identifier,
+          req.time) : this.swc.expire(req.identifier, req.time,
+          req.attributeName);
+      operation = LatencyStats.OP_EXPIRE;
+      break;
+    default:
+      success = req.attributeName == null ? this.swc.delete(req.identifier)
+          : this.swc.delete(req.identifier, req.attributeName);
+      operation = LatencyStats.OP_DELETE;
+      break;
+    }
+    this.record(operation, start);
+    return success;
+  }
+
+  /**
+   * Checks whether a failed write should be sent again. Waits for the
+   * solver connection if it was lost, and replays the writes that may have
+   * been lost with it.
+   * 
+   * @param attempt
+   *          the number of times the write has been sent.
+   * @return {@code true} to send the write again.
+   */
+  private boolean retry(final int attempt) {
+    Reconnector retry = this.reconnector;
+    if (retry == null || attempt >= MAX_WRITE_ATTEMPTS) {
+      return false;
+    }
+    try {
+      if (this.swc.isConnectionLive()
+          && retry.getSolverReconnects() == this.reconnects) {
+        // Failed for some other reason
+        return false;
+      }
+      if (!retry.awaitSolver()) {
+        return false;
+      }
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+    this.replayIfReconnected();
+    return true;
+  }
+
+  /**
+   * Sends the recently sent writes again if the solver connection has been
+   * re-established since they were sent.
+   */
+  private void replayIfReconnected() {
+    Reconnector retry = this.reconnector;
+    if (retry == null) {
+      return;
+    }
+    int current = retry.getSolverReconnects();
+    if (current == this.reconnects) {
+      return;
+    }
+    this.reconnects = current;
+    long cutoff = System.currentTimeMillis() - REPLAY_WINDOW;
+    int numReplayed = 0;
+    for (WriteRequest req : this.recent) {
+      if (req.sentAt < cutoff) {
+        continue;
+      }
+      if (req.type == Type.UPDATE) {
+        String origin = req.value.getOriginName();
+        List<Attribute> value = Collections.singletonList(req.value);
+        this.attributes.announceFor(value);
+        this.useOrigin(origin == null ? this.defaultOrigin : origin);
+        this.swc.updateAttributes(value);
+      } else {
+        this.useOrigin(this.defaultOrigin);
+        this.sendOne(req);
+      }
+      ++numReplayed;
+    }
+    this.recent.clear();
+    log.info("Sent {} recent writes again after reconnecting.",
+        Integer.valueOf(numReplayed));
+  }
+
+  /**
+   * Sends a group of Attribute updates that share an origin as one message.
+   * 
+   * @param updates
+   *          the updates.
+   * @param origin
+   *          their origin.
+   */
+  private void sendUpdates(final List<WriteRequest> updates,
+      final String origin) {
+    List<Attribute> values = new ArrayList<Attribute>(updates.size());
+    for (WriteRequest req : updates) {
+      values.add(req.value);
+    }
+    this.attributes.announceFor(values);
+    this.useOrigin(origin);
+    long start = LatencyStats.start();
+    boolean success = this.swc.updateAttributes(values);
+    this.record(LatencyStats.OP_UPDATE, start);
+    for (int attempt = 1; !success && this.retry(attempt); ++attempt) {
+      this.useOrigin(origin);
+      start = LatencyStats.start();
+      success = this.swc.updateAttributes(values);
+      this.record(LatencyStats.OP_UPDATE, start);
+    }
+    this.numBatches.incrementAndGet();
+    this.finish(updates, success);
+  }
+
+  /**
+   * Records the latency of a message if statistics are being kept.
+   * 
+   * @param operation
+   *          the {@link LatencyStats} operation name.
+   * @param start
+   *          when the message was sent.
+   */
+  private void record(final String operation, final long start) {
+    LatencyStats latencies = this.stats;
+    if (latencies != null) {
+      latencies.record(operation, start);
+    }
+  }
+
+  /**
+   * Sets the origin of the solver connection if it is not already set.
+   * 
+   * @param origin
+   *          the origin.
+   */
+  private void useOrigin(final String origin) {
+    if (!equal(origin, this.connectionOrigin)) {
+      this.swc.setOriginString(origin);
+      this.connectionOrigin = origin;
+      this.numOriginChanges.incrementAndGet();
+    }
+  }
+
+  /**
+   * Records the outcome of several writes.
+   * 
+   * @param requests
+   *          the writes.
+   * @param success
+   *          whether they were sent successfully.
+   */
+  private void finish(final List<WriteRequest> requests, final boolean success) {
+    for (WriteRequest req : requests) {
+      this.finish(req, success);
+    }
+  }
+
+  /**
+   * Records the outcome of a write.
+   * 
+   * @param request
+   *          the write.
+   * @param success
+   *          whether it was sent successfully.
+   */
+  private void finish(final WriteRequest request, final boolean success) {
+    if (request.isDone()) {
+      return;
+    }
+    if (success) {
+      this.numSucceeded.incrementAndGet();
+      if (this.reconnector != null) {
+        this.remember(request);
+      }
+      WriteListener notify = this.listener;
+      if (notify != null) {
+        notify.writeSent(request);
+      }
+    } else {
+      this.numFailed.incrementAndGet();
+      log.warn("Unable to send " + request + ".");
+    }
+    request.complete(success);
+    synchronized (this.outstandingLock) {
+      --this.outstanding;
+      this.outstandingLock.notifyAll();
+    }
+  }
+
+  /**
+   * Keeps a sent write for sending again if the connection is re-established
+   * within {@link #REPLAY_WINDOW}, and forgets older writes.
+   * 
+   * @param request
+   *          the sent write.
+   */
+  private void remember(final WriteRequest request) {
+    long now = System.currentTimeMillis();
+    request.sentAt = now;
+    this.recent.add(request);
+    while (this.recent.size() > MAX_REPLAY
+        || this.recent.peek().sentAt < now - REPLAY_WINDOW) {
+      this.recent.poll();
+    }
+  }
+
+  /**
+   * Null-safe String equality.
+   * 
+   * @param a
+   *          a String or {@code null}.
+   * @param b
+   *          a String or {@code null}.
+   * @return {@code true} if both are {@code null} or equal.
+   */
+  private static boolean equal(final String a, final String b) {
+    return a == null ? b == null : a.equals(b);
+  }
+
+  /**
+   * Returns the number of writes submitted.
+   * 
+   * @return the number of writes submitted.
+   */
+  public long getNumSubmitted() {
+    return this.numSubmitted.get();
+  }
+
+  /**
+   * Returns the number of writes sent successfully.
+   * 
+   * @return the number of writes that succeeded.
+   */
+  public long getNumSucceeded() {
+    return this.numSucceeded.get();
+  }
+
+  /**
+   * Returns the number of writes that failed.
+   * 
+   * @return the number of writes that failed.
+   */
+  public long getNumFailed() {
+    return this.numFailed.get();
+  }
+
+  /**
+   * Returns the number of update messages sent.
+   * 
+   * @return the number of update batches.
+   */
+  public long getNumBatches() {
+    return this.numBatches.get();
+  }
+
+  /**
+   * Returns the number of times the solver connection's origin was changed
+   * to send updates from another origin, or changed back.
+   * 
+   * @return the number of origin changes.
+   */
+  public long getNumOriginChanges() {
+    return this.numOriginChanges.get();
+  }
+
+  /**
+   * Returns a one-line summary of the pipeline's accounting.
+   * 
+   * @return the summary.
+   */
+  public String getSummary() {
+    return "Writes: " + this.numSubmitted.get() + " submitted, "
+        + this.numSucceeded.get() + " sent, " + this.numFailed.get()
+        + " failed, " + this.numBatches.get() + " update batches, "
+        + this.numOriginChanges.get() + " origin changes.";
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Owl Platform Command Line Browser
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.wmbrowse.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link ParsedCommand}.
+ *
+ * @author Robert Moore
+ */
+public class ParsedCommandTest {
+
+  /**
+   * The first word is the name and the rest are the arguments, however much
+   * whitespace separates them.
+   */
+  @Test
+  public void testNameAndArgs() {
+    ParsedCommand command = ParsedCommand
+        .parse("  status\t^room\\.42$   --attr  temp.* ");
+    assertEquals("status", command.getName());
+    assertEquals(Arrays.asList("^room\\.42$", "--attr", "temp.*"),
+        command.getArgs());
+    assertEquals("  status\t^room\\.42$   --attr  temp.* ",
+        command.getText());
+  }
+
+  /**
+   * An empty command has an empty name and no arguments.
+   */
+  @Test
+  public void testEmpty() {
+    ParsedCommand command = ParsedCommand.parse("   ");
+    assertEquals("", command.getName());
+    assertTrue(command.getArgs().isEmpty());
+    assertTrue(ParsedCommand.tokenize(null).isEmpty());
+  }
+
+  /**
+   * Quoted words keep their whitespace and the other kind of quote, and lose
+   * their own quotes.
+   */
+  @Test
+  public void testQuotes() {
+    assertEquals(Arrays.asList("update", "room 42", "it's", "say \"hi\""),
+        ParsedCommand
+            .tokenize("update \"room 42\" \"it's\" 'say \"hi\"'"));
+    assertEquals(Arrays.asList(""), ParsedCommand.tokenize("\"\""));
+  }
+
+  /**
+   * A quote ends an unquoted word.
+   */
+  @Test
+  public void testQuoteEndsWord() {
+    assertEquals(Arrays.asList("abc", "d e"),
+        ParsedCommand.tokenize("abc\"d e\""));
+  }
+
+  /**
+   * A quote with no closing quote is skipped.
+   */
+  @Test
+  public void testUnmatchedQuote() {
+    assertEquals(Arrays.asList("search", "room"),
+        ParsedCommand.tokenize("search \"room"));
+  }
+
+  /**
+   * The arguments may be changed by a handler.
+   */
+  @Test
+  public void testArgsModifiable() {
+    ParsedCommand command = ParsedCommand.parse("rm --regex a.*");
+    List<String> args = command.getArgs();
+    assertTrue(args.remove("--regex"));
+    assertEquals(Arrays.asList("a.*"), command.getArgs());
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Owl Platform Command Line Browser
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.wmbrowse.cli;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Calendar;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link TimeParser}.
+ *
+ * @author Robert Moore
+ */
+public class TimeParserTest {
+
+  /**
+   * The current time passed to the parser.
+   */
+  private static final long NOW = 1341100800000l;
+
+  /**
+   * Returns a local time.
+   *
+   * @param year
+   *          the year.
+   * @param month
+   *          the month, starting at 1 for January.
+   * @param day
+   *          the day of the month.
+   * @param hour
+   *          the hour of the day.
+   * @param minute
+   *          the minute.
+   * @param second
+   *          the second.
+   * @return the time in milliseconds since the epoch.
+   */
+  private static long localTime(final int year, final int month,
+      final int day, final int hour, final int minute, final int second) {
+    Calendar cal = Calendar.getInstance();
+    cal.clear();
+    cal.set(year, month - 1, day, hour, minute, second);
+    return cal.getTimeInMillis();
+  }
+
+  /**
+   * "now" is the current time, in any case.
+   */
+  @Test
+  public void testNow() {
+    assertEquals(NOW, TimeParser.parseTime("now", NOW));
+    assertEquals(NOW, TimeParser.parseTime("NOW", NOW));
+  }
+
+  /**
+   * Dates are local midnight, and the month is not off by one.
+   */
+  @Test
+  public void testDate() {
+    assertEquals(localTime(2012, 7, 1, 0, 0, 0),
+        TimeParser.parseTime("20120701", NOW));
+    assertEquals(localTime(2012, 12, 31, 0, 0, 0),
+        TimeParser.parseTime("20121231", NOW));
+  }
+
+  /**
+   * Dates with a time of day use a 24-hour clock.
+   */
+  @Test
+  public void testDateTime() {
+    assertEquals(localTime(2012, 7, 1, 13, 45, 30),
+        TimeParser.parseTime("20120701134530", NOW));
+  }
+
+  /**
+   * Other numbers are milliseconds since the epoch.
+   */
+  @Test
+  public void testEpochMillis() {
+    assertEquals(0l, TimeParser.parseTime("0", NOW));
+    assertEquals(1341100800123l, TimeParser.parseTime("1341100800123", NOW));
+  }
+
+  /**
+   * A leading minus sign is a duration before the current time.
+   */
+  @Test
+  public void testRelative() {
+    assertEquals(NOW - 7l * 24 * 60 * 60 * 1000,
+        TimeParser.parseTime("-7d", NOW));
+    assertEquals(NOW - 90l * 60 * 1000, TimeParser.parseTime("-90m", NOW));
+    assertEquals(NOW - 500, TimeParser.parseTime("-500", NOW));
+  }
+
+  /**
+   * Dates are checked strictly.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidDate() {
+    TimeParser.parseTime("20121301", NOW);
+  }
+
+  /**
+   * Words other than "now" are rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidTime() {
+    TimeParser.parseTime("yesterday", NOW);
+  }
+
+  /**
+   * A missing time is rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testEmptyTime() {
+    TimeParser.parseTime("", NOW);
+  }
+
+  /**
+   * Every unit is applied, and no unit means milliseconds.
+   */
+  @Test
+  public void testDurationUnits() {
+    assertEquals(250l, TimeParser.parseDuration("250"));
+    assertEquals(250l, TimeParser.parseDuration("250ms"));
+    assertEquals(5000l, TimeParser.parseDuration("5s"));
+    assertEquals(2l * 60 * 1000, TimeParser.parseDuration("2m"));
+    assertEquals(3l * 60 * 60 * 1000, TimeParser.parseDuration("3h"));
+    assertEquals(24l * 60 * 60 * 1000, TimeParser.parseDuration("1d"));
+    assertEquals(2l * 7 * 24 * 60 * 60 * 1000,
+        TimeParser.parseDuration("2w"));
+  }
+
+  /**
+   * Unknown units are rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidUnit() {
+    TimeParser.parseDuration("5y");
+  }
+
+  /**
+   * A duration must start with a number.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testMissingAmount() {
+    TimeParser.parseDuration("s");
+  }
+}
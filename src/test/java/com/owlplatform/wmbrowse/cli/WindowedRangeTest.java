@@ -0,0 +1,219 @@
+/*
+ * Owl Platform Command Line Browser
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.wmbrowse.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.owlplatform.worldmodel.Attribute;
+import com.owlplatform.worldmodel.client.WorldState;
+
+/**
+ * Tests for {@link WindowedRange} against a {@link StandInServer}: cutting
+ * off a window that returns too many states, and requesting a window again
+ * after the world model restarts. Several Identifiers share every
+ * timestamp, so a window that restarts at a timestamp must skip exactly the
+ * states it already returned there.
+ *
+ * @author Robert Moore
+ */
+public class WindowedRangeTest {
+
+  /**
+   * Number of Identifiers written.
+   */
+  private static final int NUM_IDS = 5;
+
+  /**
+   * Number of timestamps each Identifier has a value at.
+   */
+  private static final int NUM_TIMES = 60;
+
+  /**
+   * Creation date of the first value.
+   */
+  private static final long FIRST = 1341100800000l;
+
+  /**
+   * Time between the values of an Identifier, in milliseconds.
+   */
+  private static final long STEP = 1000l;
+
+  /**
+   * Name of the Attribute written.
+   */
+  private static final String ATTRIBUTE = "reading";
+
+  /**
+   * The server being read from.
+   */
+  private StandInServer server;
+
+  /**
+   * The session reading from the server.
+   */
+  private WorldModelSession session;
+
+  /**
+   * Starts a server on free ports, fills it, and connects a session to it.
+   *
+   * @throws IOException
+   *           if the server cannot be started.
+   */
+  @Before
+  public void setUp() throws IOException {
+    this.server = startServer(0, 0);
+    this.session = new WorldModelSession("localhost", "test",
+        this.server.getSolverPort(), this.server.getClientPort());
+    this.session.setReconnectLimit(30000l);
+    assertTrue(this.session.connectClient());
+  }
+
+  /**
+   * Closes the session and stops the server.
+   */
+  @After
+  public void tearDown() {
+    this.session.close();
+    this.server.stop();
+  }
+
+  /**
+   * Starts a server and writes {@link #NUM_IDS} Identifiers with a value at
+   * each of {@link #NUM_TIMES} timestamps.
+   *
+   * @param solverPort
+   *          the solver port, or 0 for any free port.
+   * @param clientPort
+   *          the client port, or 0 for any free port.
+   * @return the started server.
+   * @throws IOException
+   *           if the server cannot be started.
+   */
+  private static StandInServer startServer(final int solverPort,
+      final int clientPort) throws IOException {
+    StandInServer server = new StandInServer(solverPort, clientPort);
+    StandInStore store = server.getStore();
+    for (int t = 0; t < NUM_TIMES; ++t) {
+      for (int i = 0; i < NUM_IDS; ++i) {
+        store.update("sensor." + i, ATTRIBUTE, "test", FIRST + t * STEP,
+            new byte[] { (byte) t }, true);
+      }
+    }
+    // Slow enough that a window is still being sent when it is cut off
+    server.setRateLimit(500);
+    server.start();
+    return server;
+  }
+
+  /**
+   * Starts reading the whole history.
+   *
+   * @param maxStates
+   *          the maximum number of states buffered at once.
+   * @return the range.
+   */
+  private WindowedRange readAll(final int maxStates) {
+    return this.session.history("sensor\\..*", FIRST, FIRST + NUM_TIMES
+        * STEP, NUM_TIMES * STEP, 0, maxStates, ATTRIBUTE);
+  }
+
+  /**
+   * Reads states from a range, checking that no value is returned twice
+   * and that creation dates never go backwards.
+   *
+   * @param range
+   *          the range.
+   * @param limit
+   *          the largest number of states to read.
+   * @param seen
+   *          the values already read, as "Identifier@creation date".
+   * @param last
+   *          the creation date of the last value already read.
+   * @return the creation date of the last value read.
+   * @throws Exception
+   *           if the range cannot be read.
+   */
+  private static long read(final WindowedRange range, final int limit,
+      final Set<String> seen, final long last) throws Exception {
+    long latest = last;
+    WorldState state;
+    for (int n = 0; n < limit && (state = range.next()) != null; ++n) {
+      for (String id : state.getIdentifiers()) {
+        for (Attribute attr : state.getState(id)) {
+          assertTrue("Out of order at " + attr.getCreationDate(),
+              attr.getCreationDate() >= latest);
+          latest = attr.getCreationDate();
+          assertTrue("Returned twice: " + id + "@" + latest,
+              seen.add(id + "@" + latest));
+        }
+      }
+    }
+    return latest;
+  }
+
+  /**
+   * A window cut off after its share of the limit is requested again from
+   * the last time read, without losing or repeating the states that share
+   * that time.
+   *
+   * @throws Exception
+   *           if the range cannot be read.
+   */
+  @Test
+  public void testSplit() throws Exception {
+    Set<String> seen = new HashSet<String>();
+    // 12 states per window, so windows are cut off part way through the
+    // 5 states at a timestamp
+    read(this.readAll(12), Integer.MAX_VALUE, seen, Long.MIN_VALUE);
+    assertEquals(NUM_IDS * NUM_TIMES, seen.size());
+  }
+
+  /**
+   * A window that fails because the world model restarted is requested
+   * again once the session reconnects, skipping the states already read.
+   *
+   * @throws Exception
+   *           if the range cannot be read.
+   */
+  @Test
+  public void testResend() throws Exception {
+    WindowedRange range = this.readAll(WindowedRange.DEFAULT_MAX_STATES);
+    Set<String> seen = new HashSet<String>();
+    // Stop part way through a timestamp
+    long last = read(range, 2 * NUM_IDS + 2, seen, Long.MIN_VALUE);
+    assertEquals(2 * NUM_IDS + 2, seen.size());
+
+    int solverPort = this.server.getSolverPort();
+    int clientPort = this.server.getClientPort();
+    this.server.stop();
+    this.server = startServer(solverPort, clientPort);
+
+    read(range, Integer.MAX_VALUE, seen, last);
+    assertEquals(NUM_IDS * NUM_TIMES, seen.size());
+  }
+}